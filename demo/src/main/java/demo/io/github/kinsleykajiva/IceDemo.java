@@ -2,19 +2,47 @@ package demo.io.github.kinsleykajiva;
 
 import io.github.kinsleykajiva.ice.GLibContext;
 import io.github.kinsleykajiva.ice.NiceAgent;
+import io.github.kinsleykajiva.ice.NiceAgentListener;
 import io.github.kinsleykajiva.ice.NiceBindings;
 
+import java.time.Instant;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
 /**
  * Demo application showing libnice Java binding usage.
+ * <p>
+ * Also prints the time from process start to the first gathered candidate, which
+ * {@code StartupBenchmark} compares across the JVM, an AOT cache and a native image.
  */
 public class IceDemo {
     public static void main(String[] args) {
+        long processStartMillis = ProcessHandle.current().info().startInstant()
+            .map(Instant::toEpochMilli).orElse(System.currentTimeMillis());
         System.out.println("Starting libnice Java Demo...");
+        CountDownLatch gathered = new CountDownLatch(1);
 
         try (GLibContext glib = new GLibContext();
              NiceAgent agent = new NiceAgent(glib.getContext(), NiceBindings.NICE_COMPATIBILITY_RFC5245)) {
 
             glib.start();
+            agent.addListener(new NiceAgentListener() {
+                private boolean first = true;
+
+                @Override
+                public void onNewCandidate(int streamId, int componentId, String foundation) {
+                    if (first) {
+                        first = false;
+                        System.out.println("Startup to first gathered candidate: "
+                            + (System.currentTimeMillis() - processStartMillis) + " ms");
+                    }
+                }
+
+                @Override
+                public void onGatheringDone(int streamId) {
+                    gathered.countDown();
+                }
+            });
 
             int streamId = agent.addStream(1); // 1 component (e.g., RTP)
             System.out.println("Added stream with ID: " + streamId);
@@ -24,8 +52,9 @@ public class IceDemo {
             System.out.println("Gathering candidates...");
             if (agent.gatherCandidates(streamId)) {
                 System.out.println("Candidate gathering started.");
-                // In a real app, you would wait for signals/callbacks here
-                Thread.sleep(5000);
+                if (!gathered.await(5, TimeUnit.SECONDS)) {
+                    System.out.println("Gathering not done after 5s.");
+                }
             } else {
                 System.err.println("Failed to start candidate gathering.");
             }
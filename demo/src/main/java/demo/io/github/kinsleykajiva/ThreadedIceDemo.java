@@ -49,7 +49,9 @@ public class ThreadedIceDemo {
     }
 
     private static void runAgent(String name) {
-        try (GLibContext glib = new GLibContext();
+        // Declared first so it is closed last: upcall stubs must outlive the agent that calls them.
+        try (Arena callbackArena = NativeResourceTracker.newSharedArena(name + " callbacks");
+             GLibContext glib = new GLibContext();
              NiceAgent agent = new NiceAgent(glib.getContext(), NiceBindings.NICE_COMPATIBILITY_RFC5245)) {
 
             System.out.println("[" + name + "] Thread started. Initializing agent...");
@@ -58,7 +60,6 @@ public class ThreadedIceDemo {
 
             AgentContext ctx = new AgentContext(name, agent);
             // We use the address of a shared memory segment as a unique ID for callbacks
-            Arena callbackArena = Arena.ofShared();
             MemorySegment idPtr = callbackArena.allocate(ValueLayout.JAVA_LONG);
             long id = idPtr.address();
             contexts.put(id, ctx);
@@ -120,7 +121,6 @@ public class ThreadedIceDemo {
             glib.popThreadDefault();
             System.out.println("[" + name + "] Agent shutting down.");
             exitLatch.countDown();
-            callbackArena.close();
         } catch (Exception e) {
             System.err.println("[" + name + "] Fatal Error: " + e.getMessage());
             e.printStackTrace();
@@ -0,0 +1,282 @@
+package demo.io.github.kinsleykajiva.bench;
+
+import io.github.kinsleykajiva.ice.GLibContext;
+import io.github.kinsleykajiva.ice.LatencyHistogram;
+import io.github.kinsleykajiva.ice.NiceAgent;
+import io.github.kinsleykajiva.ice.NiceAgentListener;
+import io.github.kinsleykajiva.ice.NiceBindings;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.FunctionDescriptor;
+import java.lang.foreign.Linker;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ObjIntConsumer;
+import java.util.function.UnaryOperator;
+
+/**
+ * Shared helpers for the benchmark mains: latency summaries, in-process agent pairs and SDP rewriting.
+ */
+final class BenchSupport {
+
+    /** Peers keyed by native agent address, for {@link #onReceive}. */
+    private static final Map<Long, Peer> RECEIVED = new ConcurrentHashMap<>();
+    private static final MemorySegment RECEIVE_STUB;
+
+    static {
+        try {
+            RECEIVE_STUB = Linker.nativeLinker().upcallStub(
+                MethodHandles.lookup().findStatic(BenchSupport.class, "onReceive",
+                    MethodType.methodType(void.class, MemorySegment.class, int.class, int.class, int.class, MemorySegment.class, MemorySegment.class)),
+                FunctionDescriptor.ofVoid(ValueLayout.ADDRESS, ValueLayout.JAVA_INT, ValueLayout.JAVA_INT, ValueLayout.JAVA_INT, ValueLayout.ADDRESS, ValueLayout.ADDRESS),
+                Arena.global());
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private BenchSupport() {}
+
+    /**
+     * @return The value at quantile {@code q} (0.0 - 1.0) of an ascending array, or 0 if empty.
+     */
+    static long percentile(long[] sorted, double q) {
+        if (sorted.length == 0) return 0;
+        int index = (int) Math.ceil(q * sorted.length) - 1;
+        return sorted[Math.clamp(index, 0, sorted.length - 1)];
+    }
+
+    /**
+     * Formats count and p50/p90/p99/max of nanosecond samples in milliseconds.
+     */
+    static String summarize(String label, long[] nanos) {
+        long[] sorted = nanos.clone();
+        Arrays.sort(sorted);
+        return String.format("%-28s n=%-6d p50=%8.2fms p90=%8.2fms p99=%8.2fms max=%8.2fms",
+            label, sorted.length,
+            percentile(sorted, 0.50) / 1e6, percentile(sorted, 0.90) / 1e6,
+            percentile(sorted, 0.99) / 1e6, sorted.length == 0 ? 0.0 : sorted[sorted.length - 1] / 1e6);
+    }
+
+    static long[] toArray(Collection<Long> values) {
+        return values.stream().mapToLong(Long::longValue).toArray();
+    }
+
+    /**
+     * @return The first IPv4 UDP host candidate of component 1 in a libnice SDP, or null.
+     */
+    static InetSocketAddress hostCandidate(String sdp) {
+        for (String line : sdp.split("\r?\n")) {
+            // a=candidate:<foundation> <component> <transport> <priority> <ip> <port> typ <type>
+            String[] f = line.split(" ");
+            if (line.startsWith("a=candidate:") && f.length >= 8 && f[1].equals("1")
+                && f[2].equalsIgnoreCase("UDP") && f[7].equals("host") && !f[4].contains(":")) {
+                return new InetSocketAddress(f[4], Integer.parseInt(f[5]));
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return {@code sdp} with all candidate lines replaced by a single host candidate at {@code address}.
+     */
+    static String withOnlyCandidate(String sdp, InetSocketAddress address) {
+        String candidate = "a=candidate:1 1 UDP 2130706431 " + address.getAddress().getHostAddress()
+            + " " + address.getPort() + " typ host";
+        StringBuilder out = new StringBuilder();
+        boolean written = false;
+        for (String line : sdp.split("\r?\n")) {
+            if (line.startsWith("a=candidate:")) {
+                if (!written) {
+                    out.append(candidate).append('\n');
+                    written = true;
+                }
+            } else {
+                out.append(line).append('\n');
+            }
+        }
+        return written ? out.toString() : out + candidate + "\n";
+    }
+
+    /**
+     * @return The number of candidate lines in an SDP.
+     */
+    static long candidateCount(String sdp) {
+        return sdp.lines().filter(line -> line.startsWith("a=candidate:")).count();
+    }
+
+    private static void onReceive(MemorySegment agent, int streamId, int componentId, int len, MemorySegment buf, MemorySegment data) {
+        Peer peer = RECEIVED.get(agent.address());
+        if (peer != null) {
+            peer.receivedBytes.add(len);
+            peer.agent.captureReceived(streamId, componentId, buf, len);
+            LatencyHistogram latency = peer.receiveLatency;
+            if (latency != null && len >= Long.BYTES) {
+                // Senders that measure latency put their System.nanoTime() in the first 8 bytes
+                latency.record(System.nanoTime() - buf.reinterpret(len).get(ValueLayout.JAVA_LONG_UNALIGNED, 0));
+            }
+        }
+    }
+
+    /**
+     * One side of a pair: an agent with a single one-component stream, a receive counter and its milestone timestamps.
+     */
+    static final class Peer implements NiceAgentListener {
+        final NiceAgent agent;
+        final int streamId;
+        final long createdNanos = System.nanoTime();
+        final CountDownLatch gathered = new CountDownLatch(1);
+        final CountDownLatch connected = new CountDownLatch(1);
+        final CountDownLatch ready = new CountDownLatch(1);
+        final CountDownLatch failedLatch = new CountDownLatch(1);
+        final LongAdder receivedBytes = new LongAdder();
+        /** Set to record one-way latency of packets carrying a send timestamp. */
+        volatile LatencyHistogram receiveLatency;
+        volatile long gatheredNanos;
+        volatile long connectedNanos;
+        volatile long readyNanos;
+        volatile long failedNanos;
+        volatile boolean failed;
+
+        /**
+         * @param configure Called with the agent and its stream ID before gathering starts.
+         */
+        Peer(GLibContext context, boolean controlling, ObjIntConsumer<NiceAgent> configure) {
+            this.agent = new NiceAgent(context.getContext(), NiceBindings.NICE_COMPATIBILITY_RFC5245);
+            agent.setControllingMode(controlling);
+            agent.disableExtraFeatures();
+            agent.addListener(this);
+            this.streamId = agent.addStream(1);
+            RECEIVED.put(agent.getHandle().address(), this);
+            agent.attachReceiver(streamId, 1, context.getContext(), RECEIVE_STUB, MemorySegment.NULL);
+            configure.accept(agent, streamId);
+        }
+
+        boolean gather() {
+            return agent.gatherCandidates(streamId);
+        }
+
+        void close() {
+            RECEIVED.remove(agent.getHandle().address());
+            agent.close();
+        }
+
+        @Override
+        public void onGatheringDone(int streamId) {
+            gatheredNanos = System.nanoTime();
+            gathered.countDown();
+        }
+
+        @Override
+        public void onComponentStateChanged(int streamId, int componentId, int state) {
+            long now = System.nanoTime();
+            if (state == NiceBindings.NICE_COMPONENT_STATE_CONNECTED && connectedNanos == 0) {
+                connectedNanos = now;
+                connected.countDown();
+            } else if (state == NiceBindings.NICE_COMPONENT_STATE_READY && readyNanos == 0) {
+                if (connectedNanos == 0) {
+                    connectedNanos = now;
+                    connected.countDown();
+                }
+                readyNanos = now;
+                ready.countDown();
+            } else if (state == NiceBindings.NICE_COMPONENT_STATE_FAILED) {
+                failed = true;
+                failedNanos = now;
+                failedLatch.countDown();
+                connected.countDown();
+                ready.countDown();
+            }
+        }
+    }
+
+    /**
+     * Two agents connected by exchanging SDP in-process, the way ThreadedIceDemo does.
+     */
+    static final class AgentPair implements AutoCloseable {
+        final Peer controlling;
+        final Peer controlled;
+        volatile long exchangedNanos;
+        private boolean gathered;
+
+        private AgentPair(Peer controlling, Peer controlled) {
+            this.controlling = controlling;
+            this.controlled = controlled;
+        }
+
+        /**
+         * Creates both agents and gathers, without exchanging SDP yet.
+         */
+        static AgentPair gather(GLibContext contextA, GLibContext contextB, ObjIntConsumer<NiceAgent> configure, long timeoutMs)
+                throws InterruptedException {
+            AgentPair pair = new AgentPair(new Peer(contextA, true, configure), new Peer(contextB, false, configure));
+            pair.controlling.gather();
+            pair.controlled.gather();
+            pair.gathered = pair.controlling.gathered.await(timeoutMs, TimeUnit.MILLISECONDS)
+                && pair.controlled.gathered.await(timeoutMs, TimeUnit.MILLISECONDS);
+            return pair;
+        }
+
+        /**
+         * Creates both agents, gathers, exchanges SDP and returns without waiting for READY.
+         */
+        static AgentPair start(GLibContext contextA, GLibContext contextB, ObjIntConsumer<NiceAgent> configure, long timeoutMs)
+                throws InterruptedException {
+            AgentPair pair = gather(contextA, contextB, configure, timeoutMs);
+            pair.exchange();
+            return pair;
+        }
+
+        boolean isGathered() {
+            return gathered;
+        }
+
+        void exchange() {
+            exchange(UnaryOperator.identity(), UnaryOperator.identity());
+        }
+
+        /**
+         * Exchanges SDP, letting the caller rewrite each side's offer before the other parses it.
+         *
+         * @param controllingToControlled Applied to the controlling agent's SDP.
+         * @param controlledToControlling Applied to the controlled agent's SDP.
+         */
+        void exchange(UnaryOperator<String> controllingToControlled, UnaryOperator<String> controlledToControlling) {
+            if (!gathered) return;
+            String sdpA = controllingToControlled.apply(controlling.agent.generateLocalSdp());
+            String sdpB = controlledToControlling.apply(controlled.agent.generateLocalSdp());
+            exchangedNanos = System.nanoTime();
+            controlling.agent.parseRemoteSdp(sdpB);
+            controlled.agent.parseRemoteSdp(sdpA);
+        }
+
+        boolean awaitReady(long timeoutMs) throws InterruptedException {
+            return controlling.ready.await(timeoutMs, TimeUnit.MILLISECONDS)
+                && controlled.ready.await(timeoutMs, TimeUnit.MILLISECONDS)
+                && !controlling.failed && !controlled.failed;
+        }
+
+        /**
+         * @return Nanoseconds from SDP exchange until both sides were READY.
+         */
+        long timeToReady() {
+            return Math.max(controlling.readyNanos, controlled.readyNanos) - exchangedNanos;
+        }
+
+        @Override
+        public void close() {
+            controlling.close();
+            controlled.close();
+        }
+    }
+}
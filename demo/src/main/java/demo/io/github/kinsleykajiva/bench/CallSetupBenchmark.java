@@ -0,0 +1,340 @@
+package demo.io.github.kinsleykajiva.bench;
+
+import io.github.kinsleykajiva.ice.GLibContext;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Exchanger;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.ToLongFunction;
+
+/**
+ * Call-storm benchmark: launches waves of concurrent agent pairs over loopback and records how
+ * time-to-gathering-done, time-to-CONNECTED and time-to-READY degrade as the wave grows, together
+ * with peak threads, peak RSS and process CPU time per wave.
+ * <p>
+ * Each side of a pair runs on its own virtual thread and hands its SDP to the other through an
+ * {@link Exchanger}, as {@code ThreadedIceDemo} does, so setups really overlap. Times are measured
+ * from the moment the pair is launched. Results go to stdout (or {@code out}) as JSON or CSV for
+ * comparing releases; a human-readable summary goes to stderr. Large waves need a raised open-file
+ * limit ({@code ulimit -n}), since every agent holds its own sockets.
+ * <p>
+ * Usage: {@code CallSetupBenchmark [waves=10,100,1000,5000] [contexts=4] [json|csv] [out=-] [timeoutSeconds=60]}
+ */
+public class CallSetupBenchmark {
+
+    /** Per-wave result; latency arrays hold nanoseconds of the pairs or peers that got that far. */
+    private record WaveResult(int pairs, long wallNanos, long cpuNanos, int peakThreads, long rssBeforeKb,
+                              long peakRssKb, int failed, int timedOut, long[] gathering, long[] connected, long[] ready) {
+    }
+
+    public static void main(String[] args) throws Exception {
+        int[] waves = args.length > 0
+            ? Arrays.stream(args[0].split(",")).mapToInt(Integer::parseInt).toArray()
+            : new int[]{10, 100, 1000, 5000};
+        int contextCount = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        String format = args.length > 2 ? args[2] : "json";
+        String out = args.length > 3 ? args[3] : "-";
+        int timeoutSeconds = args.length > 4 ? Integer.parseInt(args[4]) : 60;
+
+        List<GLibContext> contexts = new ArrayList<>();
+        for (int i = 0; i < contextCount; i++) {
+            GLibContext context = new GLibContext();
+            context.start();
+            contexts.add(context);
+        }
+        List<WaveResult> results = new ArrayList<>();
+        try {
+            for (int pairs : waves) {
+                WaveResult result = runWave(contexts, pairs, timeoutSeconds);
+                results.add(result);
+                printSummary(result);
+            }
+        } finally {
+            contexts.forEach(GLibContext::close);
+        }
+
+        String report = format.equals("csv") ? toCsv(results) : toJson(results, contextCount);
+        if (out.equals("-")) {
+            System.out.print(report);
+        } else {
+            Files.writeString(Path.of(out), report);
+            System.err.println("Results written to " + out);
+        }
+    }
+
+    private static WaveResult runWave(List<GLibContext> contexts, int pairs, int timeoutSeconds) throws InterruptedException {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        threads.resetPeakThreadCount();
+        long rssBefore = readStatusKb("VmRSS");
+        AtomicLong peakRss = new AtomicLong(rssBefore);
+        Thread sampler = Thread.ofPlatform().daemon().name("rss-sampler").start(() -> {
+            while (!Thread.currentThread().isInterrupted()) {
+                peakRss.accumulateAndGet(readStatusKb("VmRSS"), Math::max);
+                try {
+                    Thread.sleep(20);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        });
+
+        List<PairRun> runs = new ArrayList<>(pairs);
+        CountDownLatch finished = new CountDownLatch(pairs * 2);
+        long cpuBefore = processCpuNanos();
+        long start = System.nanoTime();
+        for (int i = 0; i < pairs; i++) {
+            PairRun run = new PairRun(contexts.get(i % contexts.size()), contexts.get((i + 1) % contexts.size()),
+                timeoutSeconds, finished);
+            run.launch();
+            runs.add(run);
+        }
+        // Each side waits at most three timeouts (gathering, exchange, READY); whatever is still running then counts as timed out.
+        boolean allFinished = finished.await(timeoutSeconds * 3L + 5, TimeUnit.SECONDS);
+        long wall = System.nanoTime() - start;
+        long cpu = processCpuNanos() - cpuBefore;
+        int peakThreads = threads.getPeakThreadCount();
+        sampler.interrupt();
+        sampler.join();
+        peakRss.accumulateAndGet(readStatusKb("VmRSS"), Math::max);
+        if (!allFinished) {
+            // Stragglers still use their agents; stop them before any agent is closed.
+            runs.forEach(PairRun::interrupt);
+        }
+        for (PairRun run : runs) {
+            run.join();
+        }
+
+        List<Long> gathering = new ArrayList<>();
+        List<Long> connected = new ArrayList<>();
+        List<Long> ready = new ArrayList<>();
+        int failed = 0;
+        int timedOut = 0;
+        for (PairRun run : runs) {
+            for (BenchSupport.Peer peer : run.peers()) {
+                if (peer != null && peer.gatheredNanos != 0) gathering.add(peer.gatheredNanos - run.launchedNanos);
+            }
+            if (run.failed()) {
+                failed++;
+                continue;
+            }
+            long connectedAt = run.latest(p -> p.connectedNanos);
+            long readyAt = run.latest(p -> p.readyNanos);
+            if (connectedAt != 0) connected.add(connectedAt - run.launchedNanos);
+            if (readyAt != 0) {
+                ready.add(readyAt - run.launchedNanos);
+            } else {
+                timedOut++;
+            }
+        }
+        runs.forEach(PairRun::close);
+        return new WaveResult(pairs, wall, cpu, peakThreads, rssBefore, peakRss.get(), failed, timedOut,
+            BenchSupport.toArray(gathering), BenchSupport.toArray(connected), BenchSupport.toArray(ready));
+    }
+
+    /**
+     * Two agents set up concurrently by their own virtual threads, meeting at an {@link Exchanger}.
+     */
+    private static final class PairRun {
+        private final GLibContext contextA;
+        private final GLibContext contextB;
+        private final int timeoutSeconds;
+        private final CountDownLatch finished;
+        private final Exchanger<String> exchanger = new Exchanger<>();
+        private Thread controllingThread;
+        private Thread controlledThread;
+        private volatile BenchSupport.Peer controlling;
+        private volatile BenchSupport.Peer controlled;
+        volatile long launchedNanos;
+
+        PairRun(GLibContext contextA, GLibContext contextB, int timeoutSeconds, CountDownLatch finished) {
+            this.contextA = contextA;
+            this.contextB = contextB;
+            this.timeoutSeconds = timeoutSeconds;
+            this.finished = finished;
+        }
+
+        void launch() {
+            launchedNanos = System.nanoTime();
+            controllingThread = Thread.ofVirtual().start(() -> runSide(true));
+            controlledThread = Thread.ofVirtual().start(() -> runSide(false));
+        }
+
+        void interrupt() {
+            controllingThread.interrupt();
+            controlledThread.interrupt();
+        }
+
+        /**
+         * Waits for both sides to stop using their agents, so {@link #close()} cannot free one in use.
+         */
+        void join() throws InterruptedException {
+            controllingThread.join();
+            controlledThread.join();
+        }
+
+        private void runSide(boolean isControlling) {
+            try {
+                BenchSupport.Peer peer = new BenchSupport.Peer(isControlling ? contextA : contextB, isControlling, (agent, streamId) -> {});
+                if (isControlling) {
+                    controlling = peer;
+                } else {
+                    controlled = peer;
+                }
+                peer.gather();
+                if (!peer.gathered.await(timeoutSeconds, TimeUnit.SECONDS)) return;
+                String remoteSdp = exchanger.exchange(peer.agent.generateLocalSdp(), timeoutSeconds, TimeUnit.SECONDS);
+                peer.agent.parseRemoteSdp(remoteSdp);
+                peer.ready.await(timeoutSeconds, TimeUnit.SECONDS);
+            } catch (TimeoutException e) {
+                // The other side never gathered; reported as timed out.
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                finished.countDown();
+            }
+        }
+
+        BenchSupport.Peer[] peers() {
+            return new BenchSupport.Peer[]{controlling, controlled};
+        }
+
+        boolean failed() {
+            return (controlling != null && controlling.failed) || (controlled != null && controlled.failed);
+        }
+
+        /**
+         * @return The later of both sides' timestamps, or 0 if either side never got there.
+         */
+        long latest(ToLongFunction<BenchSupport.Peer> milestone) {
+            BenchSupport.Peer a = controlling;
+            BenchSupport.Peer b = controlled;
+            if (a == null || b == null) return 0;
+            long ta = milestone.applyAsLong(a);
+            long tb = milestone.applyAsLong(b);
+            return ta == 0 || tb == 0 ? 0 : Math.max(ta, tb);
+        }
+
+        void close() {
+            if (controlling != null) controlling.close();
+            if (controlled != null) controlled.close();
+        }
+    }
+
+    private static void printSummary(WaveResult r) {
+        PrintStream err = System.err;
+        err.printf("%n--- %d concurrent pairs: wall=%.0fms cpu=%.0fms peakThreads=%d rss=%d->%dkB failed=%d timedOut=%d ---%n",
+            r.pairs(), r.wallNanos() / 1e6, r.cpuNanos() / 1e6, r.peakThreads(), r.rssBeforeKb(), r.peakRssKb(),
+            r.failed(), r.timedOut());
+        err.println("  " + BenchSupport.summarize("time-to-gathering-done", r.gathering()));
+        err.println("  " + BenchSupport.summarize("time-to-CONNECTED", r.connected()));
+        err.println("  " + BenchSupport.summarize("time-to-READY", r.ready()));
+    }
+
+    private static String toJson(List<WaveResult> results, int contextCount) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\n");
+        sb.append("  \"benchmark\": \"call-setup\",\n");
+        sb.append("  \"javaVersion\": \"").append(System.getProperty("java.version")).append("\",\n");
+        sb.append("  \"os\": \"").append(System.getProperty("os.name")).append(' ').append(System.getProperty("os.arch")).append("\",\n");
+        sb.append("  \"cpus\": ").append(Runtime.getRuntime().availableProcessors()).append(",\n");
+        sb.append("  \"contexts\": ").append(contextCount).append(",\n");
+        sb.append("  \"waves\": [");
+        for (int i = 0; i < results.size(); i++) {
+            WaveResult r = results.get(i);
+            sb.append(i == 0 ? "\n" : ",\n").append("    {");
+            sb.append("\"pairs\": ").append(r.pairs());
+            sb.append(", \"wallMs\": ").append(millis(r.wallNanos()));
+            sb.append(", \"cpuMs\": ").append(millis(r.cpuNanos()));
+            sb.append(", \"peakThreads\": ").append(r.peakThreads());
+            sb.append(", \"rssBeforeKb\": ").append(r.rssBeforeKb());
+            sb.append(", \"peakRssKb\": ").append(r.peakRssKb());
+            sb.append(", \"failed\": ").append(r.failed());
+            sb.append(", \"timedOut\": ").append(r.timedOut());
+            sb.append(", \"gatheringMs\": ").append(distributionJson(r.gathering()));
+            sb.append(", \"connectedMs\": ").append(distributionJson(r.connected()));
+            sb.append(", \"readyMs\": ").append(distributionJson(r.ready()));
+            sb.append('}');
+        }
+        sb.append("\n  ]\n}\n");
+        return sb.toString();
+    }
+
+    private static String distributionJson(long[] nanos) {
+        long[] d = distribution(nanos);
+        return String.format(Locale.ROOT, "{\"n\": %d, \"p50\": %s, \"p90\": %s, \"p99\": %s, \"max\": %s}",
+            nanos.length, millis(d[0]), millis(d[1]), millis(d[2]), millis(d[3]));
+    }
+
+    private static String toCsv(List<WaveResult> results) {
+        StringBuilder sb = new StringBuilder("pairs,wall_ms,cpu_ms,peak_threads,rss_before_kb,peak_rss_kb,failed,timed_out");
+        for (String metric : new String[]{"gathering", "connected", "ready"}) {
+            sb.append(',').append(metric).append("_n");
+            for (String q : new String[]{"p50", "p90", "p99", "max"}) {
+                sb.append(',').append(metric).append('_').append(q).append("_ms");
+            }
+        }
+        sb.append('\n');
+        for (WaveResult r : results) {
+            sb.append(r.pairs()).append(',').append(millis(r.wallNanos())).append(',').append(millis(r.cpuNanos()))
+                .append(',').append(r.peakThreads()).append(',').append(r.rssBeforeKb()).append(',').append(r.peakRssKb())
+                .append(',').append(r.failed()).append(',').append(r.timedOut());
+            for (long[] nanos : new long[][]{r.gathering(), r.connected(), r.ready()}) {
+                sb.append(',').append(nanos.length);
+                for (long value : distribution(nanos)) {
+                    sb.append(',').append(millis(value));
+                }
+            }
+            sb.append('\n');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return p50, p90, p99 and max of nanosecond samples.
+     */
+    private static long[] distribution(long[] nanos) {
+        long[] sorted = nanos.clone();
+        Arrays.sort(sorted);
+        return new long[]{BenchSupport.percentile(sorted, 0.50), BenchSupport.percentile(sorted, 0.90),
+            BenchSupport.percentile(sorted, 0.99), sorted.length == 0 ? 0 : sorted[sorted.length - 1]};
+    }
+
+    private static String millis(long nanos) {
+        return String.format(Locale.ROOT, "%.3f", nanos / 1e6);
+    }
+
+    private static long processCpuNanos() {
+        if (ManagementFactory.getOperatingSystemMXBean() instanceof com.sun.management.OperatingSystemMXBean os) {
+            return os.getProcessCpuTime();
+        }
+        return 0;
+    }
+
+    /**
+     * @return A kB value from {@code /proc/self/status}, or 0 where it is not available.
+     */
+    private static long readStatusKb(String field) {
+        try {
+            for (String line : Files.readAllLines(Path.of("/proc/self/status"))) {
+                if (line.startsWith(field + ":")) {
+                    return Long.parseLong(line.substring(field.length() + 1).replace("kB", "").trim());
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            // Not Linux.
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,85 @@
+package demo.io.github.kinsleykajiva.bench;
+
+import io.github.kinsleykajiva.ice.CandidateCodec;
+import io.github.kinsleykajiva.ice.GLibContext;
+import io.github.kinsleykajiva.ice.NiceAgent;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Gathers a pair of agents, connects them by exchanging only {@link CandidateCodec} payloads, then
+ * compares the payload size and the encode and decode throughput of the binary format with stream
+ * SDP ({@code generateLocalStreamSdp} with its cache dropped each time, and {@code parseRemoteStreamSdp}).
+ * <p>
+ * Usage: {@code CandidateCodecBenchmark [iterations=100000]}
+ */
+public class CandidateCodecBenchmark {
+    /** Keeps results alive so the loops are not optimized away. */
+    static volatile long sink;
+
+    public static void main(String[] args) throws Exception {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+
+        try (GLibContext contextA = new GLibContext(); GLibContext contextB = new GLibContext()) {
+            contextA.start();
+            contextB.start();
+            try (BenchSupport.AgentPair pair = BenchSupport.AgentPair.gather(contextA, contextB, (agent, streamId) -> {}, 10_000)) {
+                if (!pair.isGathered()) {
+                    System.out.println("Agents did not finish gathering");
+                    return;
+                }
+                NiceAgent local = pair.controlling.agent;
+                NiceAgent remote = pair.controlled.agent;
+                int localStream = pair.controlling.streamId;
+                int remoteStream = pair.controlled.streamId;
+
+                byte[] offer = CandidateCodec.encode(local, localStream);
+                byte[] answer = CandidateCodec.encode(remote, remoteStream);
+                int added = CandidateCodec.decode(remote, remoteStream, offer) + CandidateCodec.decode(local, localStream, answer);
+                System.out.printf("binary exchange: %d remote candidates added, %s%n", added,
+                    pair.awaitReady(10_000) ? "READY" : "NOT READY");
+
+                String sdp = local.generateLocalStreamSdp(localStream, false);
+                int sdpBytes = sdp.getBytes(StandardCharsets.UTF_8).length;
+                long candidates = BenchSupport.candidateCount(sdp);
+                System.out.printf("payload: %d candidates, SDP %d bytes, binary %d bytes (%.1f%%)%n", candidates, sdpBytes,
+                    offer.length, 100.0 * offer.length / sdpBytes);
+
+                for (int round = 0; round < 2; round++) { // first round is warm-up
+                    long sdpEncode = measure(iterations, () -> {
+                        local.invalidateLocalSdp(localStream);
+                        return local.generateLocalStreamSdp(localStream, false).length();
+                    });
+                    long binaryEncode = measure(iterations, () -> CandidateCodec.encode(local, localStream).length);
+                    long sdpDecode = measure(iterations, () -> remote.parseRemoteStreamSdp(remoteStream, sdp));
+                    long binaryDecode = measure(iterations, () -> CandidateCodec.decode(remote, remoteStream, offer));
+                    if (round == 1) {
+                        print("encode SDP", sdpEncode, iterations);
+                        print("encode binary", binaryEncode, iterations);
+                        print("decode SDP", sdpDecode, iterations);
+                        print("decode binary", binaryDecode, iterations);
+                    }
+                }
+            }
+        }
+    }
+
+    private interface Operation {
+        int run();
+    }
+
+    private static long measure(int iterations, Operation operation) {
+        long sum = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            sum += operation.run();
+        }
+        long nanos = System.nanoTime() - start;
+        sink = sum;
+        return nanos;
+    }
+
+    private static void print(String name, long nanos, int iterations) {
+        System.out.printf("%-14s %8.2f us/op  %10.0f ops/s%n", name, nanos / 1e3 / iterations, iterations / (nanos / 1e9));
+    }
+}
@@ -0,0 +1,109 @@
+package demo.io.github.kinsleykajiva.bench;
+
+import io.github.kinsleykajiva.ice.GLibContext;
+import io.github.kinsleykajiva.ice.PacketCapture;
+import io.github.kinsleykajiva.ice.PacketCaptureReader;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Measures what a {@link PacketCapture} costs per packet: first the append alone from 1, 2 and 4
+ * threads sharing one ring, then {@code nice_agent_send} over a loopback pair without capture and
+ * with capture on both agents (sends and receives recorded). Finally exports the pair's capture
+ * to pcapng.
+ * <p>
+ * Usage: {@code CaptureBenchmark [packets=200000] [size=200] [snap=96]}
+ */
+public class CaptureBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int packets = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        int size = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        int snap = args.length > 2 ? Integer.parseInt(args[2]) : PacketCapture.DEFAULT_SNAP_LENGTH;
+        Path dir = Files.createTempDirectory("capture-bench");
+
+        try (Arena arena = Arena.ofConfined();
+             PacketCapture capture = PacketCapture.create(dir.resolve("append.cap"), 65536, snap)) {
+            MemorySegment packet = arena.allocate(size);
+            for (int threads : new int[] {1, 2, 4}) {
+                appendOnly(capture, packet, size, packets, threads); // warm-up
+                long nanos = appendOnly(capture, packet, size, packets, threads);
+                System.out.printf("append only, %d thread(s):%8.1f ns/packet per thread%n",
+                    threads, nanos / (double) packets);
+            }
+        }
+
+        try (GLibContext contextA = new GLibContext(); GLibContext contextB = new GLibContext()) {
+            contextA.start();
+            contextB.start();
+            try (BenchSupport.AgentPair pair = BenchSupport.AgentPair.start(contextA, contextB, (agent, streamId) -> {}, 10_000)) {
+                if (!pair.awaitReady(10_000)) {
+                    System.out.println("Agents did not reach READY");
+                    return;
+                }
+                BenchSupport.Peer sender = pair.controlling;
+                BenchSupport.Peer receiver = pair.controlled;
+                byte[] payload = new byte[size];
+
+                send(sender, payload, packets); // warm-up
+                double off = send(sender, payload, packets);
+                Path senderFile = dir.resolve("sender.cap");
+                try (PacketCapture senderCapture = PacketCapture.create(senderFile, 65536, snap);
+                     PacketCapture receiverCapture = PacketCapture.create(dir.resolve("receiver.cap"), 65536, snap)) {
+                    sender.agent.setCapture(senderCapture);
+                    receiver.agent.setCapture(receiverCapture);
+                    send(sender, payload, packets);
+                    double on = send(sender, payload, packets);
+                    Thread.sleep(500);
+                    sender.agent.setCapture(null);
+                    receiver.agent.setCapture(null);
+                    System.out.printf("nice_agent_send:  off=%.1f ns/packet  on=%.1f ns/packet  cost=%.1f ns/packet%n",
+                        off, on, on - off);
+                    System.out.println("recorded: sent=" + senderCapture.getRecordCount()
+                        + " received=" + receiverCapture.getRecordCount());
+                }
+                Path pcapng = dir.resolve("sender.pcapng");
+                List<PacketCaptureReader.Packet> records = PacketCaptureReader.read(senderFile);
+                PacketCaptureReader.exportPcapng(records, pcapng);
+                System.out.println("Exported " + records.size() + " packets to " + pcapng);
+            }
+        }
+    }
+
+    /**
+     * @return Mean wall-clock nanoseconds for {@code packets} appends on each thread.
+     */
+    private static long appendOnly(PacketCapture capture, MemorySegment packet, int size, int packets, int threads)
+            throws InterruptedException {
+        List<Thread> workers = new ArrayList<>();
+        long start = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            int componentId = t + 1;
+            workers.add(Thread.ofPlatform().start(() -> {
+                for (int i = 0; i < packets; i++) {
+                    capture.recordSent(1, componentId, packet, size);
+                }
+            }));
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * @return Nanoseconds per {@code nice_agent_send} call.
+     */
+    private static double send(BenchSupport.Peer sender, byte[] payload, int packets) {
+        long start = System.nanoTime();
+        for (int i = 0; i < packets; i++) {
+            sender.agent.send(sender.streamId, 1, payload);
+        }
+        return (System.nanoTime() - start) / (double) packets;
+    }
+}
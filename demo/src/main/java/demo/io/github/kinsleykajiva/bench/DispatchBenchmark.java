@@ -0,0 +1,108 @@
+package demo.io.github.kinsleykajiva.bench;
+
+import io.github.kinsleykajiva.ice.GLibContext;
+import io.github.kinsleykajiva.ice.ReceiveDispatcher;
+
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Connects pairs whose receiving agents share one context, then sends sequence-numbered packets on
+ * all of them while a handler burns a fixed amount of CPU per packet (standing in for SRTP and
+ * depacketization). Runs with one dispatcher worker, which is as serial as handling packets on the
+ * loop thread, and with more workers, reporting throughput, drops and out-of-order deliveries.
+ * <p>
+ * Usage: {@code DispatchBenchmark [pairs=16] [packetsPerPair=20000] [workMicros=20] [workers=available processors]}
+ */
+public class DispatchBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int pairs = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+        int packets = args.length > 1 ? Integer.parseInt(args[1]) : 20_000;
+        long workNanos = (args.length > 2 ? Long.parseLong(args[2]) : 20) * 1000;
+        int maxWorkers = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+
+        try (GLibContext senderContext = new GLibContext(); GLibContext receiverContext = new GLibContext()) {
+            senderContext.start();
+            receiverContext.start();
+            List<BenchSupport.AgentPair> connected = new ArrayList<>();
+            try {
+                for (int i = 0; i < pairs; i++) {
+                    BenchSupport.AgentPair pair = BenchSupport.AgentPair.start(senderContext, receiverContext, (agent, streamId) -> {}, 10_000);
+                    connected.add(pair);
+                    if (!pair.awaitReady(10_000)) {
+                        System.out.println("Pair " + i + " did not reach READY");
+                        return;
+                    }
+                }
+                for (int workers : new int[] {1, maxWorkers}) {
+                    run(connected, receiverContext, packets, workNanos, workers);
+                }
+            } finally {
+                connected.forEach(BenchSupport.AgentPair::close);
+            }
+        }
+    }
+
+    private static void run(List<BenchSupport.AgentPair> pairs, GLibContext receiverContext, int packets, long workNanos,
+                            int workers) throws InterruptedException {
+        LongAdder handled = new LongAdder();
+        LongAdder outOfOrder = new LongAdder();
+        try (ReceiveDispatcher dispatcher = new ReceiveDispatcher(workers, 1024, 1500)) {
+            for (BenchSupport.AgentPair pair : pairs) {
+                AtomicLong last = new AtomicLong();
+                dispatcher.attach(pair.controlled.agent, pair.controlled.streamId, 1, receiverContext.getContext(),
+                    (streamId, componentId, data, length) -> {
+                        long sequence = ByteBuffer.wrap(data, 0, length).getLong();
+                        if (sequence <= last.get()) {
+                            outOfOrder.increment();
+                        }
+                        last.set(sequence);
+                        long until = System.nanoTime() + workNanos;
+                        while (System.nanoTime() < until) {
+                            Thread.onSpinWait();
+                        }
+                        handled.increment();
+                    });
+            }
+
+            long start = System.nanoTime();
+            List<Thread> senders = new ArrayList<>();
+            for (BenchSupport.AgentPair pair : pairs) {
+                senders.add(Thread.ofPlatform().start(() -> {
+                    ByteBuffer payload = ByteBuffer.allocate(200);
+                    for (long sequence = 1; sequence <= packets; sequence++) {
+                        payload.putLong(0, sequence);
+                        pair.controlling.agent.send(pair.controlling.streamId, 1, payload.array());
+                        if (sequence % 64 == 0) {
+                            Thread.yield();
+                        }
+                    }
+                }));
+            }
+            for (Thread sender : senders) {
+                sender.join();
+            }
+            // Wait for the queues to drain
+            long idleSince = System.nanoTime();
+            long seen = -1;
+            while (System.nanoTime() - idleSince < 500_000_000L) {
+                long now = handled.sum();
+                if (now != seen) {
+                    seen = now;
+                    idleSince = System.nanoTime();
+                }
+                Thread.sleep(20);
+            }
+            double seconds = (System.nanoTime() - start - 500_000_000L) / 1e9;
+            ReceiveDispatcher.Stats stats = dispatcher.getStats();
+            dispatcher.close(Duration.ofSeconds(5));
+            System.out.printf("%2d worker(s): %9.0f packets/s handled, %d handled, %d dropped, %d out of order%n",
+                workers, handled.sum() / seconds, handled.sum(), stats.dropped(), outOfOrder.sum());
+        }
+    }
+}
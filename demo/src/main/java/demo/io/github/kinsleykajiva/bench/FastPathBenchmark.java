@@ -0,0 +1,86 @@
+package demo.io.github.kinsleykajiva.bench;
+
+import io.github.kinsleykajiva.ice.FastPathSender;
+import io.github.kinsleykajiva.ice.GLibContext;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Connects two agents over loopback and pushes the same packets through {@code nice_agent_send} and
+ * through a {@link FastPathSender}, reporting send rate and what the receiving agent actually got.
+ * <p>
+ * Usage: {@code FastPathBenchmark [packets=200000] [size=200] [batch=32]}
+ */
+public class FastPathBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int packets = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        int size = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        int batch = args.length > 2 ? Integer.parseInt(args[2]) : 32;
+
+        try (GLibContext contextA = new GLibContext(); GLibContext contextB = new GLibContext()) {
+            contextA.start();
+            contextB.start();
+            try (BenchSupport.AgentPair pair = BenchSupport.AgentPair.start(contextA, contextB, (agent, streamId) -> {}, 10_000)) {
+                if (!pair.awaitReady(10_000)) {
+                    System.out.println("Agents did not reach READY");
+                    return;
+                }
+                BenchSupport.Peer sender = pair.controlling;
+                BenchSupport.Peer receiver = pair.controlled;
+                byte[] payload = new byte[size];
+
+                long before = receiver.receivedBytes.sum();
+                long start = System.nanoTime();
+                int sent = 0;
+                for (int i = 0; i < packets; i++) {
+                    if (sender.agent.send(sender.streamId, 1, payload) == size) sent++;
+                }
+                report("nice_agent_send", sent, packets, System.nanoTime() - start, settle(receiver, before) / size, 0);
+
+                FastPathSender fastPath = FastPathSender.open(sender.agent, sender.streamId, 1, batch);
+                if (fastPath == null) {
+                    System.out.println("No direct selected socket (relayed pair or not Linux)");
+                    return;
+                }
+                try (fastPath) {
+                    List<byte[]> chunk = new ArrayList<>(Collections.nCopies(batch, payload));
+                    before = receiver.receivedBytes.sum();
+                    start = System.nanoTime();
+                    sent = 0;
+                    while (sent < packets) {
+                        int n = fastPath.sendBatch(chunk.subList(0, Math.min(batch, packets - sent)));
+                        if (n < 0) break;
+                        if (n == 0) Thread.onSpinWait();
+                        sent += n;
+                    }
+                    report("sendmmsg (batch " + batch + ")", sent, packets, System.nanoTime() - start,
+                        settle(receiver, before) / size, fastPath.getSyscalls());
+                }
+            }
+        }
+    }
+
+    /**
+     * Waits until the receiver's byte count stops moving.
+     *
+     * @return Bytes received since {@code before}.
+     */
+    private static long settle(BenchSupport.Peer receiver, long before) throws InterruptedException {
+        long last = -1;
+        long now = receiver.receivedBytes.sum();
+        while (now != last) {
+            Thread.sleep(200);
+            last = now;
+            now = receiver.receivedBytes.sum();
+        }
+        return now - before;
+    }
+
+    private static void report(String label, int sent, int packets, long nanos, long received, long syscalls) {
+        System.out.printf("%-22s sent=%d/%d in %.1fms (%.0f pkt/s) received=%d%s%n", label, sent, packets,
+            nanos / 1e6, sent / (nanos / 1e9), received, syscalls > 0 ? " syscalls=" + syscalls : "");
+    }
+}
@@ -0,0 +1,94 @@
+package demo.io.github.kinsleykajiva.bench;
+
+import io.github.kinsleykajiva.ice.GLibContext;
+import io.github.kinsleykajiva.ice.InterfaceFilter;
+import io.github.kinsleykajiva.ice.NiceAgent;
+
+import java.io.File;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.ObjIntConsumer;
+
+/**
+ * Compares candidate count, candidate pairs to check, sockets and time-to-READY for agent pairs
+ * gathering on every interface versus only the addresses picked by an {@link InterfaceFilter}.
+ * <p>
+ * Usage: {@code InterfaceFilterBenchmark [pairs=20] [minPort=40000] [maxPort=40999]}
+ */
+public class InterfaceFilterBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int pairs = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+        int minPort = args.length > 1 ? Integer.parseInt(args[1]) : 40000;
+        int maxPort = args.length > 2 ? Integer.parseInt(args[2]) : 40999;
+
+        // Resolve once: interface enumeration is too slow to repeat per agent.
+        List<InetAddress> selected = InterfaceFilter.excludingVirtual().selectAddresses();
+        System.out.println("Filtered addresses: " + selected);
+        if (selected.isEmpty()) {
+            System.out.println("No addresses left after filtering");
+            return;
+        }
+
+        try (GLibContext contextA = new GLibContext(); GLibContext contextB = new GLibContext()) {
+            contextA.start();
+            contextB.start();
+            run("all interfaces", contextA, contextB, pairs, (agent, streamId) -> {});
+            run("filtered", contextA, contextB, pairs, (agent, streamId) -> agent.addLocalAddresses(selected));
+            run("filtered + port range", contextA, contextB, pairs, (agent, streamId) -> {
+                agent.addLocalAddresses(selected);
+                agent.setPortRange(streamId, 1, minPort, maxPort);
+            });
+        }
+    }
+
+    private static void run(String label, GLibContext contextA, GLibContext contextB, int pairs,
+                            ObjIntConsumer<NiceAgent> configure) throws InterruptedException {
+        List<Long> gatherTimes = new ArrayList<>();
+        List<Long> readyTimes = new ArrayList<>();
+        long candidates = 0;
+        long candidatePairs = 0;
+        int failures = 0;
+        int fdsBefore = openFileDescriptors();
+        List<BenchSupport.AgentPair> open = new ArrayList<>();
+
+        for (int i = 0; i < pairs; i++) {
+            BenchSupport.AgentPair pair = BenchSupport.AgentPair.gather(contextA, contextB, configure, 10_000);
+            open.add(pair);
+            if (!pair.isGathered()) {
+                failures++;
+                continue;
+            }
+            gatherTimes.add(pair.controlling.gatheredNanos - pair.controlling.createdNanos);
+            long local = BenchSupport.candidateCount(pair.controlling.agent.generateLocalSdp());
+            long remote = BenchSupport.candidateCount(pair.controlled.agent.generateLocalSdp());
+            candidates += local;
+            // Upper bound on the check list: every local candidate against every remote one.
+            candidatePairs += local * remote;
+            pair.exchange();
+            if (pair.awaitReady(15_000)) {
+                readyTimes.add(pair.timeToReady());
+            } else {
+                failures++;
+            }
+        }
+        int fdsPerAgent = fdsBefore < 0 ? -1 : (openFileDescriptors() - fdsBefore) / Math.max(1, pairs * 2);
+        open.forEach(BenchSupport.AgentPair::close);
+
+        System.out.println("\n--- " + label + " (" + pairs + " pairs) ---");
+        System.out.printf("  candidates/agent=%.1f candidate-pairs/pair=%.1f sockets/agent=%s failed=%d%n",
+            (double) candidates / Math.max(1, pairs), (double) candidatePairs / Math.max(1, pairs),
+            fdsPerAgent < 0 ? "n/a" : fdsPerAgent, failures);
+        System.out.println("  " + BenchSupport.summarize("time-to-gathering-done", BenchSupport.toArray(gatherTimes)));
+        System.out.println("  " + BenchSupport.summarize("time-to-READY", BenchSupport.toArray(readyTimes)));
+    }
+
+    /**
+     * @return Open descriptors of this process, or -1 where /proc is unavailable.
+     */
+    private static int openFileDescriptors() {
+        String[] fds = new File("/proc/self/fd").list();
+        return fds == null ? -1 : fds.length;
+    }
+}
@@ -0,0 +1,130 @@
+package demo.io.github.kinsleykajiva.bench;
+
+import io.github.kinsleykajiva.ice.GLibContext;
+import io.github.kinsleykajiva.ice.KeepaliveGovernor;
+import io.github.kinsleykajiva.ice.KeepaliveProfile;
+import io.github.kinsleykajiva.ice.NiceAgent;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Stream;
+
+/**
+ * Measures process CPU time and thread wakeups (context switches) per 10k connected, idle sessions
+ * under libnice's default keepalives, the {@link KeepaliveProfile#ACTIVE} profile, and the idle
+ * profile that a {@link KeepaliveGovernor} switches every silent session to. A session is one
+ * loopback agent pair.
+ * <p>
+ * Usage: {@code KeepaliveBenchmark [sessions=2000] [contexts=4] [seconds=30]}
+ */
+public class KeepaliveBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int sessions = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int contextCount = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 30;
+
+        List<GLibContext> contexts = new ArrayList<>();
+        for (int i = 0; i < contextCount; i++) {
+            GLibContext context = new GLibContext();
+            context.start();
+            contexts.add(context);
+        }
+        List<BenchSupport.AgentPair> pairs = Collections.synchronizedList(new ArrayList<>());
+        try {
+            connect(contexts, sessions, pairs);
+            System.out.println(pairs.size() + " of " + sessions + " sessions READY");
+            List<NiceAgent> agents = new ArrayList<>();
+            for (BenchSupport.AgentPair pair : pairs) {
+                agents.add(pair.controlling.agent);
+                agents.add(pair.controlled.agent);
+            }
+
+            measure("libnice default", pairs.size(), seconds);
+            agents.forEach(agent -> agent.setKeepaliveProfile(KeepaliveProfile.ACTIVE));
+            measure("active profile", pairs.size(), seconds);
+
+            Duration idleAfter = Duration.ofSeconds(2);
+            try (KeepaliveGovernor governor = new KeepaliveGovernor(idleAfter)) {
+                agents.forEach(governor::register);
+                Thread.sleep(idleAfter.toMillis() * 2);
+                System.out.println("governor: " + governor.getStats());
+                measure("idle via governor", pairs.size(), seconds);
+                System.out.println("governor: " + governor.getStats());
+            }
+        } finally {
+            pairs.forEach(BenchSupport.AgentPair::close);
+            contexts.forEach(GLibContext::close);
+        }
+    }
+
+    private static void connect(List<GLibContext> contexts, int sessions, List<BenchSupport.AgentPair> pairs)
+            throws InterruptedException {
+        try (ExecutorService executor = Executors.newFixedThreadPool(32)) {
+            for (int i = 0; i < sessions; i++) {
+                GLibContext contextA = contexts.get(i % contexts.size());
+                GLibContext contextB = contexts.get((i + 1) % contexts.size());
+                executor.execute(() -> {
+                    try {
+                        BenchSupport.AgentPair pair = BenchSupport.AgentPair.start(contextA, contextB,
+                            (agent, streamId) -> agent.addLocalAddress("127.0.0.1"), 10_000);
+                        if (pair.awaitReady(15_000)) {
+                            pairs.add(pair);
+                        } else {
+                            pair.close();
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                });
+            }
+        }
+    }
+
+    private static void measure(String label, int sessions, int seconds) throws InterruptedException {
+        // Let keepalive schedules settle after the profile change before sampling.
+        Thread.sleep(2000);
+        var os = (com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean();
+        long cpuBefore = os.getProcessCpuTime();
+        long switchesBefore = contextSwitches();
+        Thread.sleep(seconds * 1000L);
+        long cpuNanos = os.getProcessCpuTime() - cpuBefore;
+        long switches = contextSwitches() - switchesBefore;
+
+        double per10k = 10_000.0 / Math.max(1, sessions);
+        System.out.printf("%-20s cpu=%.1f%% of a core, wakeups=%.0f/s  per 10k sessions: cpu=%.1f%%, wakeups=%.0f/s%n",
+            label, cpuNanos / (seconds * 1e7), switches / (double) seconds,
+            cpuNanos / (seconds * 1e7) * per10k, switches / (double) seconds * per10k);
+    }
+
+    /**
+     * @return Voluntary plus involuntary context switches of all threads in the process, or 0 off Linux.
+     */
+    private static long contextSwitches() {
+        long total = 0;
+        try (Stream<Path> tasks = Files.list(Path.of("/proc/self/task"))) {
+            for (Path task : (Iterable<Path>) tasks::iterator) {
+                try {
+                    for (String line : Files.readAllLines(task.resolve("status"))) {
+                        if (line.startsWith("voluntary_ctxt_switches:") || line.startsWith("nonvoluntary_ctxt_switches:")) {
+                            total += Long.parseLong(line.substring(line.indexOf(':') + 1).trim());
+                        }
+                    }
+                } catch (IOException e) {
+                    // The thread exited between listing and reading.
+                }
+            }
+        } catch (IOException e) {
+            return 0;
+        }
+        return total;
+    }
+}
@@ -0,0 +1,87 @@
+package demo.io.github.kinsleykajiva.bench;
+
+import io.github.kinsleykajiva.ice.GLibContext;
+import io.github.kinsleykajiva.ice.LatencyHistogram;
+import io.github.kinsleykajiva.ice.ThreadPlacement;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Measures per-loop dispatch latency while busy "media worker" threads occupy every CPU, first with
+ * floating loop threads and then with loops pinned by {@link ThreadPlacement#spread} to CPUs the
+ * workers are kept off. With {@code fifo} the pinned loops also run under {@code SCHED_FIFO}.
+ * <p>
+ * Usage: {@code PlacementBenchmark [loops=4] [seconds=5] [fifo|nice]}
+ */
+public class PlacementBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int loops = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        String scheduling = args.length > 2 ? args[2] : "";
+
+        int cpus = Runtime.getRuntime().availableProcessors();
+        BitSet loopCpus = new BitSet();
+        loopCpus.set(0, Math.max(1, Math.min(loops, cpus - 1)));
+
+        run("floating", loops, seconds, null, null);
+        List<ThreadPlacement> placements = new ArrayList<>();
+        for (ThreadPlacement placement : ThreadPlacement.spread(loops, loopCpus)) {
+            placements.add(switch (scheduling) {
+                case "fifo" -> placement.withFifo(10);
+                case "nice" -> placement.withNice(-10);
+                default -> placement;
+            });
+        }
+        BitSet workerCpus = new BitSet();
+        workerCpus.set(0, cpus);
+        if (workerCpus.cardinality() > loopCpus.cardinality()) {
+            workerCpus.andNot(loopCpus);
+        }
+        run("pinned " + scheduling, loops, seconds, placements, workerCpus);
+    }
+
+    private static void run(String label, int loops, int seconds, List<ThreadPlacement> placements, BitSet workerCpus)
+            throws InterruptedException {
+        List<GLibContext> contexts = new ArrayList<>();
+        List<LatencyHistogram> histograms = new ArrayList<>();
+        for (int i = 0; i < loops; i++) {
+            GLibContext context = new GLibContext();
+            if (placements != null) {
+                context.setThreadPlacement(placements.get(i));
+            }
+            context.start();
+            histograms.add(context.enableDispatchProbe(Duration.ofMillis(1)));
+            contexts.add(context);
+        }
+
+        int workers = Runtime.getRuntime().availableProcessors();
+        List<Thread> threads = new ArrayList<>();
+        long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+        for (int i = 0; i < workers; i++) {
+            ThreadPlacement workerPlacement = workerCpus == null ? ThreadPlacement.none()
+                : ThreadPlacement.onCpus(workerCpus.stream().toArray());
+            threads.add(Thread.ofPlatform().name("media-worker-" + i).start(() -> {
+                workerPlacement.apply();
+                long x = 0;
+                while (System.nanoTime() < deadline) {
+                    x += x * 31 + 7;
+                }
+                if (x == 42) System.out.print("");
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        System.out.println("--- " + label + " ---");
+        for (int i = 0; i < loops; i++) {
+            String where = placements == null ? "any" : placements.get(i).toString();
+            System.out.println("  loop " + i + " (" + where + "): " + histograms.get(i).snapshot());
+        }
+        contexts.forEach(GLibContext::close);
+    }
+}
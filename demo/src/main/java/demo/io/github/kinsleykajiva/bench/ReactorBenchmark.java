@@ -0,0 +1,60 @@
+package demo.io.github.kinsleykajiva.bench;
+
+import io.github.kinsleykajiva.ice.GLibContext;
+import io.github.kinsleykajiva.ice.GLibReactor;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Gathers one agent per context on many contexts, first with a main loop thread per context and then
+ * with every context attached to a single {@link GLibReactor}, reporting live threads and gathering latency.
+ * <p>
+ * Usage: {@code ReactorBenchmark [contexts=500]}
+ */
+public class ReactorBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int contextCount = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+
+        run("thread per context", contextCount, null);
+        try (GLibReactor reactor = new GLibReactor()) {
+            reactor.start();
+            run("one reactor", contextCount, reactor);
+        }
+    }
+
+    private static void run(String mode, int contextCount, GLibReactor reactor) throws InterruptedException {
+        int baseline = ManagementFactory.getThreadMXBean().getThreadCount();
+        List<GLibContext> contexts = new ArrayList<>(contextCount);
+        List<BenchSupport.Peer> peers = new ArrayList<>(contextCount);
+        try {
+            for (int i = 0; i < contextCount; i++) {
+                GLibContext context = new GLibContext();
+                if (reactor != null) {
+                    reactor.attach(context);
+                } else {
+                    context.start();
+                }
+                contexts.add(context);
+                BenchSupport.Peer peer = new BenchSupport.Peer(context, true, (agent, streamId) -> {});
+                peers.add(peer);
+                peer.gather();
+            }
+            List<Long> latencies = new ArrayList<>(contextCount);
+            for (BenchSupport.Peer peer : peers) {
+                if (peer.gathered.await(10, TimeUnit.SECONDS)) {
+                    latencies.add(peer.gatheredNanos - peer.createdNanos);
+                }
+            }
+            int threads = ManagementFactory.getThreadMXBean().getThreadCount() - baseline;
+            System.out.println("--- " + mode + ": " + contextCount + " contexts, " + threads + " extra threads ---");
+            System.out.println("  " + BenchSupport.summarize("gathering", BenchSupport.toArray(latencies)));
+        } finally {
+            peers.forEach(BenchSupport.Peer::close);
+            contexts.forEach(GLibContext::close);
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package demo.io.github.kinsleykajiva.bench;
+
+import io.github.kinsleykajiva.ice.GLibContext;
+import io.github.kinsleykajiva.ice.NiceAgent;
+import io.github.kinsleykajiva.ice.NiceAgentListener;
+import io.github.kinsleykajiva.ice.NiceBindings;
+import io.github.kinsleykajiva.ice.NiceStream;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Sets up many offerer/answerer media stream pairs over loopback, once with separate RTP and RTCP
+ * components and once with rtcp-mux negotiated through {@link NiceStream#addMediaStream}, and reports
+ * the time until every component is READY, the open file descriptors and the candidates per session.
+ * <p>
+ * Usage: {@code RtcpMuxBenchmark [sessions=1000] [timeoutSeconds=60]}
+ */
+public class RtcpMuxBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int sessions = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int timeoutSeconds = args.length > 1 ? Integer.parseInt(args[1]) : 60;
+
+        for (boolean rtcpMux : new boolean[] {false, true}) {
+            try (GLibContext offerContext = new GLibContext(); GLibContext answerContext = new GLibContext()) {
+                offerContext.start();
+                answerContext.start();
+                run(offerContext, answerContext, sessions, rtcpMux, timeoutSeconds);
+            }
+        }
+    }
+
+    private static void run(GLibContext offerContext, GLibContext answerContext, int sessions, boolean rtcpMux,
+                            int timeoutSeconds) throws InterruptedException, IOException {
+        long fdsBefore = openFileDescriptors();
+        List<Side> offerers = new ArrayList<>();
+        List<Side> answerers = new ArrayList<>();
+        long start = System.nanoTime();
+        try {
+            for (int i = 0; i < sessions; i++) {
+                offerers.add(Side.offer(offerContext, rtcpMux));
+            }
+            if (!awaitAll(offerers, s -> s.gathered, timeoutSeconds)) {
+                System.out.println("Offerers did not finish gathering");
+                return;
+            }
+            for (Side offerer : offerers) {
+                answerers.add(Side.answer(answerContext, offerer.stream.generateLocalSdp(true)));
+            }
+            if (!awaitAll(answerers, s -> s.gathered, timeoutSeconds)) {
+                System.out.println("Answerers did not finish gathering");
+                return;
+            }
+            long candidates = 0;
+            for (int i = 0; i < sessions; i++) {
+                String offer = offerers.get(i).stream.generateLocalSdp(true);
+                String answer = answerers.get(i).stream.generateLocalSdp(true);
+                candidates += BenchSupport.candidateCount(offer);
+                answerers.get(i).stream.parseRemoteSdp(offer);
+                offerers.get(i).stream.parseRemoteSdp(answer);
+            }
+            boolean ready = awaitAll(offerers, s -> s.ready, timeoutSeconds) && awaitAll(answerers, s -> s.ready, timeoutSeconds);
+            double millis = (System.nanoTime() - start) / 1e6;
+            long fds = openFileDescriptors() - fdsBefore;
+            System.out.printf("%-22s %d sessions: %s in %8.1f ms, %6d fds (%.1f per session), %.1f offer candidates per session%n",
+                rtcpMux ? "rtcp-mux (1 comp)" : "RTP + RTCP (2 comps)", sessions, ready ? "READY" : "NOT READY", millis,
+                fds, fds / (double) sessions, candidates / (double) sessions);
+        } finally {
+            Stream.concat(offerers.stream(), answerers.stream()).forEach(side -> side.stream.getAgent().close());
+        }
+    }
+
+    private interface Latch {
+        CountDownLatch of(Side side);
+    }
+
+    private static boolean awaitAll(List<Side> sides, Latch latch, int timeoutSeconds) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(timeoutSeconds);
+        for (Side side : sides) {
+            if (!latch.of(side).await(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS)) return false;
+        }
+        return true;
+    }
+
+    private static long openFileDescriptors() throws IOException {
+        Path fds = Path.of("/proc/self/fd");
+        if (!Files.isDirectory(fds)) return -1;
+        try (Stream<Path> entries = Files.list(fds)) {
+            return entries.count();
+        }
+    }
+
+    /**
+     * One agent with one media stream; {@code ready} opens once every component is READY.
+     */
+    private static final class Side implements NiceAgentListener {
+        final CountDownLatch gathered = new CountDownLatch(1);
+        CountDownLatch ready;
+        NiceStream stream;
+
+        static Side offer(GLibContext context, boolean rtcpMux) {
+            Side side = new Side();
+            NiceAgent agent = side.agent(context, true);
+            side.start(NiceStream.addMediaStream(agent, rtcpMux));
+            return side;
+        }
+
+        static Side answer(GLibContext context, String offer) {
+            Side side = new Side();
+            NiceAgent agent = side.agent(context, false);
+            side.start(NiceStream.addMediaStream(agent, offer));
+            return side;
+        }
+
+        private NiceAgent agent(GLibContext context, boolean controlling) {
+            NiceAgent agent = new NiceAgent(context.getContext(), NiceBindings.NICE_COMPATIBILITY_RFC5245);
+            agent.setControllingMode(controlling);
+            agent.disableExtraFeatures();
+            agent.addListener(this);
+            return agent;
+        }
+
+        private void start(NiceStream stream) {
+            this.stream = stream;
+            this.ready = new CountDownLatch(stream.getComponentCount());
+            stream.getAgent().gatherCandidates(stream.getStreamId());
+        }
+
+        @Override
+        public void onGatheringDone(int streamId) {
+            gathered.countDown();
+        }
+
+        @Override
+        public void onComponentStateChanged(int streamId, int componentId, int state) {
+            if (state == NiceBindings.NICE_COMPONENT_STATE_READY) {
+                ready.countDown();
+            }
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package demo.io.github.kinsleykajiva.bench;
+
+import io.github.kinsleykajiva.ice.GLibContext;
+import io.github.kinsleykajiva.ice.NiceAgent;
+import io.github.kinsleykajiva.ice.NiceAgentListener;
+import io.github.kinsleykajiva.ice.NiceBindings;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Gathers an agent with many streams and compares the cost of renegotiating one of them: regenerating
+ * and reparsing the whole session SDP, reading the cached session SDP, and exchanging only the changed
+ * stream's section with {@link NiceAgent#generateLocalStreamSdp} and {@link NiceAgent#parseRemoteStreamSdp}.
+ * <p>
+ * Usage: {@code SdpBenchmark [streams=64] [iterations=2000]}
+ */
+public class SdpBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int streams = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+
+        try (GLibContext context = new GLibContext()) {
+            context.start();
+            NiceAgent offerer = gathered(context, streams, true);
+            NiceAgent answerer = gathered(context, streams, false);
+            if (offerer == null || answerer == null) {
+                System.out.println("Gathering did not finish");
+                return;
+            }
+            try {
+                String session = offerer.generateLocalSdp();
+                System.out.printf("%d streams, session SDP %d bytes, %d candidates%n", streams, session.length(),
+                    BenchSupport.candidateCount(session));
+
+                long[] full = new long[iterations];
+                long[] cached = new long[iterations];
+                long[] perStream = new long[iterations];
+                for (int i = 0; i < iterations; i++) {
+                    // libnice numbers streams from 1 in creation order, the same on both agents.
+                    int streamId = 1 + i % streams;
+
+                    long start = System.nanoTime();
+                    offerer.invalidateLocalSdp(0);
+                    answerer.parseRemoteSdp(offerer.generateLocalSdp());
+                    full[i] = System.nanoTime() - start;
+
+                    start = System.nanoTime();
+                    offerer.generateLocalSdp();
+                    cached[i] = System.nanoTime() - start;
+
+                    start = System.nanoTime();
+                    offerer.invalidateLocalSdp(streamId);
+                    answerer.parseRemoteStreamSdp(streamId,
+                        offerer.generateLocalStreamSdp(streamId, false));
+                    perStream[i] = System.nanoTime() - start;
+                }
+                System.out.println(BenchSupport.summarize("full generate + parse", full));
+                System.out.println(BenchSupport.summarize("cached session SDP", cached));
+                System.out.println(BenchSupport.summarize("one stream generate + parse", perStream));
+            } finally {
+                offerer.close();
+                answerer.close();
+            }
+        }
+    }
+
+    private static NiceAgent gathered(GLibContext context, int streams, boolean controlling) throws InterruptedException {
+        NiceAgent agent = new NiceAgent(context.getContext(), NiceBindings.NICE_COMPATIBILITY_RFC5245);
+        agent.setControllingMode(controlling);
+        agent.disableExtraFeatures();
+        CountDownLatch done = new CountDownLatch(streams);
+        agent.addListener(new NiceAgentListener() {
+            @Override
+            public void onGatheringDone(int streamId) {
+                done.countDown();
+            }
+        });
+        for (int i = 0; i < streams; i++) {
+            agent.gatherCandidates(agent.addStream(1));
+        }
+        if (!done.await(30, TimeUnit.SECONDS)) {
+            agent.close();
+            return null;
+        }
+        return agent;
+    }
+}
@@ -0,0 +1,104 @@
+package demo.io.github.kinsleykajiva.bench;
+
+import io.github.kinsleykajiva.ice.GLibContext;
+import io.github.kinsleykajiva.ice.NiceAgent;
+import io.github.kinsleykajiva.ice.NiceBindings;
+import io.github.kinsleykajiva.ice.SessionIndex;
+
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registers one stream per agent for many agents in a {@link SessionIndex} and measures lookups by the
+ * ufrag bytes of a STUN USERNAME and by agent handle and stream, against decoding the ufrag into a
+ * String for a {@link ConcurrentHashMap}. Also reports the bytes allocated per lookup.
+ * <p>
+ * Usage: {@code SessionIndexBenchmark [sessions=20000] [lookups=5000000]}
+ */
+public class SessionIndexBenchmark {
+    /** Keeps lookup results alive so the loops are not optimized away. */
+    static volatile long sink;
+
+    public static void main(String[] args) throws Exception {
+        int sessions = args.length > 0 ? Integer.parseInt(args[0]) : 20_000;
+        int lookups = args.length > 1 ? Integer.parseInt(args[1]) : 5_000_000;
+
+        try (GLibContext context = new GLibContext()) {
+            context.start();
+            SessionIndex<Integer> index = new SessionIndex<>();
+            Map<String, Integer> baseline = new ConcurrentHashMap<>();
+            List<NiceAgent> agents = new ArrayList<>(sessions);
+            byte[][] usernames = new byte[sessions][];
+            int[] ufragLengths = new int[sessions];
+
+            long start = System.nanoTime();
+            for (int i = 0; i < sessions; i++) {
+                NiceAgent agent = new NiceAgent(context.getContext(), NiceBindings.NICE_COMPATIBILITY_RFC5245);
+                agents.add(agent);
+                index.register(agent, i);
+                int streamId = agent.addStream(1);
+                String ufrag = index.byStream(agent, streamId).localUfrag();
+                if (ufrag == null) {
+                    System.out.println("Agent has no local credentials; is libnice loaded?");
+                    return;
+                }
+                baseline.put(ufrag, i);
+                usernames[i] = (ufrag + ":remoteufrag").getBytes(StandardCharsets.UTF_8);
+                ufragLengths[i] = ufrag.length();
+            }
+            System.out.printf("indexed %d sessions in %.1f ms%n", index.size(), (System.nanoTime() - start) / 1e6);
+
+            for (int round = 0; round < 2; round++) { // first round is warm-up
+                long[] ufragIndex = measure(lookups, i -> {
+                    int n = i % sessions;
+                    return index.byLocalUfrag(usernames[n], 0, ufragLengths[n]).session();
+                });
+                long[] ufragMap = measure(lookups, i -> {
+                    int n = i % sessions;
+                    return baseline.get(new String(usernames[n], 0, ufragLengths[n], StandardCharsets.UTF_8));
+                });
+                long[] stream = measure(lookups, i -> index.byStream(agents.get(i % sessions).getHandle(), 1).session());
+                if (round == 1) {
+                    print("byLocalUfrag(byte[])", ufragIndex, lookups);
+                    print("String + ConcurrentHashMap", ufragMap, lookups);
+                    print("byStream(handle, id)", stream, lookups);
+                }
+            }
+
+            for (NiceAgent agent : agents) {
+                agent.close();
+            }
+            System.out.println("after close: " + index.size() + " indexed");
+        }
+    }
+
+    private interface Lookup {
+        Integer apply(int i);
+    }
+
+    /**
+     * @return Elapsed nanoseconds and bytes allocated by this thread.
+     */
+    private static long[] measure(int lookups, Lookup lookup) {
+        var threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long sum = 0;
+        long allocated = threads.getCurrentThreadAllocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < lookups; i++) {
+            sum += lookup.apply(i);
+        }
+        long nanos = System.nanoTime() - start;
+        allocated = threads.getCurrentThreadAllocatedBytes() - allocated;
+        sink = sum;
+        return new long[] {nanos, allocated};
+    }
+
+    private static void print(String name, long[] result, int lookups) {
+        System.out.printf("%-28s %7.1f ns/lookup  %6.1f bytes/lookup%n", name,
+            result[0] / (double) lookups, result[1] / (double) lookups);
+    }
+}
@@ -0,0 +1,78 @@
+package demo.io.github.kinsleykajiva.bench;
+
+import io.github.kinsleykajiva.ice.ShardedSessionManager;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Sweeps the streams-per-agent ratio: a fixed number of sessions is spread over 1..N shard agents
+ * while sender threads hammer random sessions.
+ * <p>
+ * Streams are not connected, so each send takes the agent lock, looks up the component and returns
+ * without touching a socket. That isolates the cost this benchmark is about: contention on the
+ * per-agent mutex. Socket write cost is the same for every configuration and is left out.
+ * <p>
+ * Usage: {@code ShardingBenchmark [sessions=2000] [threads=8] [seconds=3]}
+ */
+public class ShardingBenchmark {
+    private static final int[] SHARD_COUNTS = {1, 2, 4, 8, 16, 64};
+
+    public static void main(String[] args) throws Exception {
+        int sessionCount = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+
+        System.out.printf("%-7s %-16s %-14s %-14s %-14s %s%n",
+            "shards", "streams/agent", "sends/s", "mean send us", "max send us", "streams per shard (min-max)");
+        for (int shardCount : SHARD_COUNTS) {
+            try (ShardedSessionManager manager = new ShardedSessionManager(shardCount, agent -> agent.disableExtraFeatures())) {
+                List<String> keys = new ArrayList<>(sessionCount);
+                for (int i = 0; i < sessionCount; i++) {
+                    String key = "call-" + i;
+                    manager.addSession(key, 1);
+                    keys.add(key);
+                }
+                long sends = hammer(manager, keys, threads, seconds);
+
+                List<ShardedSessionManager.ShardLoad> loads = manager.getShardLoads();
+                double meanMicros = loads.stream().mapToDouble(l -> l.meanSendMicros() * l.sends()).sum()
+                    / Math.max(1, loads.stream().mapToLong(ShardedSessionManager.ShardLoad::sends).sum());
+                double maxMicros = loads.stream().mapToDouble(ShardedSessionManager.ShardLoad::maxSendMicros).max().orElse(0);
+                int minStreams = loads.stream().mapToInt(ShardedSessionManager.ShardLoad::streams).min().orElse(0);
+                int maxStreams = loads.stream().mapToInt(ShardedSessionManager.ShardLoad::streams).max().orElse(0);
+                System.out.printf("%-7d %-16d %-14d %-14.2f %-14.1f %d-%d%n",
+                    shardCount, sessionCount / shardCount, sends / seconds, meanMicros, maxMicros, minStreams, maxStreams);
+
+                for (String key : keys) {
+                    manager.removeSession(key);
+                }
+            }
+        }
+    }
+
+    private static long hammer(ShardedSessionManager manager, List<String> keys, int threads, int seconds)
+            throws InterruptedException {
+        LongAdder total = new LongAdder();
+        CountDownLatch done = new CountDownLatch(threads);
+        long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+        byte[] payload = new byte[200];
+        for (int t = 0; t < threads; t++) {
+            Thread.ofPlatform().name("sender-" + t).start(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                long count = 0;
+                while (System.nanoTime() < deadline) {
+                    manager.send(keys.get(random.nextInt(keys.size())), 1, payload);
+                    count++;
+                }
+                total.add(count);
+                done.countDown();
+            });
+        }
+        done.await();
+        return total.sum();
+    }
+}
@@ -0,0 +1,270 @@
+package demo.io.github.kinsleykajiva.bench;
+
+import io.github.kinsleykajiva.ice.GLibContext;
+import io.github.kinsleykajiva.ice.LatencyHistogram;
+import io.github.kinsleykajiva.ice.NativeResourceTracker;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToDoubleFunction;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import javax.management.ObjectName;
+
+/**
+ * Churns agent pairs over loopback for hours to catch slow degradation: each worker creates a pair,
+ * gathers, connects, sends timestamped packets, then either closes the pair or restarts ICE on it and
+ * checks that traffic still flows before closing. Every sample interval it records RSS, native memory
+ * tracking's committed total (run with {@code -XX:NativeMemoryTracking=summary}), open fds, live
+ * threads, agents still tracked beyond the pairs in flight, the p99 GLib dispatch latency of both
+ * contexts, and p99 send and one-way receive latency.
+ * <p>
+ * At the end a line is fitted to each metric, ignoring the first fifth of the run as warm-up. The run
+ * fails (exit code 1) if any metric's fitted growth exceeds its threshold or more than 1% of cycles
+ * fail to connect or to resume after a restart. Thresholds are system properties:
+ * {@code soak.maxRssGrowthMb} and {@code soak.maxNmtGrowthMb} (64), {@code soak.maxFdGrowth} (16),
+ * {@code soak.maxThreadGrowth} (4) and {@code soak.maxLatencyGrowthUs} (1000, or the starting p99 if higher).
+ * <p>
+ * Usage: {@code SoakBenchmark [minutes=240] [pairs=8] [sampleSeconds=60] [packetsPerPhase=100]}
+ */
+public class SoakBenchmark {
+    private static final Pattern NMT_TOTAL = Pattern.compile("Total: reserved=(\\d+)KB, committed=(\\d+)KB");
+    private static final int PAYLOAD_SIZE = 160;
+    private static final long TIMEOUT_MS = 10_000;
+
+    private record Sample(double minutes, double rssMb, double nmtMb, double fds, double threads, double agents,
+                          double dispatchP99Us, double sendP99Us, double receiveP99Us, long cycles, long failures) {}
+
+    /**
+     * @param allowedGrowth Largest fitted increase over the judged part of the run.
+     * @param relative If set, the allowed growth is at least the fitted starting value (latency may double).
+     */
+    private record Metric(String name, ToDoubleFunction<Sample> value, double allowedGrowth, boolean relative) {}
+
+    private static final List<Metric> METRICS = List.of(
+        new Metric("RSS MB", Sample::rssMb, Long.getLong("soak.maxRssGrowthMb", 64), false),
+        new Metric("NMT committed MB", Sample::nmtMb, Long.getLong("soak.maxNmtGrowthMb", 64), false),
+        new Metric("open fds", Sample::fds, Long.getLong("soak.maxFdGrowth", 16), false),
+        new Metric("threads", Sample::threads, Long.getLong("soak.maxThreadGrowth", 4), false),
+        new Metric("leaked agents", Sample::agents, Long.getLong("soak.maxAgentGrowth", 4), false),
+        new Metric("dispatch p99 us", Sample::dispatchP99Us, Long.getLong("soak.maxLatencyGrowthUs", 1000), true),
+        new Metric("send p99 us", Sample::sendP99Us, Long.getLong("soak.maxLatencyGrowthUs", 1000), true),
+        new Metric("receive p99 us", Sample::receiveP99Us, Long.getLong("soak.maxLatencyGrowthUs", 1000), true));
+
+    private final AtomicBoolean running = new AtomicBoolean(true);
+    private final LatencyHistogram sendLatency = new LatencyHistogram();
+    private final LatencyHistogram receiveLatency = new LatencyHistogram();
+    private final LongAdder cycles = new LongAdder();
+    private final LongAdder restarts = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    /** Pairs currently owned by workers, so their agents are not counted as leaked. */
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final int packetsPerPhase;
+
+    private SoakBenchmark(int packetsPerPhase) {
+        this.packetsPerPhase = packetsPerPhase;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int minutes = args.length > 0 ? Integer.parseInt(args[0]) : 240;
+        int pairs = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+        int sampleSeconds = args.length > 2 ? Integer.parseInt(args[2]) : 60;
+        int packetsPerPhase = args.length > 3 ? Integer.parseInt(args[3]) : 100;
+
+        boolean passed = new SoakBenchmark(packetsPerPhase).run(minutes, pairs, sampleSeconds);
+        System.exit(passed ? 0 : 1);
+    }
+
+    private boolean run(int minutes, int pairs, int sampleSeconds) throws Exception {
+        List<Sample> samples = new ArrayList<>();
+        try (GLibContext contextA = new GLibContext(); GLibContext contextB = new GLibContext()) {
+            contextA.start();
+            contextB.start();
+            LatencyHistogram dispatchA = contextA.enableDispatchProbe(Duration.ofMillis(50));
+            LatencyHistogram dispatchB = contextB.enableDispatchProbe(Duration.ofMillis(50));
+
+            List<Thread> workers = new ArrayList<>();
+            for (int i = 0; i < pairs; i++) {
+                workers.add(Thread.ofPlatform().name("soak-" + i).start(() -> churn(contextA, contextB)));
+            }
+
+            long start = System.nanoTime();
+            long end = start + TimeUnit.MINUTES.toNanos(minutes);
+            System.out.println("minutes   rssMB   nmtMB   fds  threads leaked  dispatchP99us  sendP99us  recvP99us  cycles  failures");
+            while (System.nanoTime() < end) {
+                Thread.sleep(Math.min(TimeUnit.SECONDS.toMillis(sampleSeconds), TimeUnit.NANOSECONDS.toMillis(end - System.nanoTime()) + 1));
+                Sample sample = new Sample((System.nanoTime() - start) / 60e9, rssKb() / 1024.0, nmtCommittedKb() / 1024.0,
+                    openFileDescriptors(), ManagementFactory.getThreadMXBean().getThreadCount(),
+                    Math.max(0, NativeResourceTracker.usage().get(NativeResourceTracker.Kind.AGENT).count() - 2L * inFlight.get()),
+                    Math.max(dispatchA.percentile(0.99), dispatchB.percentile(0.99)) / 1e3,
+                    sendLatency.percentile(0.99) / 1e3, receiveLatency.percentile(0.99) / 1e3,
+                    cycles.sum(), failures.sum());
+                dispatchA.reset();
+                dispatchB.reset();
+                sendLatency.reset();
+                receiveLatency.reset();
+                samples.add(sample);
+                System.out.printf("%7.1f %7.1f %7.1f %5.0f %8.0f %6.0f %14.1f %10.1f %10.1f %7d %9d%n",
+                    sample.minutes(), sample.rssMb(), sample.nmtMb(), sample.fds(), sample.threads(), sample.agents(),
+                    sample.dispatchP99Us(), sample.sendP99Us(), sample.receiveP99Us(), sample.cycles(), sample.failures());
+            }
+
+            running.set(false);
+            for (Thread worker : workers) {
+                worker.join();
+            }
+        }
+        return judge(samples);
+    }
+
+    /**
+     * Runs pair lifecycles until stopped. Every other cycle restarts ICE on both sides and checks that
+     * packets keep arriving before closing.
+     */
+    private void churn(GLibContext contextA, GLibContext contextB) {
+        ByteBuffer payload = ByteBuffer.allocate(PAYLOAD_SIZE);
+        for (long cycle = 0; running.get(); cycle++) {
+            inFlight.incrementAndGet();
+            try (BenchSupport.AgentPair pair = BenchSupport.AgentPair.start(contextA, contextB, (agent, streamId) -> {}, TIMEOUT_MS)) {
+                pair.controlled.receiveLatency = receiveLatency;
+                boolean ok = pair.awaitReady(TIMEOUT_MS) && traffic(pair, payload);
+                if (ok && cycle % 2 == 1) {
+                    restarts.increment();
+                    ok = pair.controlling.agent.restartStream(pair.controlling.streamId)
+                        && pair.controlled.agent.restartStream(pair.controlled.streamId);
+                    pair.exchange();
+                    ok = ok && traffic(pair, payload);
+                }
+                cycles.increment();
+                if (!ok) {
+                    failures.increment();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                inFlight.decrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Sends {@code packetsPerPhase} timestamped packets 10 ms apart.
+     *
+     * @return true if the receiver got at least one of them.
+     */
+    private boolean traffic(BenchSupport.AgentPair pair, ByteBuffer payload) throws InterruptedException {
+        long received = pair.controlled.receivedBytes.sum();
+        for (int i = 0; i < packetsPerPhase && running.get(); i++) {
+            long now = System.nanoTime();
+            payload.putLong(0, now);
+            pair.controlling.agent.send(pair.controlling.streamId, 1, payload.array());
+            sendLatency.record(System.nanoTime() - now);
+            Thread.sleep(10);
+        }
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+        while (pair.controlled.receivedBytes.sum() == received && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        return pair.controlled.receivedBytes.sum() > received || !running.get();
+    }
+
+    /**
+     * Fits a line to each metric after warm-up and compares its growth over the run with the metric's threshold.
+     */
+    private boolean judge(List<Sample> samples) {
+        boolean passed = true;
+        Sample last = samples.isEmpty() ? null : samples.getLast();
+        if (last != null && last.failures() > Math.max(1, last.cycles() / 100)) {
+            System.out.printf("FAIL cycles: %d of %d failed to connect or to resume after a restart%n", last.failures(), last.cycles());
+            passed = false;
+        }
+        List<Sample> judged = samples.subList(samples.size() / 5, samples.size());
+        if (judged.size() < 3) {
+            System.out.println("Too few samples after warm-up to judge trends; run longer or sample more often");
+            return passed;
+        }
+        for (Metric metric : METRICS) {
+            double[] fit = fit(judged, metric.value());
+            if (Double.isNaN(fit[0])) continue;
+            double startValue = fit[0] + fit[1] * judged.getFirst().minutes();
+            double growth = fit[1] * (judged.getLast().minutes() - judged.getFirst().minutes());
+            double allowed = metric.relative() ? Math.max(metric.allowedGrowth(), startValue) : metric.allowedGrowth();
+            boolean ok = growth <= allowed;
+            passed &= ok;
+            System.out.printf("%s %-18s start %10.1f  growth %+10.1f  allowed %10.1f%n",
+                ok ? "ok  " : "FAIL", metric.name(), startValue, growth, allowed);
+        }
+        System.out.println((passed ? "PASSED" : "FAILED") + " after " + (last == null ? 0 : last.cycles())
+            + " cycles, " + restarts.sum() + " ICE restarts");
+        return passed;
+    }
+
+    /**
+     * @return {intercept, slope} of a least-squares fit over minutes, or NaN if the metric was unavailable.
+     */
+    private static double[] fit(List<Sample> samples, ToDoubleFunction<Sample> value) {
+        int n = samples.size();
+        double sx = 0, sy = 0, sxx = 0, sxy = 0;
+        for (Sample sample : samples) {
+            double x = sample.minutes();
+            double y = value.applyAsDouble(sample);
+            if (y < 0) return new double[] {Double.NaN, Double.NaN};
+            sx += x;
+            sy += y;
+            sxx += x * x;
+            sxy += x * y;
+        }
+        double denominator = n * sxx - sx * sx;
+        double slope = denominator == 0 ? 0 : (n * sxy - sx * sy) / denominator;
+        return new double[] {(sy - slope * sx) / n, slope};
+    }
+
+    /**
+     * @return VmRSS in KB, or -1 if /proc is unavailable.
+     */
+    private static long rssKb() throws IOException {
+        Path status = Path.of("/proc/self/status");
+        if (!Files.exists(status)) return -1;
+        for (String line : Files.readAllLines(status)) {
+            if (line.startsWith("VmRSS:")) {
+                return Long.parseLong(line.replaceAll("\\D+", ""));
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return Native memory tracking's committed total in KB, or -1 if tracking is off.
+     */
+    private static long nmtCommittedKb() {
+        try {
+            String output = (String) ManagementFactory.getPlatformMBeanServer().invoke(
+                new ObjectName("com.sun.management:type=DiagnosticCommand"), "vmNativeMemory",
+                new Object[] {new String[] {"summary", "scale=KB"}}, new String[] {String[].class.getName()});
+            Matcher matcher = NMT_TOTAL.matcher(output);
+            return matcher.find() ? Long.parseLong(matcher.group(2)) : -1;
+        } catch (Exception e) {
+            return -1;
+        }
+    }
+
+    private static long openFileDescriptors() throws IOException {
+        Path fds = Path.of("/proc/self/fd");
+        if (!Files.isDirectory(fds)) return -1;
+        try (Stream<Path> entries = Files.list(fds)) {
+            return entries.count();
+        }
+    }
+}
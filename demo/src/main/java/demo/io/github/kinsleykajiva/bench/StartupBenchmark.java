@@ -0,0 +1,77 @@
+package demo.io.github.kinsleykajiva.bench;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Launches {@code IceDemo} repeatedly on the plain JVM, on the JVM with an AOT cache, and as a native
+ * image, and reports the time from process start to the first gathered candidate that it prints.
+ * Build the cache with {@code mvn -Paot package} and the image with {@code mvn -Pnative package}
+ * in {@code demo}; modes whose artifact is missing are skipped.
+ * <p>
+ * Usage: {@code StartupBenchmark [runs=10] [aotCache=target/ice-demo.aot] [nativeImage=target/ice-demo]}
+ */
+public class StartupBenchmark {
+    private static final String MAIN_CLASS = "demo.io.github.kinsleykajiva.IceDemo";
+    private static final String MARKER = "Startup to first gathered candidate: ";
+
+    public static void main(String[] args) throws Exception {
+        int runs = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+        Path aotCache = Path.of(args.length > 1 ? args[1] : "target/ice-demo.aot");
+        Path nativeImage = Path.of(args.length > 2 ? args[2] : "target/ice-demo");
+
+        String java = ProcessHandle.current().info().command().orElse("java");
+        String classpath = System.getProperty("java.class.path");
+        List<String> jvm = List.of(java, "--enable-native-access=ALL-UNNAMED", "-cp", classpath, MAIN_CLASS);
+
+        measure("jvm", jvm, runs);
+        if (Files.exists(aotCache)) {
+            List<String> aot = new ArrayList<>(jvm);
+            aot.add(1, "-XX:AOTCache=" + aotCache);
+            measure("jvm + AOT cache", aot, runs);
+        } else {
+            System.out.println("jvm + AOT cache: skipped, " + aotCache + " not found");
+        }
+        if (Files.isExecutable(nativeImage)) {
+            measure("native image", List.of(nativeImage.toString()), runs);
+        } else {
+            System.out.println("native image: skipped, " + nativeImage + " not found");
+        }
+    }
+
+    private static void measure(String label, List<String> command, int runs) throws IOException, InterruptedException {
+        List<Long> millis = new ArrayList<>();
+        for (int i = 0; i < runs; i++) {
+            Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+            try (BufferedReader out = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+                String line;
+                while ((line = out.readLine()) != null) {
+                    int at = line.indexOf(MARKER);
+                    if (at >= 0) {
+                        millis.add(Long.parseLong(line.substring(at + MARKER.length()).replace(" ms", "").trim()));
+                    }
+                }
+            }
+            if (!process.waitFor(30, TimeUnit.SECONDS)) {
+                process.destroyForcibly();
+            }
+        }
+        long[] sorted = millis.stream().mapToLong(Long::longValue).sorted().toArray();
+        if (sorted.length == 0) {
+            System.out.println(label + ": no candidate gathered in " + runs + " runs");
+            return;
+        }
+        System.out.printf("%-16s startup-to-first-candidate n=%d min=%dms p50=%dms max=%dms%n",
+            label, sorted.length, sorted[0], sorted[sorted.length / 2], sorted[sorted.length - 1]);
+        if (sorted.length < runs) {
+            System.out.println("  " + (runs - sorted.length) + " runs printed no candidate: " + Arrays.toString(sorted));
+        }
+    }
+}
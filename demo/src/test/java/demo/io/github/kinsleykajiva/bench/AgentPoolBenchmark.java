@@ -0,0 +1,70 @@
+package demo.io.github.kinsleykajiva.bench;
+
+import io.github.kinsleykajiva.ice.GLibContext;
+import io.github.kinsleykajiva.ice.NiceAgent;
+import io.github.kinsleykajiva.ice.NiceAgentPool;
+import io.github.kinsleykajiva.ice.NiceStream;
+import io.github.kinsleykajiva.ice.testkit.LocalStunServer;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares call setup latency, from "call arrives" to "local SDP ready", for agents created on
+ * demand versus agents taken from a pre-warmed {@link NiceAgentPool}.
+ * <p>
+ * Usage: {@code AgentPoolBenchmark [calls=200] [poolSize=16] [intervalMs=20]}
+ */
+public class AgentPoolBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int calls = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        int poolSize = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+        long intervalMs = args.length > 2 ? Long.parseLong(args[2]) : 20;
+
+        try (LocalStunServer stun = LocalStunServer.start(); GLibContext context = new GLibContext()) {
+            context.start();
+
+            List<Long> cold = new ArrayList<>();
+            for (int i = 0; i < calls; i++) {
+                long start = System.nanoTime();
+                BenchSupport.Peer peer = new BenchSupport.Peer(context, false,
+                    (agent, streamId) -> agent.setStunServer(stun.getHost(), stun.getPort()));
+                peer.gather();
+                if (peer.gathered.await(10, TimeUnit.SECONDS)) {
+                    peer.agent.generateLocalSdp();
+                    cold.add(System.nanoTime() - start);
+                }
+                peer.close();
+                Thread.sleep(intervalMs);
+            }
+
+            List<Long> pooled = new ArrayList<>();
+            try (NiceAgentPool pool = new NiceAgentPool(context, poolSize, Duration.ofMinutes(2), (agent, streamId) -> {
+                    agent.disableExtraFeatures();
+                    agent.setStunServer(stun.getHost(), stun.getPort());
+                })) {
+                // Let the pool fill before the first call arrives.
+                while (pool.getStats().idle() < poolSize) {
+                    Thread.sleep(10);
+                }
+                for (int i = 0; i < calls; i++) {
+                    long start = System.nanoTime();
+                    NiceStream stream = pool.acquire().get(10, TimeUnit.SECONDS);
+                    NiceAgent agent = stream.getAgent();
+                    agent.generateLocalSdp();
+                    pooled.add(System.nanoTime() - start);
+                    agent.close();
+                    Thread.sleep(intervalMs);
+                }
+                System.out.println("Pool: " + pool.getStats());
+            }
+
+            System.out.println("\n--- Call setup to local SDP (" + calls + " calls, " + intervalMs + "ms apart) ---");
+            System.out.println("  " + BenchSupport.summarize("on demand", BenchSupport.toArray(cold)));
+            System.out.println("  " + BenchSupport.summarize("pooled (" + poolSize + ")", BenchSupport.toArray(pooled)));
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package demo.io.github.kinsleykajiva.bench;
+
+import io.github.kinsleykajiva.ice.GLibContext;
+import io.github.kinsleykajiva.ice.NiceAgent;
+import io.github.kinsleykajiva.ice.NiceAgentListener;
+import io.github.kinsleykajiva.ice.NiceBindings;
+import io.github.kinsleykajiva.ice.NiceCandidate;
+import io.github.kinsleykajiva.ice.testkit.LocalTurnServer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures time-to-gathering-done for hundreds of concurrent agents, and relay throughput, against
+ * the loopback STUN/TURN stand-in so the numbers are reproducible on an offline CI box.
+ * <p>
+ * Usage: {@code GatheringBenchmark [agents=200] [contexts=4] [relayPackets=20000]}
+ */
+public class GatheringBenchmark {
+    private static final String TURN_USER = "bench";
+    private static final String TURN_PASS = "bench";
+
+    public static void main(String[] args) throws Exception {
+        int agentCount = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        int contextCount = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        int relayPackets = args.length > 2 ? Integer.parseInt(args[2]) : 20_000;
+
+        try (LocalTurnServer turn = LocalTurnServer.start(TURN_USER, TURN_PASS)) {
+            System.out.println("Stand-in STUN/TURN server on " + turn.getHost() + ":" + turn.getPort());
+            List<GLibContext> contexts = new ArrayList<>();
+            for (int i = 0; i < contextCount; i++) {
+                GLibContext context = new GLibContext();
+                context.start();
+                contexts.add(context);
+            }
+            try {
+                measureGathering(turn, contexts, agentCount);
+                measureRelayThroughput(turn, contexts.get(0), contexts.get(contexts.size() - 1), relayPackets);
+            } finally {
+                contexts.forEach(GLibContext::close);
+            }
+        }
+    }
+
+    private static void measureGathering(LocalTurnServer turn, List<GLibContext> contexts, int agentCount) throws InterruptedException {
+        Queue<Long> latencies = new ConcurrentLinkedQueue<>();
+        CountDownLatch done = new CountDownLatch(agentCount);
+        List<BenchSupport.Peer> peers = new ArrayList<>(agentCount);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < agentCount; i++) {
+            BenchSupport.Peer peer = new BenchSupport.Peer(contexts.get(i % contexts.size()), true,
+                (agent, streamId) -> useStandIn(agent, streamId, turn));
+            peer.agent.addListener(new NiceAgentListener() {
+                @Override
+                public void onGatheringDone(int streamId) {
+                    latencies.add(System.nanoTime() - peer.createdNanos);
+                    done.countDown();
+                }
+            });
+            peer.gather();
+            peers.add(peer);
+        }
+        boolean finished = done.await(60, TimeUnit.SECONDS);
+        long wallNanos = System.nanoTime() - start;
+
+        int relayCandidates = 0;
+        int srflxCandidates = 0;
+        for (BenchSupport.Peer peer : peers) {
+            for (NiceCandidate candidate : peer.agent.getLocalCandidates(peer.streamId, 1)) {
+                if (candidate.getType() == NiceBindings.NICE_CANDIDATE_TYPE_RELAYED) relayCandidates++;
+                if (candidate.getType() == NiceBindings.NICE_CANDIDATE_TYPE_SERVER_REFLEXIVE) srflxCandidates++;
+            }
+        }
+
+        System.out.println("\n--- Gathering (" + agentCount + " agents, " + contexts.size() + " contexts) ---");
+        if (!finished) {
+            System.out.println("  " + done.getCount() + " agents did not finish gathering within 60s");
+        }
+        System.out.println("  " + BenchSupport.summarize("time-to-gathering-done", BenchSupport.toArray(latencies)));
+        System.out.printf("  wall=%.1fms srflx=%d relay=%d bindingRequests=%d allocations=%d%n",
+            wallNanos / 1e6, srflxCandidates, relayCandidates, turn.getBindingRequestCount(), turn.getAllocationCount());
+        peers.forEach(BenchSupport.Peer::close);
+    }
+
+    private static void useStandIn(NiceAgent agent, int streamId, LocalTurnServer turn) {
+        agent.setStunServer(turn.getHost(), turn.getPort());
+        agent.setRelayInfo(streamId, 1, turn.getHost(), turn.getPort(), TURN_USER, TURN_PASS,
+            NiceBindings.NICE_RELAY_TYPE_TURN_UDP);
+    }
+
+    private static void measureRelayThroughput(LocalTurnServer turn, GLibContext contextA, GLibContext contextB, int packets)
+            throws InterruptedException {
+        System.out.println("\n--- Relay throughput (" + packets + " x 1200 byte packets, force-relay) ---");
+        try (BenchSupport.AgentPair pair = BenchSupport.AgentPair.start(contextA, contextB, (agent, streamId) -> {
+                agent.setForceRelay(true);
+                useStandIn(agent, streamId, turn);
+            }, 10_000)) {
+            if (!pair.awaitReady(15_000)) {
+                System.out.println("  Pair did not reach READY over the relay; skipping.");
+                return;
+            }
+            NiceAgent sender = pair.controlling.agent;
+            byte[] payload = new byte[1200];
+            long bytesBefore = turn.getRelayedBytes();
+            long start = System.nanoTime();
+            for (int i = 0; i < packets; i++) {
+                sender.send(pair.controlling.streamId, 1, payload);
+            }
+            // Give the relay thread a moment to drain its socket buffers.
+            Thread.sleep(200);
+            double seconds = (System.nanoTime() - start) / 1e9;
+            long relayed = turn.getRelayedBytes() - bytesBefore;
+            System.out.printf("  relayed=%d bytes in %.2fs -> %.1f Mbit/s through the stand-in%n",
+                relayed, seconds, relayed * 8 / seconds / 1e6);
+        }
+    }
+}
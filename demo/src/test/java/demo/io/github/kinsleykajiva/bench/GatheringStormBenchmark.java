@@ -0,0 +1,124 @@
+package demo.io.github.kinsleykajiva.bench;
+
+import io.github.kinsleykajiva.ice.GLibContext;
+import io.github.kinsleykajiva.ice.GatheringOrchestrator;
+import io.github.kinsleykajiva.ice.NiceBindings;
+import io.github.kinsleykajiva.ice.NiceCandidate;
+import io.github.kinsleykajiva.ice.testkit.LocalTurnServer;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Starts a storm of gatherings against the loopback STUN/TURN stand-in, first all at once and then
+ * through a {@link GatheringOrchestrator}, and compares time-to-gathering-done measured from the
+ * request, server-reflexive/relay candidate yield and queue waits. One tenant submits nine in ten
+ * requests; the other tenant's waits show whether round-robin admission keeps it responsive.
+ * <p>
+ * Usage: {@code GatheringStormBenchmark [agents=1000] [contexts=4] [maxInFlight=64] [perSecond=200] [stunBudget=2000]}
+ */
+public class GatheringStormBenchmark {
+    private static final String TURN_USER = "bench";
+    private static final String TURN_PASS = "bench";
+
+    public static void main(String[] args) throws Exception {
+        int agentCount = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int contextCount = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        int maxInFlight = args.length > 2 ? Integer.parseInt(args[2]) : 64;
+        double perSecond = args.length > 3 ? Double.parseDouble(args[3]) : 200;
+        double stunBudget = args.length > 4 ? Double.parseDouble(args[4]) : 2000;
+
+        try (LocalTurnServer turn = LocalTurnServer.start(TURN_USER, TURN_PASS)) {
+            List<GLibContext> contexts = new ArrayList<>();
+            for (int i = 0; i < contextCount; i++) {
+                GLibContext context = new GLibContext();
+                context.start();
+                contexts.add(context);
+            }
+            try {
+                run("unthrottled", turn, contexts, agentCount, null);
+                try (GatheringOrchestrator orchestrator = new GatheringOrchestrator(maxInFlight, perSecond, maxInFlight)) {
+                    orchestrator.setStunRateBudget(stunBudget);
+                    orchestrator.setMinConnectivityChecks(20);
+                    orchestrator.setQueueLimits(agentCount, Duration.ofSeconds(60));
+                    run("orchestrated (" + maxInFlight + " in flight, " + perSecond + "/s)", turn, contexts, agentCount, orchestrator);
+                    System.out.println("  queue wait: " + orchestrator.getQueueWaitHistogram().snapshot());
+                    System.out.println("  admission->done: " + orchestrator.getGatheringHistogram().snapshot());
+                    System.out.println("  " + orchestrator.getLoad());
+                }
+            } finally {
+                contexts.forEach(GLibContext::close);
+            }
+        }
+    }
+
+    private static void run(String label, LocalTurnServer turn, List<GLibContext> contexts, int agentCount,
+                            GatheringOrchestrator orchestrator) throws InterruptedException {
+        Queue<Long> all = new ConcurrentLinkedQueue<>();
+        Queue<Long> smallTenant = new ConcurrentLinkedQueue<>();
+        AtomicInteger refused = new AtomicInteger();
+        List<BenchSupport.Peer> peers = new ArrayList<>(agentCount);
+        long bindingsBefore = turn.getBindingRequestCount();
+
+        long start = System.nanoTime();
+        for (int i = 0; i < agentCount; i++) {
+            BenchSupport.Peer peer = new BenchSupport.Peer(contexts.get(i % contexts.size()), true, (agent, streamId) -> {
+                agent.setStunServer(turn.getHost(), turn.getPort());
+                agent.setRelayInfo(streamId, 1, turn.getHost(), turn.getPort(), TURN_USER, TURN_PASS,
+                    NiceBindings.NICE_RELAY_TYPE_TURN_UDP);
+            });
+            peers.add(peer);
+            boolean small = i % 10 == 0;
+            long requestedNanos = System.nanoTime();
+            Thread.ofVirtual().start(() -> {
+                try {
+                    if (peer.gathered.await(120, TimeUnit.SECONDS)) {
+                        long nanos = peer.gatheredNanos - requestedNanos;
+                        all.add(nanos);
+                        if (small) smallTenant.add(nanos);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            if (orchestrator == null) {
+                if (!peer.gather()) refused.incrementAndGet();
+            } else {
+                orchestrator.submit(small ? "small" : "large", peer.agent, peer.streamId)
+                    .exceptionally(t -> {
+                        refused.incrementAndGet();
+                        return null;
+                    });
+            }
+        }
+        // Refused requests never finish gathering, so wait against one deadline rather than per peer.
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(120);
+        for (BenchSupport.Peer peer : peers) {
+            peer.gathered.await(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        }
+        long wallNanos = System.nanoTime() - start;
+        // Let the waiter threads record the last completions.
+        Thread.sleep(100);
+
+        int srflx = 0;
+        int relay = 0;
+        for (BenchSupport.Peer peer : peers) {
+            for (NiceCandidate candidate : peer.agent.getLocalCandidates(peer.streamId, 1)) {
+                if (candidate.getType() == NiceBindings.NICE_CANDIDATE_TYPE_SERVER_REFLEXIVE) srflx++;
+                if (candidate.getType() == NiceBindings.NICE_CANDIDATE_TYPE_RELAYED) relay++;
+            }
+        }
+
+        System.out.println("\n--- " + label + ": " + agentCount + " agents, " + contexts.size() + " contexts ---");
+        System.out.println("  " + BenchSupport.summarize("request->gathering-done", BenchSupport.toArray(all)));
+        System.out.println("  " + BenchSupport.summarize("small tenant", BenchSupport.toArray(smallTenant)));
+        System.out.printf("  wall=%.1fms gathered=%d refused=%d srflx=%d relay=%d bindingRequests=%d%n",
+            wallNanos / 1e6, all.size(), refused.get(), srflx, relay, turn.getBindingRequestCount() - bindingsBefore);
+        peers.forEach(BenchSupport.Peer::close);
+    }
+}
@@ -0,0 +1,148 @@
+package demo.io.github.kinsleykajiva.bench;
+
+import io.github.kinsleykajiva.ice.GLibContext;
+import io.github.kinsleykajiva.ice.NiceAgent;
+import io.github.kinsleykajiva.ice.testkit.Impairment;
+import io.github.kinsleykajiva.ice.testkit.ImpairmentProxy;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Measures how ICE sessions cope with loss, delay, jitter and duplication by routing a pair of
+ * in-process agents through an {@link ImpairmentProxy}. Each trial uses its own seed, so a run
+ * with the same arguments replays the same impairment decisions.
+ * <p>
+ * Reports, per impairment level: time-to-READY percentiles and goodput. Then, with keepalive
+ * connectivity checks enabled, the time from a total blackout to the component reporting FAILED.
+ * <p>
+ * Usage: {@code ImpairmentBenchmark [trials=5] [keepaliveTrials=2]}
+ */
+public class ImpairmentBenchmark {
+    private static final double[] LOSS_LEVELS = {0.0, 0.02, 0.05, 0.10, 0.20, 0.30};
+    private static final Duration DELAY = Duration.ofMillis(20);
+    private static final Duration JITTER = Duration.ofMillis(5);
+    private static final double DUPLICATE = 0.01;
+
+    private static final int GOODPUT_PACKETS = 2000;
+    private static final int GOODPUT_PACKET_SIZE = 1000;
+    private static final int PACKETS_PER_MILLI = 10;
+
+    public static void main(String[] args) throws Exception {
+        int trials = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+        int keepaliveTrials = args.length > 1 ? Integer.parseInt(args[1]) : 2;
+
+        try (GLibContext contextA = new GLibContext(); GLibContext contextB = new GLibContext()) {
+            contextA.start();
+            contextB.start();
+
+            System.out.println("--- Time-to-READY and goodput (delay " + DELAY.toMillis() + "ms, jitter "
+                + JITTER.toMillis() + "ms, duplicate " + (DUPLICATE * 100) + "%) ---");
+            for (double loss : LOSS_LEVELS) {
+                Impairment impairment = Impairment.NONE.withLoss(loss).withDelay(DELAY).withJitter(JITTER).withDuplicate(DUPLICATE);
+                List<Long> readyTimes = new ArrayList<>();
+                double goodputSum = 0;
+                double deliveredSum = 0;
+                int failures = 0;
+                for (int seed = 1; seed <= trials; seed++) {
+                    Trial trial = runTrial(contextA, contextB, impairment, seed, false);
+                    if (trial == null) {
+                        failures++;
+                        continue;
+                    }
+                    readyTimes.add(trial.timeToReadyNanos);
+                    goodputSum += trial.goodputMbps;
+                    deliveredSum += trial.deliveredRatio;
+                }
+                int ok = trials - failures;
+                System.out.println("  " + BenchSupport.summarize(String.format("loss=%4.1f%% time-to-READY", loss * 100),
+                    BenchSupport.toArray(readyTimes)));
+                System.out.printf("  %-28s goodput=%7.2f Mbit/s delivered=%5.1f%% failed=%d/%d%n", "",
+                    ok == 0 ? 0 : goodputSum / ok, ok == 0 ? 0 : deliveredSum / ok * 100, failures, trials);
+            }
+
+            System.out.println("\n--- Keepalive failure detection (keepalive-conncheck, total blackout after READY) ---");
+            List<Long> detectionTimes = new ArrayList<>();
+            for (int seed = 1; seed <= keepaliveTrials; seed++) {
+                Trial trial = runTrial(contextA, contextB, Impairment.NONE.withDelay(DELAY), seed, true);
+                if (trial != null && trial.failureDetectionNanos > 0) {
+                    detectionTimes.add(trial.failureDetectionNanos);
+                }
+            }
+            System.out.println("  " + BenchSupport.summarize("blackout-to-FAILED", BenchSupport.toArray(detectionTimes)));
+        }
+    }
+
+    private static final class Trial {
+        long timeToReadyNanos;
+        double goodputMbps;
+        double deliveredRatio;
+        long failureDetectionNanos;
+    }
+
+    /**
+     * Connects a fresh pair through a proxy seeded with {@code seed}.
+     *
+     * @return The trial's measurements, or null if the pair never reached READY.
+     */
+    private static Trial runTrial(GLibContext contextA, GLibContext contextB, Impairment impairment, long seed,
+                                  boolean measureKeepalive) throws InterruptedException, IOException {
+        try (BenchSupport.AgentPair pair = BenchSupport.AgentPair.gather(contextA, contextB,
+                (agent, streamId) -> agent.setKeepaliveConncheck(measureKeepalive), 10_000)) {
+            if (!pair.isGathered()) return null;
+            InetSocketAddress hostA = BenchSupport.hostCandidate(pair.controlling.agent.generateLocalSdp());
+            InetSocketAddress hostB = BenchSupport.hostCandidate(pair.controlled.agent.generateLocalSdp());
+            if (hostA == null || hostB == null) {
+                System.out.println("  No IPv4 host candidate gathered; cannot route through the proxy.");
+                return null;
+            }
+
+            try (ImpairmentProxy proxy = ImpairmentProxy.start(hostA, hostB, impairment, impairment, seed)) {
+                pair.exchange(
+                    sdp -> BenchSupport.withOnlyCandidate(sdp, proxy.standInForA()),
+                    sdp -> BenchSupport.withOnlyCandidate(sdp, proxy.standInForB()));
+                if (!pair.awaitReady(30_000)) return null;
+
+                Trial trial = new Trial();
+                trial.timeToReadyNanos = pair.timeToReady();
+                if (measureKeepalive) {
+                    long blackoutStart = System.nanoTime();
+                    proxy.blackout(Duration.ofMinutes(2));
+                    if (pair.controlling.failedLatch.await(90, TimeUnit.SECONDS)) {
+                        trial.failureDetectionNanos = pair.controlling.failedNanos - blackoutStart;
+                    }
+                } else {
+                    measureGoodput(pair, trial);
+                }
+                return trial;
+            }
+        }
+    }
+
+    /**
+     * Paces {@link #GOODPUT_PACKETS} packets from the controlling to the controlled agent and
+     * measures what arrives within one round trip plus jitter of the last send.
+     */
+    private static void measureGoodput(BenchSupport.AgentPair pair, Trial trial) {
+        NiceAgent sender = pair.controlling.agent;
+        byte[] payload = new byte[GOODPUT_PACKET_SIZE];
+        long receivedBefore = pair.controlled.receivedBytes.sum();
+        long start = System.nanoTime();
+        for (int i = 0; i < GOODPUT_PACKETS; i++) {
+            sender.send(pair.controlling.streamId, 1, payload);
+            if ((i + 1) % PACKETS_PER_MILLI == 0) {
+                LockSupport.parkNanos(1_000_000);
+            }
+        }
+        LockSupport.parkNanos(DELAY.plus(JITTER).multipliedBy(2).toNanos());
+        double seconds = (System.nanoTime() - start) / 1e9;
+        long received = pair.controlled.receivedBytes.sum() - receivedBefore;
+        trial.goodputMbps = received * 8 / seconds / 1e6;
+        trial.deliveredRatio = (double) received / ((long) GOODPUT_PACKETS * GOODPUT_PACKET_SIZE);
+    }
+}
@@ -0,0 +1,80 @@
+package demo.io.github.kinsleykajiva.bench;
+
+import io.github.kinsleykajiva.ice.StunProber;
+import io.github.kinsleykajiva.ice.StunResponder;
+import io.github.kinsleykajiva.ice.testkit.LocalStunServer;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Drives Binding requests over loopback from batched {@link StunProber}s, first against the
+ * single-threaded {@link LocalStunServer} from the testkit and then against a {@link StunResponder},
+ * reporting answered requests per second and round-trip percentiles.
+ * <p>
+ * Usage: {@code StunBenchmark [responderThreads=4] [probers=4] [seconds=5] [batch=64]}
+ */
+public class StunBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int responderThreads = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+        int probers = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+        int batch = args.length > 3 ? Integer.parseInt(args[3]) : 64;
+
+        try (LocalStunServer server = LocalStunServer.start()) {
+            run("LocalStunServer", new InetSocketAddress(server.getHost(), server.getPort()), probers, seconds, batch);
+        }
+        try (StunResponder responder = StunResponder.start(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), responderThreads)) {
+            if (responder == null) {
+                System.out.println("StunResponder unavailable (needs Linux and libnice's STUN symbols)");
+                return;
+            }
+            run("StunResponder x" + responderThreads, responder.getLocalAddress(), probers, seconds, batch);
+            System.out.printf("  responder: requests=%d responses=%d errors=%d dropped=%d (%.1f requests per recvmmsg)%n",
+                responder.getRequestCount(), responder.getResponseCount(), responder.getErrorCount(), responder.getDroppedCount(),
+                responder.getRequestCount() / (double) Math.max(1, responder.getBatchCount()));
+        }
+    }
+
+    private static void run(String label, InetSocketAddress server, int proberCount, int seconds, int batch) throws InterruptedException {
+        List<StunProber> probers = new ArrayList<>();
+        for (int i = 0; i < proberCount; i++) {
+            StunProber prober = StunProber.open(server);
+            if (prober == null) {
+                System.out.println("StunProber unavailable (needs Linux and libnice's STUN symbols)");
+                probers.forEach(StunProber::close);
+                return;
+            }
+            probers.add(prober);
+        }
+
+        long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+        List<Thread> threads = new ArrayList<>();
+        for (StunProber prober : probers) {
+            threads.add(Thread.ofPlatform().name("stun-prober").start(() -> {
+                while (System.nanoTime() < deadline) {
+                    if (prober.probeBatch(batch, Duration.ofMillis(500)) < 0) return;
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        long answered = 0;
+        long timedOut = 0;
+        for (StunProber prober : probers) {
+            answered += prober.getAnsweredCount();
+            timedOut += prober.getTimedOutCount();
+        }
+        System.out.printf("%-22s %,.0f req/s answered=%d timedOut=%d%n", label, answered / (double) seconds, answered, timedOut);
+        for (int i = 0; i < probers.size(); i++) {
+            System.out.println("  prober " + i + " rtt: " + probers.get(i).getRoundTripTimes().snapshot());
+            probers.get(i).close();
+        }
+    }
+}
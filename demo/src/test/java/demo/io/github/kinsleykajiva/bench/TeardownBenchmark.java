@@ -0,0 +1,89 @@
+package demo.io.github.kinsleykajiva.bench;
+
+import io.github.kinsleykajiva.ice.GLibContext;
+import io.github.kinsleykajiva.ice.NiceAgent;
+import io.github.kinsleykajiva.ice.NiceAgentListener;
+import io.github.kinsleykajiva.ice.NiceBindings;
+import io.github.kinsleykajiva.ice.testkit.LocalTurnServer;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Drains a large number of TURN-allocating agents at once, first with synchronous {@link NiceAgent#close()}
+ * and then with {@link NiceAgent#closeAll}, reporting teardown time and how many TURN allocations each
+ * approach leaves behind on the server.
+ * <p>
+ * Usage: {@code TeardownBenchmark [agents=2000] [contexts=8] [maxInFlight=256]}
+ */
+public class TeardownBenchmark {
+    private static final String TURN_USER = "bench";
+    private static final String TURN_PASS = "bench";
+
+    public static void main(String[] args) throws Exception {
+        int agentCount = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int contextCount = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+        int maxInFlight = args.length > 2 ? Integer.parseInt(args[2]) : 256;
+
+        try (LocalTurnServer turn = LocalTurnServer.start(TURN_USER, TURN_PASS)) {
+            List<GLibContext> contexts = new ArrayList<>();
+            for (int i = 0; i < contextCount; i++) {
+                GLibContext context = new GLibContext();
+                context.start();
+                contexts.add(context);
+            }
+            try {
+                List<NiceAgent> agents = createGathered(turn, contexts, agentCount);
+                int allocations = turn.getAllocationCount();
+                long start = System.nanoTime();
+                agents.forEach(NiceAgent::close);
+                long syncNanos = System.nanoTime() - start;
+                System.out.println("--- Synchronous close() of " + agentCount + " agents ---");
+                System.out.printf("  total=%.1fms allocations before=%d left on server=%d%n",
+                    syncNanos / 1e6, allocations, turn.getAllocationCount());
+
+                // Allocations abandoned by the first round stay until they expire; count the second round on top.
+                int leftover = turn.getAllocationCount();
+
+                agents = createGathered(turn, contexts, agentCount);
+                allocations = turn.getAllocationCount() - leftover;
+                NiceAgent.TeardownReport report = NiceAgent.closeAll(agents, maxInFlight, Duration.ofSeconds(5))
+                    .toCompletableFuture().get(5, TimeUnit.MINUTES);
+                System.out.println("\n--- closeAll (maxInFlight=" + maxInFlight + ") of " + agentCount + " agents ---");
+                System.out.printf("  total=%.1fms p50=%.2fms p99=%.2fms max=%.2fms timedOut=%d%n",
+                    report.totalNanos() / 1e6, report.p50Nanos() / 1e6, report.p99Nanos() / 1e6,
+                    report.maxNanos() / 1e6, report.timedOut());
+                System.out.printf("  allocations before=%d left on server=%d%n",
+                    allocations, turn.getAllocationCount() - leftover);
+            } finally {
+                contexts.forEach(GLibContext::close);
+            }
+        }
+    }
+
+    private static List<NiceAgent> createGathered(LocalTurnServer turn, List<GLibContext> contexts, int count)
+            throws InterruptedException {
+        CountDownLatch gathered = new CountDownLatch(count);
+        List<NiceAgent> agents = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            BenchSupport.Peer peer = new BenchSupport.Peer(contexts.get(i % contexts.size()), true, (agent, streamId) ->
+                agent.setRelayInfo(streamId, 1, turn.getHost(), turn.getPort(), TURN_USER, TURN_PASS,
+                    NiceBindings.NICE_RELAY_TYPE_TURN_UDP));
+            peer.agent.addListener(new NiceAgentListener() {
+                @Override
+                public void onGatheringDone(int streamId) {
+                    gathered.countDown();
+                }
+            });
+            peer.gather();
+            agents.add(peer.agent);
+        }
+        if (!gathered.await(60, TimeUnit.SECONDS)) {
+            System.out.println("  " + gathered.getCount() + " agents did not finish gathering");
+        }
+        return agents;
+    }
+}
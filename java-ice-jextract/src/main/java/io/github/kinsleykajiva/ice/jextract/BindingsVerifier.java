@@ -0,0 +1,119 @@
+package io.github.kinsleykajiva.ice.jextract;
+
+import io.github.kinsleykajiva.ice.NiceBindings;
+
+import java.lang.foreign.FunctionDescriptor;
+import java.lang.foreign.GroupLayout;
+import java.lang.foreign.MemoryLayout;
+import java.lang.foreign.ValueLayout;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Checks the hand-written descriptors and struct layouts in {@link NiceBindings} against the
+ * jextract-generated {@code LibNice} bindings. Run at the {@code verify} phase of {@code -Pjextract};
+ * exits non-zero on any mismatch so a wrong descriptor fails the build.
+ */
+public class BindingsVerifier {
+
+    /** Variadic functions are bound per call shape and have no single generated descriptor. */
+    private static final Set<String> VARIADIC = Set.of("g_object_set");
+
+    public static void main(String[] args) {
+        List<String> problems = new ArrayList<>();
+        int checked = 0;
+
+        for (Map.Entry<String, FunctionDescriptor> entry : NiceBindings.descriptors().entrySet()) {
+            String name = entry.getKey();
+            if (VARIADIC.contains(name)) continue;
+            Optional<FunctionDescriptor> generated = generatedDescriptor(name);
+            if (generated.isEmpty()) {
+                problems.add(name + ": not generated (add it to symbols.txt)");
+                continue;
+            }
+            checked++;
+            String mismatch = compare(entry.getValue(), generated.get());
+            if (mismatch != null) {
+                problems.add(name + ": " + mismatch);
+            }
+        }
+
+        compareStruct(problems, "NiceCandidate", NiceBindings.NICE_CANDIDATE_LAYOUT, _NiceCandidate.layout());
+        compareStruct(problems, "NiceAddress", NiceBindings.NICE_ADDRESS_LAYOUT, _NiceAddress.layout());
+        compareStruct(problems, "GSList", NiceBindings.GSLIST_LAYOUT, _GSList.layout());
+        // Allocated by the caller and passed to calls linked as critical; a short layout overruns native memory.
+        compareStruct(problems, "StunAgent", NiceBindings.STUN_AGENT_LAYOUT, stun_agent_t.layout());
+        compareStruct(problems, "StunMessage", NiceBindings.STUN_MESSAGE_LAYOUT, _StunMessage.layout());
+        compareStruct(problems, "StunDefaultValidaterData", NiceBindings.STUN_VALIDATER_DATA_LAYOUT,
+            StunDefaultValidaterData.layout());
+
+        System.out.println("Verified " + checked + " function descriptors and 6 struct layouts against jextract output.");
+        if (!problems.isEmpty()) {
+            problems.forEach(p -> System.err.println("  MISMATCH " + p));
+            System.exit(1);
+        }
+    }
+
+    private static Optional<FunctionDescriptor> generatedDescriptor(String name) {
+        try {
+            Method method = LibNice.class.getMethod(name + "$descriptor");
+            return Optional.of((FunctionDescriptor) method.invoke(null));
+        } catch (ReflectiveOperationException e) {
+            return Optional.empty();
+        }
+    }
+
+    private static String compare(FunctionDescriptor expected, FunctionDescriptor actual) {
+        if (expected.returnLayout().isPresent() != actual.returnLayout().isPresent()) {
+            return "return type differs: " + expected + " vs generated " + actual;
+        }
+        if (expected.returnLayout().isPresent()
+            && !sameShape(expected.returnLayout().get(), actual.returnLayout().get())) {
+            return "return type differs: " + expected + " vs generated " + actual;
+        }
+        if (expected.argumentLayouts().size() != actual.argumentLayouts().size()) {
+            return "argument count differs: " + expected + " vs generated " + actual;
+        }
+        for (int i = 0; i < expected.argumentLayouts().size(); i++) {
+            if (!sameShape(expected.argumentLayouts().get(i), actual.argumentLayouts().get(i))) {
+                return "argument " + i + " differs: " + expected + " vs generated " + actual;
+            }
+        }
+        return null;
+    }
+
+    private static boolean sameShape(MemoryLayout expected, MemoryLayout actual) {
+        if (expected.byteSize() != actual.byteSize()) return false;
+        if (expected instanceof ValueLayout e && actual instanceof ValueLayout a) {
+            return e.carrier() == a.carrier();
+        }
+        return expected.getClass() == actual.getClass();
+    }
+
+    private static void compareStruct(List<String> problems, String name, GroupLayout expected, GroupLayout actual) {
+        if (expected.byteSize() != actual.byteSize()) {
+            problems.add(name + ": size " + expected.byteSize() + " vs generated " + actual.byteSize());
+        }
+        if (expected.byteAlignment() != actual.byteAlignment()) {
+            problems.add(name + ": alignment " + expected.byteAlignment() + " vs generated " + actual.byteAlignment());
+        }
+        for (MemoryLayout member : actual.memberLayouts()) {
+            Optional<String> memberName = member.name();
+            if (memberName.isEmpty() || !hasMember(expected, memberName.get())) continue;
+            MemoryLayout.PathElement path = MemoryLayout.PathElement.groupElement(memberName.get());
+            long expectedOffset = expected.byteOffset(path);
+            long actualOffset = actual.byteOffset(path);
+            if (expectedOffset != actualOffset) {
+                problems.add(name + "." + memberName.get() + ": offset " + expectedOffset + " vs generated " + actualOffset);
+            }
+        }
+    }
+
+    private static boolean hasMember(GroupLayout layout, String name) {
+        return layout.memberLayouts().stream().anyMatch(m -> m.name().filter(name::equals).isPresent());
+    }
+}
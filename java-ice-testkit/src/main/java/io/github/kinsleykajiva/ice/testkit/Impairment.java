@@ -0,0 +1,80 @@
+package io.github.kinsleykajiva.ice.testkit;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One direction's impairment profile for an {@link ImpairmentProxy}.
+ * Immutable; the {@code with*} methods return modified copies.
+ *
+ * @param loss Probability (0.0 - 1.0) that a datagram is dropped.
+ * @param delay Fixed one-way delay added to every datagram.
+ * @param jitter Maximum uniform deviation from {@code delay}, in either direction. Reorders datagrams when
+ *               larger than their spacing.
+ * @param duplicate Probability (0.0 - 1.0) that a forwarded datagram is delivered twice.
+ * @param blackouts Windows, relative to proxy start, during which every datagram is dropped.
+ */
+public record Impairment(double loss, Duration delay, Duration jitter, double duplicate, List<Blackout> blackouts) {
+
+    /** A clean link. */
+    public static final Impairment NONE = new Impairment(0, Duration.ZERO, Duration.ZERO, 0, List.of());
+
+    /**
+     * A window during which the link drops everything.
+     *
+     * @param start Offset from proxy start.
+     * @param duration Length of the window.
+     */
+    public record Blackout(Duration start, Duration duration) {
+        public Blackout {
+            if (start.isNegative() || duration.isNegative()) {
+                throw new IllegalArgumentException("Blackout start and duration must not be negative");
+            }
+        }
+
+        boolean covers(long offsetNanos) {
+            long from = start.toNanos();
+            return offsetNanos >= from && offsetNanos < from + duration.toNanos();
+        }
+    }
+
+    public Impairment {
+        if (loss < 0 || loss > 1 || duplicate < 0 || duplicate > 1) {
+            throw new IllegalArgumentException("loss and duplicate must be probabilities in [0, 1]");
+        }
+        if (delay.isNegative() || jitter.isNegative()) {
+            throw new IllegalArgumentException("delay and jitter must not be negative");
+        }
+        blackouts = List.copyOf(blackouts);
+    }
+
+    public Impairment withLoss(double loss) {
+        return new Impairment(loss, delay, jitter, duplicate, blackouts);
+    }
+
+    public Impairment withDelay(Duration delay) {
+        return new Impairment(loss, delay, jitter, duplicate, blackouts);
+    }
+
+    public Impairment withJitter(Duration jitter) {
+        return new Impairment(loss, delay, jitter, duplicate, blackouts);
+    }
+
+    public Impairment withDuplicate(double duplicate) {
+        return new Impairment(loss, delay, jitter, duplicate, blackouts);
+    }
+
+    public Impairment withBlackout(Duration start, Duration duration) {
+        List<Blackout> all = new ArrayList<>(blackouts);
+        all.add(new Blackout(start, duration));
+        return new Impairment(loss, delay, jitter, duplicate, all);
+    }
+
+    boolean inBlackout(long offsetNanos) {
+        for (Blackout blackout : blackouts) {
+            if (blackout.covers(offsetNanos)) return true;
+        }
+        return false;
+    }
+}
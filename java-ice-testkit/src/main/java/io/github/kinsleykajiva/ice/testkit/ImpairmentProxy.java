@@ -0,0 +1,274 @@
+package io.github.kinsleykajiva.ice.testkit;
+
+import java.io.IOException;
+import java.lang.System.Logger.Level;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.time.Duration;
+import java.util.PriorityQueue;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Loopback UDP relay that sits between two ICE endpoints and impairs traffic in each direction.
+ * <p>
+ * Endpoint A is given {@link #standInForB()} as B's only candidate and vice versa, so every datagram
+ * crosses the proxy and each side sees the other's traffic coming from that stand-in address.
+ * Loss, jitter and duplication decisions come from a per-direction {@link SplittableRandom} seeded
+ * from {@code seed}, so the same seed and datagram sequence always produce the same impairment.
+ *
+ * <pre>{@code
+ * Impairment lossy = Impairment.NONE.withLoss(0.05).withDelay(Duration.ofMillis(20));
+ * try (ImpairmentProxy proxy = ImpairmentProxy.start(hostA, hostB, lossy, lossy, 42)) {
+ *     agentA.parseRemoteSdp(rewrite(sdpB, proxy.standInForB()));
+ *     agentB.parseRemoteSdp(rewrite(sdpA, proxy.standInForA()));
+ * }
+ * }</pre>
+ */
+public final class ImpairmentProxy implements AutoCloseable {
+    private static final System.Logger LOG = System.getLogger(ImpairmentProxy.class.getName());
+
+    public enum Direction { A_TO_B, B_TO_A }
+
+    private static final int MAX_DATAGRAM = 65536;
+
+    private final InetSocketAddress endpointA;
+    private final InetSocketAddress endpointB;
+    private final DatagramChannel facingA;
+    private final DatagramChannel facingB;
+    private final Selector selector;
+    private final Link[] links = new Link[2];
+    private final PriorityQueue<Scheduled> scheduled = new PriorityQueue<>();
+    private final long startNanos = System.nanoTime();
+    private final Thread thread;
+    private volatile long manualBlackoutUntil = startNanos;
+    private volatile boolean running = true;
+    private long sequence;
+
+    /**
+     * Per-direction state. The random source and counters other than the atomics are only touched
+     * by the proxy thread.
+     */
+    private static final class Link {
+        final SplittableRandom random;
+        volatile Impairment impairment;
+        final AtomicLong forwarded = new AtomicLong();
+        final AtomicLong dropped = new AtomicLong();
+        final AtomicLong duplicated = new AtomicLong();
+
+        Link(long seed, Impairment impairment) {
+            this.random = new SplittableRandom(seed);
+            this.impairment = impairment;
+        }
+    }
+
+    private record Scheduled(long dueNanos, long sequence, Direction direction, byte[] data)
+            implements Comparable<Scheduled> {
+        @Override
+        public int compareTo(Scheduled other) {
+            int byDue = Long.compare(dueNanos, other.dueNanos);
+            return byDue != 0 ? byDue : Long.compare(sequence, other.sequence);
+        }
+    }
+
+    private ImpairmentProxy(InetSocketAddress endpointA, InetSocketAddress endpointB,
+                            Impairment aToB, Impairment bToA, long seed) throws IOException {
+        this.endpointA = endpointA;
+        this.endpointB = endpointB;
+        this.links[Direction.A_TO_B.ordinal()] = new Link(seed, aToB);
+        this.links[Direction.B_TO_A.ordinal()] = new Link(seed ^ 0x9E3779B97F4A7C15L, bToA);
+        InetAddress loopback = InetAddress.getLoopbackAddress();
+        this.selector = Selector.open();
+        this.facingA = open(new InetSocketAddress(loopback, 0), Direction.A_TO_B);
+        this.facingB = open(new InetSocketAddress(loopback, 0), Direction.B_TO_A);
+        this.thread = new Thread(this::run, "ImpairmentProxy-" + standInForB().getPort());
+        this.thread.setDaemon(true);
+    }
+
+    /**
+     * Starts a proxy between two endpoints.
+     *
+     * @param endpointA A's real transport address (e.g. its host candidate).
+     * @param endpointB B's real transport address.
+     * @param aToB Impairment applied to datagrams from A to B.
+     * @param bToA Impairment applied to datagrams from B to A.
+     * @param seed Seed for all random decisions.
+     */
+    public static ImpairmentProxy start(InetSocketAddress endpointA, InetSocketAddress endpointB,
+                                        Impairment aToB, Impairment bToA, long seed) throws IOException {
+        ImpairmentProxy proxy = new ImpairmentProxy(endpointA, endpointB, aToB, bToA, seed);
+        proxy.thread.start();
+        return proxy;
+    }
+
+    /**
+     * @return The address B should use as A's candidate. Datagrams to it are forwarded to A.
+     */
+    public InetSocketAddress standInForA() {
+        return localAddress(facingB);
+    }
+
+    /**
+     * @return The address A should use as B's candidate. Datagrams to it are forwarded to B.
+     */
+    public InetSocketAddress standInForB() {
+        return localAddress(facingA);
+    }
+
+    /**
+     * Replaces the impairment for one direction from the next datagram on.
+     */
+    public void setImpairment(Direction direction, Impairment impairment) {
+        links[direction.ordinal()].impairment = impairment;
+    }
+
+    /**
+     * Drops everything in both directions for {@code duration}, starting now.
+     * Datagrams already scheduled for delivery are still delivered.
+     */
+    public void blackout(Duration duration) {
+        manualBlackoutUntil = System.nanoTime() + duration.toNanos();
+    }
+
+    public long getForwarded(Direction direction) {
+        return links[direction.ordinal()].forwarded.get();
+    }
+
+    public long getDropped(Direction direction) {
+        return links[direction.ordinal()].dropped.get();
+    }
+
+    public long getDuplicated(Direction direction) {
+        return links[direction.ordinal()].duplicated.get();
+    }
+
+    private DatagramChannel open(InetSocketAddress bindAddress, Direction receives) throws IOException {
+        DatagramChannel channel = DatagramChannel.open();
+        channel.bind(bindAddress);
+        channel.configureBlocking(false);
+        channel.register(selector, SelectionKey.OP_READ, receives);
+        return channel;
+    }
+
+    private static InetSocketAddress localAddress(DatagramChannel channel) {
+        try {
+            return (InetSocketAddress) channel.getLocalAddress();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void run() {
+        ByteBuffer in = ByteBuffer.allocateDirect(MAX_DATAGRAM);
+        while (running) {
+            try {
+                long now = System.nanoTime();
+                deliverDue(now);
+                Scheduled next = scheduled.peek();
+                if (next == null) {
+                    selector.select();
+                } else {
+                    long waitNanos = next.dueNanos - now;
+                    if (waitNanos > 0) {
+                        // Rounded up: a wait truncated to 0 ms would spin on selectNow() until the datagram is due
+                        selector.select(Math.max(1, TimeUnit.NANOSECONDS.toMillis(waitNanos + 999_999)));
+                    } else {
+                        selector.selectNow();
+                    }
+                }
+                for (SelectionKey key : selector.selectedKeys()) {
+                    DatagramChannel channel = (DatagramChannel) key.channel();
+                    Direction direction = (Direction) key.attachment();
+                    in.clear();
+                    while (channel.receive(in) != null) {
+                        in.flip();
+                        onDatagram(direction, in);
+                        in.clear();
+                    }
+                }
+                selector.selectedKeys().clear();
+            } catch (ClosedSelectorException e) {
+                return;
+            } catch (IOException e) {
+                if (running) {
+                    LOG.log(Level.ERROR, "Forwarding failed", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Applies the direction's impairment. Every datagram consumes the same number of random draws
+     * regardless of outcome, so one decision never shifts the next.
+     */
+    private void onDatagram(Direction direction, ByteBuffer datagram) throws IOException {
+        Link link = links[direction.ordinal()];
+        Impairment impairment = link.impairment;
+        long now = System.nanoTime();
+
+        boolean lost = link.random.nextDouble() < impairment.loss();
+        boolean duplicate = link.random.nextDouble() < impairment.duplicate();
+        long jitter = impairment.jitter().toNanos();
+        long deviation = jitter > 0 ? link.random.nextLong(-jitter, jitter + 1) : 0;
+        long duplicateDeviation = jitter > 0 ? link.random.nextLong(0, jitter + 1) : 0;
+
+        if (lost || now < manualBlackoutUntil || impairment.inBlackout(now - startNanos)) {
+            link.dropped.incrementAndGet();
+            return;
+        }
+
+        long delay = Math.max(0, impairment.delay().toNanos() + deviation);
+        if (delay == 0 && !duplicate && scheduled.isEmpty()) {
+            send(direction, datagram);
+            return;
+        }
+        byte[] data = new byte[datagram.remaining()];
+        datagram.get(data);
+        scheduled.add(new Scheduled(now + delay, sequence++, direction, data));
+        if (duplicate) {
+            link.duplicated.incrementAndGet();
+            scheduled.add(new Scheduled(now + delay + duplicateDeviation, sequence++, direction, data));
+        }
+    }
+
+    private void deliverDue(long now) throws IOException {
+        Scheduled next;
+        while ((next = scheduled.peek()) != null && next.dueNanos <= now) {
+            scheduled.poll();
+            send(next.direction, ByteBuffer.wrap(next.data));
+        }
+    }
+
+    /**
+     * Forwards so that the receiver sees the datagram coming from the sender's stand-in address.
+     */
+    private void send(Direction direction, ByteBuffer datagram) throws IOException {
+        if (direction == Direction.A_TO_B) {
+            facingB.send(datagram, endpointB);
+        } else {
+            facingA.send(datagram, endpointA);
+        }
+        links[direction.ordinal()].forwarded.incrementAndGet();
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        try {
+            selector.close();
+            facingA.close();
+            facingB.close();
+            thread.join(1000);
+        } catch (IOException e) {
+            LOG.log(Level.ERROR, "close failed", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package io.github.kinsleykajiva.ice.testkit;
+
+import java.io.IOException;
+import java.lang.System.Logger.Level;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.DatagramChannel;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Embedded STUN binding server (RFC 5389) for offline tests and benchmarks.
+ * Answers every Binding request with the XOR-MAPPED-ADDRESS it came from; anything else is dropped.
+ *
+ * <pre>{@code
+ * try (LocalStunServer stun = LocalStunServer.start()) {
+ *     agent.setStunServer(stun.getHost(), stun.getPort());
+ * }
+ * }</pre>
+ */
+public final class LocalStunServer implements AutoCloseable {
+    private static final System.Logger LOG = System.getLogger(LocalStunServer.class.getName());
+    private final DatagramChannel channel;
+    private final Thread thread;
+    private final AtomicLong requests = new AtomicLong();
+    private volatile boolean running = true;
+
+    private LocalStunServer(DatagramChannel channel) {
+        this.channel = channel;
+        this.thread = new Thread(this::run, "LocalStunServer-" + getPort());
+        this.thread.setDaemon(true);
+    }
+
+    /**
+     * Starts a server on an ephemeral loopback port.
+     */
+    public static LocalStunServer start() throws IOException {
+        return start(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+    }
+
+    /**
+     * Starts a server on the given address.
+     */
+    public static LocalStunServer start(InetSocketAddress bindAddress) throws IOException {
+        DatagramChannel channel = DatagramChannel.open();
+        channel.bind(bindAddress);
+        LocalStunServer server = new LocalStunServer(channel);
+        server.thread.start();
+        return server;
+    }
+
+    public String getHost() {
+        return localAddress().getAddress().getHostAddress();
+    }
+
+    public int getPort() {
+        return localAddress().getPort();
+    }
+
+    /**
+     * @return Number of Binding requests answered so far.
+     */
+    public long getRequestCount() {
+        return requests.get();
+    }
+
+    private InetSocketAddress localAddress() {
+        try {
+            return (InetSocketAddress) channel.getLocalAddress();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void run() {
+        ByteBuffer in = ByteBuffer.allocateDirect(2048);
+        ByteBuffer out = ByteBuffer.allocateDirect(2048);
+        Stun.Writer writer = new Stun.Writer(out);
+        while (running) {
+            try {
+                in.clear();
+                SocketAddress from = channel.receive(in);
+                int length = in.position();
+                if (!Stun.isStun(in, length)
+                    || Stun.method(in) != Stun.BINDING
+                    || Stun.messageClass(in) != Stun.CLASS_REQUEST) {
+                    continue;
+                }
+                writer.start(Stun.type(Stun.BINDING, Stun.CLASS_SUCCESS), in)
+                    .xorAddress(Stun.ATTR_XOR_MAPPED_ADDRESS, (InetSocketAddress) from)
+                    .fingerprint()
+                    .end();
+                channel.send(out, from);
+                requests.incrementAndGet();
+            } catch (AsynchronousCloseException e) {
+                return;
+            } catch (IOException e) {
+                if (running) {
+                    LOG.log(Level.ERROR, "Serving failed", e);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        try {
+            channel.close();
+            thread.join(1000);
+        } catch (IOException e) {
+            LOG.log(Level.ERROR, "close failed", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
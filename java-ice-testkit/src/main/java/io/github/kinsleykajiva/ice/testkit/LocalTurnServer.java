@@ -0,0 +1,387 @@
+package io.github.kinsleykajiva.ice.testkit;
+
+import java.io.IOException;
+import java.lang.System.Logger.Level;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Minimal TURN server (RFC 5766, UDP only) for offline relay tests and benchmarks.
+ * <p>
+ * Supports long-term credential Allocate/Refresh, CreatePermission, ChannelBind, Send/Data indications
+ * and ChannelData, plus STUN Binding so one instance can stand in for both servers. Permissions are
+ * accepted but not enforced. Everything runs on a single selector thread.
+ *
+ * <pre>{@code
+ * try (LocalTurnServer turn = LocalTurnServer.start("user", "pass")) {
+ *     agent.setRelayInfo(streamId, 1, turn.getHost(), turn.getPort(), "user", "pass",
+ *         NiceBindings.NICE_RELAY_TYPE_TURN_UDP);
+ * }
+ * }</pre>
+ */
+public final class LocalTurnServer implements AutoCloseable {
+    private static final System.Logger LOG = System.getLogger(LocalTurnServer.class.getName());
+    public static final String REALM = "javaice.local";
+    private static final int DEFAULT_LIFETIME_SECONDS = 600;
+
+    private final DatagramChannel control;
+    private final Selector selector;
+    private final Thread thread;
+    private final String username;
+    private final byte[] key;
+    private final String nonce = UUID.randomUUID().toString().replace("-", "");
+    private final Map<InetSocketAddress, Allocation> allocations = new ConcurrentHashMap<>();
+    private final AtomicLong relayedPackets = new AtomicLong();
+    private final AtomicLong relayedBytes = new AtomicLong();
+    private final AtomicLong bindingRequests = new AtomicLong();
+    private volatile boolean running = true;
+
+    private final ByteBuffer in = ByteBuffer.allocateDirect(65536);
+    private final ByteBuffer out = ByteBuffer.allocateDirect(65536);
+    private final Stun.Writer writer = new Stun.Writer(out);
+
+    private LocalTurnServer(DatagramChannel control, Selector selector, String username, String password) {
+        this.control = control;
+        this.selector = selector;
+        this.username = username;
+        this.key = Stun.longTermKey(username, REALM, password);
+        this.thread = new Thread(this::run, "LocalTurnServer-" + getPort());
+        this.thread.setDaemon(true);
+    }
+
+    /**
+     * Starts a server on an ephemeral loopback port.
+     */
+    public static LocalTurnServer start(String username, String password) throws IOException {
+        return start(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), username, password);
+    }
+
+    /**
+     * Starts a server on the given address. Relay addresses are allocated on the same IP.
+     */
+    public static LocalTurnServer start(InetSocketAddress bindAddress, String username, String password) throws IOException {
+        Selector selector = Selector.open();
+        DatagramChannel control = DatagramChannel.open();
+        control.bind(bindAddress);
+        control.configureBlocking(false);
+        control.register(selector, SelectionKey.OP_READ);
+        LocalTurnServer server = new LocalTurnServer(control, selector, username, password);
+        server.thread.start();
+        return server;
+    }
+
+    public String getHost() {
+        return controlAddress().getAddress().getHostAddress();
+    }
+
+    public int getPort() {
+        return controlAddress().getPort();
+    }
+
+    public int getAllocationCount() {
+        return allocations.size();
+    }
+
+    /**
+     * @return Number of datagrams relayed in either direction.
+     */
+    public long getRelayedPackets() {
+        return relayedPackets.get();
+    }
+
+    /**
+     * @return Number of payload bytes relayed in either direction.
+     */
+    public long getRelayedBytes() {
+        return relayedBytes.get();
+    }
+
+    public long getBindingRequestCount() {
+        return bindingRequests.get();
+    }
+
+    private InetSocketAddress controlAddress() {
+        try {
+            return (InetSocketAddress) control.getLocalAddress();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void run() {
+        while (running) {
+            try {
+                selector.select(1000);
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey selected = it.next();
+                    it.remove();
+                    if (!selected.isValid()) continue;
+                    if (selected.attachment() instanceof Allocation allocation) {
+                        onPeerData(allocation);
+                    } else {
+                        onClientData();
+                    }
+                }
+                expireAllocations();
+            } catch (ClosedSelectorException e) {
+                return;
+            } catch (IOException e) {
+                if (running) {
+                    LOG.log(Level.ERROR, "Serving failed", e);
+                }
+            }
+        }
+    }
+
+    private void onClientData() throws IOException {
+        InetSocketAddress from;
+        while ((from = receive(control)) != null) {
+            int length = in.position();
+            if (Stun.isChannelData(in, length)) {
+                onChannelData(from, length);
+            } else if (Stun.isStun(in, length)) {
+                onStunMessage(from);
+            }
+        }
+    }
+
+    private void onStunMessage(InetSocketAddress from) throws IOException {
+        int method = Stun.method(in);
+        int messageClass = Stun.messageClass(in);
+        if (messageClass == Stun.CLASS_INDICATION && method == Stun.SEND) {
+            onSendIndication(from);
+            return;
+        }
+        if (messageClass != Stun.CLASS_REQUEST) return;
+
+        if (method == Stun.BINDING) {
+            bindingRequests.incrementAndGet();
+            writer.start(Stun.type(Stun.BINDING, Stun.CLASS_SUCCESS), in)
+                .xorAddress(Stun.ATTR_XOR_MAPPED_ADDRESS, from)
+                .fingerprint()
+                .end();
+            control.send(out, from);
+            return;
+        }
+        if (!authenticated()) {
+            writer.start(Stun.type(method, Stun.CLASS_ERROR), in)
+                .errorCode(401, "Unauthorized")
+                .stringAttribute(Stun.ATTR_REALM, REALM)
+                .stringAttribute(Stun.ATTR_NONCE, nonce)
+                .fingerprint()
+                .end();
+            control.send(out, from);
+            return;
+        }
+
+        switch (method) {
+            case Stun.ALLOCATE -> onAllocate(from);
+            case Stun.REFRESH -> onRefresh(from);
+            case Stun.CREATE_PERMISSION -> respondSuccess(from, Stun.CREATE_PERMISSION);
+            case Stun.CHANNEL_BIND -> onChannelBind(from);
+            default -> respondError(from, method, 400, "Bad Request");
+        }
+    }
+
+    private boolean authenticated() {
+        return username.equals(Stun.stringAttribute(in, Stun.ATTR_USERNAME))
+            && nonce.equals(Stun.stringAttribute(in, Stun.ATTR_NONCE))
+            && Stun.checkIntegrity(in, key);
+    }
+
+    private void onAllocate(InetSocketAddress from) throws IOException {
+        Allocation allocation = allocations.get(from);
+        if (allocation == null) {
+            DatagramChannel relay = DatagramChannel.open();
+            relay.bind(new InetSocketAddress(controlAddress().getAddress(), 0));
+            relay.configureBlocking(false);
+            allocation = new Allocation(from, relay);
+            relay.register(selector, SelectionKey.OP_READ, allocation);
+            allocations.put(from, allocation);
+        }
+        allocation.refresh(DEFAULT_LIFETIME_SECONDS);
+        writer.start(Stun.type(Stun.ALLOCATE, Stun.CLASS_SUCCESS), in)
+            .xorAddress(Stun.ATTR_XOR_RELAYED_ADDRESS, (InetSocketAddress) allocation.relay.getLocalAddress())
+            .xorAddress(Stun.ATTR_XOR_MAPPED_ADDRESS, from)
+            .intAttribute(Stun.ATTR_LIFETIME, DEFAULT_LIFETIME_SECONDS)
+            .integrity(key)
+            .fingerprint()
+            .end();
+        control.send(out, from);
+    }
+
+    private void onRefresh(InetSocketAddress from) throws IOException {
+        Allocation allocation = allocations.get(from);
+        if (allocation == null) {
+            respondError(from, Stun.REFRESH, 437, "Allocation Mismatch");
+            return;
+        }
+        int offset = Stun.findAttribute(in, Stun.ATTR_LIFETIME);
+        int lifetime = (offset < 0) ? DEFAULT_LIFETIME_SECONDS : Math.min(in.getInt(offset), 3600);
+        if (lifetime == 0) {
+            release(allocation);
+        } else {
+            allocation.refresh(lifetime);
+        }
+        writer.start(Stun.type(Stun.REFRESH, Stun.CLASS_SUCCESS), in)
+            .intAttribute(Stun.ATTR_LIFETIME, lifetime)
+            .integrity(key)
+            .fingerprint()
+            .end();
+        control.send(out, from);
+    }
+
+    private void onChannelBind(InetSocketAddress from) throws IOException {
+        Allocation allocation = allocations.get(from);
+        int channelOffset = Stun.findAttribute(in, Stun.ATTR_CHANNEL_NUMBER);
+        int peerOffset = Stun.findAttribute(in, Stun.ATTR_XOR_PEER_ADDRESS);
+        if (allocation == null || channelOffset < 0 || peerOffset < 0) {
+            respondError(from, Stun.CHANNEL_BIND, 400, "Bad Request");
+            return;
+        }
+        int channel = in.getShort(channelOffset) & 0xFFFF;
+        InetSocketAddress peer = Stun.xorAddress(in, peerOffset);
+        allocation.channelsByNumber.put(channel, peer);
+        allocation.channelsByPeer.put(peer, channel);
+        respondSuccess(from, Stun.CHANNEL_BIND);
+    }
+
+    private void onSendIndication(InetSocketAddress from) throws IOException {
+        Allocation allocation = allocations.get(from);
+        int peerOffset = Stun.findAttribute(in, Stun.ATTR_XOR_PEER_ADDRESS);
+        int dataOffset = Stun.findAttribute(in, Stun.ATTR_DATA);
+        if (allocation == null || peerOffset < 0 || dataOffset < 0) return;
+        InetSocketAddress peer = Stun.xorAddress(in, peerOffset);
+        int length = Stun.attributeLength(in, dataOffset);
+        relay(allocation.relay, in.slice(dataOffset, length), peer);
+    }
+
+    private void onChannelData(InetSocketAddress from, int length) throws IOException {
+        Allocation allocation = allocations.get(from);
+        if (allocation == null) return;
+        int channel = in.getShort(0) & 0xFFFF;
+        int dataLength = Math.min(in.getShort(2) & 0xFFFF, length - 4);
+        InetSocketAddress peer = allocation.channelsByNumber.get(channel);
+        if (peer != null) {
+            relay(allocation.relay, in.slice(4, dataLength), peer);
+        }
+    }
+
+    private void onPeerData(Allocation allocation) throws IOException {
+        InetSocketAddress peer;
+        while ((peer = receive(allocation.relay)) != null) {
+            int length = in.position();
+            Integer channel = allocation.channelsByPeer.get(peer);
+            out.clear();
+            if (channel != null) {
+                out.putShort((short) (int) channel).putShort((short) length).put(in.flip());
+                out.flip();
+            } else {
+                byte[] transactionId = new byte[Stun.TRANSACTION_ID_SIZE];
+                ThreadLocalRandom.current().nextBytes(transactionId);
+                writer.start(Stun.type(Stun.DATA, Stun.CLASS_INDICATION), transactionId)
+                    .xorAddress(Stun.ATTR_XOR_PEER_ADDRESS, peer)
+                    .attribute(Stun.ATTR_DATA, in, 0, length)
+                    .end();
+            }
+            control.send(out, allocation.client);
+            relayedPackets.incrementAndGet();
+            relayedBytes.addAndGet(length);
+        }
+    }
+
+    private void relay(DatagramChannel relay, ByteBuffer payload, InetSocketAddress peer) throws IOException {
+        int length = payload.remaining();
+        relay.send(payload, peer);
+        relayedPackets.incrementAndGet();
+        relayedBytes.addAndGet(length);
+    }
+
+    private void respondSuccess(InetSocketAddress to, int method) throws IOException {
+        writer.start(Stun.type(method, Stun.CLASS_SUCCESS), in)
+            .integrity(key)
+            .fingerprint()
+            .end();
+        control.send(out, to);
+    }
+
+    private void respondError(InetSocketAddress to, int method, int code, String reason) throws IOException {
+        writer.start(Stun.type(method, Stun.CLASS_ERROR), in)
+            .errorCode(code, reason)
+            .integrity(key)
+            .fingerprint()
+            .end();
+        control.send(out, to);
+    }
+
+    private InetSocketAddress receive(DatagramChannel channel) throws IOException {
+        in.clear();
+        return (InetSocketAddress) channel.receive(in);
+    }
+
+    private void expireAllocations() {
+        long now = System.nanoTime();
+        for (Allocation allocation : allocations.values()) {
+            if (now - allocation.expiresAtNanos > 0) {
+                release(allocation);
+            }
+        }
+    }
+
+    private void release(Allocation allocation) {
+        allocations.remove(allocation.client);
+        try {
+            allocation.relay.close();
+        } catch (IOException e) {
+            LOG.log(Level.ERROR, "release failed", e);
+        }
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        try {
+            selector.close();
+            control.close();
+            for (Allocation allocation : allocations.values()) {
+                allocation.relay.close();
+            }
+            allocations.clear();
+            thread.join(1000);
+        } catch (IOException e) {
+            LOG.log(Level.ERROR, "close failed", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static final class Allocation {
+        final InetSocketAddress client;
+        final DatagramChannel relay;
+        final Map<Integer, InetSocketAddress> channelsByNumber = new HashMap<>();
+        final Map<InetSocketAddress, Integer> channelsByPeer = new HashMap<>();
+        long expiresAtNanos;
+
+        Allocation(InetSocketAddress client, DatagramChannel relay) {
+            this.client = client;
+            this.relay = relay;
+        }
+
+        void refresh(int lifetimeSeconds) {
+            expiresAtNanos = System.nanoTime() + lifetimeSeconds * 1_000_000_000L;
+        }
+    }
+}
@@ -0,0 +1,307 @@
+package io.github.kinsleykajiva.ice.testkit;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.zip.CRC32;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Minimal RFC 5389/5766 message codec shared by the loopback STUN and TURN stand-ins.
+ * Works on heap or direct {@link ByteBuffer}s using absolute positions only.
+ */
+final class Stun {
+    static final int MAGIC_COOKIE = 0x2112A442;
+    static final int HEADER_SIZE = 20;
+    static final int TRANSACTION_ID_SIZE = 12;
+
+    // Methods
+    static final int BINDING = 0x001;
+    static final int ALLOCATE = 0x003;
+    static final int REFRESH = 0x004;
+    static final int SEND = 0x006;
+    static final int DATA = 0x007;
+    static final int CREATE_PERMISSION = 0x008;
+    static final int CHANNEL_BIND = 0x009;
+
+    // Classes
+    static final int CLASS_REQUEST = 0x000;
+    static final int CLASS_INDICATION = 0x010;
+    static final int CLASS_SUCCESS = 0x100;
+    static final int CLASS_ERROR = 0x110;
+
+    // Attributes
+    static final int ATTR_USERNAME = 0x0006;
+    static final int ATTR_MESSAGE_INTEGRITY = 0x0008;
+    static final int ATTR_ERROR_CODE = 0x0009;
+    static final int ATTR_CHANNEL_NUMBER = 0x000C;
+    static final int ATTR_LIFETIME = 0x000D;
+    static final int ATTR_XOR_PEER_ADDRESS = 0x0012;
+    static final int ATTR_DATA = 0x0013;
+    static final int ATTR_REALM = 0x0014;
+    static final int ATTR_NONCE = 0x0015;
+    static final int ATTR_XOR_RELAYED_ADDRESS = 0x0016;
+    static final int ATTR_XOR_MAPPED_ADDRESS = 0x0020;
+    static final int ATTR_FINGERPRINT = 0x8028;
+
+    private static final int FINGERPRINT_XOR = 0x5354554E;
+    private static final int INTEGRITY_SIZE = 20;
+
+    private Stun() {}
+
+    /**
+     * @return true if the {@code length} bytes at the start of {@code msg} look like a STUN message.
+     */
+    static boolean isStun(ByteBuffer msg, int length) {
+        return length >= HEADER_SIZE
+            && (msg.get(0) & 0xC0) == 0
+            && msg.getInt(4) == MAGIC_COOKIE
+            && HEADER_SIZE + (msg.getShort(2) & 0xFFFF) == length;
+    }
+
+    /**
+     * @return true if the first byte marks a TURN ChannelData message (channel numbers 0x4000-0x7FFF).
+     */
+    static boolean isChannelData(ByteBuffer msg, int length) {
+        return length >= 4 && (msg.get(0) & 0xC0) == 0x40;
+    }
+
+    static int type(int method, int messageClass) {
+        return (method & 0x000F) | ((method & 0x0070) << 1) | ((method & 0x0F80) << 2) | messageClass;
+    }
+
+    static int method(ByteBuffer msg) {
+        int type = msg.getShort(0) & 0xFFFF;
+        return (type & 0x000F) | ((type & 0x00E0) >> 1) | ((type & 0x3E00) >> 2);
+    }
+
+    static int messageClass(ByteBuffer msg) {
+        return msg.getShort(0) & 0x0110;
+    }
+
+    /**
+     * @return The offset of the value of the first attribute of {@code type}, or -1.
+     * The value length is the unsigned short at {@code offset - 2}.
+     */
+    static int findAttribute(ByteBuffer msg, int type) {
+        int end = HEADER_SIZE + (msg.getShort(2) & 0xFFFF);
+        int pos = HEADER_SIZE;
+        while (pos + 4 <= end) {
+            int attrType = msg.getShort(pos) & 0xFFFF;
+            int attrLength = msg.getShort(pos + 2) & 0xFFFF;
+            if (attrType == type) {
+                return pos + 4;
+            }
+            pos += 4 + pad(attrLength);
+        }
+        return -1;
+    }
+
+    static int attributeLength(ByteBuffer msg, int valueOffset) {
+        return msg.getShort(valueOffset - 2) & 0xFFFF;
+    }
+
+    static String stringAttribute(ByteBuffer msg, int type) {
+        int offset = findAttribute(msg, type);
+        if (offset < 0) return null;
+        byte[] value = new byte[attributeLength(msg, offset)];
+        msg.get(offset, value);
+        return new String(value, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Decodes an XOR-*-ADDRESS attribute value.
+     */
+    static InetSocketAddress xorAddress(ByteBuffer msg, int valueOffset) {
+        int family = msg.get(valueOffset + 1);
+        int port = (msg.getShort(valueOffset + 2) & 0xFFFF) ^ (MAGIC_COOKIE >>> 16);
+        byte[] addr = new byte[family == 0x02 ? 16 : 4];
+        msg.get(valueOffset + 4, addr);
+        for (int i = 0; i < addr.length; i++) {
+            // IPv4 uses the cookie; IPv6 continues with the transaction ID, which follows the cookie in the header.
+            addr[i] ^= msg.get(4 + i);
+        }
+        try {
+            return new InetSocketAddress(InetAddress.getByAddress(addr), port);
+        } catch (UnknownHostException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    /**
+     * Checks MESSAGE-INTEGRITY with the given long-term or short-term key.
+     */
+    static boolean checkIntegrity(ByteBuffer msg, byte[] key) {
+        int offset = findAttribute(msg, ATTR_MESSAGE_INTEGRITY);
+        if (offset < 0 || attributeLength(msg, offset) != INTEGRITY_SIZE) return false;
+        int attrStart = offset - 4;
+        byte[] covered = new byte[attrStart];
+        msg.get(0, covered);
+        int adjustedLength = attrStart + 4 + INTEGRITY_SIZE - HEADER_SIZE;
+        covered[2] = (byte) (adjustedLength >> 8);
+        covered[3] = (byte) adjustedLength;
+        byte[] expected = hmacSha1(key, covered, covered.length);
+        byte[] actual = new byte[INTEGRITY_SIZE];
+        msg.get(offset, actual);
+        return MessageDigest.isEqual(expected, actual);
+    }
+
+    /**
+     * @return The RFC 5389 long-term credential key MD5(username ":" realm ":" password).
+     */
+    static byte[] longTermKey(String username, String realm, String password) {
+        try {
+            return MessageDigest.getInstance("MD5")
+                .digest((username + ":" + realm + ":" + password).getBytes(StandardCharsets.UTF_8));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static int pad(int length) {
+        return (length + 3) & ~3;
+    }
+
+    private static byte[] hmacSha1(byte[] key, byte[] data, int length) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA1");
+            mac.init(new SecretKeySpec(key, "HmacSHA1"));
+            mac.update(data, 0, length);
+            return mac.doFinal();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Builds a message into a caller-owned buffer.
+     */
+    static final class Writer {
+        private final ByteBuffer buf;
+        private int length;
+
+        Writer(ByteBuffer buf) {
+            this.buf = buf;
+        }
+
+        /**
+         * Starts a message reusing the transaction ID of {@code request}.
+         */
+        Writer start(int type, ByteBuffer request) {
+            buf.putShort(0, (short) type);
+            buf.putShort(2, (short) 0);
+            buf.putInt(4, MAGIC_COOKIE);
+            buf.put(8, request, 8, TRANSACTION_ID_SIZE);
+            length = HEADER_SIZE;
+            return this;
+        }
+
+        /**
+         * Starts a message with a fresh transaction ID.
+         */
+        Writer start(int type, byte[] transactionId) {
+            buf.putShort(0, (short) type);
+            buf.putShort(2, (short) 0);
+            buf.putInt(4, MAGIC_COOKIE);
+            buf.put(8, transactionId, 0, TRANSACTION_ID_SIZE);
+            length = HEADER_SIZE;
+            return this;
+        }
+
+        Writer attribute(int type, byte[] value) {
+            return attribute(type, value, 0, value.length);
+        }
+
+        Writer attribute(int type, byte[] value, int offset, int valueLength) {
+            int pos = header(type, valueLength);
+            buf.put(pos, value, offset, valueLength);
+            return finish(pos, valueLength);
+        }
+
+        Writer attribute(int type, ByteBuffer source, int offset, int valueLength) {
+            int pos = header(type, valueLength);
+            buf.put(pos, source, offset, valueLength);
+            return finish(pos, valueLength);
+        }
+
+        Writer intAttribute(int type, int value) {
+            int pos = header(type, 4);
+            buf.putInt(pos, value);
+            return finish(pos, 4);
+        }
+
+        Writer stringAttribute(int type, String value) {
+            return attribute(type, value.getBytes(StandardCharsets.UTF_8));
+        }
+
+        Writer errorCode(int code, String reason) {
+            byte[] phrase = reason.getBytes(StandardCharsets.UTF_8);
+            int pos = header(ATTR_ERROR_CODE, 4 + phrase.length);
+            buf.putShort(pos, (short) 0);
+            buf.put(pos + 2, (byte) (code / 100));
+            buf.put(pos + 3, (byte) (code % 100));
+            buf.put(pos + 4, phrase);
+            return finish(pos, 4 + phrase.length);
+        }
+
+        Writer xorAddress(int type, InetSocketAddress address) {
+            byte[] addr = address.getAddress().getAddress();
+            int pos = header(type, 4 + addr.length);
+            buf.put(pos, (byte) 0);
+            buf.put(pos + 1, (byte) (addr.length == 16 ? 0x02 : 0x01));
+            buf.putShort(pos + 2, (short) (address.getPort() ^ (MAGIC_COOKIE >>> 16)));
+            for (int i = 0; i < addr.length; i++) {
+                buf.put(pos + 4 + i, (byte) (addr[i] ^ buf.get(4 + i)));
+            }
+            return finish(pos, 4 + addr.length);
+        }
+
+        Writer integrity(byte[] key) {
+            int pos = header(ATTR_MESSAGE_INTEGRITY, INTEGRITY_SIZE);
+            buf.putShort(2, (short) (pos + INTEGRITY_SIZE - HEADER_SIZE));
+            byte[] covered = new byte[pos - 4];
+            buf.get(0, covered);
+            buf.put(pos, hmacSha1(key, covered, covered.length));
+            return finish(pos, INTEGRITY_SIZE);
+        }
+
+        Writer fingerprint() {
+            int pos = header(ATTR_FINGERPRINT, 4);
+            buf.putShort(2, (short) (pos + 4 - HEADER_SIZE));
+            CRC32 crc = new CRC32();
+            crc.update(buf.slice(0, pos - 4));
+            buf.putInt(pos, (int) crc.getValue() ^ FINGERPRINT_XOR);
+            return finish(pos, 4);
+        }
+
+        /**
+         * @return The total message length; the buffer's position and limit are set to frame it.
+         */
+        int end() {
+            buf.putShort(2, (short) (length - HEADER_SIZE));
+            buf.limit(length).position(0);
+            return length;
+        }
+
+        private int header(int type, int valueLength) {
+            buf.limit(buf.capacity());
+            buf.putShort(length, (short) type);
+            buf.putShort(length + 2, (short) valueLength);
+            return length + 4;
+        }
+
+        private Writer finish(int valuePos, int valueLength) {
+            int padded = pad(valueLength);
+            for (int i = valueLength; i < padded; i++) {
+                buf.put(valuePos + i, (byte) 0);
+            }
+            length = valuePos + padded;
+            return this;
+        }
+    }
+}
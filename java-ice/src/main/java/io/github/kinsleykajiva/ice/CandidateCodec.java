@@ -0,0 +1,358 @@
+package io.github.kinsleykajiva.ice;
+
+import java.lang.System.Logger.Level;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemoryLayout;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Compact binary form of a stream's ICE credentials and candidates, for signaling channels where
+ * SDP candidate lines make up most of the traffic (trickle, restarts). Candidates are read straight
+ * from the native NiceCandidate structs and, on the other side, written into NiceCandidate structs
+ * handed to nice_agent_set_remote_candidates, so neither side formats or parses text.
+ * <p>
+ * Layout, big-endian, version 1:
+ * <pre>
+ * version:u8  ufragLen:u8 ufrag  pwdLen:u8 pwd  groups:u8
+ * groups x { componentId:u8 count:u8
+ *            count x { flags:u8 priority:u32 foundationLen:u8 foundation port:u16 address:4|16 } }
+ * flags: bits 0-1 type, bits 2-3 transport, bit 4 IPv6
+ * </pre>
+ * IPv6 addresses are carried without {@code sin6_scope_id}. A scope id names an interface on the
+ * sending host and means nothing to the receiver, so link-local (fe80::/10) candidates are not encoded.
+ * A host IPv4 candidate takes about 14 bytes against about 60 for its {@code a=candidate} line.
+ * Related addresses and per-candidate credentials are not carried; libnice does not use them for
+ * remote candidates of an RFC 5245 agent.
+ * <pre>{@code
+ * byte[] offer = CandidateCodec.encode(agent, streamId);
+ * // ... signaling ...
+ * CandidateCodec.decode(remoteAgent, remoteStreamId, offer);
+ * }</pre>
+ */
+public final class CandidateCodec {
+    private static final System.Logger LOG = System.getLogger(CandidateCodec.class.getName());
+
+    public static final int VERSION = 1;
+
+    private static final int MAX_CREDENTIAL = 255;
+    private static final int MAX_PER_COMPONENT = 255;
+    private static final int FLAG_IPV6 = 1 << 4;
+    /** flags, priority, foundation length and text, port and an IPv6 address. */
+    private static final int MAX_CANDIDATE_BYTES = 1 + 4 + 1 + (NiceBindings.NICE_CANDIDATE_MAX_FOUNDATION - 1) + 2 + 16;
+
+    private static final long CANDIDATE_SIZE = NiceBindings.NICE_CANDIDATE_LAYOUT.byteSize();
+    private static final long ADDR_OFFSET = NiceBindings.NICE_CANDIDATE_LAYOUT.byteOffset(MemoryLayout.PathElement.groupElement("addr"));
+    private static final long FOUNDATION_OFFSET = NiceBindings.NICE_CANDIDATE_LAYOUT.byteOffset(MemoryLayout.PathElement.groupElement("foundation"));
+    /** Offsets within NiceAddress, a struct sockaddr_in / sockaddr_in6 union. */
+    private static final long PORT_OFFSET = 2;
+    private static final long IPV4_OFFSET = 4;
+    private static final long IPV6_OFFSET = 8;
+
+    private CandidateCodec() {
+    }
+
+    /**
+     * Encodes a stream's local credentials and all of its local candidates.
+     *
+     * @return The encoded payload, or an empty array on error.
+     */
+    public static byte[] encode(NiceAgent agent, int streamId) {
+        if (NiceBindings.nice_agent_get_local_candidates == null) return new byte[0];
+        Map<Integer, List<MemorySegment>> groups = new TreeMap<>();
+        List<MemorySegment> lists = new ArrayList<>();
+        try {
+            for (int componentId = 1; componentId <= agent.componentCount(streamId); componentId++) {
+                MemorySegment list = (MemorySegment) NiceBindings.nice_agent_get_local_candidates.invokeExact(agent.getHandle(), streamId, componentId);
+                if (list.equals(MemorySegment.NULL)) continue;
+                lists.add(list);
+                List<MemorySegment> candidates = new ArrayList<>();
+                for (MemorySegment node = list.reinterpret(NiceBindings.GSLIST_LAYOUT.byteSize());
+                     !node.equals(MemorySegment.NULL);
+                     node = ((MemorySegment) NiceBindings.GSLIST_NEXT.get(node, 0L)).reinterpret(NiceBindings.GSLIST_LAYOUT.byteSize())) {
+                    candidates.add(((MemorySegment) NiceBindings.GSLIST_DATA.get(node, 0L)).reinterpret(CANDIDATE_SIZE));
+                }
+                groups.put(componentId, candidates);
+            }
+            return encode(agent, streamId, groups);
+        } catch (Throwable t) {
+            LOG.log(Level.ERROR, "encode failed", t);
+            return new byte[0];
+        } finally {
+            for (MemorySegment list : lists) {
+                freeCandidateList(list);
+            }
+        }
+    }
+
+    /**
+     * Encodes a stream's local credentials with the given candidates only, such as those reported
+     * one at a time while trickling.
+     *
+     * @return The encoded payload, or an empty array on error.
+     */
+    public static byte[] encode(NiceAgent agent, int streamId, List<NiceCandidate> candidates) {
+        Map<Integer, List<MemorySegment>> groups = new TreeMap<>();
+        for (NiceCandidate candidate : candidates) {
+            MemorySegment handle = candidate.getHandle().reinterpret(CANDIDATE_SIZE);
+            int componentId = (int) NiceBindings.CANDIDATE_COMPONENT_ID.get(handle, 0L);
+            if (componentId < 1 || componentId > 255) {
+                throw new IllegalArgumentException("Component id out of range: " + componentId);
+            }
+            groups.computeIfAbsent(componentId, id -> new ArrayList<>()).add(handle);
+        }
+        try {
+            return encode(agent, streamId, groups);
+        } catch (Throwable t) {
+            LOG.log(Level.ERROR, "encode failed", t);
+            return new byte[0];
+        }
+    }
+
+    private static byte[] encode(NiceAgent agent, int streamId, Map<Integer, List<MemorySegment>> groups) throws Throwable {
+        if (NiceBindings.nice_agent_get_local_credentials == null) return new byte[0];
+        try (var localArena = Arena.ofConfined()) {
+            MemorySegment ufragOut = localArena.allocate(ValueLayout.ADDRESS);
+            MemorySegment pwdOut = localArena.allocate(ValueLayout.ADDRESS);
+            int found = (int) NiceBindings.nice_agent_get_local_credentials.invokeExact(agent.getHandle(), streamId, ufragOut, pwdOut);
+            if (found == 0) return new byte[0];
+            MemorySegment ufrag = ufragOut.get(ValueLayout.ADDRESS, 0);
+            MemorySegment pwd = pwdOut.get(ValueLayout.ADDRESS, 0);
+            try {
+                int candidates = 0;
+                for (List<MemorySegment> group : groups.values()) {
+                    candidates += Math.min(group.size(), MAX_PER_COMPONENT);
+                }
+                ByteBuffer out = ByteBuffer.allocate(1 + 2 * (1 + MAX_CREDENTIAL) + 1 + 2 * groups.size()
+                    + candidates * MAX_CANDIDATE_BYTES);
+                out.put((byte) VERSION);
+                if (!putCString(out, ufrag, MAX_CREDENTIAL) || !putCString(out, pwd, MAX_CREDENTIAL)) {
+                    LOG.log(Level.WARNING, "Local credentials longer than {0} bytes", MAX_CREDENTIAL);
+                    return new byte[0];
+                }
+                out.put((byte) groups.size());
+                for (Map.Entry<Integer, List<MemorySegment>> group : groups.entrySet()) {
+                    out.put(group.getKey().byteValue());
+                    int countAt = out.position();
+                    out.put((byte) 0);
+                    int count = 0;
+                    for (MemorySegment candidate : group.getValue()) {
+                        if (count == MAX_PER_COMPONENT) break;
+                        if (putCandidate(out, candidate)) count++;
+                    }
+                    out.put(countAt, (byte) count);
+                }
+                return Arrays.copyOf(out.array(), out.position());
+            } finally {
+                gFree(ufrag);
+                gFree(pwd);
+            }
+        }
+    }
+
+    /**
+     * @return false if the candidate's address is neither IPv4 nor routable IPv6; nothing is written then.
+     */
+    private static boolean putCandidate(ByteBuffer out, MemorySegment candidate) {
+        MemorySegment addr = candidate.asSlice(ADDR_OFFSET, NiceBindings.NICE_ADDRESS_LAYOUT.byteSize());
+        int family = addr.get(ValueLayout.JAVA_SHORT, 0);
+        if (family != Libc.AF_INET && family != Libc.AF_INET6) return false;
+        if (family == Libc.AF_INET6 && addr.get(ValueLayout.JAVA_BYTE, IPV6_OFFSET) == (byte) 0xFE
+                && (addr.get(ValueLayout.JAVA_BYTE, IPV6_OFFSET + 1) & 0xC0) == 0x80) {
+            return false; // link-local: only reachable with the sender's scope id
+        }
+        int type = (int) NiceBindings.CANDIDATE_TYPE.get(candidate, 0L);
+        int transport = (int) NiceBindings.CANDIDATE_TRANSPORT.get(candidate, 0L);
+        out.put((byte) ((type & 3) | (transport & 3) << 2 | (family == Libc.AF_INET6 ? FLAG_IPV6 : 0)));
+        out.putInt((int) NiceBindings.CANDIDATE_PRIORITY.get(candidate, 0L));
+        putCString(out, candidate.asSlice(FOUNDATION_OFFSET, NiceBindings.NICE_CANDIDATE_MAX_FOUNDATION),
+            NiceBindings.NICE_CANDIDATE_MAX_FOUNDATION - 1);
+        // Port and address are already in network order
+        out.put(addr.get(ValueLayout.JAVA_BYTE, PORT_OFFSET)).put(addr.get(ValueLayout.JAVA_BYTE, PORT_OFFSET + 1));
+        if (family == Libc.AF_INET6) {
+            copy(addr, IPV6_OFFSET, out, 16);
+        } else {
+            copy(addr, IPV4_OFFSET, out, 4);
+        }
+        return true;
+    }
+
+    /**
+     * Writes a length-prefixed copy of a NUL-terminated string of at most {@code max} bytes.
+     *
+     * @return false if the string is longer; nothing is written then.
+     */
+    private static boolean putCString(ByteBuffer out, MemorySegment str, int max) {
+        if (str.equals(MemorySegment.NULL)) {
+            out.put((byte) 0);
+            return true;
+        }
+        MemorySegment bytes = str.byteSize() > max ? str : str.reinterpret(max + 1);
+        int length = 0;
+        while (length <= max && bytes.get(ValueLayout.JAVA_BYTE, length) != 0) {
+            length++;
+        }
+        if (length > max) return false;
+        out.put((byte) length);
+        copy(bytes, 0, out, length);
+        return true;
+    }
+
+    private static void copy(MemorySegment src, long offset, ByteBuffer out, int length) {
+        MemorySegment.copy(src, ValueLayout.JAVA_BYTE, offset, out.array(), out.arrayOffset() + out.position(), length);
+        out.position(out.position() + length);
+    }
+
+    /**
+     * Applies an encoded payload to a stream of the remote agent: sets its remote credentials, then
+     * adds the candidates of each component.
+     *
+     * @return The number of candidates added, or a negative value if the payload is malformed or
+     *         libnice rejects it.
+     */
+    public static int decode(NiceAgent agent, int streamId, byte[] data) {
+        return decode(agent, streamId, data, 0, data.length);
+    }
+
+    /**
+     * @see #decode(NiceAgent, int, byte[])
+     */
+    public static int decode(NiceAgent agent, int streamId, byte[] data, int offset, int length) {
+        if (NiceBindings.nice_agent_set_remote_credentials == null || NiceBindings.nice_agent_set_remote_candidates == null) {
+            return -1;
+        }
+        ByteBuffer in = ByteBuffer.wrap(data, offset, length);
+        try (var localArena = Arena.ofConfined()) {
+            if (in.get() != VERSION) {
+                LOG.log(Level.WARNING, "Unsupported candidate payload version");
+                return -1;
+            }
+            MemorySegment ufrag = getCString(in, localArena);
+            MemorySegment pwd = getCString(in, localArena);
+            int groups = in.get() & 0xFF;
+            MemorySegment[] heads = new MemorySegment[groups];
+            int[] componentIds = new int[groups];
+            for (int g = 0; g < groups; g++) {
+                componentIds[g] = in.get() & 0xFF;
+                int count = in.get() & 0xFF;
+                if (componentIds[g] == 0) {
+                    LOG.log(Level.WARNING, "Malformed candidate payload");
+                    return -1;
+                }
+                MemorySegment candidates = localArena.allocate(NiceBindings.NICE_CANDIDATE_LAYOUT, count);
+                MemorySegment nodes = localArena.allocate(NiceBindings.GSLIST_LAYOUT, count);
+                MemorySegment next = MemorySegment.NULL;
+                // Built back to front so the list keeps the encoded (priority) order
+                MemorySegment[] slots = new MemorySegment[count];
+                for (int i = 0; i < count; i++) {
+                    slots[i] = candidates.asSlice(i * CANDIDATE_SIZE, CANDIDATE_SIZE);
+                    if (!getCandidate(in, slots[i], streamId, componentIds[g])) {
+                        LOG.log(Level.WARNING, "Malformed candidate payload");
+                        return -1;
+                    }
+                }
+                for (int i = count - 1; i >= 0; i--) {
+                    MemorySegment node = nodes.asSlice(i * NiceBindings.GSLIST_LAYOUT.byteSize(), NiceBindings.GSLIST_LAYOUT.byteSize());
+                    NiceBindings.GSLIST_DATA.set(node, 0L, slots[i]);
+                    NiceBindings.GSLIST_NEXT.set(node, 0L, next);
+                    next = node;
+                }
+                heads[g] = next;
+            }
+            if (in.hasRemaining()) {
+                LOG.log(Level.WARNING, "Malformed candidate payload");
+                return -1;
+            }
+
+            int set = (int) NiceBindings.nice_agent_set_remote_credentials.invokeExact(agent.getHandle(), streamId, ufrag, pwd);
+            if (set == 0) {
+                LOG.log(Level.WARNING, "nice_agent_set_remote_credentials failed on stream {0}", streamId);
+                return -1;
+            }
+            int added = 0;
+            for (int g = 0; g < groups; g++) {
+                if (heads[g].equals(MemorySegment.NULL)) continue;
+                // libnice copies every field, so the arena-backed candidates can go once this returns
+                int result = (int) NiceBindings.nice_agent_set_remote_candidates.invokeExact(agent.getHandle(), streamId,
+                    componentIds[g], heads[g]);
+                if (result < 0) return result;
+                added += result;
+            }
+            return added;
+        } catch (BufferUnderflowException e) {
+            LOG.log(Level.WARNING, "Truncated candidate payload");
+            return -1;
+        } catch (Throwable t) {
+            LOG.log(Level.ERROR, "decode failed", t);
+            return -1;
+        }
+    }
+
+    private static boolean getCandidate(ByteBuffer in, MemorySegment candidate, int streamId, int componentId) {
+        int flags = in.get() & 0xFF;
+        if ((flags & ~(FLAG_IPV6 | 0xF)) != 0) return false;
+        NiceBindings.CANDIDATE_TYPE.set(candidate, 0L, flags & 3);
+        NiceBindings.CANDIDATE_TRANSPORT.set(candidate, 0L, (flags >> 2) & 3);
+        NiceBindings.CANDIDATE_PRIORITY.set(candidate, 0L, in.getInt());
+        NiceBindings.CANDIDATE_STREAM_ID.set(candidate, 0L, streamId);
+        NiceBindings.CANDIDATE_COMPONENT_ID.set(candidate, 0L, componentId);
+        int foundation = in.get() & 0xFF;
+        if (foundation >= NiceBindings.NICE_CANDIDATE_MAX_FOUNDATION) return false;
+        copy(in, candidate, FOUNDATION_OFFSET, foundation);
+        MemorySegment addr = candidate.asSlice(ADDR_OFFSET, NiceBindings.NICE_ADDRESS_LAYOUT.byteSize());
+        boolean ipv6 = (flags & FLAG_IPV6) != 0;
+        addr.set(ValueLayout.JAVA_SHORT, 0, (short) (ipv6 ? Libc.AF_INET6 : Libc.AF_INET));
+        copy(in, addr, PORT_OFFSET, 2);
+        copy(in, addr, ipv6 ? IPV6_OFFSET : IPV4_OFFSET, ipv6 ? 16 : 4);
+        return true;
+    }
+
+    /**
+     * @return A NUL-terminated copy of a length-prefixed string.
+     */
+    private static MemorySegment getCString(ByteBuffer in, Arena arena) {
+        int length = in.get() & 0xFF;
+        MemorySegment str = arena.allocate(length + 1);
+        copy(in, str, 0, length);
+        return str;
+    }
+
+    private static void copy(ByteBuffer in, MemorySegment dst, long offset, int length) {
+        if (in.remaining() < length) throw new BufferUnderflowException();
+        MemorySegment.copy(in.array(), in.arrayOffset() + in.position(), dst, ValueLayout.JAVA_BYTE, offset, length);
+        in.position(in.position() + length);
+    }
+
+    private static void freeCandidateList(MemorySegment list) {
+        try {
+            for (MemorySegment node = list.reinterpret(NiceBindings.GSLIST_LAYOUT.byteSize());
+                 !node.equals(MemorySegment.NULL);
+                 node = ((MemorySegment) NiceBindings.GSLIST_NEXT.get(node, 0L)).reinterpret(NiceBindings.GSLIST_LAYOUT.byteSize())) {
+                if (NiceBindings.nice_candidate_free != null) {
+                    NiceBindings.nice_candidate_free.invokeExact((MemorySegment) NiceBindings.GSLIST_DATA.get(node, 0L));
+                }
+            }
+            if (NiceBindings.g_slist_free != null) {
+                NiceBindings.g_slist_free.invokeExact(list);
+            }
+        } catch (Throwable t) {
+            LOG.log(Level.ERROR, "freeCandidateList failed", t);
+        }
+    }
+
+    private static void gFree(MemorySegment ptr) {
+        if (ptr.equals(MemorySegment.NULL) || NiceBindings.g_free == null) return;
+        try {
+            NiceBindings.g_free.invokeExact(ptr);
+        } catch (Throwable t) {
+            LOG.log(Level.ERROR, "gFree failed", t);
+        }
+    }
+}
@@ -0,0 +1,261 @@
+package io.github.kinsleykajiva.ice;
+
+import java.lang.System.Logger.Level;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Sends datagrams on a connected component's selected socket with batched {@code sendmmsg} calls,
+ * bypassing the agent lock, the component lookup and the GSocket layers of {@code nice_agent_send}.
+ * <p>
+ * Only the send side is taken over. libnice keeps reading the socket, so STUN consent and keepalive
+ * traffic, and media, are still received through the agent as before. The sender stops (returns -1)
+ * once the component leaves CONNECTED/READY or another pair is selected; re-open it then.
+ * Relayed pairs have no selected socket of their own, so {@link #open} returns null for them.
+ * Linux only.
+ *
+ * <pre>{@code
+ * FastPathSender sender = FastPathSender.open(agent, streamId, 1);
+ * if (sender != null) {
+ *     sender.sendBatch(packets);
+ * }
+ * }</pre>
+ */
+public class FastPathSender implements AutoCloseable {
+    private static final System.Logger LOG = System.getLogger(FastPathSender.class.getName());
+
+    public static final int DEFAULT_BATCH_SIZE = 32;
+    /** Largest datagram a pooled buffer holds. */
+    public static final int MAX_DATAGRAM_SIZE = 2048;
+
+    private final NiceAgent agent;
+    private final int streamId;
+    private final int componentId;
+    private final int batchSize;
+    private final int fd;
+    private final InetSocketAddress remoteAddress;
+    private final Arena arena = Arena.ofShared();
+    private final MemorySegment headers;
+    private final MemorySegment iovecs;
+    private final MemorySegment buffers;
+    private final MemorySegment callState;
+    private final NiceAgentListener stateListener;
+    private final LongAdder sentPackets = new LongAdder();
+    private final LongAdder syscalls = new LongAdder();
+    private volatile boolean valid = true;
+    private boolean closed;
+
+    private FastPathSender(NiceAgent agent, int streamId, int componentId, int batchSize, int fd,
+                           MemorySegment remote, int remoteLength, InetSocketAddress remoteAddress) {
+        this.agent = agent;
+        this.streamId = streamId;
+        this.componentId = componentId;
+        this.batchSize = batchSize;
+        this.fd = fd;
+        this.remoteAddress = remoteAddress;
+
+        MemorySegment name = arena.allocate(NiceBindings.NICE_ADDRESS_LAYOUT);
+        name.copyFrom(remote);
+        headers = arena.allocate(Libc.MMSGHDR_LAYOUT, batchSize);
+        iovecs = arena.allocate(Libc.IOVEC_LAYOUT, batchSize);
+        buffers = arena.allocate((long) MAX_DATAGRAM_SIZE * batchSize, 64);
+        callState = arena.allocate(Libc.CAPTURE_STATE_LAYOUT);
+        for (int i = 0; i < batchSize; i++) {
+            MemorySegment iov = iovecs.asSlice(i * Libc.IOVEC_LAYOUT.byteSize(), Libc.IOVEC_LAYOUT);
+            iov.set(ValueLayout.ADDRESS, 0, buffers.asSlice((long) i * MAX_DATAGRAM_SIZE, MAX_DATAGRAM_SIZE));
+            MemorySegment header = headers.asSlice(i * Libc.MMSGHDR_LAYOUT.byteSize(), Libc.MMSGHDR_LAYOUT);
+            header.set(ValueLayout.ADDRESS, Libc.MSG_NAME_OFFSET, name);
+            header.set(ValueLayout.JAVA_INT, Libc.MSG_NAMELEN_OFFSET, remoteLength);
+            header.set(ValueLayout.ADDRESS, Libc.MSG_IOV_OFFSET, iov);
+            header.set(ValueLayout.JAVA_LONG, Libc.MSG_IOVLEN_OFFSET, 1L);
+        }
+
+        this.stateListener = new NiceAgentListener() {
+            @Override
+            public void onComponentStateChanged(int stream, int component, int state) {
+                if (stream == streamId && component == componentId
+                        && state != NiceBindings.NICE_COMPONENT_STATE_CONNECTED
+                        && state != NiceBindings.NICE_COMPONENT_STATE_READY) {
+                    valid = false;
+                }
+            }
+
+            @Override
+            public void onNewSelectedPair(int stream, int component) {
+                // libnice can switch pairs while staying READY; the cached socket and address are stale then
+                if (stream == streamId && component == componentId) {
+                    valid = false;
+                }
+            }
+        };
+        agent.addListener(stateListener);
+    }
+
+    /**
+     * Opens a sender with {@link #DEFAULT_BATCH_SIZE} pooled buffers.
+     *
+     * @return The sender, or null if the component has no selected pair, the pair is relayed, or the platform is not Linux.
+     */
+    public static FastPathSender open(NiceAgent agent, int streamId, int componentId) {
+        return open(agent, streamId, componentId, DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * @param batchSize Number of pooled buffers, and the most datagrams handed to one {@code sendmmsg} call.
+     * @return The sender, or null if the component has no selected pair, the pair is relayed, or the platform is not Linux.
+     */
+    public static FastPathSender open(NiceAgent agent, int streamId, int componentId, int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batchSize must be at least 1");
+        }
+        if (Libc.sendmmsg == null || Libc.dup == null || NiceBindings.nice_agent_get_selected_socket == null
+                || NiceBindings.nice_agent_get_selected_pair == null || NiceBindings.g_socket_get_fd == null) {
+            return null;
+        }
+        try (Arena local = Arena.ofConfined()) {
+            MemorySegment localCandidate = local.allocate(ValueLayout.ADDRESS);
+            MemorySegment remoteCandidate = local.allocate(ValueLayout.ADDRESS);
+            int found = (int) NiceBindings.nice_agent_get_selected_pair.invokeExact(agent.getHandle(), streamId, componentId,
+                localCandidate, remoteCandidate);
+            if (found == 0) return null;
+
+            // The pair is owned by the agent; copy the remote address before anything can change it.
+            NiceCandidate remote = new NiceCandidate(remoteCandidate.get(ValueLayout.ADDRESS, 0)
+                .reinterpret(NiceBindings.NICE_CANDIDATE_LAYOUT.byteSize()));
+            MemorySegment remoteAddr = local.allocate(NiceBindings.NICE_ADDRESS_LAYOUT);
+            remoteAddr.copyFrom(remote.getHandle().asSlice(NiceBindings.NICE_CANDIDATE_LAYOUT.byteOffset(
+                java.lang.foreign.MemoryLayout.PathElement.groupElement("addr")), NiceBindings.NICE_ADDRESS_LAYOUT.byteSize()));
+            int family = remoteAddr.get(ValueLayout.JAVA_SHORT, 0);
+            int remoteLength = family == Libc.AF_INET ? 16 : family == Libc.AF_INET6 ? 28 : 0;
+            if (remoteLength == 0) return null;
+            InetSocketAddress remoteAddress = new InetSocketAddress(InetAddress.getByName(remote.getAddress()), remote.getPort());
+
+            MemorySegment socket = (MemorySegment) NiceBindings.nice_agent_get_selected_socket.invokeExact(agent.getHandle(), streamId, componentId);
+            if (socket.equals(MemorySegment.NULL)) return null;
+            int fd;
+            try {
+                // A duplicate, so the descriptor number stays ours even if libnice closes and reuses its own.
+                fd = (int) Libc.dup.invokeExact((int) NiceBindings.g_socket_get_fd.invokeExact(socket));
+            } finally {
+                NiceBindings.g_object_unref.invokeExact(socket);
+            }
+            if (fd < 0) return null;
+            return new FastPathSender(agent, streamId, componentId, batchSize, fd, remoteAddr, remoteLength, remoteAddress);
+        } catch (UnknownHostException e) {
+            return null;
+        } catch (Throwable t) {
+            LOG.log(Level.ERROR, "open failed", t);
+            return null;
+        }
+    }
+
+    /**
+     * Sends one datagram.
+     *
+     * @return 1 if sent, 0 if the socket buffer is full, or -1 on error or once the sender is no longer valid.
+     */
+    public int send(byte[] data) {
+        return sendBatch(List.of(data));
+    }
+
+    /**
+     * Sends datagrams in order, {@code batchSize} per system call, without blocking.
+     *
+     * @return Number of datagrams sent. Fewer than {@code packets.size()} means the socket buffer filled up;
+     * the caller retries the rest later. -1 on error or once the sender is no longer valid.
+     * @throws IllegalArgumentException If a datagram is larger than {@link #MAX_DATAGRAM_SIZE}.
+     */
+    public synchronized int sendBatch(List<byte[]> packets) {
+        if (closed || !valid) return -1;
+        int sent = 0;
+        while (sent < packets.size()) {
+            int count = Math.min(batchSize, packets.size() - sent);
+            for (int i = 0; i < count; i++) {
+                byte[] packet = packets.get(sent + i);
+                if (packet.length > MAX_DATAGRAM_SIZE) {
+                    throw new IllegalArgumentException("Datagram of " + packet.length + " bytes exceeds " + MAX_DATAGRAM_SIZE);
+                }
+                MemorySegment.copy(packet, 0, buffers, ValueLayout.JAVA_BYTE, (long) i * MAX_DATAGRAM_SIZE, packet.length);
+                iovecs.set(ValueLayout.JAVA_LONG, i * Libc.IOVEC_LAYOUT.byteSize() + ValueLayout.ADDRESS.byteSize(), packet.length);
+            }
+            int result;
+            try {
+                result = (int) Libc.sendmmsg.invokeExact(callState, fd, headers, count, Libc.MSG_DONTWAIT);
+            } catch (Throwable t) {
+                LOG.log(Level.ERROR, "sendBatch failed", t);
+                return sent == 0 ? -1 : sent;
+            }
+            syscalls.increment();
+            if (result < 0) {
+                int errno = callState.get(ValueLayout.JAVA_INT, Libc.ERRNO_OFFSET);
+                if (errno == Libc.EINTR) continue;
+                if (errno == Libc.EAGAIN) break;
+                return sent == 0 ? -1 : sent;
+            }
+            PacketCapture capture = agent.getCapture();
+            if (capture != null) {
+                for (int i = 0; i < result; i++) {
+                    byte[] packet = packets.get(sent + i);
+                    capture.recordSent(streamId, componentId, packet, 0, packet.length);
+                }
+            }
+            sent += result;
+            sentPackets.add(result);
+            agent.markActivity();
+            if (result < count) break;
+        }
+        return sent;
+    }
+
+    /**
+     * @return false once the sender is closed or the component has left CONNECTED/READY.
+     */
+    public boolean isValid() {
+        return valid && !closed;
+    }
+
+    public InetSocketAddress getRemoteAddress() {
+        return remoteAddress;
+    }
+
+    public int getStreamId() {
+        return streamId;
+    }
+
+    public int getComponentId() {
+        return componentId;
+    }
+
+    public long getSentPackets() {
+        return sentPackets.sum();
+    }
+
+    /**
+     * @return Number of {@code sendmmsg} calls made, for comparing against {@link #getSentPackets()}.
+     */
+    public long getSyscalls() {
+        return syscalls.sum();
+    }
+
+    /**
+     * Closes the duplicated descriptor and frees the pooled buffers. The agent's own socket is unaffected.
+     */
+    @Override
+    public synchronized void close() {
+        if (closed) return;
+        closed = true;
+        agent.removeListener(stateListener);
+        try {
+            int ignored = (int) Libc.close.invokeExact(fd);
+        } catch (Throwable t) {
+            LOG.log(Level.ERROR, "close failed", t);
+        }
+        arena.close();
+    }
+}
@@ -1,19 +1,39 @@
 package io.github.kinsleykajiva.ice;
 
+import java.lang.System.Logger.Level;
 import java.lang.foreign.Arena;
+import java.lang.foreign.FunctionDescriptor;
 import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Manages the GLib Main Context and Main Loop.
  * libnice requires a running GLib event loop for candidate gathering and signaling.
  */
 public class GLibContext implements AutoCloseable {
+    private static final System.Logger LOG = System.getLogger(GLibContext.class.getName());
+
+    /** Dispatch probes keyed by the ID passed to the native timeout callback. */
+    private static final Map<Long, DispatchProbe> PROBES = new ConcurrentHashMap<>();
+    private static final AtomicLong PROBE_IDS = new AtomicLong();
+
     private final MemorySegment loop;
     private final MemorySegment context;
     private final Arena arena;
     private final ExecutorService executor;
+    private final NativeResourceTracker.Registration registration;
+    private volatile GLibReactor reactor;
+    private volatile boolean started;
+    private volatile ThreadPlacement placement = ThreadPlacement.none();
+    private DispatchProbe probe;
 
     public GLibContext() {
         this.arena = Arena.ofShared();
@@ -36,51 +56,170 @@ public class GLibContext implements AutoCloseable {
                 this.loop = MemorySegment.NULL;
             }
         } catch (Throwable t) {
+            executor.shutdownNow();
+            arena.close();
             throw new RuntimeException("Failed to create GLibContext", t);
         }
+
+        MemorySegment ctx = this.context;
+        MemorySegment mainLoop = this.loop;
+        Arena ctxArena = this.arena;
+        ExecutorService loopExecutor = this.executor;
+        this.registration = NativeResourceTracker.register(this, NativeResourceTracker.Kind.CONTEXT, 0, "GLibContext",
+            NativeResourceTracker.CONTEXT_ESTIMATED_BYTES, () -> release(ctx, mainLoop, ctxArena, loopExecutor));
     }
 
     /**
      * Starts the GLib main loop in a background thread.
      */
-    public void start() {
+    public synchronized void start() {
+        if (reactor != null) {
+            throw new IllegalStateException("GLibContext is driven by a GLibReactor");
+        }
+        started = true;
+        // Capture the loop locally so the loop thread never keeps this context reachable.
+        MemorySegment loop = this.loop;
+        MemorySegment context = this.context;
+        ThreadPlacement placement = this.placement;
         executor.submit(() -> {
+            placement.apply();
             try {
                 if (NiceBindings.g_main_loop_run != null && !loop.equals(MemorySegment.NULL)) {
+                    // Thread-default for the loop thread, so GTask-based calls made from callbacks
+                    // (e.g. nice_agent_close_async) complete on this context.
+                    // Guarded like pushThreadDefault/popThreadDefault, which would capture this context
+                    boolean pushed = NiceBindings.g_main_context_push_thread_default != null && !context.equals(MemorySegment.NULL);
+                    if (pushed) {
+                        NiceBindings.g_main_context_push_thread_default.invokeExact(context);
+                    }
                     NiceBindings.g_main_loop_run.invokeExact(loop);
+                    if (pushed && NiceBindings.g_main_context_pop_thread_default != null) {
+                        NiceBindings.g_main_context_pop_thread_default.invokeExact(context);
+                    }
                 }
             } catch (Throwable t) {
-                t.printStackTrace();
+                LOG.log(Level.ERROR, "start failed", t);
             }
         });
     }
 
+    /**
+     * Sets the CPU affinity and scheduling the loop thread applies to itself when it starts.
+     * Must be called before {@link #start()}; contexts driven by a {@link GLibReactor} use the reactor's placement.
+     */
+    public void setThreadPlacement(ThreadPlacement placement) {
+        this.placement = placement;
+    }
+
+    /**
+     * Starts measuring dispatch latency: a GLib timeout fires every {@code interval} on this context and
+     * records how late each callback runs relative to its due time. That delay is what every other
+     * source on the context (socket reads, libnice timers) waits behind busy callbacks or a preempted loop thread.
+     *
+     * @return The histogram the probe records into; the same one if the probe is already running.
+     */
+    public synchronized LatencyHistogram enableDispatchProbe(Duration interval) {
+        if (probe != null) return probe.histogram;
+        if (NiceBindings.g_timeout_source_new == null || context.equals(MemorySegment.NULL)) {
+            return new LatencyHistogram();
+        }
+        long id = PROBE_IDS.incrementAndGet();
+        int intervalMillis = (int) Math.max(1, interval.toMillis());
+        DispatchProbe created = new DispatchProbe(id, intervalMillis);
+        PROBES.put(id, created);
+        try {
+            created.source = (MemorySegment) NiceBindings.g_timeout_source_new.invokeExact(intervalMillis);
+            NiceBindings.g_source_set_callback.invokeExact(created.source, DispatchProbe.CALLBACK, MemorySegment.ofAddress(id), MemorySegment.NULL);
+            int ignored = (int) NiceBindings.g_source_attach.invokeExact(created.source, context);
+        } catch (Throwable t) {
+            PROBES.remove(id);
+            LOG.log(Level.ERROR, "enableDispatchProbe failed", t);
+            return created.histogram;
+        }
+        probe = created;
+        return created.histogram;
+    }
+
+    /**
+     * @return The dispatch-latency histogram, or null if {@link #enableDispatchProbe} was not called.
+     */
+    public synchronized LatencyHistogram getDispatchLatency() {
+        return probe == null ? null : probe.histogram;
+    }
+
+    private synchronized void stopDispatchProbe() {
+        if (probe == null) return;
+        PROBES.remove(probe.id);
+        try {
+            NiceBindings.g_source_destroy.invokeExact(probe.source);
+            NiceBindings.g_source_unref.invokeExact(probe.source);
+        } catch (Throwable t) {
+            LOG.log(Level.ERROR, "stopDispatchProbe failed", t);
+        }
+        probe = null;
+    }
+
+    /**
+     * Called by {@link GLibReactor#attach}; a context is driven either by its own loop thread or by one reactor.
+     */
+    synchronized void attachTo(GLibReactor reactor) {
+        if (started || this.reactor != null) {
+            throw new IllegalStateException("GLibContext is already running");
+        }
+        this.reactor = reactor;
+    }
+
+    /**
+     * @return The reactor driving this context, or null if it runs its own loop (or none).
+     */
+    public GLibReactor getReactor() {
+        return reactor;
+    }
+
     /**
      * Stops the GLib main loop.
      */
     public void stop() {
+        quit(loop);
+    }
+
+    private static void quit(MemorySegment loop) {
         if (!loop.equals(MemorySegment.NULL)) {
             try {
                 if (NiceBindings.g_main_loop_quit != null) {
                     NiceBindings.g_main_loop_quit.invokeExact(loop);
                 }
             } catch (Throwable t) {
-                t.printStackTrace();
+                LOG.log(Level.ERROR, "quit failed", t);
             }
         }
     }
 
     @Override
     public void close() {
-        stop();
-        executor.shutdownNow();
+        stopDispatchProbe();
+        GLibReactor driver = reactor;
+        if (driver != null) {
+            // The reactor holds its own reference and drops it on its thread.
+            driver.detach(this);
+        }
+        registration.close();
+    }
+
+    /**
+     * Releases the loop and context. Static so the cleaner action never references the GLibContext itself.
+     */
+    private static void release(MemorySegment context, MemorySegment loop, Arena arena, ExecutorService executor) {
+        quit(loop);
+        // The loop task returns once quit; no need to interrupt it.
+        executor.shutdown();
         if (!loop.equals(MemorySegment.NULL)) {
             try {
                 if (NiceBindings.g_main_loop_unref != null) {
                     NiceBindings.g_main_loop_unref.invokeExact(loop);
                 }
             } catch (Throwable t) {
-                t.printStackTrace();
+                LOG.log(Level.ERROR, "release failed", t);
             }
         }
         if (!context.equals(MemorySegment.NULL)) {
@@ -89,7 +228,7 @@ public class GLibContext implements AutoCloseable {
                     NiceBindings.g_main_context_unref.invokeExact(context);
                 }
             } catch (Throwable t) {
-                t.printStackTrace();
+                LOG.log(Level.ERROR, "release failed", t);
             }
         }
         arena.close();
@@ -109,7 +248,7 @@ public class GLibContext implements AutoCloseable {
                     NiceBindings.g_main_context_push_thread_default.invokeExact(context);
                 }
             } catch (Throwable t) {
-                t.printStackTrace();
+                LOG.log(Level.ERROR, "pushThreadDefault failed", t);
             }
         }
     }
@@ -124,8 +263,51 @@ public class GLibContext implements AutoCloseable {
                     NiceBindings.g_main_context_pop_thread_default.invokeExact(context);
                 }
             } catch (Throwable t) {
-                t.printStackTrace();
+                LOG.log(Level.ERROR, "popThreadDefault failed", t);
+            }
+        }
+    }
+
+    /**
+     * A repeating timeout source whose callback lateness is recorded.
+     */
+    private static final class DispatchProbe {
+        static final MemorySegment CALLBACK;
+
+        static {
+            try {
+                CALLBACK = NiceBindings.upcallStub(MethodHandles.lookup(), DispatchProbe.class, "onTimeout",
+                    MethodType.methodType(int.class, MemorySegment.class),
+                    FunctionDescriptor.of(ValueLayout.JAVA_INT, ValueLayout.ADDRESS));
+            } catch (ReflectiveOperationException e) {
+                throw new ExceptionInInitializerError(e);
+            }
+        }
+
+        final long id;
+        final long intervalNanos;
+        final LatencyHistogram histogram = new LatencyHistogram();
+        MemorySegment source;
+        long lastNanos;
+
+        DispatchProbe(long id, int intervalMillis) {
+            this.id = id;
+            this.intervalNanos = intervalMillis * 1_000_000L;
+        }
+
+        /**
+         * GSourceFunc. GLib re-arms a timeout relative to its last dispatch, so lateness is the time
+         * since the previous callback minus the interval.
+         */
+        private static int onTimeout(MemorySegment data) {
+            DispatchProbe probe = PROBES.get(data.address());
+            if (probe == null) return 0; // G_SOURCE_REMOVE
+            long now = System.nanoTime();
+            if (probe.lastNanos != 0) {
+                probe.histogram.record(now - probe.lastNanos - probe.intervalNanos);
             }
+            probe.lastNanos = now;
+            return 1; // G_SOURCE_CONTINUE
         }
     }
 }
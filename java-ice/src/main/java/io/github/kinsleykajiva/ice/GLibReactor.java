@@ -0,0 +1,576 @@
+package io.github.kinsleykajiva.ice;
+
+import java.lang.System.Logger.Level;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Consumer;
+
+/**
+ * Drives any number of {@link GLibContext}s from one thread, instead of one blocking main loop thread per context.
+ * <p>
+ * Each context is iterated by hand (prepare, query, check, dispatch). The file descriptors it asks
+ * GLib to poll are registered in a single epoll set, and its next timeout goes into a hashed timer
+ * wheel, so an idle context costs nothing per cycle. Only contexts with a ready descriptor or an
+ * expired timeout are iterated.
+ * <p>
+ * The reactor can run on its own thread ({@link #start()}) or be driven by an existing event loop:
+ * register {@link #getFileDescriptor()} for readability in that loop's poller, and call
+ * {@link #runOnce(long) runOnce(0)} when it is readable or after {@link #nextTimeoutMillis()}.
+ * All calls to {@link #runOnce} must come from the same thread, and libnice callbacks of attached
+ * contexts run on it. Linux only.
+ *
+ * <pre>{@code
+ * GLibReactor reactor = new GLibReactor();
+ * reactor.start();
+ * for (GLibContext context : contexts) {
+ *     reactor.attach(context); // instead of context.start()
+ * }
+ * }</pre>
+ */
+public class GLibReactor implements AutoCloseable {
+    private static final System.Logger LOG = System.getLogger(GLibReactor.class.getName());
+
+    private static final long WAKEUP_KEY = -1L;
+    private static final int MAX_EVENTS = 256;
+    private static final int INITIAL_POLL_FDS = 8;
+    /** GIOCondition bits reported even when not requested. */
+    private static final int G_IO_ALWAYS = 8 | 16 | 32; // G_IO_ERR | G_IO_HUP | G_IO_NVAL
+
+    private final int epollFd;
+    private final int wakeFd;
+    private final Arena arena = Arena.ofShared();
+    private final MemorySegment events;
+    private final MemorySegment ctlEvent;
+    private final MemorySegment wakeValue;
+    private final MemorySegment drainBuffer;
+    private final MemorySegment priority;
+    private final MemorySegment timeout;
+
+    private final Queue<Runnable> commands = new ConcurrentLinkedQueue<>();
+    private final List<Slot> slots = new ArrayList<>();
+    private final ArrayDeque<Integer> freeSlotIds = new ArrayDeque<>();
+    private final Map<Integer, Slot> fdOwners = new HashMap<>();
+    private final ArrayDeque<Slot> ready = new ArrayDeque<>();
+    private final TimerWheel timers = new TimerWheel();
+
+    private volatile Thread owner;
+    private volatile Thread loopThread;
+    private volatile boolean closed;
+    private volatile ThreadPlacement placement = ThreadPlacement.none();
+    private int attached;
+
+    /**
+     * An attached context and the poll set GLib last asked for.
+     */
+    private static final class Slot {
+        final int id;
+        final GLibContext context;
+        final MemorySegment ctx;
+        final Map<Integer, Integer> registered = new HashMap<>();
+        MemorySegment fds;
+        int nFds;
+        int maxPriority;
+        boolean queried;
+        boolean queued;
+        boolean detached;
+        long deadline = -1;
+
+        Slot(int id, GLibContext context, MemorySegment ctx) {
+            this.id = id;
+            this.context = context;
+            this.ctx = ctx;
+        }
+    }
+
+    public GLibReactor() {
+        if (Libc.epoll_create1 == null || Libc.eventfd == null || NiceBindings.g_main_context_query == null) {
+            throw new IllegalStateException("GLibReactor requires Linux epoll and GLib main context iteration");
+        }
+        try {
+            epollFd = (int) Libc.epoll_create1.invokeExact(Libc.EPOLL_CLOEXEC);
+            wakeFd = (int) Libc.eventfd.invokeExact(0, Libc.EFD_NONBLOCK | Libc.EFD_CLOEXEC);
+        } catch (Throwable t) {
+            arena.close();
+            throw new RuntimeException("Failed to create GLibReactor", t);
+        }
+        if (epollFd < 0 || wakeFd < 0) {
+            arena.close();
+            throw new IllegalStateException("epoll_create1/eventfd failed");
+        }
+        events = arena.allocate(Libc.EPOLL_EVENT_LAYOUT, MAX_EVENTS);
+        ctlEvent = arena.allocate(Libc.EPOLL_EVENT_LAYOUT);
+        wakeValue = arena.allocate(ValueLayout.JAVA_LONG);
+        wakeValue.set(ValueLayout.JAVA_LONG, 0, 1L);
+        drainBuffer = arena.allocate(ValueLayout.JAVA_LONG);
+        priority = arena.allocate(ValueLayout.JAVA_INT);
+        timeout = arena.allocate(ValueLayout.JAVA_INT);
+        control(Libc.EPOLL_CTL_ADD, wakeFd, 1, WAKEUP_KEY); // EPOLLIN
+    }
+
+    /**
+     * Runs the reactor on a dedicated daemon thread until {@link #close()}.
+     */
+    public synchronized void start() {
+        if (loopThread != null || owner != null) {
+            throw new IllegalStateException("GLibReactor is already being driven");
+        }
+        ThreadPlacement placement = this.placement;
+        Thread thread = new Thread(() -> {
+            placement.apply();
+            while (!closed) {
+                runOnce(-1);
+            }
+            shutdown();
+        }, "GLib-Reactor");
+        thread.setDaemon(true);
+        loopThread = thread;
+        thread.start();
+    }
+
+    /**
+     * Sets the CPU affinity and scheduling the reactor thread applies to itself. Must be called before
+     * {@link #start()}; a reactor driven by an outer loop runs with that loop thread's placement.
+     */
+    public void setThreadPlacement(ThreadPlacement placement) {
+        this.placement = placement;
+    }
+
+    /**
+     * Hands a context to this reactor. The context must not be {@link GLibContext#start() started};
+     * it is acquired by the reactor thread on its next cycle.
+     */
+    public void attach(GLibContext context) {
+        if (closed) {
+            throw new IllegalStateException("GLibReactor closed");
+        }
+        context.attachTo(this);
+        MemorySegment ctx = context.getContext();
+        try {
+            // The reactor holds its own reference, so closing the context never frees it mid-iteration.
+            MemorySegment ignored = (MemorySegment) NiceBindings.g_main_context_ref.invokeExact(ctx);
+        } catch (Throwable t) {
+            LOG.log(Level.ERROR, "attach failed", t);
+            return;
+        }
+        commands.add(() -> register(context, ctx));
+        wakeup();
+    }
+
+    /**
+     * Stops iterating a context and releases it on the reactor thread.
+     *
+     * @return Completes once the reactor no longer touches the context.
+     */
+    public CompletableFuture<Void> detach(GLibContext context) {
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        commands.add(() -> {
+            for (Slot slot : slots) {
+                if (slot != null && slot.context == context) {
+                    unregister(slot);
+                }
+            }
+            done.complete(null);
+        });
+        wakeup();
+        return done;
+    }
+
+    /**
+     * Runs one reactor cycle: waits for ready descriptors, expired timeouts or a wakeup, then iterates
+     * every context that has work.
+     *
+     * @param timeoutMillis Longest time to wait; 0 polls without blocking, negative waits until there is work.
+     * @return Number of contexts iterated.
+     */
+    public int runOnce(long timeoutMillis) {
+        Thread current = Thread.currentThread();
+        if (owner == null) {
+            synchronized (this) {
+                if (owner == null) owner = current;
+            }
+        }
+        if (owner != current) {
+            throw new IllegalStateException("GLibReactor is driven by " + owner.getName());
+        }
+        runCommands();
+
+        int wait = ready.isEmpty() ? waitMillis(timeoutMillis) : 0;
+        int n;
+        try {
+            n = (int) Libc.epoll_wait.invokeExact(epollFd, events, MAX_EVENTS, wait);
+        } catch (Throwable t) {
+            LOG.log(Level.ERROR, "runOnce failed", t);
+            return 0;
+        }
+        long eventSize = Libc.EPOLL_EVENT_LAYOUT.byteSize();
+        for (int i = 0; i < n; i++) {
+            int bits = events.get(ValueLayout.JAVA_INT, i * eventSize);
+            long key = events.get(ValueLayout.JAVA_LONG_UNALIGNED, i * eventSize + Libc.EPOLL_EVENT_DATA_OFFSET);
+            if (key == WAKEUP_KEY) {
+                drainWakeup();
+                continue;
+            }
+            int slotId = (int) (key >>> 32);
+            Slot slot = slotId < slots.size() ? slots.get(slotId) : null;
+            if (slot != null && !slot.detached) {
+                setRevents(slot, (int) key, bits);
+                markReady(slot);
+            }
+        }
+        timers.expire(System.nanoTime() / 1_000_000, this::markReady);
+        runCommands();
+
+        int batch = ready.size();
+        for (int i = 0; i < batch; i++) {
+            Slot slot = ready.poll();
+            slot.queued = false;
+            if (!slot.detached) {
+                iterate(slot);
+            }
+        }
+        return batch;
+    }
+
+    /**
+     * @return The epoll descriptor of this reactor. It polls readable whenever {@link #runOnce} has work,
+     * so an outer event loop can watch it instead of running a thread per reactor.
+     */
+    public int getFileDescriptor() {
+        return epollFd;
+    }
+
+    /**
+     * @return Milliseconds until the earliest context timeout, 0 if a context is ready now, or -1 if none is pending.
+     */
+    public long nextTimeoutMillis() {
+        if (!ready.isEmpty()) return 0;
+        return timers.millisUntilNext(System.nanoTime() / 1_000_000);
+    }
+
+    /**
+     * @return Number of contexts currently attached.
+     */
+    public int getContextCount() {
+        return attached;
+    }
+
+    /**
+     * Wakes the reactor thread from its wait. Safe to call from any thread.
+     */
+    public void wakeup() {
+        try {
+            long ignored = (long) Libc.write.invokeExact(wakeFd, wakeValue, 8L);
+        } catch (Throwable t) {
+            LOG.log(Level.ERROR, "wakeup failed", t);
+        }
+    }
+
+    /**
+     * Stops the reactor and releases every attached context. With {@link #start()} this may be called from
+     * any thread and waits for the reactor thread; otherwise it must be called from the driving thread.
+     */
+    @Override
+    public void close() {
+        if (closed) return;
+        closed = true;
+        Thread thread = loopThread;
+        if (thread != null) {
+            wakeup();
+            if (thread != Thread.currentThread()) {
+                try {
+                    thread.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return;
+        }
+        if (owner != null && owner != Thread.currentThread()) {
+            throw new IllegalStateException("GLibReactor must be closed from its driving thread");
+        }
+        shutdown();
+    }
+
+    private void shutdown() {
+        runCommands();
+        for (Slot slot : slots) {
+            if (slot != null && !slot.detached) {
+                unregister(slot);
+            }
+        }
+        try {
+            int ignored = (int) Libc.close.invokeExact(wakeFd);
+            ignored = (int) Libc.close.invokeExact(epollFd);
+        } catch (Throwable t) {
+            LOG.log(Level.ERROR, "shutdown failed", t);
+        }
+        arena.close();
+    }
+
+    private void runCommands() {
+        Runnable command;
+        while ((command = commands.poll()) != null) {
+            command.run();
+        }
+    }
+
+    private void register(GLibContext context, MemorySegment ctx) {
+        try {
+            if ((int) NiceBindings.g_main_context_acquire.invokeExact(ctx) == 0) {
+                LOG.log(Level.WARNING, "Context is owned by another thread (was it started?)");
+                NiceBindings.g_main_context_unref.invokeExact(ctx);
+                return;
+            }
+        } catch (Throwable t) {
+            LOG.log(Level.ERROR, "register failed", t);
+            return;
+        }
+        Integer free = freeSlotIds.poll();
+        Slot slot = new Slot(free != null ? free : slots.size(), context, ctx);
+        if (free != null) {
+            slots.set(free, slot);
+        } else {
+            slots.add(slot);
+        }
+        slot.fds = Arena.ofAuto().allocate(NiceBindings.GPOLLFD_LAYOUT, INITIAL_POLL_FDS);
+        attached++;
+        markReady(slot);
+    }
+
+    private void unregister(Slot slot) {
+        slot.detached = true;
+        for (Integer fd : slot.registered.keySet()) {
+            if (fdOwners.get(fd) == slot) {
+                fdOwners.remove(fd);
+                control(Libc.EPOLL_CTL_DEL, fd, 0, 0);
+            }
+        }
+        slot.registered.clear();
+        timers.cancel(slot);
+        try {
+            NiceBindings.g_main_context_release.invokeExact(slot.ctx);
+            NiceBindings.g_main_context_unref.invokeExact(slot.ctx);
+        } catch (Throwable t) {
+            LOG.log(Level.ERROR, "unregister failed", t);
+        }
+        slots.set(slot.id, null);
+        freeSlotIds.add(slot.id);
+        attached--;
+    }
+
+    /**
+     * Finishes the previous iteration (check and dispatch against the polled descriptors) and starts the
+     * next one (prepare and query), then re-arms the epoll registrations and the timeout.
+     */
+    private void iterate(Slot slot) {
+        try {
+            // Thread-default while dispatching, as on a GLibContext loop thread, so GTask results land here.
+            NiceBindings.g_main_context_push_thread_default.invokeExact(slot.ctx);
+            try {
+                if (slot.queried) {
+                    if ((int) NiceBindings.g_main_context_check.invokeExact(slot.ctx, slot.maxPriority, slot.fds, slot.nFds) != 0) {
+                        NiceBindings.g_main_context_dispatch.invokeExact(slot.ctx);
+                    }
+                }
+                int ignored = (int) NiceBindings.g_main_context_prepare.invokeExact(slot.ctx, priority);
+                slot.maxPriority = priority.get(ValueLayout.JAVA_INT, 0);
+                int capacity = (int) (slot.fds.byteSize() / NiceBindings.GPOLLFD_LAYOUT.byteSize());
+                int n;
+                while ((n = (int) NiceBindings.g_main_context_query.invokeExact(slot.ctx, slot.maxPriority, timeout, slot.fds, capacity)) > capacity) {
+                    capacity = Integer.highestOneBit(n) << 1;
+                    slot.fds = Arena.ofAuto().allocate(NiceBindings.GPOLLFD_LAYOUT, capacity);
+                }
+                slot.nFds = n;
+                slot.queried = true;
+            } finally {
+                NiceBindings.g_main_context_pop_thread_default.invokeExact(slot.ctx);
+            }
+        } catch (Throwable t) {
+            LOG.log(Level.ERROR, "iterate failed", t);
+            return;
+        }
+        updateRegistrations(slot);
+
+        int timeoutMillis = timeout.get(ValueLayout.JAVA_INT, 0);
+        if (timeoutMillis == 0) {
+            markReady(slot);
+        } else if (timeoutMillis > 0) {
+            timers.schedule(slot, System.nanoTime() / 1_000_000 + timeoutMillis);
+        } else {
+            timers.cancel(slot);
+        }
+    }
+
+    private void updateRegistrations(Slot slot) {
+        long fdSize = NiceBindings.GPOLLFD_LAYOUT.byteSize();
+        Map<Integer, Integer> wanted = new HashMap<>();
+        for (int i = 0; i < slot.nFds; i++) {
+            int fd = slot.fds.get(ValueLayout.JAVA_INT, i * fdSize);
+            int requested = slot.fds.get(ValueLayout.JAVA_SHORT, i * fdSize + 4) & 0xffff;
+            wanted.merge(fd, requested, (a, b) -> a | b);
+        }
+        Iterator<Map.Entry<Integer, Integer>> it = slot.registered.entrySet().iterator();
+        while (it.hasNext()) {
+            int fd = it.next().getKey();
+            if (!wanted.containsKey(fd)) {
+                it.remove();
+                if (fdOwners.get(fd) == slot) {
+                    fdOwners.remove(fd);
+                    control(Libc.EPOLL_CTL_DEL, fd, 0, 0);
+                }
+            }
+        }
+        long keyBase = (long) slot.id << 32;
+        for (Map.Entry<Integer, Integer> entry : wanted.entrySet()) {
+            int fd = entry.getKey();
+            int bits = entry.getValue();
+            Integer current = slot.registered.get(fd);
+            Slot previous = fdOwners.put(fd, slot);
+            if (previous != null && previous != slot) {
+                // The descriptor was closed and its number reused by another context.
+                previous.registered.remove(fd);
+                current = null;
+            }
+            if (current == null || current != bits || previous != slot) {
+                control(current == null ? Libc.EPOLL_CTL_ADD : Libc.EPOLL_CTL_MOD, fd, bits, keyBase | (fd & 0xffffffffL));
+                slot.registered.put(fd, bits);
+            }
+        }
+    }
+
+    /**
+     * epoll_ctl, falling back between ADD and MOD: a descriptor closed and reopened under the same number
+     * has silently left the epoll set, and one reused across contexts is still in it.
+     */
+    private void control(int op, int fd, int bits, long key) {
+        ctlEvent.set(ValueLayout.JAVA_INT, 0, bits);
+        ctlEvent.set(ValueLayout.JAVA_LONG_UNALIGNED, Libc.EPOLL_EVENT_DATA_OFFSET, key);
+        try {
+            int result = (int) Libc.epoll_ctl.invokeExact(epollFd, op, fd, ctlEvent);
+            if (result != 0 && op != Libc.EPOLL_CTL_DEL) {
+                int retry = op == Libc.EPOLL_CTL_ADD ? Libc.EPOLL_CTL_MOD : Libc.EPOLL_CTL_ADD;
+                int ignored = (int) Libc.epoll_ctl.invokeExact(epollFd, retry, fd, ctlEvent);
+            }
+        } catch (Throwable t) {
+            LOG.log(Level.ERROR, "control failed", t);
+        }
+    }
+
+    private void setRevents(Slot slot, int fd, int bits) {
+        long fdSize = NiceBindings.GPOLLFD_LAYOUT.byteSize();
+        for (int i = 0; i < slot.nFds; i++) {
+            long offset = i * fdSize;
+            if (slot.fds.get(ValueLayout.JAVA_INT, offset) == fd) {
+                int requested = slot.fds.get(ValueLayout.JAVA_SHORT, offset + 4) & 0xffff;
+                slot.fds.set(ValueLayout.JAVA_SHORT, offset + 6, (short) (bits & (requested | G_IO_ALWAYS)));
+            }
+        }
+    }
+
+    private void markReady(Slot slot) {
+        if (!slot.queued) {
+            slot.queued = true;
+            ready.add(slot);
+        }
+    }
+
+    private void drainWakeup() {
+        try {
+            long ignored = (long) Libc.read.invokeExact(wakeFd, drainBuffer, 8L);
+        } catch (Throwable t) {
+            LOG.log(Level.ERROR, "drainWakeup failed", t);
+        }
+    }
+
+    private int waitMillis(long timeoutMillis) {
+        long next = timers.millisUntilNext(System.nanoTime() / 1_000_000);
+        long wait;
+        if (next < 0) {
+            wait = timeoutMillis;
+        } else if (timeoutMillis < 0) {
+            wait = next;
+        } else {
+            wait = Math.min(next, timeoutMillis);
+        }
+        return (int) Math.min(wait, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Hashed timer wheel with 1 ms ticks holding at most one deadline per context. Deadlines further
+     * out than one revolution stay in their bucket until a later pass reaches them.
+     */
+    private static final class TimerWheel {
+        private static final int SIZE = 512;
+        private static final int MASK = SIZE - 1;
+
+        @SuppressWarnings("unchecked")
+        private final ArrayDeque<Slot>[] buckets = new ArrayDeque[SIZE];
+        private long lastExpired = System.nanoTime() / 1_000_000;
+        private int pending;
+
+        TimerWheel() {
+            for (int i = 0; i < SIZE; i++) {
+                buckets[i] = new ArrayDeque<>();
+            }
+        }
+
+        void schedule(Slot slot, long deadline) {
+            if (slot.deadline == deadline) return;
+            cancel(slot);
+            slot.deadline = deadline;
+            buckets[(int) (deadline & MASK)].add(slot);
+            pending++;
+        }
+
+        void cancel(Slot slot) {
+            if (slot.deadline >= 0) {
+                buckets[(int) (slot.deadline & MASK)].remove(slot);
+                slot.deadline = -1;
+                pending--;
+            }
+        }
+
+        void expire(long now, Consumer<Slot> fire) {
+            if (pending == 0 || now <= lastExpired) {
+                lastExpired = Math.max(lastExpired, now);
+                return;
+            }
+            long ticks = Math.min(now - lastExpired, SIZE);
+            for (long t = now - ticks + 1; t <= now; t++) {
+                Iterator<Slot> it = buckets[(int) (t & MASK)].iterator();
+                while (it.hasNext()) {
+                    Slot slot = it.next();
+                    if (slot.deadline <= now) {
+                        it.remove();
+                        slot.deadline = -1;
+                        pending--;
+                        fire.accept(slot);
+                    }
+                }
+            }
+            lastExpired = now;
+        }
+
+        long millisUntilNext(long now) {
+            if (pending == 0) return -1;
+            for (long t = now; t < now + SIZE; t++) {
+                for (Slot slot : buckets[(int) (t & MASK)]) {
+                    if (slot.deadline <= t) {
+                        return Math.max(0, slot.deadline - now);
+                    }
+                }
+            }
+            return SIZE;
+        }
+    }
+}
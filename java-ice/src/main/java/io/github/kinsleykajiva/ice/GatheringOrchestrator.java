@@ -0,0 +1,558 @@
+package io.github.kinsleykajiva.ice;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Admission control for candidate gathering during call storms.
+ * <p>
+ * Each gathering stream sends STUN/TURN requests at libnice's pacing interval Ta, and the
+ * connectivity checks that follow use the same interval. When thousands of calls arrive at once
+ * they all hit the network, the servers and the GLib loops together, and every call is slow. The
+ * orchestrator lets a bounded number of streams gather at a time, starts new ones no faster than a
+ * token-bucket rate, and queues the rest round-robin by key so one tenant's burst cannot starve
+ * another. A request that does not fit in the queue, or waits too long, fails instead of piling up.
+ * <p>
+ * Admitted agents are tuned for the load at admission: Ta is stretched so the in-flight streams
+ * together stay within {@link #setStunRateBudget the STUN budget}, and while requests are queued
+ * the connectivity check cap is lowered towards {@link #setMinConnectivityChecks}. Agents already
+ * in flight are retuned when the pacing they need drifts by more than a quarter.
+ */
+public class GatheringOrchestrator implements AutoCloseable {
+    /** libnice's default Ta. */
+    public static final int DEFAULT_STUN_PACING_MILLIS = 20;
+    /** libnice's default per-stream connectivity check cap. */
+    public static final int DEFAULT_MAX_CONNECTIVITY_CHECKS = 100;
+    /** Longest pacing interval the orchestrator applies, however tight the budget. */
+    public static final int MAX_STUN_PACING_MILLIS = 500;
+
+    private static final double RETUNE_TOLERANCE = 0.25;
+    private static final Object DEFAULT_KEY = new Object();
+
+    private enum State { QUEUED, ACTIVE, DONE }
+
+    /**
+     * Load snapshot.
+     *
+     * @param inFlight Streams holding an admission slot.
+     * @param queued Requests waiting for a slot.
+     * @param stunPacingMillis Ta most recently applied to in-flight agents.
+     * @param maxConnectivityChecks Check cap applied to the most recently admitted agent.
+     * @param admitted Requests whose gathering was started.
+     * @param rejected Requests refused because the queue was full.
+     * @param expired Requests that waited longer than the maximum queue wait.
+     * @param timedOut Admitted streams whose slot was reclaimed by the hold timeout.
+     */
+    public record Load(int inFlight, int queued, int stunPacingMillis, int maxConnectivityChecks,
+                       long admitted, long rejected, long expired, long timedOut) {}
+
+    private final int maxInFlight;
+    private final double tokensPerNano;
+    private final double burst;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    /** Per-key FIFO queues; {@link #readyKeys} holds each key with a queue once, in round-robin order. */
+    private final Map<Object, ArrayDeque<Request>> queues = new HashMap<>();
+    private final ArrayDeque<Object> readyKeys = new ArrayDeque<>();
+    /** All queued requests in arrival order, for expiry. May still hold requests that left the queue. */
+    private final ArrayDeque<Request> arrivals = new ArrayDeque<>();
+    /** Admitted requests in admission order, so the oldest hold deadline is first. */
+    private final Set<Request> active = new LinkedHashSet<>();
+    private final LatencyHistogram queueWaits = new LatencyHistogram();
+    private final LatencyHistogram gatheringTimes = new LatencyHistogram();
+    private final Thread dispatcher;
+
+    private double tokens;
+    private long refilledNanos;
+    private int queued;
+    private int appliedPacingMillis = DEFAULT_STUN_PACING_MILLIS;
+    private int appliedMaxChecks = DEFAULT_MAX_CONNECTIVITY_CHECKS;
+    private boolean retunePending;
+    private boolean closed;
+    private long admittedCount;
+    private long rejectedCount;
+    private long expiredCount;
+    private long timedOutCount;
+
+    private volatile double stunRateBudget;
+    private volatile int minConnectivityChecks = DEFAULT_MAX_CONNECTIVITY_CHECKS;
+    private volatile int maxQueued = Integer.MAX_VALUE;
+    private volatile long maxQueueWaitNanos = Long.MAX_VALUE;
+    private volatile long holdNanos = Duration.ofSeconds(30).toNanos();
+    private volatile boolean holdThroughChecks;
+
+    private final class Request implements NiceAgentListener {
+        final Object key;
+        final NiceAgent agent;
+        final int streamId;
+        final long enqueuedNanos;
+        final CompletableFuture<Duration> future = new CompletableFuture<>();
+        final Map<Integer, Integer> componentStates = new HashMap<>();
+        State state = State.QUEUED;
+        long admittedNanos;
+        int pacingMillis;
+        int maxChecks;
+        /** Components of the stream, or 0 if the stream was not added through {@link NiceAgent#addStream}. */
+        int components;
+        boolean holdThroughChecks;
+        boolean gathered;
+
+        Request(Object key, NiceAgent agent, int streamId, long enqueuedNanos) {
+            this.key = key;
+            this.agent = agent;
+            this.streamId = streamId;
+            this.enqueuedNanos = enqueuedNanos;
+        }
+
+        @Override
+        public void onGatheringDone(int streamId) {
+            if (streamId == this.streamId) {
+                gatheringDone(this);
+            }
+        }
+
+        @Override
+        public void onComponentStateChanged(int streamId, int componentId, int state) {
+            if (streamId == this.streamId) {
+                componentStateChanged(this, componentId, state);
+            }
+        }
+    }
+
+    /**
+     * @param maxInFlight Streams allowed to gather at the same time.
+     * @param gatheringsPerSecond Rate at which new gatherings may start.
+     * @param burst Gatherings that may start back to back after an idle period, at least 1.
+     */
+    public GatheringOrchestrator(int maxInFlight, double gatheringsPerSecond, int burst) {
+        if (maxInFlight < 1 || !(gatheringsPerSecond > 0) || burst < 1) {
+            throw new IllegalArgumentException("Invalid orchestrator configuration");
+        }
+        this.maxInFlight = maxInFlight;
+        this.tokensPerNano = gatheringsPerSecond / 1e9;
+        this.burst = burst;
+        this.tokens = burst;
+        this.refilledNanos = System.nanoTime();
+        this.dispatcher = Thread.ofPlatform().daemon().name("GatheringOrchestrator").start(this::dispatch);
+    }
+
+    /**
+     * Sets the STUN transactions per second all in-flight agents may send together. Each admitted
+     * agent gets Ta = inFlight / budget, between {@link #DEFAULT_STUN_PACING_MILLIS} and
+     * {@link #MAX_STUN_PACING_MILLIS}. 0, the default, leaves Ta at libnice's default.
+     */
+    public void setStunRateBudget(double transactionsPerSecond) {
+        stunRateBudget = Math.max(0, transactionsPerSecond);
+    }
+
+    /**
+     * Sets the connectivity check cap applied when the queue is at least {@code maxInFlight} deep;
+     * shallower queues scale linearly between this and {@link #DEFAULT_MAX_CONNECTIVITY_CHECKS}.
+     * The default, 100, never lowers the cap.
+     */
+    public void setMinConnectivityChecks(int minChecks) {
+        minConnectivityChecks = Math.clamp(minChecks, 1, DEFAULT_MAX_CONNECTIVITY_CHECKS);
+    }
+
+    /**
+     * Bounds the queue. Requests beyond {@code maxQueued} are rejected at once and requests waiting
+     * longer than {@code maxWait} are dropped; both fail their stage. Unbounded by default.
+     */
+    public void setQueueLimits(int maxQueued, Duration maxWait) {
+        this.maxQueued = Math.max(0, maxQueued);
+        this.maxQueueWaitNanos = maxWait.toNanos();
+        signal();
+    }
+
+    /**
+     * Sets how long an admitted stream may hold its slot before it is reclaimed, e.g. because its
+     * agent was closed before gathering finished. 30 seconds by default.
+     */
+    public void setHoldTimeout(Duration timeout) {
+        holdNanos = timeout.toNanos();
+    }
+
+    /**
+     * Keeps the slot of later admissions until every component of the stream is READY or FAILED,
+     * so the slot limit and STUN budget also cover connectivity checks. By default the slot is
+     * released when gathering is done.
+     */
+    public void setHoldThroughChecks(boolean hold) {
+        holdThroughChecks = hold;
+    }
+
+    /**
+     * Queues gathering of a stream under the shared default key, so requests are admitted in order.
+     *
+     * @see #submit(Object, NiceAgent, int)
+     */
+    public CompletionStage<Duration> submit(NiceAgent agent, int streamId) {
+        return submit(DEFAULT_KEY, agent, streamId);
+    }
+
+    /**
+     * Queues gathering of a stream. Keys with queued requests are served round-robin, each key in
+     * submission order. When admitted, the agent is tuned for the current load, a listener is added
+     * to follow the stream, and {@link NiceAgent#gatherCandidates} is called.
+     *
+     * @param key Fairness key, e.g. a tenant or caller ID.
+     * @param agent The agent; its STUN/TURN servers should already be set. It must stay open while
+     *              queued or admitted; call {@link #release} before closing it early.
+     * @param streamId The stream to gather.
+     * @return A stage completing with the time spent queued once gathering has started. It fails with
+     *         {@link RejectedExecutionException} if the queue is full or the orchestrator is closed,
+     *         {@link TimeoutException} if the request waited too long, or {@link IllegalStateException}
+     *         if libnice refused to gather. Cancelling it while queued withdraws the request.
+     */
+    public CompletionStage<Duration> submit(Object key, NiceAgent agent, int streamId) {
+        Request request = new Request(key, agent, streamId, System.nanoTime());
+        lock.lock();
+        try {
+            if (closed) {
+                request.future.completeExceptionally(new RejectedExecutionException("GatheringOrchestrator closed"));
+            } else if (queued >= maxQueued) {
+                rejectedCount++;
+                request.future.completeExceptionally(new RejectedExecutionException("Gathering queue full (" + queued + ")"));
+            } else {
+                queues.computeIfAbsent(key, k -> {
+                    readyKeys.add(k);
+                    return new ArrayDeque<>();
+                }).add(request);
+                arrivals.add(request);
+                queued++;
+                changed.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+        return request.future;
+    }
+
+    /**
+     * Releases the slot of an admitted stream early, e.g. when its agent is closed.
+     *
+     * @return true if the stream held a slot.
+     */
+    public boolean release(NiceAgent agent, int streamId) {
+        lock.lock();
+        try {
+            for (Request request : active) {
+                if (request.agent == agent && request.streamId == streamId) {
+                    releaseLocked(request);
+                    return true;
+                }
+            }
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return Time from submission to admission of each admitted request.
+     */
+    public LatencyHistogram getQueueWaitHistogram() {
+        return queueWaits;
+    }
+
+    /**
+     * @return Time from admission to "candidate-gathering-done" of each admitted request.
+     */
+    public LatencyHistogram getGatheringHistogram() {
+        return gatheringTimes;
+    }
+
+    public Load getLoad() {
+        lock.lock();
+        try {
+            return new Load(active.size(), queued, appliedPacingMillis, appliedMaxChecks,
+                admittedCount, rejectedCount, expiredCount, timedOutCount);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stops admitting, fails every queued request and releases every slot. Agents are left as they are.
+     */
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            if (closed) return;
+            closed = true;
+            for (Request request : arrivals) {
+                if (request.state == State.QUEUED) {
+                    request.state = State.DONE;
+                    request.future.completeExceptionally(new RejectedExecutionException("GatheringOrchestrator closed"));
+                }
+            }
+            arrivals.clear();
+            queues.clear();
+            readyKeys.clear();
+            queued = 0;
+            for (Request request : new ArrayList<>(active)) {
+                releaseLocked(request);
+            }
+            changed.signal();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            dispatcher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void dispatch() {
+        while (true) {
+            Request next = null;
+            List<Request> retune = null;
+            int pacingMillis = 0;
+            lock.lock();
+            try {
+                if (closed) return;
+                long now = System.nanoTime();
+                long waitNanos = expireLocked(now);
+                if (queued > 0 && active.size() < maxInFlight) {
+                    tokens = Math.min(burst, tokens + (now - refilledNanos) * tokensPerNano);
+                    refilledNanos = now;
+                    if (tokens >= 1) {
+                        next = pollLocked();
+                        if (next != null) {
+                            tokens -= 1;
+                            admitLocked(next, now);
+                        }
+                    } else {
+                        waitNanos = Math.min(waitNanos, (long) ((1 - tokens) / tokensPerNano) + 1);
+                    }
+                }
+                if (retunePending) {
+                    retunePending = false;
+                    pacingMillis = pacingMillisLocked(active.size());
+                    if (Math.abs(pacingMillis - appliedPacingMillis) > appliedPacingMillis * RETUNE_TOLERANCE) {
+                        appliedPacingMillis = pacingMillis;
+                        retune = new ArrayList<>();
+                        for (Request request : active) {
+                            // Agents closed before gathering finished hold their slot until the hold timeout
+                            if (request != next && request.pacingMillis != pacingMillis && !request.agent.isClosed()) {
+                                request.pacingMillis = pacingMillis;
+                                retune.add(request);
+                            }
+                        }
+                    }
+                }
+                if (next == null && retune == null) {
+                    if (waitNanos == Long.MAX_VALUE) {
+                        changed.await();
+                    } else {
+                        changed.awaitNanos(waitNanos);
+                    }
+                    continue;
+                }
+            } catch (InterruptedException e) {
+                return;
+            } finally {
+                lock.unlock();
+            }
+            if (retune != null) {
+                for (Request request : retune) {
+                    if (isActive(request)) {
+                        request.agent.setStunPacingTimer(pacingMillis);
+                    }
+                }
+            }
+            if (next != null) {
+                start(next);
+            }
+        }
+    }
+
+    /**
+     * Fails queued requests past the maximum wait and reclaims slots past the hold timeout.
+     *
+     * @return Nanoseconds until the next of those deadlines, or {@link Long#MAX_VALUE} if none.
+     */
+    private long expireLocked(long now) {
+        long waitNanos = Long.MAX_VALUE;
+        while (!arrivals.isEmpty()) {
+            Request oldest = arrivals.peekFirst();
+            if (oldest.state != State.QUEUED || oldest.future.isDone()) {
+                arrivals.pollFirst();
+                continue;
+            }
+            long waited = now - oldest.enqueuedNanos;
+            if (waited < maxQueueWaitNanos) {
+                waitNanos = maxQueueWaitNanos - waited;
+                break;
+            }
+            arrivals.pollFirst();
+            oldest.state = State.DONE;
+            queued--;
+            expiredCount++;
+            oldest.future.completeExceptionally(new TimeoutException("Waited " + waited / 1_000_000 + " ms for a gathering slot"));
+        }
+        Iterator<Request> it = active.iterator();
+        while (it.hasNext()) {
+            Request oldest = it.next();
+            long held = now - oldest.admittedNanos;
+            if (held < holdNanos) {
+                return Math.min(waitNanos, holdNanos - held);
+            }
+            it.remove();
+            oldest.state = State.DONE;
+            oldest.agent.removeListener(oldest);
+            timedOutCount++;
+            retunePending = true;
+        }
+        return waitNanos;
+    }
+
+    /**
+     * @return The next request in round-robin key order, or null if only withdrawn requests were left.
+     */
+    private Request pollLocked() {
+        while (!readyKeys.isEmpty()) {
+            Object key = readyKeys.pollFirst();
+            ArrayDeque<Request> queue = queues.get(key);
+            Request request = queue.pollFirst();
+            if (queue.isEmpty()) {
+                queues.remove(key);
+            } else {
+                readyKeys.addLast(key);
+            }
+            if (request.state != State.QUEUED) continue;
+            queued--;
+            if (request.future.isDone()) {
+                request.state = State.DONE;
+                continue;
+            }
+            return request;
+        }
+        return null;
+    }
+
+    private void admitLocked(Request request, long now) {
+        request.state = State.ACTIVE;
+        request.admittedNanos = now;
+        request.holdThroughChecks = holdThroughChecks;
+        request.components = request.agent.componentCount(request.streamId);
+        active.add(request);
+        request.pacingMillis = pacingMillisLocked(active.size());
+        double pressure = Math.min(1.0, queued / (double) maxInFlight);
+        int minChecks = minConnectivityChecks;
+        request.maxChecks = DEFAULT_MAX_CONNECTIVITY_CHECKS - (int) Math.round((DEFAULT_MAX_CONNECTIVITY_CHECKS - minChecks) * pressure);
+        appliedMaxChecks = request.maxChecks;
+        retunePending = true;
+        admittedCount++;
+    }
+
+    private int pacingMillisLocked(int inFlight) {
+        double budget = stunRateBudget;
+        if (budget <= 0) return DEFAULT_STUN_PACING_MILLIS;
+        return (int) Math.clamp((long) Math.ceil(1000.0 * inFlight / budget), DEFAULT_STUN_PACING_MILLIS, MAX_STUN_PACING_MILLIS);
+    }
+
+    private void start(Request request) {
+        NiceAgent agent = request.agent;
+        agent.setStunPacingTimer(request.pacingMillis);
+        agent.setMaxConnectivityChecks(request.maxChecks);
+        agent.addListener(request);
+        queueWaits.record(request.admittedNanos - request.enqueuedNanos);
+        if (!agent.gatherCandidates(request.streamId)) {
+            lock.lock();
+            try {
+                releaseLocked(request);
+            } finally {
+                lock.unlock();
+            }
+            request.future.completeExceptionally(new IllegalStateException("Gathering failed to start on stream " + request.streamId));
+            return;
+        }
+        request.future.complete(Duration.ofNanos(request.admittedNanos - request.enqueuedNanos));
+    }
+
+    private void gatheringDone(Request request) {
+        lock.lock();
+        try {
+            if (request.state != State.ACTIVE || request.gathered) return;
+            request.gathered = true;
+            gatheringTimes.record(System.nanoTime() - request.admittedNanos);
+            if (!request.holdThroughChecks || checksFinished(request)) {
+                releaseLocked(request);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void componentStateChanged(Request request, int componentId, int state) {
+        lock.lock();
+        try {
+            if (request.state != State.ACTIVE) return;
+            request.componentStates.put(componentId, state);
+            if (request.holdThroughChecks && request.gathered && checksFinished(request)) {
+                releaseLocked(request);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return true if the request still holds its slot; released requests may have closed agents.
+     */
+    private boolean isActive(Request request) {
+        lock.lock();
+        try {
+            return request.state == State.ACTIVE;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return true once every component of the stream has reported READY or FAILED.
+     */
+    private static boolean checksFinished(Request request) {
+        if (request.componentStates.isEmpty() || request.componentStates.size() < request.components) return false;
+        for (int state : request.componentStates.values()) {
+            if (state != NiceBindings.NICE_COMPONENT_STATE_READY && state != NiceBindings.NICE_COMPONENT_STATE_FAILED) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void releaseLocked(Request request) {
+        if (!active.remove(request)) return;
+        request.state = State.DONE;
+        request.agent.removeListener(request);
+        retunePending = true;
+        changed.signal();
+    }
+
+    private void signal() {
+        lock.lock();
+        try {
+            changed.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package io.github.kinsleykajiva.ice;
+
+import java.lang.System.Logger.Level;
+import java.net.InetAddress;
+import java.net.NetworkInterface;
+import java.net.SocketException;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Selects which local addresses an agent gathers host candidates on.
+ * <p>
+ * By default libnice opens sockets on every interface, including container bridges, veths and VPN
+ * tunnels. Each extra address adds a host candidate, more candidate pairs to check and more file
+ * descriptors per component. Pass the selected addresses to {@link NiceAgent#addLocalAddresses}.
+ * <p>
+ * An address is selected when it matches at least one allow rule (or there are none) and no deny rule.
+ * Interface rules are globs on the interface name ({@code *} and {@code ?}); CIDR rules match the address.
+ * If the rules select nothing, {@link NiceAgent#addLocalAddresses} throws instead of letting libnice
+ * fall back to every interface.
+ *
+ * <pre>{@code
+ * InterfaceFilter filter = InterfaceFilter.excludingVirtual().allowCidr("10.0.0.0/8");
+ * agent.addLocalAddresses(filter.selectAddresses());
+ * }</pre>
+ */
+public final class InterfaceFilter {
+    private static final System.Logger LOG = System.getLogger(InterfaceFilter.class.getName());
+
+    /** Interface name globs for common virtual and tunnel devices. */
+    public static final List<String> VIRTUAL_INTERFACES = List.of(
+        "docker*", "br-*", "veth*", "virbr*", "cni*", "flannel*", "cali*", "vxlan*",
+        "tun*", "tap*", "wg*", "utun*", "zt*", "vmnet*", "vboxnet*");
+
+    private final List<Rule> allow;
+    private final List<Rule> deny;
+    private final boolean includeLoopback;
+    private final boolean includeLinkLocal;
+
+    private record Rule(Pattern name, byte[] network, int prefixLength) {
+        boolean matches(String interfaceName, InetAddress address) {
+            if (name != null) {
+                return name.matcher(interfaceName).matches();
+            }
+            byte[] bytes = address.getAddress();
+            if (bytes.length != network.length) return false;
+            int full = prefixLength / 8;
+            for (int i = 0; i < full; i++) {
+                if (bytes[i] != network[i]) return false;
+            }
+            int rest = prefixLength % 8;
+            if (rest == 0) return true;
+            int mask = (0xFF << (8 - rest)) & 0xFF;
+            return (bytes[full] & mask) == (network[full] & mask);
+        }
+    }
+
+    private InterfaceFilter(List<Rule> allow, List<Rule> deny, boolean includeLoopback, boolean includeLinkLocal) {
+        this.allow = allow;
+        this.deny = deny;
+        this.includeLoopback = includeLoopback;
+        this.includeLinkLocal = includeLinkLocal;
+    }
+
+    /**
+     * @return A filter selecting every non-loopback, non-link-local address on interfaces that are up.
+     */
+    public static InterfaceFilter allowAll() {
+        return new InterfaceFilter(List.of(), List.of(), false, false);
+    }
+
+    /**
+     * @return {@link #allowAll()} minus the {@link #VIRTUAL_INTERFACES}.
+     */
+    public static InterfaceFilter excludingVirtual() {
+        InterfaceFilter filter = allowAll();
+        for (String glob : VIRTUAL_INTERFACES) {
+            filter = filter.denyInterface(glob);
+        }
+        return filter;
+    }
+
+    public InterfaceFilter allowInterface(String glob) {
+        return new InterfaceFilter(append(allow, nameRule(glob)), deny, includeLoopback, includeLinkLocal);
+    }
+
+    public InterfaceFilter denyInterface(String glob) {
+        return new InterfaceFilter(allow, append(deny, nameRule(glob)), includeLoopback, includeLinkLocal);
+    }
+
+    /**
+     * @param cidr An IPv4 or IPv6 network such as {@code 192.168.0.0/16}; a bare address matches only itself.
+     */
+    public InterfaceFilter allowCidr(String cidr) {
+        return new InterfaceFilter(append(allow, cidrRule(cidr)), deny, includeLoopback, includeLinkLocal);
+    }
+
+    public InterfaceFilter denyCidr(String cidr) {
+        return new InterfaceFilter(allow, append(deny, cidrRule(cidr)), includeLoopback, includeLinkLocal);
+    }
+
+    public InterfaceFilter includeLoopback(boolean include) {
+        return new InterfaceFilter(allow, deny, include, includeLinkLocal);
+    }
+
+    public InterfaceFilter includeLinkLocal(boolean include) {
+        return new InterfaceFilter(allow, deny, includeLoopback, include);
+    }
+
+    /**
+     * Enumerates the host's interfaces and applies the rules. Enumeration costs several system calls,
+     * so resolve once and reuse the result when creating many agents.
+     *
+     * @return The selected addresses, in interface order. Empty if enumeration fails.
+     */
+    public List<InetAddress> selectAddresses() {
+        List<InetAddress> selected = new ArrayList<>();
+        try {
+            for (NetworkInterface nif : Collections.list(NetworkInterface.getNetworkInterfaces())) {
+                if (!nif.isUp() || (nif.isLoopback() && !includeLoopback)) continue;
+                for (InetAddress address : Collections.list(nif.getInetAddresses())) {
+                    if (accepts(nif, address)) {
+                        selected.add(address);
+                    }
+                }
+            }
+        } catch (SocketException e) {
+            LOG.log(Level.ERROR, "selectAddresses failed", e);
+        }
+        return selected;
+    }
+
+    /**
+     * @return true if {@code address} on {@code nif} passes the rules.
+     */
+    public boolean accepts(NetworkInterface nif, InetAddress address) {
+        return accepts(nif.getName(), address);
+    }
+
+    boolean accepts(String interfaceName, InetAddress address) {
+        if (address.isLoopbackAddress() && !includeLoopback) return false;
+        if (address.isLinkLocalAddress() && !includeLinkLocal) return false;
+        if (!allow.isEmpty() && allow.stream().noneMatch(rule -> rule.matches(interfaceName, address))) return false;
+        return deny.stream().noneMatch(rule -> rule.matches(interfaceName, address));
+    }
+
+    private static Rule nameRule(String glob) {
+        StringBuilder regex = new StringBuilder();
+        for (char c : glob.toCharArray()) {
+            switch (c) {
+                case '*' -> regex.append(".*");
+                case '?' -> regex.append('.');
+                default -> regex.append(Pattern.quote(String.valueOf(c)));
+            }
+        }
+        return new Rule(Pattern.compile(regex.toString()), null, 0);
+    }
+
+    private static Rule cidrRule(String cidr) {
+        int slash = cidr.indexOf('/');
+        String host = slash < 0 ? cidr : cidr.substring(0, slash);
+        if (!host.matches("[0-9a-fA-F:.]+")) {
+            throw new IllegalArgumentException("Not an IP network: " + cidr);
+        }
+        try {
+            byte[] network = InetAddress.getByName(host).getAddress();
+            int prefix = slash < 0 ? network.length * 8 : Integer.parseInt(cidr.substring(slash + 1));
+            if (prefix < 0 || prefix > network.length * 8) {
+                throw new IllegalArgumentException("Invalid prefix length: " + cidr);
+            }
+            return new Rule(null, network, prefix);
+        } catch (UnknownHostException e) {
+            throw new IllegalArgumentException("Not an IP network: " + cidr, e);
+        }
+    }
+
+    private static List<Rule> append(List<Rule> rules, Rule rule) {
+        List<Rule> copy = new ArrayList<>(rules);
+        copy.add(rule);
+        return List.copyOf(copy);
+    }
+}
@@ -0,0 +1,158 @@
+package io.github.kinsleykajiva.ice;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Switches registered agents between an active and an idle {@link KeepaliveProfile} by observed traffic.
+ * <p>
+ * An agent whose {@link NiceAgent#getActivityCount() activity count} has not moved for {@code idleAfter}
+ * gets the idle profile; the first sample that sees it move again restores the active profile. Samples
+ * run every quarter of {@code idleAfter} (between 100 ms and 5 s) on one daemon thread, so a session
+ * that resumes sending keeps the idle profile for at most one sample period. Agents are held weakly,
+ * so one abandoned without {@link NiceAgent#close()} can still be reclaimed by its cleaner.
+ *
+ * <pre>{@code
+ * KeepaliveGovernor governor = new KeepaliveGovernor(Duration.ofSeconds(30));
+ * governor.register(agent);
+ * ...
+ * governor.unregister(agent);
+ * agent.close();
+ * }</pre>
+ */
+public class KeepaliveGovernor implements AutoCloseable {
+    public static final Duration DEFAULT_IDLE_AFTER = Duration.ofSeconds(30);
+
+    private final KeepaliveProfile activeProfile;
+    private final KeepaliveProfile idleProfile;
+    private final long idleAfterNanos;
+    /** Guarded by itself; sampling works on a snapshot so no native call runs under the lock. */
+    private final Map<NiceAgent, Entry> agents = Collections.synchronizedMap(new WeakHashMap<>());
+    private final ScheduledExecutorService sampler;
+    private final AtomicLong toIdle = new AtomicLong();
+    private final AtomicLong toActive = new AtomicLong();
+
+    /**
+     * Agent counts and profile switches so far.
+     *
+     * @param active Registered agents on the active profile.
+     * @param idle Registered agents on the idle profile.
+     * @param toIdle Switches from active to idle.
+     * @param toActive Switches from idle back to active.
+     */
+    public record Stats(int active, int idle, long toIdle, long toActive) {}
+
+    private static final class Entry {
+        long lastCount;
+        long lastActiveNanos;
+        volatile boolean idle;
+    }
+
+    /**
+     * Uses {@link KeepaliveProfile#ACTIVE} and {@link KeepaliveProfile#IDLE}.
+     */
+    public KeepaliveGovernor(Duration idleAfter) {
+        this(idleAfter, KeepaliveProfile.ACTIVE, KeepaliveProfile.IDLE);
+    }
+
+    /**
+     * @param idleAfter Time without traffic before an agent is switched to {@code idleProfile}.
+     */
+    public KeepaliveGovernor(Duration idleAfter, KeepaliveProfile activeProfile, KeepaliveProfile idleProfile) {
+        if (idleAfter.isNegative() || idleAfter.isZero()) {
+            throw new IllegalArgumentException("idleAfter must be positive");
+        }
+        this.activeProfile = activeProfile;
+        this.idleProfile = idleProfile;
+        this.idleAfterNanos = idleAfter.toNanos();
+        this.sampler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "KeepaliveGovernor");
+            t.setDaemon(true);
+            return t;
+        });
+        long periodMillis = Math.clamp(idleAfter.toMillis() / 4, 100, 5000);
+        sampler.scheduleWithFixedDelay(this::sample, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Starts governing an agent, applying the active profile.
+     */
+    public void register(NiceAgent agent) {
+        Entry entry = new Entry();
+        entry.lastCount = agent.getActivityCount();
+        entry.lastActiveNanos = System.nanoTime();
+        if (!agent.isClosed() && agents.putIfAbsent(agent, entry) == null) {
+            agent.setKeepaliveProfile(activeProfile);
+        }
+    }
+
+    /**
+     * Stops governing an agent, leaving its current profile in place. Closed agents are also
+     * dropped on the next sample.
+     */
+    public void unregister(NiceAgent agent) {
+        agents.remove(agent);
+    }
+
+    public Stats getStats() {
+        int idle = 0;
+        int total;
+        synchronized (agents) {
+            for (Entry entry : agents.values()) {
+                if (entry.idle) idle++;
+            }
+            total = agents.size();
+        }
+        return new Stats(total - idle, idle, toIdle.get(), toActive.get());
+    }
+
+    @Override
+    public void close() {
+        sampler.shutdownNow();
+        agents.clear();
+    }
+
+    private void sample() {
+        long now = System.nanoTime();
+        List<Map.Entry<NiceAgent, Entry>> snapshot;
+        synchronized (agents) {
+            snapshot = new ArrayList<>(agents.entrySet());
+        }
+        for (Map.Entry<NiceAgent, Entry> registered : snapshot) {
+            NiceAgent agent = registered.getKey();
+            Entry entry = registered.getValue();
+            if (agent.isClosed()) {
+                agents.remove(agent);
+                continue;
+            }
+            long count = agent.getActivityCount();
+            if (count != entry.lastCount) {
+                entry.lastCount = count;
+                entry.lastActiveNanos = now;
+                if (entry.idle) {
+                    entry.idle = false;
+                    apply(agent, activeProfile, toActive);
+                }
+            } else if (!entry.idle && now - entry.lastActiveNanos >= idleAfterNanos) {
+                entry.idle = true;
+                apply(agent, idleProfile, toIdle);
+            }
+        }
+    }
+
+    private void apply(NiceAgent agent, KeepaliveProfile profile, AtomicLong switches) {
+        if (agent.setKeepaliveProfile(profile)) {
+            switches.incrementAndGet();
+        } else {
+            agents.remove(agent);
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package io.github.kinsleykajiva.ice;
+
+/**
+ * A set of libnice keepalive and STUN retransmission properties, applied together with
+ * {@link NiceAgent#setKeepaliveProfile}. {@link KeepaliveGovernor} switches agents between
+ * {@link #ACTIVE} and {@link #IDLE} by observed traffic.
+ *
+ * @param name Label for logs and stats.
+ * @param conncheckKeepalives "keepalive-conncheck": binding requests roughly every 5 s, whose missing
+ *                            replies move a dead component to FAILED, instead of binding indications
+ *                            every 25 s that need no reply. Agents with consent freshness enabled
+ *                            always send requests.
+ * @param stunMaxRetransmissions "stun-max-retransmissions", 1-99.
+ * @param stunInitialTimeoutMillis "stun-initial-timeout", the first retransmission timeout of UDP
+ *                                 STUN requests such as TURN refreshes, 20-9999 ms.
+ * @param stunReliableTimeoutMillis "stun-reliable-timeout", the timeout of STUN requests over TCP, 20-99999 ms.
+ */
+public record KeepaliveProfile(String name, boolean conncheckKeepalives, int stunMaxRetransmissions,
+                               int stunInitialTimeoutMillis, int stunReliableTimeoutMillis) {
+
+    /** libnice's defaults. */
+    public static final KeepaliveProfile DEFAULT = new KeepaliveProfile("default", false, 3, 500, 2000);
+
+    /** Sessions carrying media: conncheck keepalives detect a dead path within seconds. */
+    public static final KeepaliveProfile ACTIVE = new KeepaliveProfile("active", true, 3, 500, 2000);
+
+    /**
+     * Sessions without traffic: indications every 25 s instead of requests every 5 s, so about a
+     * fifth of the timer wakeups and no replies to process, and slower, fewer retransmissions.
+     * A dead path is only noticed once the session is active again.
+     */
+    public static final KeepaliveProfile IDLE = new KeepaliveProfile("idle", false, 2, 1000, 4000);
+
+    public KeepaliveProfile {
+        if (stunMaxRetransmissions < 1 || stunMaxRetransmissions > 99
+                || stunInitialTimeoutMillis < 20 || stunInitialTimeoutMillis > 9999
+                || stunReliableTimeoutMillis < 20 || stunReliableTimeoutMillis > 99999) {
+            throw new IllegalArgumentException("Keepalive profile values outside libnice's ranges");
+        }
+    }
+}
@@ -0,0 +1,231 @@
+package io.github.kinsleykajiva.ice;
+
+import java.lang.foreign.FunctionDescriptor;
+import java.lang.foreign.Linker;
+import java.lang.foreign.MemoryLayout;
+import java.lang.foreign.StructLayout;
+import java.lang.foreign.SymbolLookup;
+import java.lang.foreign.ValueLayout;
+import java.lang.invoke.MethodHandle;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Linux libc bindings used by the reactor and socket fast paths. Handles are null on other platforms.
+ */
+final class Libc {
+    private static final Linker LINKER = Linker.nativeLinker();
+
+    static final boolean LINUX = System.getProperty("os.name", "").toLowerCase().contains("linux");
+
+    static final int EPOLL_CLOEXEC = 0x80000;
+    static final int EPOLL_CTL_ADD = 1;
+    static final int EPOLL_CTL_DEL = 2;
+    static final int EPOLL_CTL_MOD = 3;
+
+    static final int EFD_CLOEXEC = 0x80000;
+    static final int EFD_NONBLOCK = 0x800;
+
+    static final int AF_INET = 2;
+    static final int AF_INET6 = 10;
+    static final int SOCK_DGRAM = 2;
+    static final int SOCK_CLOEXEC = 0x80000;
+    static final int SOL_SOCKET = 1;
+    static final int SO_SNDBUF = 7;
+    static final int SO_RCVBUF = 8;
+    static final int SO_REUSEPORT = 15;
+    static final int SO_RCVTIMEO = 20;
+    static final int MSG_DONTWAIT = 0x40;
+    static final int MSG_WAITFORONE = 0x10000;
+    static final int POLLIN = 0x1;
+    /** sizeof(struct sockaddr_storage). */
+    static final int SOCKADDR_STORAGE_SIZE = 128;
+    static final int EAGAIN = 11;
+    static final int EINTR = 4;
+
+    static final int SCHED_OTHER = 0;
+    static final int SCHED_FIFO = 1;
+    static final int PRIO_PROCESS = 0;
+
+    /**
+     * struct epoll_event. Packed on x86-64 (12 bytes), naturally aligned elsewhere (16 bytes).
+     * The event bits for IN/PRI/OUT/ERR/HUP have the same values as GLib's GIOCondition.
+     */
+    static final StructLayout EPOLL_EVENT_LAYOUT = isX86_64()
+        ? MemoryLayout.structLayout(
+            ValueLayout.JAVA_INT.withName("events"),
+            ValueLayout.JAVA_LONG_UNALIGNED.withName("data")
+        ).withName("epoll_event")
+        : MemoryLayout.structLayout(
+            ValueLayout.JAVA_INT.withName("events"),
+            MemoryLayout.paddingLayout(4),
+            ValueLayout.JAVA_LONG.withName("data")
+        ).withName("epoll_event");
+
+    static final long EPOLL_EVENT_DATA_OFFSET =
+        EPOLL_EVENT_LAYOUT.byteOffset(MemoryLayout.PathElement.groupElement("data"));
+
+    /** struct iovec. */
+    static final StructLayout IOVEC_LAYOUT = MemoryLayout.structLayout(
+        ValueLayout.ADDRESS.withName("iov_base"),
+        ValueLayout.JAVA_LONG.withName("iov_len")
+    ).withName("iovec");
+
+    /** struct mmsghdr: a struct msghdr followed by the per-message byte count filled in by the kernel. */
+    static final StructLayout MMSGHDR_LAYOUT = MemoryLayout.structLayout(
+        ValueLayout.ADDRESS.withName("msg_name"),
+        ValueLayout.JAVA_INT.withName("msg_namelen"),
+        MemoryLayout.paddingLayout(4),
+        ValueLayout.ADDRESS.withName("msg_iov"),
+        ValueLayout.JAVA_LONG.withName("msg_iovlen"),
+        ValueLayout.ADDRESS.withName("msg_control"),
+        ValueLayout.JAVA_LONG.withName("msg_controllen"),
+        ValueLayout.JAVA_INT.withName("msg_flags"),
+        MemoryLayout.paddingLayout(4), // end of struct msghdr
+        ValueLayout.JAVA_INT.withName("msg_len"),
+        MemoryLayout.paddingLayout(4)
+    ).withName("mmsghdr");
+
+    static final long MSG_NAME_OFFSET = MMSGHDR_LAYOUT.byteOffset(MemoryLayout.PathElement.groupElement("msg_name"));
+    static final long MSG_NAMELEN_OFFSET = MMSGHDR_LAYOUT.byteOffset(MemoryLayout.PathElement.groupElement("msg_namelen"));
+    static final long MSG_IOV_OFFSET = MMSGHDR_LAYOUT.byteOffset(MemoryLayout.PathElement.groupElement("msg_iov"));
+    static final long MSG_IOVLEN_OFFSET = MMSGHDR_LAYOUT.byteOffset(MemoryLayout.PathElement.groupElement("msg_iovlen"));
+    /** struct timeval, as taken by SO_RCVTIMEO. */
+    static final StructLayout TIMEVAL_LAYOUT = MemoryLayout.structLayout(
+        ValueLayout.JAVA_LONG.withName("tv_sec"),
+        ValueLayout.JAVA_LONG.withName("tv_usec")
+    ).withName("timeval");
+
+    static final long MSG_LEN_OFFSET = MMSGHDR_LAYOUT.byteOffset(MemoryLayout.PathElement.groupElement("msg_len"));
+
+    /** Layout of the state captured by handles that take a leading errno segment. */
+    static final StructLayout CAPTURE_STATE_LAYOUT = Linker.Option.captureStateLayout();
+    static final long ERRNO_OFFSET = CAPTURE_STATE_LAYOUT.byteOffset(MemoryLayout.PathElement.groupElement("errno"));
+
+    /**
+     * A bound libc function.
+     */
+    record Binding(FunctionDescriptor descriptor, Linker.Option... options) {}
+
+    /** Every function bound by this class, keyed by symbol name, whether or not it was found. */
+    private static final Map<String, Binding> BINDINGS = new LinkedHashMap<>();
+
+    static final MethodHandle epoll_create1;
+    static final MethodHandle epoll_ctl;
+    static final MethodHandle epoll_wait;
+    static final MethodHandle eventfd;
+    static final MethodHandle read;
+    static final MethodHandle write;
+    static final MethodHandle close;
+    static final MethodHandle dup;
+    /** int sendmmsg(int, struct mmsghdr*, unsigned int, int), with a leading errno capture segment. */
+    static final MethodHandle sendmmsg;
+    static final MethodHandle recvmmsg;
+    static final MethodHandle socket;
+    static final MethodHandle bind;
+    static final MethodHandle connect;
+    static final MethodHandle getsockname;
+    static final MethodHandle setsockopt;
+    static final MethodHandle poll;
+    /** Thread placement calls, each with a leading errno capture segment. pid/tid 0 means the calling thread. */
+    static final MethodHandle sched_setaffinity;
+    static final MethodHandle sched_setscheduler;
+    static final MethodHandle setpriority;
+    /** glibc 2.30+; null on older C libraries. */
+    static final MethodHandle gettid;
+
+    static {
+        SymbolLookup lookup = LINUX ? LINKER.defaultLookup() : null;
+        epoll_create1 = find(lookup, "epoll_create1", FunctionDescriptor.of(ValueLayout.JAVA_INT, ValueLayout.JAVA_INT));
+        epoll_ctl = find(lookup, "epoll_ctl", FunctionDescriptor.of(ValueLayout.JAVA_INT,
+            ValueLayout.JAVA_INT, // epfd
+            ValueLayout.JAVA_INT, // op
+            ValueLayout.JAVA_INT, // fd
+            ValueLayout.ADDRESS   // struct epoll_event*
+        ));
+        epoll_wait = find(lookup, "epoll_wait", FunctionDescriptor.of(ValueLayout.JAVA_INT,
+            ValueLayout.JAVA_INT, // epfd
+            ValueLayout.ADDRESS,  // struct epoll_event*
+            ValueLayout.JAVA_INT, // maxevents
+            ValueLayout.JAVA_INT  // timeout (ms)
+        ));
+        eventfd = find(lookup, "eventfd", FunctionDescriptor.of(ValueLayout.JAVA_INT, ValueLayout.JAVA_INT, ValueLayout.JAVA_INT));
+        read = find(lookup, "read", FunctionDescriptor.of(ValueLayout.JAVA_LONG, ValueLayout.JAVA_INT, ValueLayout.ADDRESS, ValueLayout.JAVA_LONG));
+        write = find(lookup, "write", FunctionDescriptor.of(ValueLayout.JAVA_LONG, ValueLayout.JAVA_INT, ValueLayout.ADDRESS, ValueLayout.JAVA_LONG));
+        close = find(lookup, "close", FunctionDescriptor.of(ValueLayout.JAVA_INT, ValueLayout.JAVA_INT));
+        dup = find(lookup, "dup", FunctionDescriptor.of(ValueLayout.JAVA_INT, ValueLayout.JAVA_INT));
+        sendmmsg = find(lookup, "sendmmsg", FunctionDescriptor.of(ValueLayout.JAVA_INT,
+            ValueLayout.JAVA_INT, // sockfd
+            ValueLayout.ADDRESS,  // struct mmsghdr*
+            ValueLayout.JAVA_INT, // vlen
+            ValueLayout.JAVA_INT  // flags
+        ), Linker.Option.captureCallState("errno"));
+        recvmmsg = find(lookup, "recvmmsg", FunctionDescriptor.of(ValueLayout.JAVA_INT,
+            ValueLayout.JAVA_INT, // sockfd
+            ValueLayout.ADDRESS,  // struct mmsghdr*
+            ValueLayout.JAVA_INT, // vlen
+            ValueLayout.JAVA_INT, // flags
+            ValueLayout.ADDRESS   // struct timespec* timeout (NULL; use SO_RCVTIMEO or poll instead)
+        ), Linker.Option.captureCallState("errno"));
+        socket = find(lookup, "socket", FunctionDescriptor.of(ValueLayout.JAVA_INT,
+            ValueLayout.JAVA_INT, ValueLayout.JAVA_INT, ValueLayout.JAVA_INT), Linker.Option.captureCallState("errno"));
+        bind = find(lookup, "bind", FunctionDescriptor.of(ValueLayout.JAVA_INT,
+            ValueLayout.JAVA_INT, ValueLayout.ADDRESS, ValueLayout.JAVA_INT), Linker.Option.captureCallState("errno"));
+        connect = find(lookup, "connect", FunctionDescriptor.of(ValueLayout.JAVA_INT,
+            ValueLayout.JAVA_INT, ValueLayout.ADDRESS, ValueLayout.JAVA_INT), Linker.Option.captureCallState("errno"));
+        getsockname = find(lookup, "getsockname", FunctionDescriptor.of(ValueLayout.JAVA_INT,
+            ValueLayout.JAVA_INT, // sockfd
+            ValueLayout.ADDRESS,  // struct sockaddr*
+            ValueLayout.ADDRESS   // socklen_t* (in/out)
+        ));
+        setsockopt = find(lookup, "setsockopt", FunctionDescriptor.of(ValueLayout.JAVA_INT,
+            ValueLayout.JAVA_INT, // sockfd
+            ValueLayout.JAVA_INT, // level
+            ValueLayout.JAVA_INT, // optname
+            ValueLayout.ADDRESS,  // optval
+            ValueLayout.JAVA_INT  // optlen
+        ), Linker.Option.captureCallState("errno"));
+        poll = find(lookup, "poll", FunctionDescriptor.of(ValueLayout.JAVA_INT,
+            ValueLayout.ADDRESS,   // struct pollfd* (same layout as GPollFD)
+            ValueLayout.JAVA_LONG, // nfds
+            ValueLayout.JAVA_INT   // timeout (ms)
+        ));
+        sched_setaffinity = find(lookup, "sched_setaffinity", FunctionDescriptor.of(ValueLayout.JAVA_INT,
+            ValueLayout.JAVA_INT,  // pid
+            ValueLayout.JAVA_LONG, // cpusetsize
+            ValueLayout.ADDRESS    // const cpu_set_t*
+        ), Linker.Option.captureCallState("errno"));
+        sched_setscheduler = find(lookup, "sched_setscheduler", FunctionDescriptor.of(ValueLayout.JAVA_INT,
+            ValueLayout.JAVA_INT, // pid
+            ValueLayout.JAVA_INT, // policy
+            ValueLayout.ADDRESS   // const struct sched_param* (a single int sched_priority)
+        ), Linker.Option.captureCallState("errno"));
+        setpriority = find(lookup, "setpriority", FunctionDescriptor.of(ValueLayout.JAVA_INT,
+            ValueLayout.JAVA_INT, // which
+            ValueLayout.JAVA_INT, // who
+            ValueLayout.JAVA_INT  // prio
+        ), Linker.Option.captureCallState("errno"));
+        gettid = find(lookup, "gettid", FunctionDescriptor.of(ValueLayout.JAVA_INT));
+    }
+
+    private Libc() {}
+
+    private static boolean isX86_64() {
+        String arch = System.getProperty("os.arch", "");
+        return arch.equals("amd64") || arch.equals("x86_64");
+    }
+
+    /**
+     * @return The functions bound so far, keyed by symbol name.
+     */
+    static Map<String, Binding> bindings() {
+        return Collections.unmodifiableMap(BINDINGS);
+    }
+
+    private static MethodHandle find(SymbolLookup lookup, String name, FunctionDescriptor desc, Linker.Option... options) {
+        BINDINGS.putIfAbsent(name, new Binding(desc, options));
+        if (lookup == null) return null;
+        return lookup.find(name).map(addr -> LINKER.downcallHandle(addr, desc, options)).orElse(null);
+    }
+}
@@ -0,0 +1,196 @@
+package io.github.kinsleykajiva.ice;
+
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Concurrent map from {@code long} keys to values, for lookups on hot paths: no boxing and no
+ * allocation on {@link #get}, and readers never block.
+ * <p>
+ * Keys are spread over segments, each an open-addressing table with linear probing guarded by a
+ * {@link StampedLock}. Reads are optimistic and retried under the read lock only if a write to the
+ * same segment overlapped them; writes lock their segment. Removal shifts the following entries
+ * back instead of leaving tombstones, so tables never fill up with deleted slots.
+ */
+final class LongIndex<V> {
+    private static final int SEGMENTS = 64;
+    private static final int MIN_CAPACITY = 16;
+
+    private final Segment[] segments = new Segment[SEGMENTS];
+
+    private static final class Table {
+        final long[] keys;
+        final Object[] values;
+        final int mask;
+
+        Table(int capacity) {
+            keys = new long[capacity];
+            values = new Object[capacity];
+            mask = capacity - 1;
+        }
+    }
+
+    private static final class Segment {
+        final StampedLock lock = new StampedLock();
+        Table table = new Table(MIN_CAPACITY);
+        int size;
+    }
+
+    LongIndex() {
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment();
+        }
+    }
+
+    static long mix(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        return key ^ (key >>> 33);
+    }
+
+    private Segment segment(long hash) {
+        return segments[(int) (hash >>> 58)];
+    }
+
+    /**
+     * @return The value for {@code key}, or null.
+     */
+    @SuppressWarnings("unchecked")
+    V get(long key) {
+        long hash = mix(key);
+        Segment segment = segment(hash);
+        long stamp = segment.lock.tryOptimisticRead();
+        Object value = find(segment.table, key, hash);
+        if (!segment.lock.validate(stamp)) {
+            stamp = segment.lock.readLock();
+            try {
+                value = find(segment.table, key, hash);
+            } finally {
+                segment.lock.unlockRead(stamp);
+            }
+        }
+        return (V) value;
+    }
+
+    private static Object find(Table table, long key, long hash) {
+        int mask = table.mask;
+        for (int i = (int) hash & mask, probes = 0; probes <= mask; i = (i + 1) & mask, probes++) {
+            Object value = table.values[i];
+            if (value == null) return null;
+            if (table.keys[i] == key) return value;
+        }
+        return null;
+    }
+
+    /**
+     * @return The previous value for {@code key}, or null.
+     */
+    @SuppressWarnings("unchecked")
+    V put(long key, V value) {
+        if (value == null) {
+            throw new IllegalArgumentException("value must not be null");
+        }
+        long hash = mix(key);
+        Segment segment = segment(hash);
+        long stamp = segment.lock.writeLock();
+        try {
+            Table table = segment.table;
+            int i = slot(table, key, hash);
+            Object previous = table.values[i];
+            table.keys[i] = key;
+            table.values[i] = value;
+            if (previous == null && ++segment.size > (table.mask + 1) * 3 / 4) {
+                segment.table = resize(table);
+            }
+            return (V) previous;
+        } finally {
+            segment.lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Removes {@code key} only while it maps to {@code value} (by identity).
+     *
+     * @return true if removed.
+     */
+    boolean remove(long key, V value) {
+        long hash = mix(key);
+        Segment segment = segment(hash);
+        long stamp = segment.lock.writeLock();
+        try {
+            Table table = segment.table;
+            int i = slot(table, key, hash);
+            if (table.values[i] == null || (value != null && table.values[i] != value)) return false;
+            delete(table, i);
+            segment.size--;
+            return true;
+        } finally {
+            segment.lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * @return true if {@code key} was present.
+     */
+    boolean remove(long key) {
+        return remove(key, null);
+    }
+
+    int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            long stamp = segment.lock.readLock();
+            try {
+                size += segment.size;
+            } finally {
+                segment.lock.unlockRead(stamp);
+            }
+        }
+        return size;
+    }
+
+    /**
+     * @return The slot holding {@code key}, or the empty slot where it belongs. Tables are never full.
+     */
+    private static int slot(Table table, long key, long hash) {
+        int i = (int) hash & table.mask;
+        while (table.values[i] != null && table.keys[i] != key) {
+            i = (i + 1) & table.mask;
+        }
+        return i;
+    }
+
+    /**
+     * Empties slot {@code i} and moves later entries of the probe run back into the gap.
+     */
+    private static void delete(Table table, int i) {
+        int mask = table.mask;
+        int gap = i;
+        for (int j = (i + 1) & mask; table.values[j] != null; j = (j + 1) & mask) {
+            int home = (int) mix(table.keys[j]) & mask;
+            // Move j into the gap unless its home lies cyclically in (gap, j]
+            if (((j - home) & mask) >= ((j - gap) & mask)) {
+                table.keys[gap] = table.keys[j];
+                table.values[gap] = table.values[j];
+                gap = j;
+            }
+        }
+        table.keys[gap] = 0;
+        table.values[gap] = null;
+    }
+
+    private static Table resize(Table table) {
+        Table bigger = new Table((table.mask + 1) * 2);
+        for (int i = 0; i <= table.mask; i++) {
+            Object value = table.values[i];
+            if (value != null) {
+                long key = table.keys[i];
+                int j = slot(bigger, key, mix(key));
+                bigger.keys[j] = key;
+                bigger.values[j] = value;
+            }
+        }
+        return bigger;
+    }
+}
@@ -0,0 +1,151 @@
+package io.github.kinsleykajiva.ice;
+
+import java.io.IOException;
+import java.lang.foreign.AddressLayout;
+import java.lang.foreign.FunctionDescriptor;
+import java.lang.foreign.Linker;
+import java.lang.foreign.MemoryLayout;
+import java.lang.foreign.ValueLayout;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.StringJoiner;
+
+/**
+ * Writes the GraalVM reachability metadata that lets {@code native-image} link every downcall and
+ * upcall this module makes and find the bundled native libraries.
+ * <p>
+ * Downcalls come from the descriptors {@link NiceBindings} and {@link Libc} record as they bind,
+ * plus the {@link NiceBindings#G_OBJECT_SET_SHAPES g_object_set shapes}; upcalls from the stubs
+ * created through {@link NiceBindings#upcallStub}. libnice does not have to be installed: descriptors
+ * are recorded whether or not a symbol is found. Re-run after adding a binding:
+ * <pre>{@code
+ * java --enable-native-access=ALL-UNNAMED -cp java-ice/target/classes io.github.kinsleykajiva.ice.NativeImageMetadata \
+ *     java-ice/src/main/resources/META-INF/native-image/io.github.kinsleykajiva/java-ice/reachability-metadata.json
+ * }</pre>
+ */
+public class NativeImageMetadata {
+
+    /** Classes whose static initializers create upcall stubs. */
+    private static final List<String> UPCALL_HOLDERS = List.of(
+        "io.github.kinsleykajiva.ice.NiceAgent$Signals",
+        "io.github.kinsleykajiva.ice.GLibContext$DispatchProbe",
+        "io.github.kinsleykajiva.ice.NiceLogging$Handler",
+        "io.github.kinsleykajiva.ice.NiceStream$Receive",
+        "io.github.kinsleykajiva.ice.ReceiveDispatcher$Receive");
+
+    public static void main(String[] args) throws IOException, ClassNotFoundException {
+        for (String holder : UPCALL_HOLDERS) {
+            Class.forName(holder, true, NativeImageMetadata.class.getClassLoader());
+        }
+        String json = generate();
+        if (args.length > 0) {
+            Path target = Path.of(args[0]);
+            if (target.getParent() != null) {
+                Files.createDirectories(target.getParent());
+            }
+            Files.writeString(target, json);
+            System.out.println("Wrote " + target);
+        } else {
+            System.out.print(json);
+        }
+    }
+
+    /**
+     * @return The metadata for every binding and upcall recorded so far.
+     */
+    public static String generate() {
+        Set<String> downcalls = new LinkedHashSet<>();
+        for (Map.Entry<String, FunctionDescriptor> entry : NiceBindings.descriptors().entrySet()) {
+            if (entry.getKey().equals("g_object_set")) continue;
+            downcalls.add(function(entry.getValue(), NiceBindings.linkerOptions(entry.getKey())));
+        }
+        for (FunctionDescriptor shape : NiceBindings.G_OBJECT_SET_SHAPES) {
+            downcalls.add(function(shape));
+        }
+        for (Libc.Binding binding : Libc.bindings().values()) {
+            downcalls.add(function(binding.descriptor(), binding.options()));
+        }
+
+        Set<String> upcalls = new LinkedHashSet<>();
+        Map<Class<?>, List<String>> targets = new LinkedHashMap<>();
+        for (NiceBindings.Upcall upcall : NiceBindings.upcalls()) {
+            upcalls.add(function(upcall.descriptor()));
+            StringJoiner parameters = new StringJoiner(", ", "[", "]");
+            for (Class<?> parameter : upcall.type().parameterList()) {
+                parameters.add(quote(parameter.getName()));
+            }
+            targets.computeIfAbsent(upcall.owner(), k -> new ArrayList<>())
+                .add("{ \"name\": " + quote(upcall.method()) + ", \"parameterTypes\": " + parameters + " }");
+        }
+
+        StringBuilder json = new StringBuilder("{\n");
+        json.append("  \"reflection\": [");
+        String separator = "\n";
+        for (Map.Entry<Class<?>, List<String>> entry : targets.entrySet()) {
+            json.append(separator).append("    {\n      \"type\": ").append(quote(entry.getKey().getName()))
+                .append(",\n      \"methods\": [\n        ").append(String.join(",\n        ", entry.getValue()))
+                .append("\n      ]\n    }");
+            separator = ",\n";
+        }
+        json.append("\n  ],\n");
+        json.append("  \"resources\": [\n    { \"glob\": \"natives/**\" }\n  ],\n");
+        json.append("  \"foreign\": {\n");
+        json.append("    \"downcalls\": [\n      ").append(String.join(",\n      ", downcalls)).append("\n    ],\n");
+        json.append("    \"upcalls\": [\n      ").append(String.join(",\n      ", upcalls)).append("\n    ]\n");
+        json.append("  }\n}\n");
+        return json.toString();
+    }
+
+    private static String function(FunctionDescriptor descriptor, Linker.Option... options) {
+        StringJoiner parameters = new StringJoiner(", ", "[", "]");
+        for (MemoryLayout argument : descriptor.argumentLayouts()) {
+            parameters.add(quote(type(argument)));
+        }
+        String returnType = descriptor.returnLayout().map(NativeImageMetadata::type).orElse("void");
+        StringBuilder entry = new StringBuilder("{ \"returnType\": ").append(quote(returnType))
+            .append(", \"parameterTypes\": ").append(parameters);
+        StringJoiner flags = new StringJoiner(", ", "{ ", " }");
+        flags.setEmptyValue("");
+        for (Linker.Option option : options) {
+            if (option.equals(Linker.Option.critical(false))) {
+                flags.add("\"critical\": { \"allowHeapAccess\": false }");
+            } else if (option.equals(Linker.Option.critical(true))) {
+                flags.add("\"critical\": { \"allowHeapAccess\": true }");
+            } else if (option.equals(Linker.Option.captureCallState("errno"))) {
+                flags.add("\"captureCallState\": true");
+            } else {
+                throw new IllegalArgumentException("No native-image form for linker option " + option);
+            }
+        }
+        if (flags.length() > 0) {
+            entry.append(", \"options\": ").append(flags);
+        }
+        return entry.append(" }").toString();
+    }
+
+    private static String type(MemoryLayout layout) {
+        if (layout instanceof AddressLayout) return "void*";
+        if (layout instanceof ValueLayout value) {
+            Class<?> carrier = value.carrier();
+            if (carrier == int.class) return "jint";
+            if (carrier == long.class) return "jlong";
+            if (carrier == boolean.class) return "jboolean";
+            if (carrier == byte.class) return "jbyte";
+            if (carrier == short.class) return "jshort";
+            if (carrier == char.class) return "jchar";
+            if (carrier == float.class) return "jfloat";
+            if (carrier == double.class) return "jdouble";
+        }
+        throw new IllegalArgumentException("No native-image type for " + layout);
+    }
+
+    private static String quote(String value) {
+        return '"' + value.replace("\\", "\\\\").replace("\"", "\\\"") + '"';
+    }
+}
@@ -2,6 +2,7 @@ package io.github.kinsleykajiva.ice;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.lang.System.Logger.Level;
 import java.lang.foreign.Arena;
 import java.lang.foreign.SymbolLookup;
 import java.nio.file.Files;
@@ -15,6 +16,7 @@ import java.util.Optional;
  * It extracts the appropriate library for the current OS/Arch to a temporary directory.
  */
 public class NativeLibraryLoader {
+    private static final System.Logger LOG = System.getLogger(NativeLibraryLoader.class.getName());
     
     private record PlatformInfo(String platform, String extension, String prefix) {}
     
@@ -24,7 +26,7 @@ public class NativeLibraryLoader {
         String libName = resolveLibName(libBaseName, os, platformInfo.prefix());
         String resourcePath = buildResourcePath(platformInfo.platform(), libName, platformInfo.extension());
         
-        System.out.println("Attempting to load native library from resource: " + resourcePath);
+        LOG.log(Level.DEBUG, "Attempting to load native library from resource: {0}", resourcePath);
         
         try {
             InputStream is = resolveInputStream(resourcePath, libName, platformInfo.platform(), os);
@@ -84,7 +86,7 @@ public class NativeLibraryLoader {
         for (String fallback : fallbacks) {
             InputStream fis = NativeLibraryLoader.class.getResourceAsStream(fallback);
             if (fis != null) {
-                System.out.println("Found fallback native library: " + fallback);
+                LOG.log(Level.DEBUG, "Found fallback native library: {0}", fallback);
                 return Optional.of(fis);
             }
         }
@@ -99,7 +101,7 @@ public class NativeLibraryLoader {
         Files.copy(is, tempFile, StandardCopyOption.REPLACE_EXISTING);
         tempFile.toFile().deleteOnExit();
         
-        System.out.println("Extracted native library from " + resourcePath + " to: " + tempFile);
+        LOG.log(Level.DEBUG, "Extracted native library from {0} to: {1}", resourcePath, tempFile);
         
         return SymbolLookup.libraryLookup(tempFile, Arena.global());
     }
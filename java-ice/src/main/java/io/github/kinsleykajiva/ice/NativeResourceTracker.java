@@ -0,0 +1,275 @@
+package io.github.kinsleykajiva.ice;
+
+import java.lang.System.Logger.Level;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.ref.Cleaner;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Live registry of native resources owned by the bindings, with a {@link Cleaner} safety net.
+ * <p>
+ * Agents and contexts that become unreachable without {@code close()} are released by the cleaner
+ * thread and reported together with the thread (and, when sampled, the stack) that allocated them.
+ * Byte counts for agents, streams and contexts are estimates of what libnice/GLib allocate internally;
+ * arena byte counts are exact.
+ * <p>
+ * Allocation stacks are captured for a fraction of allocations set by the
+ * {@code javaice.leak.sampleRate} system property (0.0 - 1.0, default 0) or {@link #setAllocationSampleRate}.
+ */
+public final class NativeResourceTracker {
+    private static final System.Logger LOG = System.getLogger(NativeResourceTracker.class.getName());
+
+    /** Estimated size of a NiceAgent and its hash tables, timers and STUN agent. */
+    static final long AGENT_ESTIMATED_BYTES = 16 * 1024;
+    /** Estimated size of one component: its 64 KiB receive buffer, 64 KiB RFC 4571 buffer and bookkeeping. */
+    static final long COMPONENT_ESTIMATED_BYTES = 2 * 65536 + 4096;
+    /** Estimated size of a GMainContext plus its GMainLoop. */
+    static final long CONTEXT_ESTIMATED_BYTES = 2 * 1024;
+
+    public enum Kind { AGENT, STREAM, CONTEXT, ARENA }
+
+    /**
+     * Aggregate usage for one kind of resource.
+     */
+    public record Usage(Kind kind, long count, long estimatedBytes) {}
+
+    /**
+     * A single live resource.
+     *
+     * @param id Registry ID.
+     * @param parentId Registry ID of the owning resource (e.g. the agent of a stream), or 0.
+     */
+    public record Resource(long id, long parentId, Kind kind, String description, long estimatedBytes, String allocatingThread) {}
+
+    private static final Cleaner CLEANER = Cleaner.create(r -> {
+        Thread t = new Thread(r, "JavaICE-Cleaner");
+        t.setDaemon(true);
+        return t;
+    });
+    private static final Map<Long, State> LIVE = new ConcurrentHashMap<>();
+    private static final AtomicLong IDS = new AtomicLong();
+    private static final AtomicLong LEAKS = new AtomicLong();
+    private static volatile double sampleRate = parseSampleRate(System.getProperty("javaice.leak.sampleRate"));
+
+    private NativeResourceTracker() {}
+
+    /**
+     * Sets the fraction of allocations whose stack trace is captured for leak reports.
+     *
+     * @param rate A value between 0.0 (never) and 1.0 (always).
+     */
+    public static void setAllocationSampleRate(double rate) {
+        sampleRate = Math.clamp(rate, 0.0, 1.0);
+    }
+
+    /**
+     * Registers a resource whose {@code release} action also runs if {@code owner} is garbage collected
+     * without being closed. {@code release} must not reference {@code owner}.
+     */
+    static Registration register(Object owner, Kind kind, long parentId, String description, long estimatedBytes, Runnable release) {
+        State state = new State(IDS.incrementAndGet(), parentId, kind, description, estimatedBytes, release);
+        LIVE.put(state.id, state);
+        return new Registration(state, owner == null ? null : CLEANER.register(owner, state));
+    }
+
+    /**
+     * Registers a resource released only explicitly, such as a stream owned by an agent.
+     */
+    static Registration track(Kind kind, long parentId, String description, long estimatedBytes) {
+        return register(null, kind, parentId, description, estimatedBytes, () -> {});
+    }
+
+    /**
+     * Creates a shared arena whose allocations are counted in the registry.
+     * An arena that is never closed is reported when collected, but its memory is not freed behind
+     * the caller's back since upcall stubs or segments obtained from it may still be in native use.
+     *
+     * @param description Label used in reports.
+     * @return A new shared arena.
+     */
+    public static Arena newSharedArena(String description) {
+        return newSharedArena(0, description);
+    }
+
+    static Arena newSharedArena(long parentId, String description) {
+        Arena delegate = Arena.ofShared();
+        TrackedArena arena = new TrackedArena(delegate);
+        arena.registration = register(arena, Kind.ARENA, parentId, description, 0, null);
+        return arena;
+    }
+
+    /**
+     * @return Count and estimated native bytes per kind of resource.
+     */
+    public static Map<Kind, Usage> usage() {
+        long[] counts = new long[Kind.values().length];
+        long[] bytes = new long[Kind.values().length];
+        for (State state : LIVE.values()) {
+            counts[state.kind.ordinal()]++;
+            bytes[state.kind.ordinal()] += state.estimatedBytes.get();
+        }
+        Map<Kind, Usage> usage = new EnumMap<>(Kind.class);
+        for (Kind kind : Kind.values()) {
+            usage.put(kind, new Usage(kind, counts[kind.ordinal()], bytes[kind.ordinal()]));
+        }
+        return usage;
+    }
+
+    /**
+     * @return A snapshot of every live resource.
+     */
+    public static List<Resource> liveResources() {
+        List<Resource> resources = new ArrayList<>(LIVE.size());
+        for (State state : LIVE.values()) {
+            resources.add(new Resource(state.id, state.parentId, state.kind, state.description,
+                state.estimatedBytes.get(), state.allocatingThread));
+        }
+        return resources;
+    }
+
+    /**
+     * @return Sum of estimated native bytes across all live resources.
+     */
+    public static long totalEstimatedBytes() {
+        long total = 0;
+        for (State state : LIVE.values()) {
+            total += state.estimatedBytes.get();
+        }
+        return total;
+    }
+
+    /**
+     * @return Number of resources released by the cleaner instead of an explicit close.
+     */
+    public static long leakCount() {
+        return LEAKS.get();
+    }
+
+    private static double parseSampleRate(String value) {
+        if (value == null) return 0.0;
+        try {
+            return Math.clamp(Double.parseDouble(value), 0.0, 1.0);
+        } catch (NumberFormatException e) {
+            return 0.0;
+        }
+    }
+
+    /**
+     * Handle returned to the owner of a registered resource.
+     */
+    static final class Registration {
+        private final State state;
+        private final Cleaner.Cleanable cleanable;
+
+        private Registration(State state, Cleaner.Cleanable cleanable) {
+            this.state = state;
+            this.cleanable = cleanable;
+        }
+
+        long id() {
+            return state.id;
+        }
+
+        void addBytes(long delta) {
+            state.estimatedBytes.addAndGet(delta);
+        }
+
+        /**
+         * Releases the resource now. Idempotent.
+         */
+        void close() {
+            state.closedExplicitly = true;
+            if (cleanable != null) {
+                cleanable.clean();
+            } else {
+                state.run();
+            }
+        }
+    }
+
+    /**
+     * Cleaner action. Holds everything needed for release but never the owner itself.
+     */
+    private static final class State implements Runnable {
+        final long id;
+        final long parentId;
+        final Kind kind;
+        final String description;
+        final AtomicLong estimatedBytes;
+        final Runnable release;
+        final String allocatingThread = Thread.currentThread().getName();
+        final Throwable allocationSite;
+        final AtomicBoolean released = new AtomicBoolean();
+        volatile boolean closedExplicitly;
+
+        State(long id, long parentId, Kind kind, String description, long estimatedBytes, Runnable release) {
+            this.id = id;
+            this.parentId = parentId;
+            this.kind = kind;
+            this.description = description;
+            this.estimatedBytes = new AtomicLong(estimatedBytes);
+            this.release = release;
+            double rate = sampleRate;
+            this.allocationSite = (rate > 0 && ThreadLocalRandom.current().nextDouble() < rate)
+                ? new Throwable("Allocation site of " + kind + " #" + id)
+                : null;
+        }
+
+        @Override
+        public void run() {
+            if (!released.compareAndSet(false, true)) return;
+            LIVE.remove(id);
+            if (!closedExplicitly) {
+                LEAKS.incrementAndGet();
+                LOG.log(Level.WARNING, kind + " #" + id + " (" + description + ", ~" + estimatedBytes.get()
+                    + " bytes) was not closed; allocated on thread " + allocatingThread
+                    + (release != null ? ". Releasing it now." : "."), allocationSite);
+            }
+            if (release != null) {
+                try {
+                    release.run();
+                } catch (Throwable t) {
+                    LOG.log(Level.ERROR, "Releasing leaked native resource failed", t);
+                }
+            }
+        }
+    }
+
+    /**
+     * Shared arena that reports its allocations to the registry.
+     */
+    private static final class TrackedArena implements Arena {
+        private final Arena delegate;
+        private Registration registration;
+
+        TrackedArena(Arena delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public MemorySegment allocate(long byteSize, long byteAlignment) {
+            MemorySegment segment = delegate.allocate(byteSize, byteAlignment);
+            registration.addBytes(byteSize);
+            return segment;
+        }
+
+        @Override
+        public MemorySegment.Scope scope() {
+            return delegate.scope();
+        }
+
+        @Override
+        public void close() {
+            delegate.close();
+            registration.close();
+        }
+    }
+}
@@ -1,18 +1,109 @@
 package io.github.kinsleykajiva.ice;
 
+import java.lang.System.Logger.Level;
 import java.lang.foreign.Arena;
 import java.lang.foreign.FunctionDescriptor;
+import java.lang.foreign.MemoryLayout;
 import java.lang.foreign.MemorySegment;
 import java.lang.foreign.ValueLayout;
 import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.ref.WeakReference;
+import java.net.InetAddress;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ObjIntConsumer;
 
 /**
  * High-level wrapper for NiceAgent.
  * Handles ICE agent lifecycle and stream management.
  */
 public class NiceAgent implements AutoCloseable {
+    private static final System.Logger LOG = System.getLogger(NiceAgent.class.getName());
+
+    /**
+     * Agents with at least one internally connected signal, keyed by native handle address.
+     * Weakly held so an abandoned agent can still be reclaimed by the {@link NativeResourceTracker}.
+     */
+    private static final Map<Long, WeakReference<NiceAgent>> SIGNAL_TARGETS = new ConcurrentHashMap<>();
+
+    /** Agents between {@link #closeAsync()} and libnice's completion callback, keyed by close ID. */
+    private static final Map<Long, NiceAgent> CLOSING = new ConcurrentHashMap<>();
+    private static final AtomicLong CLOSE_IDS = new AtomicLong();
+
+    /** Default number of agents {@link #closeAll(Collection)} tears down at once. */
+    public static final int DEFAULT_CLOSE_CONCURRENCY = 256;
+    /** Default time {@link #closeAll(Collection)} waits for one agent before releasing it synchronously. */
+    public static final Duration DEFAULT_CLOSE_TIMEOUT = Duration.ofSeconds(5);
+    /** Longest SDP string read back from libnice; anything larger is treated as an error. */
+    public static final int MAX_SDP_BYTES = 1 << 20;
+
+    /** {@link #sdpCache} key of the whole-session SDP; stream entries use {@link #streamSdpKey}. */
+    private static final long SESSION_SDP_KEY = -1L;
+
+    /** g_object_set with the four {@link KeepaliveProfile} properties; bound once since governors switch many agents. */
+    private static final MethodHandle SET_KEEPALIVE_PROFILE = NiceBindings.g_object_set_handle(NiceBindings.G_OBJECT_SET_INT4);
+    private static final MemorySegment KEEPALIVE_CONNCHECK = Arena.global().allocateFrom("keepalive-conncheck");
+    private static final MemorySegment STUN_MAX_RETRANSMISSIONS = Arena.global().allocateFrom("stun-max-retransmissions");
+    private static final MemorySegment STUN_INITIAL_TIMEOUT = Arena.global().allocateFrom("stun-initial-timeout");
+    private static final MemorySegment STUN_RELIABLE_TIMEOUT = Arena.global().allocateFrom("stun-reliable-timeout");
+
+    private static final long CANDIDATE_ADDR_OFFSET = NiceBindings.NICE_CANDIDATE_LAYOUT.byteOffset(
+        MemoryLayout.PathElement.groupElement("addr"));
+
     private final MemorySegment agentHandle;
-    private final Arena arena;
+    private final MemorySegment mainContext;
+    private final boolean reliable;
+    private final NativeResourceTracker.Registration registration;
+    private final Map<Integer, NativeResourceTracker.Registration> streamRegistrations = new ConcurrentHashMap<>();
+
+    /** Per-component send backlog, keyed by {@link #componentKey(int, int)}. */
+    private final Map<Long, PendingSends> pendingSends = new ConcurrentHashMap<>();
+    private final Set<String> connectedSignals = ConcurrentHashMap.newKeySet();
+    private final List<NiceAgentListener> listeners = new CopyOnWriteArrayList<>();
+    private volatile WritableListener writableListener;
+    private CompletableFuture<Void> closeFuture;
+    private long closeId;
+    private volatile boolean closed;
+
+    /** Sends and {@link #markActivity} calls, sampled by {@link KeepaliveGovernor}. */
+    private final LongAdder activity = new LongAdder();
+    private volatile KeepaliveProfile keepaliveProfile = KeepaliveProfile.DEFAULT;
+    private volatile PacketCapture capture;
+    private volatile SessionIndex<?> sessionIndex;
+    /** Component count of each live stream. */
+    private final Map<Integer, Integer> streamComponents = new ConcurrentHashMap<>();
+    /** Dispatchers with partitions on this agent, dropped on {@link #close()}. */
+    private final Set<ReceiveDispatcher> receiveDispatchers = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Generated local SDP, kept until a new local candidate, a credential change or a stream change.
+     * Entries are only stored if no invalidation happened while they were generated.
+     */
+    private final Map<Long, String> sdpCache = new ConcurrentHashMap<>();
+    private long sdpGeneration;
+
+    /**
+     * Callback invoked on the GLib main loop thread when a component becomes writable again.
+     */
+    @FunctionalInterface
+    public interface WritableListener {
+        void onWritable(int streamId, int componentId);
+    }
 
     /**
      * Creates a new NiceAgent.
@@ -21,17 +112,39 @@ public class NiceAgent implements AutoCloseable {
      * @param compatibility The NICE compatibility mode.
      */
     public NiceAgent(MemorySegment mainContext, int compatibility) {
-        this.arena = Arena.ofShared();
+        this(mainContext, compatibility, false);
+    }
+
+    /**
+     * Creates a new NiceAgent.
+     *
+     * @param mainContext The GLib main context to use (can be null for default).
+     * @param compatibility The NICE compatibility mode.
+     * @param reliable True to create a reliable (pseudo-TCP) agent via nice_agent_new_reliable.
+     */
+    public NiceAgent(MemorySegment mainContext, int compatibility, boolean reliable) {
+        this.reliable = reliable;
+        this.mainContext = (mainContext == null) ? MemorySegment.NULL : mainContext;
+        NiceLogging.installDefault();
+        MethodHandle factory = reliable ? NiceBindings.nice_agent_new_reliable : NiceBindings.nice_agent_new;
         try {
-            if (NiceBindings.nice_agent_new != null) {
-                MemorySegment ctx = (mainContext == null) ? MemorySegment.NULL : mainContext;
-                this.agentHandle = (MemorySegment) NiceBindings.nice_agent_new.invokeExact(ctx, compatibility);
+            if (factory != null) {
+                this.agentHandle = (MemorySegment) factory.invokeExact(this.mainContext, compatibility);
             } else {
                 this.agentHandle = MemorySegment.NULL;
             }
         } catch (Throwable t) {
             throw new RuntimeException("Failed to create NiceAgent", t);
         }
+
+        MemorySegment handle = this.agentHandle;
+        this.registration = NativeResourceTracker.register(this, NativeResourceTracker.Kind.AGENT, 0,
+            reliable ? "NiceAgent (reliable)" : "NiceAgent",
+            NativeResourceTracker.AGENT_ESTIMATED_BYTES, () -> release(handle));
+    }
+
+    public boolean isReliable() {
+        return reliable;
     }
 
 
@@ -44,14 +157,104 @@ public class NiceAgent implements AutoCloseable {
     public int addStream(int nComponents) {
         try {
             if (NiceBindings.nice_agent_add_stream != null) {
-                return (int) NiceBindings.nice_agent_add_stream.invokeExact(agentHandle, nComponents);
+                int streamId = (int) NiceBindings.nice_agent_add_stream.invokeExact(agentHandle, nComponents);
+                if (streamId > 0) {
+                    invalidateLocalSdp(streamId);
+                    streamRegistrations.put(streamId, NativeResourceTracker.track(NativeResourceTracker.Kind.STREAM,
+                        registration.id(), "stream " + streamId + " (" + nComponents + " components)",
+                        nComponents * NativeResourceTracker.COMPONENT_ESTIMATED_BYTES));
+                    streamComponents.put(streamId, nComponents);
+                    SessionIndex<?> index = sessionIndex;
+                    if (index != null) {
+                        index.streamAdded(this, streamId);
+                    }
+                }
+                return streamId;
             }
         } catch (Throwable t) {
-            t.printStackTrace();
+            LOG.log(Level.ERROR, "addStream failed", t);
         }
         return 0;
     }
 
+    /**
+     * Removes a stream and closes its sockets. Sends still queued by {@link #sendFully} on it fail.
+     *
+     * @param streamId The stream ID.
+     */
+    public void removeStream(int streamId) {
+        SessionIndex<?> index = sessionIndex;
+        if (index != null) {
+            index.streamRemoved(this, streamId);
+        }
+        streamComponents.remove(streamId);
+        try {
+            if (NiceBindings.nice_agent_remove_stream != null) {
+                NiceBindings.nice_agent_remove_stream.invokeExact(agentHandle, streamId);
+            }
+        } catch (Throwable t) {
+            LOG.log(Level.ERROR, "removeStream failed", t);
+        }
+        invalidateLocalSdp(streamId);
+        failPendingSends(streamId);
+        NativeResourceTracker.Registration streamRegistration = streamRegistrations.remove(streamId);
+        if (streamRegistration != null) {
+            streamRegistration.close();
+        }
+    }
+
+    /**
+     * Replaces the ICE username fragment and password of a stream, e.g. when handing out a
+     * pre-gathered agent for a new session.
+     *
+     * @param streamId The stream ID.
+     * @param ufrag The username fragment (at least 4 ICE characters).
+     * @param pwd The password (at least 22 ICE characters).
+     * @return true if the credentials were set.
+     */
+    public boolean setLocalCredentials(int streamId, String ufrag, String pwd) {
+        try (var localArena = Arena.ofConfined()) {
+            if (NiceBindings.nice_agent_set_local_credentials != null) {
+                int result = (int) NiceBindings.nice_agent_set_local_credentials.invokeExact(agentHandle, streamId,
+                    localArena.allocateFrom(ufrag), localArena.allocateFrom(pwd));
+                invalidateLocalSdp(streamId);
+                SessionIndex<?> index = sessionIndex;
+                if (result != 0 && index != null) {
+                    index.credentialsChanged(this, streamId, ufrag);
+                }
+                return result != 0;
+            }
+        } catch (Throwable t) {
+            LOG.log(Level.ERROR, "setLocalCredentials failed", t);
+        }
+        return false;
+    }
+
+    /**
+     * Restarts ICE on a stream (RFC 8445, section 9): new local credentials are generated and the
+     * remote candidates are dropped, keeping the selected pair until a new one is chosen. Exchange
+     * SDP again afterwards.
+     *
+     * @param streamId The stream ID.
+     * @return true if the stream was restarted.
+     */
+    public boolean restartStream(int streamId) {
+        try {
+            if (NiceBindings.nice_agent_restart_stream != null) {
+                int result = (int) NiceBindings.nice_agent_restart_stream.invokeExact(agentHandle, streamId);
+                invalidateLocalSdp(streamId);
+                SessionIndex<?> index = sessionIndex;
+                if (result != 0 && index != null) {
+                    index.credentialsChanged(this, streamId, getLocalUfrag(streamId));
+                }
+                return result != 0;
+            }
+        } catch (Throwable t) {
+            LOG.log(Level.ERROR, "restartStream failed", t);
+        }
+        return false;
+    }
+
     /**
      * Starts gathering candidates for the given stream.
      * 
@@ -61,11 +264,13 @@ public class NiceAgent implements AutoCloseable {
     public boolean gatherCandidates(int streamId) {
         try {
             if (NiceBindings.nice_agent_gather_candidates != null) {
+                connectInternalSignal("new-candidate", Signals.NEW_CANDIDATE);
                 int result = (int) NiceBindings.nice_agent_gather_candidates.invokeExact(agentHandle, streamId);
+                invalidateLocalSdp(streamId);
                 return result != 0;
             }
         } catch (Throwable t) {
-            t.printStackTrace();
+            LOG.log(Level.ERROR, "gatherCandidates failed", t);
         }
         return false;
     }
@@ -82,21 +287,19 @@ public class NiceAgent implements AutoCloseable {
             MemorySegment cServer = localArena.allocateFrom(server);
             
             // string property
-            FunctionDescriptor sDesc = FunctionDescriptor.ofVoid(ValueLayout.ADDRESS, ValueLayout.ADDRESS, ValueLayout.ADDRESS, ValueLayout.ADDRESS);
-            MethodHandle sHandle = NiceBindings.g_object_set_handle(sDesc);
+            MethodHandle sHandle = NiceBindings.g_object_set_handle(NiceBindings.G_OBJECT_SET_STRING);
             if (sHandle != null) {
                 sHandle.invokeExact(agentHandle, cStunServer, cServer, MemorySegment.NULL);
             }
 
             // int property
             MemorySegment cStunPort = localArena.allocateFrom("stun-server-port");
-            FunctionDescriptor iDesc = FunctionDescriptor.ofVoid(ValueLayout.ADDRESS, ValueLayout.ADDRESS, ValueLayout.JAVA_INT, ValueLayout.ADDRESS);
-            MethodHandle iHandle = NiceBindings.g_object_set_handle(iDesc);
+            MethodHandle iHandle = NiceBindings.g_object_set_handle(NiceBindings.G_OBJECT_SET_INT);
             if (iHandle != null) {
                 iHandle.invokeExact(agentHandle, cStunPort, port, MemorySegment.NULL);
             }
         } catch (Throwable t) {
-            t.printStackTrace();
+            LOG.log(Level.ERROR, "setStunServer failed", t);
         }
     }
 
@@ -109,14 +312,12 @@ public class NiceAgent implements AutoCloseable {
         try (var localArena = Arena.ofConfined()) {
             MemorySegment cProp = localArena.allocateFrom("controlling-mode");
             // specialized handle for boolean (int) property: g_object_set(obj, name, int, NULL)
-            FunctionDescriptor desc = FunctionDescriptor.ofVoid(ValueLayout.ADDRESS, ValueLayout.ADDRESS, ValueLayout.JAVA_INT, ValueLayout.ADDRESS);
-            MethodHandle handle = NiceBindings.g_object_set_handle(desc);
+            MethodHandle handle = NiceBindings.g_object_set_handle(NiceBindings.G_OBJECT_SET_INT);
             if (handle != null) {
                 handle.invokeExact(agentHandle, cProp, controlling ? 1 : 0, MemorySegment.NULL);
             }
-            System.out.println("Property set: controlling-mode=" + controlling);
         } catch (Throwable t) {
-            t.printStackTrace();
+            LOG.log(Level.ERROR, "setControllingMode failed", t);
         }
     }
 
@@ -125,41 +326,463 @@ public class NiceAgent implements AutoCloseable {
      */
     public void disableExtraFeatures() {
         try (var localArena = Arena.ofConfined()) {
-            FunctionDescriptor desc = FunctionDescriptor.ofVoid(ValueLayout.ADDRESS, ValueLayout.ADDRESS, ValueLayout.JAVA_INT, ValueLayout.ADDRESS);
-            MethodHandle handle = NiceBindings.g_object_set_handle(desc);
+            MethodHandle handle = NiceBindings.g_object_set_handle(NiceBindings.G_OBJECT_SET_INT);
             if (handle != null) {
                 handle.invokeExact(agentHandle, localArena.allocateFrom("ice-tcp"), 0, MemorySegment.NULL);
                 handle.invokeExact(agentHandle, localArena.allocateFrom("upnp"), 0, MemorySegment.NULL);
             }
         } catch (Throwable t) {
-            t.printStackTrace();
+            LOG.log(Level.ERROR, "disableExtraFeatures failed", t);
         }
     }
 
     /**
-     * Generates a local SDP string.
-     * 
-     * @return The local SDP string.
+     * Sets the TURN server used to gather relay candidates for a component.
+     * Must be called before {@link #gatherCandidates(int)}.
+     *
+     * @param streamId The stream ID.
+     * @param componentId The component ID.
+     * @param serverIp The TURN server IP address (not a hostname).
+     * @param serverPort The TURN server port.
+     * @param username The TURN username.
+     * @param password The TURN password.
+     * @param relayType One of the NICE_RELAY_TYPE_* constants.
+     * @return true if the relay info was set.
      */
-    public String generateLocalSdp() {
+    public boolean setRelayInfo(int streamId, int componentId, String serverIp, int serverPort,
+                                String username, String password, int relayType) {
+        try (var localArena = Arena.ofConfined()) {
+            if (NiceBindings.nice_agent_set_relay_info != null) {
+                int result = (int) NiceBindings.nice_agent_set_relay_info.invokeExact(agentHandle, streamId, componentId,
+                    localArena.allocateFrom(serverIp), serverPort,
+                    localArena.allocateFrom(username), localArena.allocateFrom(password), relayType);
+                return result != 0;
+            }
+        } catch (Throwable t) {
+            LOG.log(Level.ERROR, "setRelayInfo failed", t);
+        }
+        return false;
+    }
+
+    /**
+     * Restricts gathering and connectivity checks to relay candidates.
+     *
+     * @param forceRelay True to use relay candidates only.
+     */
+    public void setForceRelay(boolean forceRelay) {
+        try (var localArena = Arena.ofConfined()) {
+            MethodHandle handle = NiceBindings.g_object_set_handle(NiceBindings.G_OBJECT_SET_INT);
+            if (handle != null) {
+                handle.invokeExact(agentHandle, localArena.allocateFrom("force-relay"), forceRelay ? 1 : 0, MemorySegment.NULL);
+            }
+        } catch (Throwable t) {
+            LOG.log(Level.ERROR, "setForceRelay failed", t);
+        }
+    }
+
+    /**
+     * Uses binding requests instead of indications as keepalives, so a dead path times out
+     * and the component moves to FAILED.
+     *
+     * @param enabled True to use connectivity checks as keepalives.
+     */
+    public void setKeepaliveConncheck(boolean enabled) {
+        try (var localArena = Arena.ofConfined()) {
+            MethodHandle handle = NiceBindings.g_object_set_handle(NiceBindings.G_OBJECT_SET_INT);
+            if (handle != null) {
+                handle.invokeExact(agentHandle, localArena.allocateFrom("keepalive-conncheck"), enabled ? 1 : 0, MemorySegment.NULL);
+            }
+        } catch (Throwable t) {
+            LOG.log(Level.ERROR, "setKeepaliveConncheck failed", t);
+        }
+    }
+
+    /**
+     * Sets Ta, the interval between new STUN transactions (gathering requests and connectivity checks)
+     * on this agent. libnice's default is 20 ms; a larger value spreads the agent's traffic out.
+     * Affects transactions scheduled after the call.
+     *
+     * @param millis The pacing interval in milliseconds, at least 1.
+     */
+    public void setStunPacingTimer(int millis) {
+        setUnsignedProperty("stun-pacing-timer", Math.max(1, millis));
+    }
+
+    /**
+     * Caps the number of connectivity checks libnice keeps per stream; lower-priority pairs beyond
+     * the cap are pruned. libnice's default is 100.
+     *
+     * @param maxChecks The cap, at least 1.
+     */
+    public void setMaxConnectivityChecks(int maxChecks) {
+        setUnsignedProperty("max-connectivity-checks", Math.max(1, maxChecks));
+    }
+
+    /**
+     * Applies the keepalive and STUN retransmission properties of {@code profile} in one call.
+     * Safe to call from any thread, including after {@link #close()}, when it does nothing.
+     *
+     * @return false if the agent is closed or the properties could not be set.
+     */
+    public synchronized boolean setKeepaliveProfile(KeepaliveProfile profile) {
+        if (closed || SET_KEEPALIVE_PROFILE == null) return false;
         try {
-            if (NiceBindings.nice_agent_generate_local_sdp != null) {
-                MemorySegment sdpPtr = (MemorySegment) NiceBindings.nice_agent_generate_local_sdp.invokeExact(agentHandle);
-                if (sdpPtr.equals(MemorySegment.NULL)) return "";
-                String sdp = sdpPtr.reinterpret(Long.MAX_VALUE).getString(0);
-                try {
-                    if (NiceBindings.g_free != null) {
-                        NiceBindings.g_free.invokeExact(sdpPtr);
-                    }
-                } catch (Throwable t) {
-                    t.printStackTrace();
+            SET_KEEPALIVE_PROFILE.invokeExact(agentHandle,
+                KEEPALIVE_CONNCHECK, profile.conncheckKeepalives() ? 1 : 0,
+                STUN_MAX_RETRANSMISSIONS, profile.stunMaxRetransmissions(),
+                STUN_INITIAL_TIMEOUT, profile.stunInitialTimeoutMillis(),
+                STUN_RELIABLE_TIMEOUT, profile.stunReliableTimeoutMillis(),
+                MemorySegment.NULL);
+            keepaliveProfile = profile;
+            return true;
+        } catch (Throwable t) {
+            LOG.log(Level.ERROR, "setKeepaliveProfile failed", t);
+            return false;
+        }
+    }
+
+    /**
+     * @return The profile last applied with {@link #setKeepaliveProfile}, or {@link KeepaliveProfile#DEFAULT}.
+     */
+    public KeepaliveProfile getKeepaliveProfile() {
+        return keepaliveProfile;
+    }
+
+    /**
+     * Records traffic on the agent for {@link KeepaliveGovernor}. Sends through this agent and
+     * {@link FastPathSender} are counted already; call this from receive callbacks.
+     */
+    public void markActivity() {
+        activity.increment();
+    }
+
+    /**
+     * @return Number of sends and {@link #markActivity} calls so far.
+     */
+    public long getActivityCount() {
+        return activity.sum();
+    }
+
+    /**
+     * Records every packet sent through this agent, and through {@link FastPathSender}s opened on it,
+     * into {@code capture}. Received packets are recorded by calling {@link #captureReceived} from the
+     * receive callback.
+     *
+     * @param capture The ring to record into, or null to stop recording.
+     */
+    public void setCapture(PacketCapture capture) {
+        this.capture = capture;
+    }
+
+    /**
+     * @return The capture set with {@link #setCapture}, or null.
+     */
+    public PacketCapture getCapture() {
+        return capture;
+    }
+
+    /**
+     * Records a received packet if a capture is set; otherwise does nothing. Meant to be called from
+     * the callback passed to {@link #attachReceiver} with the buffer and length it was given.
+     */
+    public void captureReceived(int streamId, int componentId, MemorySegment buf, int len) {
+        PacketCapture capture = this.capture;
+        if (capture != null) {
+            capture.recordReceived(streamId, componentId, buf, len);
+        }
+    }
+
+    /**
+     * Binds this agent to {@code index}; called by {@link SessionIndex#register}.
+     */
+    synchronized void attachSessionIndex(SessionIndex<?> index) {
+        if (sessionIndex != null && sessionIndex != index) {
+            throw new IllegalStateException("Agent is already registered with another SessionIndex");
+        }
+        sessionIndex = index;
+        connectInternalSignal("new-selected-pair-full", Signals.SELECTED_PAIR);
+    }
+
+    synchronized void detachSessionIndex(SessionIndex<?> index) {
+        if (sessionIndex == index) {
+            sessionIndex = null;
+        }
+    }
+
+    /**
+     * Registers a dispatcher to be told when this agent closes.
+     *
+     * @return false if the agent is already closed.
+     */
+    synchronized boolean addReceiveDispatcher(ReceiveDispatcher dispatcher) {
+        if (closed) return false;
+        receiveDispatchers.add(dispatcher);
+        return true;
+    }
+
+    void removeReceiveDispatcher(ReceiveDispatcher dispatcher) {
+        receiveDispatchers.remove(dispatcher);
+    }
+
+    /**
+     * @return true once {@link #close()} has run.
+     */
+    boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * @return The component count of a stream added through this agent, or 0.
+     */
+    int componentCount(int streamId) {
+        return streamComponents.getOrDefault(streamId, 0);
+    }
+
+    /**
+     * @return Ids of the streams added through this agent and not removed yet.
+     */
+    Set<Integer> streamIds() {
+        return streamComponents.keySet();
+    }
+
+    /**
+     * @return The stream's current local ufrag, or null.
+     */
+    String getLocalUfrag(int streamId) {
+        if (NiceBindings.nice_agent_get_local_credentials == null) return null;
+        try (var localArena = Arena.ofConfined()) {
+            MemorySegment ufrag = localArena.allocate(ValueLayout.ADDRESS);
+            MemorySegment pwd = localArena.allocate(ValueLayout.ADDRESS);
+            int found = (int) NiceBindings.nice_agent_get_local_credentials.invokeExact(agentHandle, streamId, ufrag, pwd);
+            if (found == 0) return null;
+            gFree(pwd.get(ValueLayout.ADDRESS, 0));
+            return takeString(ufrag.get(ValueLayout.ADDRESS, 0));
+        } catch (Throwable t) {
+            LOG.log(Level.ERROR, "getLocalUfrag failed", t);
+            return null;
+        }
+    }
+
+    /**
+     * Passes the remote NiceAddress of each component's selected pair, valid only during the call.
+     */
+    void forEachSelectedRemote(int streamId, ObjIntConsumer<MemorySegment> action) {
+        Integer components = streamComponents.get(streamId);
+        if (components == null || NiceBindings.nice_agent_get_selected_pair == null) return;
+        try (var localArena = Arena.ofConfined()) {
+            MemorySegment localCandidate = localArena.allocate(ValueLayout.ADDRESS);
+            MemorySegment remoteCandidate = localArena.allocate(ValueLayout.ADDRESS);
+            for (int componentId = 1; componentId <= components; componentId++) {
+                int found = (int) NiceBindings.nice_agent_get_selected_pair.invokeExact(agentHandle, streamId, componentId,
+                    localCandidate, remoteCandidate);
+                if (found != 0) {
+                    action.accept(remoteAddress(remoteCandidate.get(ValueLayout.ADDRESS, 0)), componentId);
                 }
-                return sdp;
             }
         } catch (Throwable t) {
-            t.printStackTrace();
+            LOG.log(Level.ERROR, "forEachSelectedRemote failed", t);
+        }
+    }
+
+    private static MemorySegment remoteAddress(MemorySegment candidate) {
+        return candidate.reinterpret(NiceBindings.NICE_CANDIDATE_LAYOUT.byteSize()).asSlice(CANDIDATE_ADDR_OFFSET,
+            NiceBindings.NICE_ADDRESS_LAYOUT.byteSize());
+    }
+
+    /**
+     * Synchronized with {@link #close()} like {@link #setKeepaliveProfile}, so it is a no-op once
+     * the agent is released.
+     */
+    private synchronized void setUnsignedProperty(String name, int value) {
+        if (closed) return;
+        try (var localArena = Arena.ofConfined()) {
+            MethodHandle handle = NiceBindings.g_object_set_handle(NiceBindings.G_OBJECT_SET_INT);
+            if (handle != null) {
+                handle.invokeExact(agentHandle, localArena.allocateFrom(name), value, MemorySegment.NULL);
+            }
+        } catch (Throwable t) {
+            LOG.log(Level.ERROR, "setUnsignedProperty failed", t);
+        }
+    }
+
+    /**
+     * Restricts host candidates to the given local address. Once any address has been added,
+     * libnice gathers only on added addresses instead of on every interface.
+     * Must be called before {@link #gatherCandidates(int)}.
+     *
+     * @param address A numeric IPv4 or IPv6 address.
+     * @return true if the address was parsed and added.
+     */
+    public boolean addLocalAddress(String address) {
+        try (var localArena = Arena.ofConfined()) {
+            if (NiceBindings.nice_agent_add_local_address != null && NiceBindings.nice_address_init != null
+                && NiceBindings.nice_address_set_from_string != null) {
+                // nice_agent_add_local_address copies the address, so it can live in the local arena.
+                MemorySegment niceAddress = localArena.allocate(NiceBindings.NICE_ADDRESS_LAYOUT);
+                NiceBindings.nice_address_init.invokeExact(niceAddress);
+                int parsed = (int) NiceBindings.nice_address_set_from_string.invokeExact(niceAddress, localArena.allocateFrom(address));
+                if (parsed == 0) return false;
+                int result = (int) NiceBindings.nice_agent_add_local_address.invokeExact(agentHandle, niceAddress);
+                return result != 0;
+            }
+        } catch (Throwable t) {
+            LOG.log(Level.ERROR, "addLocalAddress failed", t);
+        }
+        return false;
+    }
+
+    /**
+     * Adds each address with {@link #addLocalAddress(String)}, e.g. the result of
+     * {@link InterfaceFilter#selectAddresses()}. libnice gathers on every interface when no address
+     * has been added, so an empty selection is rejected rather than silently widening gathering.
+     *
+     * @param addresses The local addresses to gather on.
+     * @return The number of addresses added.
+     * @throws IllegalArgumentException If {@code addresses} is empty, e.g. because the filter rules matched nothing.
+     * @throws IllegalStateException If none of the addresses could be added.
+     */
+    public int addLocalAddresses(Collection<InetAddress> addresses) {
+        if (addresses.isEmpty()) {
+            throw new IllegalArgumentException("No local addresses selected; libnice would gather on every interface");
+        }
+        int added = 0;
+        for (InetAddress address : addresses) {
+            if (addLocalAddress(address.getHostAddress())) {
+                added++;
+            }
+        }
+        if (added == 0) {
+            throw new IllegalStateException("None of " + addresses + " could be added; libnice would gather on every interface");
+        }
+        return added;
+    }
+
+    /**
+     * Restricts the local ports host candidates of a component may bind.
+     * Must be called before {@link #gatherCandidates(int)}; gathering fails if no port in the range is free.
+     *
+     * @param streamId The stream ID.
+     * @param componentId The component ID.
+     * @param minPort The lowest port, inclusive.
+     * @param maxPort The highest port, inclusive.
+     */
+    public void setPortRange(int streamId, int componentId, int minPort, int maxPort) {
+        if (minPort < 0 || maxPort > 65535 || minPort > maxPort) {
+            throw new IllegalArgumentException("Invalid port range " + minPort + "-" + maxPort);
+        }
+        try {
+            if (NiceBindings.nice_agent_set_port_range != null) {
+                NiceBindings.nice_agent_set_port_range.invokeExact(agentHandle, streamId, componentId, minPort, maxPort);
+            }
+        } catch (Throwable t) {
+            LOG.log(Level.ERROR, "setPortRange failed", t);
+        }
+    }
+
+    /**
+     * Generates the local SDP of all streams. The result is cached until a local candidate or
+     * credential changes, so repeated offers for an unchanged agent cost no native call.
+     *
+     * @return The local SDP string, or "" on error.
+     */
+    public String generateLocalSdp() {
+        return cachedSdp(SESSION_SDP_KEY, () -> {
+            if (NiceBindings.nice_agent_generate_local_sdp == null) return null;
+            return (MemorySegment) NiceBindings.nice_agent_generate_local_sdp.invokeExact(agentHandle);
+        });
+    }
+
+    /**
+     * Generates the local SDP of one stream, cached like {@link #generateLocalSdp()}.
+     *
+     * @param streamId The stream ID.
+     * @param includeNonIce Whether to include the m=, c= and a=rtcp: lines.
+     * @return The stream's SDP, or "" on error.
+     */
+    public String generateLocalStreamSdp(int streamId, boolean includeNonIce) {
+        return cachedSdp(streamSdpKey(streamId, includeNonIce), () -> {
+            if (NiceBindings.nice_agent_generate_local_stream_sdp == null) return null;
+            return (MemorySegment) NiceBindings.nice_agent_generate_local_stream_sdp.invokeExact(agentHandle, streamId, includeNonIce ? 1 : 0);
+        });
+    }
+
+    /**
+     * Drops cached local SDP for a stream and for the session. Call it after changing the agent
+     * through its raw handle in a way that alters the local description.
+     *
+     * @param streamId The stream ID, or 0 to drop every cached entry.
+     */
+    public void invalidateLocalSdp(int streamId) {
+        synchronized (sdpCache) {
+            sdpGeneration++;
+            if (streamId == 0) {
+                sdpCache.clear();
+            } else {
+                sdpCache.remove(SESSION_SDP_KEY);
+                sdpCache.remove(streamSdpKey(streamId, false));
+                sdpCache.remove(streamSdpKey(streamId, true));
+            }
+        }
+    }
+
+    @FunctionalInterface
+    private interface SdpGenerator {
+        MemorySegment generate() throws Throwable;
+    }
+
+    private String cachedSdp(long key, SdpGenerator generator) {
+        String cached = sdpCache.get(key);
+        if (cached != null) return cached;
+        // Connected before generating, so a candidate found from here on always invalidates.
+        connectInternalSignal("new-candidate", Signals.NEW_CANDIDATE);
+        long generation;
+        synchronized (sdpCache) {
+            generation = sdpGeneration;
+        }
+        String sdp;
+        try {
+            sdp = takeString(generator.generate());
+        } catch (Throwable t) {
+            LOG.log(Level.ERROR, "cachedSdp failed", t);
+            return "";
+        }
+        if (sdp == null) return "";
+        synchronized (sdpCache) {
+            if (generation == sdpGeneration) {
+                sdpCache.put(key, sdp);
+            }
+        }
+        return sdp;
+    }
+
+    private static long streamSdpKey(int streamId, boolean includeNonIce) {
+        return ((long) streamId << 1) | (includeNonIce ? 1 : 0);
+    }
+
+    /**
+     * Copies a g_malloc'd string of at most {@link #MAX_SDP_BYTES} and frees it.
+     *
+     * @return The string, or null for a NULL pointer or an unterminated/oversized string.
+     */
+    private static String takeString(MemorySegment ptr) {
+        if (ptr == null || ptr.equals(MemorySegment.NULL)) return null;
+        try {
+            return ptr.reinterpret(MAX_SDP_BYTES).getString(0);
+        } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+            LOG.log(Level.WARNING, "Native string longer than {0} bytes ignored", MAX_SDP_BYTES);
+            return null;
+        } finally {
+            gFree(ptr);
+        }
+    }
+
+    private static void gFree(MemorySegment ptr) {
+        if (ptr.equals(MemorySegment.NULL) || NiceBindings.g_free == null) return;
+        try {
+            NiceBindings.g_free.invokeExact(ptr);
+        } catch (Throwable t) {
+            LOG.log(Level.ERROR, "gFree failed", t);
         }
-        return "";
     }
 
     /**
@@ -176,23 +799,261 @@ public class NiceAgent implements AutoCloseable {
             }
             return 0;
         } catch (Throwable t) {
-            t.printStackTrace();
+            LOG.log(Level.ERROR, "parseRemoteSdp failed", t);
             return -1;
         }
     }
 
+    /**
+     * Applies the remote SDP of a single stream, e.g. one renegotiated m-section, without touching
+     * other streams: sets the remote credentials if present, then the candidates of each component.
+     *
+     * @param streamId The local stream the SDP belongs to.
+     * @param sdp The stream's SDP, as produced by {@link #generateLocalStreamSdp} on the remote side.
+     * @return The number of candidates added, 0 for a section with credentials but no candidates, or a
+     *         negative value on error.
+     */
+    public int parseRemoteStreamSdp(int streamId, String sdp) {
+        if (NiceBindings.nice_agent_parse_remote_stream_sdp == null || NiceBindings.nice_agent_set_remote_candidates == null) {
+            return -1;
+        }
+        try (var localArena = Arena.ofConfined()) {
+            MemorySegment ufragOut = localArena.allocate(ValueLayout.ADDRESS);
+            MemorySegment pwdOut = localArena.allocate(ValueLayout.ADDRESS);
+            MemorySegment list = (MemorySegment) NiceBindings.nice_agent_parse_remote_stream_sdp.invokeExact(agentHandle, streamId,
+                localArena.allocateFrom(sdp), ufragOut, pwdOut);
+            String ufrag = takeString(ufragOut.get(ValueLayout.ADDRESS, 0));
+            String pwd = takeString(pwdOut.get(ValueLayout.ADDRESS, 0));
+            try {
+                boolean credentials = ufrag != null && pwd != null;
+                if (credentials && NiceBindings.nice_agent_set_remote_credentials != null) {
+                    // libnice splits on '\n' only, so CRLF SDP leaves a trailing '\r'.
+                    int set = (int) NiceBindings.nice_agent_set_remote_credentials.invokeExact(agentHandle, streamId,
+                        localArena.allocateFrom(ufrag.strip()), localArena.allocateFrom(pwd.strip()));
+                    if (set == 0) return -1;
+                }
+                // A section with credentials but no candidates (trickle, ICE restart) yields no list
+                if (list.equals(MemorySegment.NULL)) return credentials ? 0 : -1;
+                return setRemoteCandidatesByComponent(localArena, streamId, list);
+            } finally {
+                if (!list.equals(MemorySegment.NULL)) {
+                    freeCandidateList(list);
+                }
+            }
+        } catch (Throwable t) {
+            LOG.log(Level.ERROR, "parseRemoteStreamSdp failed", t);
+            return -1;
+        }
+    }
+
+    /**
+     * nice_agent_set_remote_candidates ignores each candidate's component ID, so the parsed list is
+     * regrouped into one GSList per component, built in {@code arena}; libnice only reads the lists.
+     */
+    private int setRemoteCandidatesByComponent(Arena arena, int streamId, MemorySegment list) throws Throwable {
+        Map<Integer, MemorySegment> heads = new java.util.TreeMap<>();
+        for (MemorySegment node = list.reinterpret(NiceBindings.GSLIST_LAYOUT.byteSize());
+             !node.equals(MemorySegment.NULL);
+             node = ((MemorySegment) NiceBindings.GSLIST_NEXT.get(node, 0L)).reinterpret(NiceBindings.GSLIST_LAYOUT.byteSize())) {
+            MemorySegment candidate = ((MemorySegment) NiceBindings.GSLIST_DATA.get(node, 0L))
+                .reinterpret(NiceBindings.NICE_CANDIDATE_LAYOUT.byteSize());
+            int componentId = (int) NiceBindings.CANDIDATE_COMPONENT_ID.get(candidate, 0L);
+            MemorySegment copy = arena.allocate(NiceBindings.GSLIST_LAYOUT);
+            NiceBindings.GSLIST_DATA.set(copy, 0L, candidate);
+            NiceBindings.GSLIST_NEXT.set(copy, 0L, heads.getOrDefault(componentId, MemorySegment.NULL));
+            heads.put(componentId, copy);
+        }
+        int added = 0;
+        for (Map.Entry<Integer, MemorySegment> entry : heads.entrySet()) {
+            int result = (int) NiceBindings.nice_agent_set_remote_candidates.invokeExact(agentHandle, streamId, entry.getKey(), entry.getValue());
+            if (result < 0) return result;
+            added += result;
+        }
+        return added;
+    }
+
+    private static void freeCandidateList(MemorySegment list) throws Throwable {
+        for (MemorySegment node = list.reinterpret(NiceBindings.GSLIST_LAYOUT.byteSize());
+             !node.equals(MemorySegment.NULL);
+             node = ((MemorySegment) NiceBindings.GSLIST_NEXT.get(node, 0L)).reinterpret(NiceBindings.GSLIST_LAYOUT.byteSize())) {
+            if (NiceBindings.nice_candidate_free != null) {
+                NiceBindings.nice_candidate_free.invokeExact((MemorySegment) NiceBindings.GSLIST_DATA.get(node, 0L));
+            }
+        }
+        if (NiceBindings.g_slist_free != null) {
+            NiceBindings.g_slist_free.invokeExact(list);
+        }
+    }
+
+    /**
+     * Releases the agent immediately. If a {@link #closeAsync()} is still pending, it is abandoned
+     * and its stage completes now.
+     */
     @Override
-    public void close() {
+    public synchronized void close() {
+        closed = true;
+        if (closeId != 0) {
+            CLOSING.remove(closeId);
+        }
+        if (!connectedSignals.isEmpty()) {
+            SIGNAL_TARGETS.remove(agentHandle.address());
+        }
+        failPendingSends();
+        SessionIndex<?> index = sessionIndex;
+        if (index != null) {
+            index.agentClosed(this);
+            sessionIndex = null;
+        }
+        receiveDispatchers.forEach(dispatcher -> dispatcher.agentClosed(this));
+        receiveDispatchers.clear();
+        streamComponents.clear();
+        streamRegistrations.values().forEach(NativeResourceTracker.Registration::close);
+        streamRegistrations.clear();
+        registration.close();
+        if (closeFuture != null) {
+            closeFuture.complete(null);
+        }
+    }
+
+    /**
+     * Closes the agent without blocking: libnice first releases what it holds on remote servers
+     * (TURN allocations are refreshed with a zero lifetime), then the agent is released.
+     * The agent's main context must be running, since libnice completes the close on it.
+     * Calling this again returns the same stage; {@link #close()} can still be used to release immediately.
+     *
+     * @return A stage completing on the agent's main loop thread once the agent has been released.
+     */
+    public synchronized CompletionStage<Void> closeAsync() {
+        if (closeFuture != null) return closeFuture;
+        closeFuture = new CompletableFuture<>();
+        if (agentHandle.equals(MemorySegment.NULL)
+            || NiceBindings.nice_agent_close_async == null || NiceBindings.g_main_context_invoke == null) {
+            close();
+            return closeFuture;
+        }
+        failPendingSends();
+        closeId = CLOSE_IDS.incrementAndGet();
+        CLOSING.put(closeId, this);
+        try {
+            // nice_agent_close_async completes on the caller's thread-default context, so start it on the agent's loop.
+            NiceBindings.g_main_context_invoke.invokeExact(mainContext, Signals.START_CLOSE, MemorySegment.ofAddress(closeId));
+        } catch (Throwable t) {
+            LOG.log(Level.ERROR, "closeAsync failed", t);
+            close();
+        }
+        return closeFuture;
+    }
+
+    /**
+     * Tears down many agents with {@link #closeAsync()}, at most {@link #DEFAULT_CLOSE_CONCURRENCY} at a time.
+     *
+     * @param agents The agents to close.
+     * @return A stage completing with teardown latencies once every agent has been released.
+     */
+    public static CompletionStage<TeardownReport> closeAll(Collection<NiceAgent> agents) {
+        return closeAll(agents, DEFAULT_CLOSE_CONCURRENCY, DEFAULT_CLOSE_TIMEOUT);
+    }
+
+    /**
+     * Tears down many agents with {@link #closeAsync()}. Agents on different main contexts close in
+     * parallel; a new close starts as soon as one completes, keeping at most {@code maxInFlight} pending.
+     *
+     * @param agents The agents to close.
+     * @param maxInFlight Maximum number of closes pending at once.
+     * @param timeout Time to wait for one agent before releasing it with {@link #close()}.
+     * @return A stage completing with teardown latencies once every agent has been released.
+     */
+    public static CompletionStage<TeardownReport> closeAll(Collection<NiceAgent> agents, int maxInFlight, Duration timeout) {
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("maxInFlight must be at least 1");
+        }
+        BulkClose bulk = new BulkClose(List.copyOf(agents), timeout);
+        for (int i = 0; i < maxInFlight; i++) {
+            bulk.next();
+        }
+        return bulk.result;
+    }
+
+    /**
+     * Outcome of {@link #closeAll}.
+     *
+     * @param agents Number of agents closed.
+     * @param timedOut Agents released synchronously because libnice did not complete in time.
+     * @param totalNanos Wall time for the whole batch.
+     * @param p50Nanos Median per-agent teardown time.
+     * @param p99Nanos 99th percentile per-agent teardown time.
+     * @param maxNanos Slowest per-agent teardown.
+     */
+    public record TeardownReport(int agents, int timedOut, long totalNanos, long p50Nanos, long p99Nanos, long maxNanos) {}
+
+    /**
+     * Pipelines {@link #closeAsync()} over a fixed list, starting the next close as each one completes.
+     */
+    private static final class BulkClose {
+        final List<NiceAgent> agents;
+        final long timeoutNanos;
+        final long[] latencies;
+        final long startNanos = System.nanoTime();
+        final AtomicInteger nextIndex = new AtomicInteger();
+        final AtomicInteger remaining;
+        final AtomicInteger timedOut = new AtomicInteger();
+        final CompletableFuture<TeardownReport> result = new CompletableFuture<>();
+
+        BulkClose(List<NiceAgent> agents, Duration timeout) {
+            this.agents = agents;
+            this.timeoutNanos = timeout.toNanos();
+            this.latencies = new long[agents.size()];
+            this.remaining = new AtomicInteger(agents.size());
+            if (agents.isEmpty()) {
+                result.complete(new TeardownReport(0, 0, 0, 0, 0, 0));
+            }
+        }
+
+        void next() {
+            int index = nextIndex.getAndIncrement();
+            if (index >= agents.size()) return;
+            NiceAgent agent = agents.get(index);
+            long start = System.nanoTime();
+            agent.closeAsync().toCompletableFuture().copy()
+                .orTimeout(timeoutNanos, TimeUnit.NANOSECONDS)
+                .whenComplete((ignored, error) -> {
+                    if (error != null) {
+                        timedOut.incrementAndGet();
+                        agent.close();
+                    }
+                    latencies[index] = System.nanoTime() - start;
+                    if (remaining.decrementAndGet() == 0) {
+                        finish();
+                    } else {
+                        next();
+                    }
+                });
+        }
+
+        void finish() {
+            long[] sorted = latencies.clone();
+            Arrays.sort(sorted);
+            int n = sorted.length;
+            result.complete(new TeardownReport(n, timedOut.get(), System.nanoTime() - startNanos,
+                sorted[(n - 1) / 2], sorted[Math.max(0, (int) Math.ceil(n * 0.99) - 1)], sorted[n - 1]));
+        }
+    }
+
+    /**
+     * Releases the native agent. Static so the cleaner action never references the NiceAgent itself.
+     * Also drops a cleared {@link #SIGNAL_TARGETS} entry before the address can be reused.
+     */
+    private static void release(MemorySegment agentHandle) {
         if (agentHandle != null && !agentHandle.equals(MemorySegment.NULL)) {
+            SIGNAL_TARGETS.computeIfPresent(agentHandle.address(), (address, ref) -> ref.get() == null ? null : ref);
             try {
                 if (NiceBindings.g_object_unref != null) {
                     NiceBindings.g_object_unref.invokeExact(agentHandle);
                 }
             } catch (Throwable t) {
-                t.printStackTrace();
+                LOG.log(Level.ERROR, "release failed", t);
             }
         }
-        arena.close();
     }
 
     public MemorySegment getHandle() {
@@ -214,13 +1075,13 @@ public class NiceAgent implements AutoCloseable {
                 return (long) NiceBindings.g_signal_connect_data.invokeExact(agentHandle, cSignal, callback, data, MemorySegment.NULL, 0);
             }
         } catch (Throwable t) {
-            t.printStackTrace();
+            LOG.log(Level.ERROR, "connectSignal failed", t);
         }
         return 0;
     }
 
     /**
-     * Attaches a receiver to a stream component.
+     * Attaches a receiver to a stream component. Does nothing once the agent is closed.
      * 
      * @param streamId The stream ID.
      * @param componentId The component ID.
@@ -228,13 +1089,14 @@ public class NiceAgent implements AutoCloseable {
      * @param callback The receiver callback (created via Linker upcall).
      * @param data Optional user data.
      */
-    public void attachReceiver(int streamId, int componentId, MemorySegment context, MemorySegment callback, MemorySegment data) {
+    public synchronized void attachReceiver(int streamId, int componentId, MemorySegment context, MemorySegment callback, MemorySegment data) {
+        if (closed) return;
         try {
             if (NiceBindings.nice_agent_attach_recv != null) {
                 NiceBindings.nice_agent_attach_recv.invokeExact(agentHandle, streamId, componentId, context, callback, data);
             }
         } catch (Throwable t) {
-            t.printStackTrace();
+            LOG.log(Level.ERROR, "attachReceiver failed", t);
         }
     }
 
@@ -249,15 +1111,434 @@ public class NiceAgent implements AutoCloseable {
     public int send(int streamId, int componentId, byte[] data) {
         try (var localArena = Arena.ofConfined()) {
             MemorySegment buf = localArena.allocateFrom(ValueLayout.JAVA_BYTE, data);
+            activity.increment();
             if (NiceBindings.nice_agent_send != null) {
-                return (int) NiceBindings.nice_agent_send.invokeExact(agentHandle, streamId, componentId, (int)data.length, buf);
+                int sent = (int) NiceBindings.nice_agent_send.invokeExact(agentHandle, streamId, componentId, (int)data.length, buf);
+                PacketCapture capture = this.capture;
+                if (capture != null && sent > 0) {
+                    capture.recordSent(streamId, componentId, buf, sent);
+                }
+                return sent;
             }
         } catch (Throwable t) {
-            t.printStackTrace();
+            LOG.log(Level.ERROR, "send failed", t);
         }
         return -1;
     }
 
+    /**
+     * Registers a listener for gathering, state, candidate and selected-pair signals.
+     * Callbacks run on the GLib main loop thread of the agent's context.
+     *
+     * @param listener The listener to add.
+     */
+    public void addListener(NiceAgentListener listener) {
+        listeners.add(listener);
+        connectInternalSignal("candidate-gathering-done", Signals.GATHERING_DONE);
+        connectInternalSignal("component-state-changed", Signals.STATE_CHANGED);
+        connectInternalSignal("new-candidate", Signals.NEW_CANDIDATE);
+        connectInternalSignal("new-selected-pair-full", Signals.SELECTED_PAIR);
+    }
+
+    /**
+     * Removes a listener added with {@link #addListener}.
+     *
+     * @param listener The listener to remove.
+     */
+    public void removeListener(NiceAgentListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Sends all of {@code data}, waiting for "reliable-transport-writable" instead of spinning
+     * whenever libnice accepts fewer bytes than offered.
+     * Sends queued on the same component are written in call order.
+     *
+     * @param streamId The stream ID.
+     * @param componentId The component ID.
+     * @param data The data to send.
+     * @return A stage completing with the total number of bytes sent once libnice has accepted all of them.
+     *         It fails with {@link IllegalStateException} if a write fails while the component is not
+     *         CONNECTED or READY, or if the component fails while data is still queued.
+     */
+    public CompletionStage<Integer> sendFully(int streamId, int componentId, byte[] data) {
+        connectInternalSignal("reliable-transport-writable", Signals.WRITABLE);
+        connectInternalSignal("component-state-changed", Signals.STATE_CHANGED);
+        PendingSends pending = pendingSends.computeIfAbsent(componentKey(streamId, componentId), k -> new PendingSends());
+        PendingSend send = new PendingSend(data);
+        synchronized (pending) {
+            if (pending.queue.isEmpty()) {
+                // Most sends are accepted at once, so only a send left waiting gets a copy that outlives this call
+                try (Arena arena = Arena.ofConfined()) {
+                    if (trySend(streamId, componentId, send, arena.allocateFrom(ValueLayout.JAVA_BYTE, data))) {
+                        return send.future;
+                    }
+                }
+            }
+            if (send.retain()) {
+                pending.queue.add(send);
+            } else {
+                send.fail(new IllegalStateException("Could not copy send data for stream " + streamId));
+            }
+        }
+        return send.future;
+    }
+
+    /**
+     * Returns whether the component has no sends waiting for the transport to become writable.
+     *
+     * @param streamId The stream ID.
+     * @param componentId The component ID.
+     * @return true if a {@link #send} or {@link #sendFully} would be attempted immediately.
+     */
+    public boolean isWritable(int streamId, int componentId) {
+        PendingSends pending = pendingSends.get(componentKey(streamId, componentId));
+        if (pending == null) return true;
+        synchronized (pending) {
+            return pending.queue.isEmpty();
+        }
+    }
+
+    /**
+     * Registers a listener driven by the "reliable-transport-writable" signal.
+     * It runs after any queued {@link #sendFully} data has been flushed.
+     *
+     * @param listener The listener, or null to remove it.
+     */
+    public void setWritableListener(WritableListener listener) {
+        this.writableListener = listener;
+        if (listener != null) {
+            connectInternalSignal("reliable-transport-writable", Signals.WRITABLE);
+        }
+    }
+
+    /**
+     * Attempts to write the remainder of {@code send}. Must be called with the component's queue locked.
+     *
+     * @param unsent Native memory holding the bytes of {@code send} not yet accepted by libnice.
+     * @return true if the send has completed (successfully or not), false if it must wait for writability.
+     */
+    private boolean trySend(int streamId, int componentId, PendingSend send, MemorySegment unsent) {
+        int remaining = send.data.length - send.offset;
+        int sent;
+        try {
+            sent = (NiceBindings.nice_agent_send != null)
+                ? (int) NiceBindings.nice_agent_send.invokeExact(agentHandle, streamId, componentId, remaining, unsent)
+                : -1;
+        } catch (Throwable t) {
+            send.fail(t);
+            return true;
+        }
+
+        if (sent > 0) {
+            PacketCapture capture = this.capture;
+            if (capture != null) {
+                capture.recordSent(streamId, componentId, send.data, send.offset, sent);
+            }
+            send.offset += sent;
+            activity.increment();
+        }
+        if (send.offset >= send.data.length) {
+            send.complete();
+            return true;
+        }
+        // libnice reports would-block and hard errors alike as -1; on a reliable agent it is only
+        // worth waiting for writability while the component is connected.
+        if (sent < 0 && (!reliable || !isConnected(streamId, componentId))) {
+            send.fail(new IllegalStateException(
+                "nice_agent_send failed on stream " + streamId + " component " + componentId));
+            return true;
+        }
+        return false;
+    }
+
+    private boolean isConnected(int streamId, int componentId) {
+        if (NiceBindings.nice_agent_get_component_state == null) return false;
+        try {
+            int state = (int) NiceBindings.nice_agent_get_component_state.invokeExact(agentHandle, streamId, componentId);
+            return state == NiceBindings.NICE_COMPONENT_STATE_CONNECTED || state == NiceBindings.NICE_COMPONENT_STATE_READY;
+        } catch (Throwable t) {
+            LOG.log(Level.ERROR, "isConnected failed", t);
+            return false;
+        }
+    }
+
+    private void onWritable(int streamId, int componentId) {
+        PendingSends pending = pendingSends.get(componentKey(streamId, componentId));
+        if (pending != null) {
+            synchronized (pending) {
+                PendingSend head;
+                while ((head = pending.queue.peek()) != null && trySend(streamId, componentId, head, head.remaining())) {
+                    pending.queue.poll();
+                }
+            }
+        }
+        WritableListener listener = writableListener;
+        if (listener != null) {
+            listener.onWritable(streamId, componentId);
+        }
+    }
+
+    private void failPendingSends() {
+        for (PendingSends pending : pendingSends.values()) {
+            failAll(pending, "NiceAgent closed");
+        }
+    }
+
+    private void failPendingSends(int streamId) {
+        pendingSends.entrySet().removeIf(entry -> {
+            if ((int) (entry.getKey() >>> 32) != streamId) return false;
+            failAll(entry.getValue(), "Stream " + streamId + " removed");
+            return true;
+        });
+    }
+
+    private void failPendingSends(int streamId, int componentId, String reason) {
+        PendingSends pending = pendingSends.get(componentKey(streamId, componentId));
+        if (pending != null) {
+            failAll(pending, reason);
+        }
+    }
+
+    private static void failAll(PendingSends pending, String reason) {
+        synchronized (pending) {
+            PendingSend send;
+            while ((send = pending.queue.poll()) != null) {
+                send.fail(new IllegalStateException(reason));
+            }
+        }
+    }
+
+    /**
+     * Connects one of the shared upcall stubs for {@code signalName}, at most once per agent.
+     */
+    private synchronized void connectInternalSignal(String signalName, MemorySegment stub) {
+        if (agentHandle.equals(MemorySegment.NULL) || connectedSignals.contains(signalName)) return;
+        SIGNAL_TARGETS.compute(agentHandle.address(), (address, ref) -> ref != null && ref.get() == this ? ref : new WeakReference<>(this));
+        connectSignal(signalName, stub, MemorySegment.NULL);
+        connectedSignals.add(signalName);
+    }
+
+    private static NiceAgent signalTarget(MemorySegment agentPtr) {
+        WeakReference<NiceAgent> ref = SIGNAL_TARGETS.get(agentPtr.address());
+        return (ref == null) ? null : ref.get();
+    }
+
+    private static long componentKey(int streamId, int componentId) {
+        return ((long) streamId << 32) | (componentId & 0xFFFFFFFFL);
+    }
+
+    /** Upcall target for "reliable-transport-writable": void (*)(NiceAgent*, guint, guint, gpointer). */
+    private static void onWritableSignal(MemorySegment agentPtr, int streamId, int componentId, MemorySegment data) {
+        NiceAgent agent = signalTarget(agentPtr);
+        if (agent == null) return;
+        try {
+            agent.onWritable(streamId, componentId);
+        } catch (Throwable t) {
+            LOG.log(Level.ERROR, "onWritableSignal failed", t);
+        }
+    }
+
+    /** Upcall target for "candidate-gathering-done": void (*)(NiceAgent*, guint, gpointer). */
+    private static void onGatheringDoneSignal(MemorySegment agentPtr, int streamId, MemorySegment data) {
+        NiceAgent agent = signalTarget(agentPtr);
+        if (agent == null) return;
+        for (NiceAgentListener listener : agent.listeners) {
+            try {
+                listener.onGatheringDone(streamId);
+            } catch (Throwable t) {
+                LOG.log(Level.ERROR, "onGatheringDoneSignal failed", t);
+            }
+        }
+    }
+
+    /** Upcall target for "component-state-changed": void (*)(NiceAgent*, guint, guint, guint, gpointer). */
+    private static void onStateChangedSignal(MemorySegment agentPtr, int streamId, int componentId, int state, MemorySegment data) {
+        NiceAgent agent = signalTarget(agentPtr);
+        if (agent == null) return;
+        if (state == NiceBindings.NICE_COMPONENT_STATE_FAILED) {
+            agent.failPendingSends(streamId, componentId, "Stream " + streamId + " component " + componentId + " failed");
+        }
+        for (NiceAgentListener listener : agent.listeners) {
+            try {
+                listener.onComponentStateChanged(streamId, componentId, state);
+            } catch (Throwable t) {
+                LOG.log(Level.ERROR, "onStateChangedSignal failed", t);
+            }
+        }
+    }
+
+    /** Upcall target for "new-candidate": void (*)(NiceAgent*, guint, guint, gchar*, gpointer). */
+    private static void onNewCandidateSignal(MemorySegment agentPtr, int streamId, int componentId, MemorySegment foundation, MemorySegment data) {
+        NiceAgent agent = signalTarget(agentPtr);
+        if (agent == null) return;
+        agent.invalidateLocalSdp(streamId);
+        if (agent.listeners.isEmpty()) return;
+        String value = foundation.equals(MemorySegment.NULL) ? ""
+            : foundation.reinterpret(NiceBindings.NICE_CANDIDATE_MAX_FOUNDATION).getString(0);
+        for (NiceAgentListener listener : agent.listeners) {
+            try {
+                listener.onNewCandidate(streamId, componentId, value);
+            } catch (Throwable t) {
+                LOG.log(Level.ERROR, "onNewCandidateSignal failed", t);
+            }
+        }
+    }
+
+    /**
+     * Upcall target for "new-selected-pair-full":
+     * void (*)(NiceAgent*, guint, guint, NiceCandidate*, NiceCandidate*, gpointer).
+     */
+    private static void onSelectedPairSignal(MemorySegment agentPtr, int streamId, int componentId,
+                                             MemorySegment localCandidate, MemorySegment remoteCandidate, MemorySegment data) {
+        NiceAgent agent = signalTarget(agentPtr);
+        if (agent == null) return;
+        SessionIndex<?> index = agent.sessionIndex;
+        if (index != null && !remoteCandidate.equals(MemorySegment.NULL)) {
+            try {
+                index.selectedPairChanged(agent, streamId, componentId, remoteAddress(remoteCandidate));
+            } catch (Throwable t) {
+                LOG.log(Level.ERROR, "onSelectedPairSignal failed", t);
+            }
+        }
+        for (NiceAgentListener listener : agent.listeners) {
+            try {
+                listener.onNewSelectedPair(streamId, componentId);
+            } catch (Throwable t) {
+                LOG.log(Level.ERROR, "onSelectedPairSignal failed", t);
+            }
+        }
+    }
+
+    /**
+     * GSourceFunc run on the agent's loop thread by {@link #closeAsync()}.
+     */
+    private static int onStartClose(MemorySegment closeId) {
+        NiceAgent agent = CLOSING.get(closeId.address());
+        if (agent == null) return 0; // G_SOURCE_REMOVE
+        // Locked so a concurrent close() cannot release the agent before the GTask takes its reference.
+        synchronized (agent) {
+            if (CLOSING.containsKey(closeId.address())) {
+                try {
+                    NiceBindings.nice_agent_close_async.invokeExact(agent.agentHandle, Signals.CLOSED, closeId);
+                } catch (Throwable t) {
+                    LOG.log(Level.ERROR, "onStartClose failed", t);
+                    agent.close();
+                }
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * GAsyncReadyCallback for nice_agent_close_async. The GTask holds its own reference to the
+     * agent, so releasing ours here is safe.
+     */
+    private static void onClosed(MemorySegment source, MemorySegment result, MemorySegment closeId) {
+        NiceAgent agent = CLOSING.get(closeId.address());
+        if (agent != null) {
+            agent.close();
+        }
+    }
+
+    /** Lazily creates the upcall stubs shared by all agents, one per signal signature. */
+    private static final class Signals {
+        static final MemorySegment START_CLOSE = upcall("onStartClose",
+            MethodType.methodType(int.class, MemorySegment.class),
+            FunctionDescriptor.of(ValueLayout.JAVA_INT, ValueLayout.ADDRESS));
+        static final MemorySegment CLOSED = upcall("onClosed",
+            MethodType.methodType(void.class, MemorySegment.class, MemorySegment.class, MemorySegment.class),
+            FunctionDescriptor.ofVoid(ValueLayout.ADDRESS, ValueLayout.ADDRESS, ValueLayout.ADDRESS));
+        static final MemorySegment WRITABLE = upcall("onWritableSignal",
+            MethodType.methodType(void.class, MemorySegment.class, int.class, int.class, MemorySegment.class),
+            FunctionDescriptor.ofVoid(ValueLayout.ADDRESS, ValueLayout.JAVA_INT, ValueLayout.JAVA_INT, ValueLayout.ADDRESS));
+        static final MemorySegment GATHERING_DONE = upcall("onGatheringDoneSignal",
+            MethodType.methodType(void.class, MemorySegment.class, int.class, MemorySegment.class),
+            FunctionDescriptor.ofVoid(ValueLayout.ADDRESS, ValueLayout.JAVA_INT, ValueLayout.ADDRESS));
+        static final MemorySegment STATE_CHANGED = upcall("onStateChangedSignal",
+            MethodType.methodType(void.class, MemorySegment.class, int.class, int.class, int.class, MemorySegment.class),
+            FunctionDescriptor.ofVoid(ValueLayout.ADDRESS, ValueLayout.JAVA_INT, ValueLayout.JAVA_INT, ValueLayout.JAVA_INT, ValueLayout.ADDRESS));
+        static final MemorySegment NEW_CANDIDATE = upcall("onNewCandidateSignal",
+            MethodType.methodType(void.class, MemorySegment.class, int.class, int.class, MemorySegment.class, MemorySegment.class),
+            FunctionDescriptor.ofVoid(ValueLayout.ADDRESS, ValueLayout.JAVA_INT, ValueLayout.JAVA_INT, ValueLayout.ADDRESS, ValueLayout.ADDRESS));
+        static final MemorySegment SELECTED_PAIR = upcall("onSelectedPairSignal",
+            MethodType.methodType(void.class, MemorySegment.class, int.class, int.class, MemorySegment.class, MemorySegment.class, MemorySegment.class),
+            FunctionDescriptor.ofVoid(ValueLayout.ADDRESS, ValueLayout.JAVA_INT, ValueLayout.JAVA_INT, ValueLayout.ADDRESS, ValueLayout.ADDRESS, ValueLayout.ADDRESS));
+
+        private static MemorySegment upcall(String method, MethodType type, FunctionDescriptor descriptor) {
+            try {
+                return NiceBindings.upcallStub(MethodHandles.lookup(), NiceAgent.class, method, type, descriptor);
+            } catch (ReflectiveOperationException e) {
+                throw new ExceptionInInitializerError(e);
+            }
+        }
+    }
+
+    /**
+     * Guarded by its component's {@link PendingSends} lock.
+     */
+    private static final class PendingSend {
+        final byte[] data;
+        final CompletableFuture<Integer> future = new CompletableFuture<>();
+        int offset;
+        /** g_malloc'd copy of {@code data} from {@link #base} on, made only once the send has to wait. */
+        private MemorySegment buf;
+        private int base;
+
+        PendingSend(byte[] data) {
+            this.data = data;
+        }
+
+        /**
+         * Copies the unsent bytes to native memory that outlives the caller, for retries on the loop thread.
+         * Uses g_malloc rather than a shared arena, whose close would be a VM-wide handshake per send.
+         *
+         * @return false if the copy could not be made.
+         */
+        boolean retain() {
+            if (buf != null) return true;
+            if (NiceBindings.g_malloc == null) return false;
+            long size = Math.max(data.length - offset, 1);
+            try {
+                buf = ((MemorySegment) NiceBindings.g_malloc.invokeExact(size)).reinterpret(size);
+            } catch (Throwable t) {
+                LOG.log(Level.ERROR, "retain failed", t);
+                return false;
+            }
+            base = offset;
+            MemorySegment.copy(data, offset, buf, ValueLayout.JAVA_BYTE, 0, data.length - offset);
+            return true;
+        }
+
+        /**
+         * @return The part of the native copy not yet accepted by libnice.
+         */
+        MemorySegment remaining() {
+            return buf.asSlice(offset - base);
+        }
+
+        void complete() {
+            release();
+            future.complete(data.length);
+        }
+
+        void fail(Throwable t) {
+            release();
+            future.completeExceptionally(t);
+        }
+
+        private void release() {
+            if (buf != null) {
+                gFree(buf);
+                buf = null;
+            }
+        }
+    }
+
+    private static final class PendingSends {
+        final ArrayDeque<PendingSend> queue = new ArrayDeque<>();
+    }
+
     /**
      * Gets the list of local candidates for a component.
      * 
@@ -291,8 +1572,9 @@ public class NiceAgent implements AutoCloseable {
             while (current != null && !current.equals(MemorySegment.NULL)) {
                 MemorySegment candidatePtr = (MemorySegment) NiceBindings.GSLIST_DATA.get(current.reinterpret(NiceBindings.GSLIST_LAYOUT.byteSize()), 0L);
                 if (candidatePtr != null && !candidatePtr.equals(MemorySegment.NULL)) {
-
-                    candidates.add(new NiceCandidate(candidatePtr.reinterpret(NiceBindings.NICE_CANDIDATE_LAYOUT.byteSize())));
+                    // The list holds copies owned by the caller; free each one once its wrapper is unreachable.
+                    candidates.add(new NiceCandidate(candidatePtr.reinterpret(
+                        NiceBindings.NICE_CANDIDATE_LAYOUT.byteSize(), Arena.ofAuto(), NiceAgent::freeCandidate)));
                 }
                 current = (MemorySegment) NiceBindings.GSLIST_NEXT.get(current.reinterpret(NiceBindings.GSLIST_LAYOUT.byteSize()), 0L);
             }
@@ -302,9 +1584,19 @@ public class NiceAgent implements AutoCloseable {
                 NiceBindings.g_slist_free.invokeExact(listPtr);
             }
         } catch (Throwable t) {
-            t.printStackTrace();
+            LOG.log(Level.ERROR, "getCandidates failed", t);
         }
         return candidates;
     }
+
+    private static void freeCandidate(MemorySegment candidate) {
+        try {
+            if (NiceBindings.nice_candidate_free != null) {
+                NiceBindings.nice_candidate_free.invokeExact(candidate);
+            }
+        } catch (Throwable t) {
+            LOG.log(Level.ERROR, "freeCandidate failed", t);
+        }
+    }
 }
 
@@ -0,0 +1,42 @@
+package io.github.kinsleykajiva.ice;
+
+/**
+ * Receives NiceAgent signals.
+ * Callbacks run on the GLib main loop thread of the agent's context and should return quickly.
+ */
+public interface NiceAgentListener {
+
+    /**
+     * Called on "candidate-gathering-done".
+     *
+     * @param streamId The stream ID.
+     */
+    default void onGatheringDone(int streamId) {}
+
+    /**
+     * Called on "component-state-changed".
+     *
+     * @param streamId The stream ID.
+     * @param componentId The component ID.
+     * @param state The new state (NICE_COMPONENT_STATE_*).
+     */
+    default void onComponentStateChanged(int streamId, int componentId, int state) {}
+
+    /**
+     * Called on "new-candidate".
+     *
+     * @param streamId The stream ID.
+     * @param componentId The component ID.
+     * @param foundation The foundation of the new local candidate.
+     */
+    default void onNewCandidate(int streamId, int componentId, String foundation) {}
+
+    /**
+     * Called on "new-selected-pair-full", including when a component that stays READY switches to
+     * another pair, e.g. after a nomination change or an ICE restart.
+     *
+     * @param streamId The stream ID.
+     * @param componentId The component ID.
+     */
+    default void onNewSelectedPair(int streamId, int componentId) {}
+}
@@ -0,0 +1,262 @@
+package io.github.kinsleykajiva.ice;
+
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ObjIntConsumer;
+
+/**
+ * Keeps agents created, attached to a {@link GLibContext} and gathered ahead of demand, so that
+ * agent creation, stream setup and STUN round trips are off the call setup path.
+ * <p>
+ * {@link #acquire()} hands out the freshest pooled agent with new ICE credentials and refills the
+ * pool in the background. Pooled agents whose candidates are older than the TTL are re-gathered on
+ * a fresh stream. Handed-out agents belong to the caller, who must close them.
+ *
+ * <pre>{@code
+ * try (NiceAgentPool pool = new NiceAgentPool(context, 32, Duration.ofMinutes(2),
+ *         (agent, streamId) -> agent.setStunServer("stun.example.org", 3478))) {
+ *     NiceStream stream = pool.acquire().join();
+ *     String offer = stream.getAgent().generateLocalSdp();
+ * }
+ * }</pre>
+ */
+public class NiceAgentPool implements AutoCloseable {
+    private static final char[] ICE_CHARS =
+        "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+    private static final int UFRAG_LENGTH = 8;
+    private static final int PWD_LENGTH = 24;
+
+    private final GLibContext context;
+    private final int compatibility;
+    private final int components;
+    private final int targetSize;
+    private final long ttlNanos;
+    private final ObjIntConsumer<NiceAgent> configure;
+
+    /** Gathered agents, freshest first. */
+    private final Deque<Entry> idle = new ConcurrentLinkedDeque<>();
+    private final AtomicInteger warming = new AtomicInteger();
+    private final ScheduledExecutorService maintenance;
+    private final SecureRandom random = new SecureRandom();
+    private volatile boolean closed;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder regathers = new LongAdder();
+    private final LongAdder handoutAgeNanos = new LongAdder();
+    private final AtomicLong maxHandoutAgeNanos = new AtomicLong();
+
+    /**
+     * Snapshot of pool metrics.
+     *
+     * @param hits Acquisitions served from the pool.
+     * @param misses Acquisitions that had to create and gather an agent.
+     * @param regathers Pooled agents re-gathered because their candidates passed the TTL.
+     * @param idle Gathered agents ready to hand out.
+     * @param warming Agents currently gathering for the pool.
+     * @param meanHandoutAgeMillis Mean candidate age at hand-out, over hits.
+     * @param maxHandoutAgeMillis Oldest candidate age at hand-out.
+     */
+    public record Stats(long hits, long misses, long regathers, int idle, int warming,
+                        double meanHandoutAgeMillis, double maxHandoutAgeMillis) {}
+
+    /**
+     * Creates an RFC 5245 pool of single-component agents.
+     *
+     * @param context The context pooled agents are attached to. Must be running.
+     * @param targetSize Number of gathered agents to keep ready.
+     * @param candidateTtl Maximum candidate age before a pooled agent is re-gathered.
+     * @param configure Called with each agent and stream before it gathers, e.g. to set STUN/TURN servers.
+     */
+    public NiceAgentPool(GLibContext context, int targetSize, Duration candidateTtl, ObjIntConsumer<NiceAgent> configure) {
+        this(context, NiceBindings.NICE_COMPATIBILITY_RFC5245, 1, targetSize, candidateTtl, configure);
+    }
+
+    /**
+     * @param context The context pooled agents are attached to. Must be running.
+     * @param compatibility The NICE compatibility mode.
+     * @param components Number of components in each pooled stream.
+     * @param targetSize Number of gathered agents to keep ready.
+     * @param candidateTtl Maximum candidate age before a pooled agent is re-gathered.
+     * @param configure Called with each agent and stream before it gathers, e.g. to set STUN/TURN servers.
+     */
+    public NiceAgentPool(GLibContext context, int compatibility, int components, int targetSize,
+                         Duration candidateTtl, ObjIntConsumer<NiceAgent> configure) {
+        if (targetSize < 0 || components < 1 || candidateTtl.isNegative() || candidateTtl.isZero()) {
+            throw new IllegalArgumentException("Invalid pool configuration");
+        }
+        this.context = context;
+        this.compatibility = compatibility;
+        this.components = components;
+        this.targetSize = targetSize;
+        this.ttlNanos = candidateTtl.toNanos();
+        this.configure = configure;
+        this.maintenance = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "NiceAgentPool-maintenance");
+            t.setDaemon(true);
+            return t;
+        });
+        long periodMillis = Math.max(100, candidateTtl.toMillis() / 4);
+        maintenance.execute(this::refill);
+        maintenance.scheduleWithFixedDelay(this::maintain, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Hands out a gathered agent with fresh local credentials. On a hit the future is already complete;
+     * on a miss a new agent is created and the future completes when it has finished gathering.
+     *
+     * @return The stream of the handed-out agent. Its agent belongs to the caller.
+     */
+    public CompletableFuture<NiceStream> acquire() {
+        if (closed) {
+            return CompletableFuture.failedFuture(new IllegalStateException("NiceAgentPool closed"));
+        }
+        CompletableFuture<NiceStream> result;
+        Entry entry = idle.pollFirst();
+        if (entry != null && System.nanoTime() - entry.gatheredNanos <= ttlNanos) {
+            hits.increment();
+            result = CompletableFuture.completedFuture(handOut(entry, true));
+        } else {
+            if (entry != null) {
+                // Freshest entry is stale, so all are; maintenance will re-gather the rest.
+                idle.addFirst(entry);
+            }
+            misses.increment();
+            Entry cold = newEntry();
+            cold.ready.exceptionally(error -> {
+                cold.agent.close();
+                return null;
+            });
+            result = cold.ready.thenApply(e -> handOut(e, false));
+        }
+        maintenance.execute(this::refill);
+        return result;
+    }
+
+    public Stats getStats() {
+        long hitCount = hits.sum();
+        return new Stats(hitCount, misses.sum(), regathers.sum(), idle.size(), warming.get(),
+            hitCount == 0 ? 0 : handoutAgeNanos.sum() / 1e6 / hitCount, maxHandoutAgeNanos.get() / 1e6);
+    }
+
+    private NiceStream handOut(Entry entry, boolean pooled) {
+        entry.agent.removeListener(entry);
+        entry.agent.setLocalCredentials(entry.streamId, randomIceString(UFRAG_LENGTH), randomIceString(PWD_LENGTH));
+        if (pooled) {
+            long age = System.nanoTime() - entry.gatheredNanos;
+            handoutAgeNanos.add(age);
+            maxHandoutAgeNanos.accumulateAndGet(age, Math::max);
+        }
+        return new NiceStream(entry.agent, entry.streamId);
+    }
+
+    private void refill() {
+        while (!closed && idle.size() + warming.get() < targetSize) {
+            warming.incrementAndGet();
+            pool(newEntry());
+        }
+    }
+
+    /**
+     * Re-gathers idle agents past the TTL, then tops the pool up.
+     */
+    private void maintain() {
+        long now = System.nanoTime();
+        for (Entry entry : idle) {
+            if (closed) return;
+            if (now - entry.gatheredNanos > ttlNanos && idle.remove(entry)) {
+                regathers.increment();
+                warming.incrementAndGet();
+                entry.agent.removeStream(entry.streamId);
+                entry.gather();
+                pool(entry);
+            }
+        }
+        refill();
+    }
+
+    /**
+     * Adds {@code entry} to the idle set once it has gathered. Callbacks run on the context's loop thread.
+     */
+    private void pool(Entry entry) {
+        entry.ready.whenComplete((e, error) -> {
+            warming.decrementAndGet();
+            if (error != null || closed) {
+                entry.agent.close();
+            } else {
+                idle.addFirst(entry);
+            }
+        });
+    }
+
+    private Entry newEntry() {
+        Entry entry = new Entry(new NiceAgent(context.getContext(), compatibility));
+        entry.agent.addListener(entry);
+        entry.gather();
+        return entry;
+    }
+
+    private String randomIceString(int length) {
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = ICE_CHARS[random.nextInt(ICE_CHARS.length)];
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Closes all idle agents. Agents still gathering are closed when they finish; handed-out agents are unaffected.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        maintenance.shutdownNow();
+        Entry entry;
+        while ((entry = idle.pollFirst()) != null) {
+            entry.agent.close();
+        }
+    }
+
+    /**
+     * A pooled agent and its current stream.
+     */
+    private final class Entry implements NiceAgentListener {
+        final NiceAgent agent;
+        volatile int streamId;
+        volatile long gatheredNanos;
+        volatile CompletableFuture<Entry> ready;
+
+        Entry(NiceAgent agent) {
+            this.agent = agent;
+        }
+
+        /**
+         * Adds a fresh stream and starts gathering on it.
+         */
+        void gather() {
+            ready = new CompletableFuture<>();
+            streamId = agent.addStream(components);
+            configure.accept(agent, streamId);
+            if (streamId == 0 || !agent.gatherCandidates(streamId)) {
+                ready.completeExceptionally(new IllegalStateException("Failed to start gathering for pooled agent"));
+            }
+        }
+
+        @Override
+        public void onGatheringDone(int streamId) {
+            if (streamId == this.streamId) {
+                gatheredNanos = System.nanoTime();
+                ready.complete(this);
+            }
+        }
+    }
+}
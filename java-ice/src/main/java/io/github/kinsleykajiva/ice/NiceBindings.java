@@ -1,5 +1,6 @@
 package io.github.kinsleykajiva.ice;
 
+import java.lang.System.Logger.Level;
 import java.lang.foreign.Arena;
 import java.lang.foreign.FunctionDescriptor;
 import java.lang.foreign.Linker;
@@ -9,21 +10,100 @@ import java.lang.foreign.StructLayout;
 import java.lang.foreign.SymbolLookup;
 import java.lang.foreign.ValueLayout;
 import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.invoke.VarHandle;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Low-level bindings container.
- * This class will be populated by jextract or manual MethodHandles.
- * It uses Linker.Option.critical for performance-sensitive native calls.
+ * Descriptors are written by hand against the bundled libnice headers and checked against a
+ * jextract-generated reference by the {@code java-ice-jextract} module ({@code mvn -Pjextract verify}).
+ * Linker options come from the {@link #LINKER_OPTIONS} table rather than individual call sites.
  */
 public class NiceBindings {
+    private static final System.Logger LOG = System.getLogger(NiceBindings.class.getName());
+
     private static final Linker LINKER = Linker.nativeLinker();
+
+    /** C {@code long}/{@code gulong}: 64-bit on Linux, 32-bit on Windows. */
+    public static final ValueLayout C_LONG = (ValueLayout) LINKER.canonicalLayouts().get("long");
+
+    /**
+     * Per-function linker options.
+     * Only short calls that never block, never take a contended lock for long and never emit signals
+     * (and therefore never upcall into Java) may be critical. nice_agent_send, SDP and gathering calls
+     * take the agent lock and can emit signals on the calling thread, so they stay regular downcalls.
+     * The stun_* codec calls only touch the buffers they are given (the validater they may call is
+     * libnice's own), which makes them critical too.
+     */
+    private static final Map<String, Linker.Option[]> LINKER_OPTIONS = Map.ofEntries(
+        Map.entry("nice_address_get_port", new Linker.Option[] { Linker.Option.critical(false) }),
+        Map.entry("nice_address_to_string", new Linker.Option[] { Linker.Option.critical(false) }),
+        Map.entry("nice_agent_get_component_state", new Linker.Option[] { Linker.Option.critical(false) }),
+        Map.entry("nice_candidate_free", new Linker.Option[] { Linker.Option.critical(false) }),
+        Map.entry("g_socket_get_fd", new Linker.Option[] { Linker.Option.critical(false) }),
+        Map.entry("g_free", new Linker.Option[] { Linker.Option.critical(false) }),
+        Map.entry("g_malloc", new Linker.Option[] { Linker.Option.critical(false) }),
+        Map.entry("g_slist_free", new Linker.Option[] { Linker.Option.critical(false) }),
+        Map.entry("stun_agent_validate", new Linker.Option[] { Linker.Option.critical(false) }),
+        Map.entry("stun_agent_init_response", new Linker.Option[] { Linker.Option.critical(false) }),
+        Map.entry("stun_agent_init_error", new Linker.Option[] { Linker.Option.critical(false) }),
+        Map.entry("stun_agent_finish_message", new Linker.Option[] { Linker.Option.critical(false) }),
+        Map.entry("stun_agent_build_unknown_attributes_error", new Linker.Option[] { Linker.Option.critical(false) }),
+        Map.entry("stun_agent_forget_transaction", new Linker.Option[] { Linker.Option.critical(false) }),
+        Map.entry("stun_message_append_xor_addr", new Linker.Option[] { Linker.Option.critical(false) }),
+        Map.entry("stun_message_get_class", new Linker.Option[] { Linker.Option.critical(false) }),
+        Map.entry("stun_message_get_method", new Linker.Option[] { Linker.Option.critical(false) }),
+        Map.entry("stun_usage_bind_create", new Linker.Option[] { Linker.Option.critical(false) }),
+        Map.entry("stun_usage_bind_process", new Linker.Option[] { Linker.Option.critical(false) })
+    );
+
+    /** Every descriptor bound by this class, in binding order, for verification against generated bindings. */
+    private static final Map<String, FunctionDescriptor> DESCRIPTORS = new LinkedHashMap<>();
+
+    /** g_object_set(object, name, const char* value, NULL). */
+    public static final FunctionDescriptor G_OBJECT_SET_STRING = FunctionDescriptor.ofVoid(
+        ValueLayout.ADDRESS, ValueLayout.ADDRESS, ValueLayout.ADDRESS, ValueLayout.ADDRESS);
+    /** g_object_set(object, name, value, NULL) for gint, guint and gboolean properties. */
+    public static final FunctionDescriptor G_OBJECT_SET_INT = FunctionDescriptor.ofVoid(
+        ValueLayout.ADDRESS, ValueLayout.ADDRESS, ValueLayout.JAVA_INT, ValueLayout.ADDRESS);
+    /** g_object_set with four int-sized properties, as used for keepalive profiles. */
+    public static final FunctionDescriptor G_OBJECT_SET_INT4 = FunctionDescriptor.ofVoid(
+        ValueLayout.ADDRESS, ValueLayout.ADDRESS, ValueLayout.JAVA_INT, ValueLayout.ADDRESS, ValueLayout.JAVA_INT,
+        ValueLayout.ADDRESS, ValueLayout.JAVA_INT, ValueLayout.ADDRESS, ValueLayout.JAVA_INT, ValueLayout.ADDRESS);
+
+    /**
+     * The variadic g_object_set call shapes in use. Native images only link shapes that are listed
+     * in the reachability metadata, so a new shape belongs here before it is used.
+     */
+    public static final List<FunctionDescriptor> G_OBJECT_SET_SHAPES = List.of(G_OBJECT_SET_STRING, G_OBJECT_SET_INT, G_OBJECT_SET_INT4);
+
+    private static final Map<FunctionDescriptor, MethodHandle> G_OBJECT_SET_HANDLES = new ConcurrentHashMap<>();
+
+    /**
+     * A Java method exposed to native code through {@link #upcallStub}.
+     *
+     * @param owner The class declaring the static target method.
+     * @param method The method name.
+     * @param type The method type.
+     * @param descriptor The native signature.
+     */
+    public record Upcall(Class<?> owner, String method, MethodType type, FunctionDescriptor descriptor) {}
+
+    private static final List<Upcall> UPCALLS = Collections.synchronizedList(new ArrayList<>());
+
     static {
         SymbolLookup lookup = null;
         try {
             lookup = NativeLibraryLoader.loadLibrary("nice");
         } catch (Exception e) {
-            System.err.println("Failed to load libnice using NativeLibraryLoader: " + e.getMessage());
+            LOG.log(Level.DEBUG, "Bundled libnice not loaded, trying the system library: {0}", e.getMessage());
         }
 
         if (lookup == null) {
@@ -31,7 +111,7 @@ public class NiceBindings {
             for (String name : libNames) {
                 try {
                     lookup = SymbolLookup.libraryLookup(name, Arena.global());
-                    System.out.println("libnice loaded as: " + name);
+                    LOG.log(Level.DEBUG, "libnice loaded as: {0}", name);
                     break;
                 } catch (Exception e) {
                     // Try next name
@@ -40,7 +120,7 @@ public class NiceBindings {
         }
 
         if (lookup == null) {
-            System.err.println("Warning: libnice not found in system path or resources.Please review the ReadMe file of this project for instructions on how to provide the native library. Native bindings will not be functional.");
+            LOG.log(Level.WARNING, "libnice not found in system path or resources. Please review the ReadMe file of this project for instructions on how to provide the native library. Native bindings will not be functional.");
         }
 
         final SymbolLookup finalLookup = lookup;
@@ -50,23 +130,23 @@ public class NiceBindings {
             MethodHandle netInit = findHandle(finalLookup, "g_networking_init", FunctionDescriptor.ofVoid());
             if (netInit != null) {
                 netInit.invokeExact();
-                System.out.println("GLib networking initialized.");
+                LOG.log(Level.DEBUG, "GLib networking initialized.");
             }
         } catch (Throwable t) {
-            System.err.println("Warning: Failed to initialize GLib networking.");
+            LOG.log(Level.WARNING, "Failed to initialize GLib networking.", t);
         }
 
         // Function descriptor for nice_agent_send
         FunctionDescriptor descriptor = FunctionDescriptor.of(
-            ValueLayout.JAVA_INT,      // return value (ssize_t)
+            ValueLayout.JAVA_INT,      // return value (gint)
             ValueLayout.ADDRESS,       // NiceAgent* agent
-            ValueLayout.JAVA_INT,      // stream_id
-            ValueLayout.JAVA_INT,      // component_id
-            ValueLayout.JAVA_INT,      // len
+            ValueLayout.JAVA_INT,      // stream_id (guint)
+            ValueLayout.JAVA_INT,      // component_id (guint)
+            ValueLayout.JAVA_INT,      // len (guint)
             ValueLayout.ADDRESS        // buf
         );
 
-        nice_agent_send = findHandle(finalLookup, "nice_agent_send", descriptor, Linker.Option.critical(true));
+        nice_agent_send = findHandle(finalLookup, "nice_agent_send", descriptor);
         nice_agent_generate_local_sdp = findHandle(finalLookup, "nice_agent_generate_local_sdp", 
             FunctionDescriptor.of(ValueLayout.ADDRESS, ValueLayout.ADDRESS));
         nice_agent_parse_remote_sdp = findHandle(finalLookup, "nice_agent_parse_remote_sdp", 
@@ -74,6 +154,8 @@ public class NiceBindings {
         
         nice_agent_new = findHandle(finalLookup, "nice_agent_new",
             FunctionDescriptor.of(ValueLayout.ADDRESS, ValueLayout.ADDRESS, ValueLayout.JAVA_INT));
+        nice_agent_new_reliable = findHandle(finalLookup, "nice_agent_new_reliable",
+            FunctionDescriptor.of(ValueLayout.ADDRESS, ValueLayout.ADDRESS, ValueLayout.JAVA_INT));
         nice_agent_add_stream = findHandle(finalLookup, "nice_agent_add_stream",
             FunctionDescriptor.of(ValueLayout.JAVA_INT, ValueLayout.ADDRESS, ValueLayout.JAVA_INT));
         nice_agent_gather_candidates = findHandle(finalLookup, "nice_agent_gather_candidates",
@@ -89,6 +171,8 @@ public class NiceBindings {
         g_main_context_unref = findHandle(finalLookup, "g_main_context_unref", FunctionDescriptor.ofVoid(ValueLayout.ADDRESS));
         g_main_loop_unref = findHandle(finalLookup, "g_main_loop_unref", FunctionDescriptor.ofVoid(ValueLayout.ADDRESS));
         g_free = findHandle(finalLookup, "g_free", FunctionDescriptor.ofVoid(ValueLayout.ADDRESS));
+        // gpointer g_malloc(gsize n_bytes); aborts instead of returning NULL when out of memory
+        g_malloc = findHandle(finalLookup, "g_malloc", FunctionDescriptor.of(ValueLayout.ADDRESS, ValueLayout.JAVA_LONG));
 
         g_networking_init = findHandle(finalLookup, "g_networking_init", FunctionDescriptor.ofVoid());
         g_object_set = findHandle(finalLookup, "g_object_set", FunctionDescriptor.ofVoid(
@@ -100,14 +184,15 @@ public class NiceBindings {
         g_main_context_push_thread_default = findHandle(finalLookup, "g_main_context_push_thread_default", FunctionDescriptor.ofVoid(ValueLayout.ADDRESS));
         g_main_context_pop_thread_default = findHandle(finalLookup, "g_main_context_pop_thread_default", FunctionDescriptor.ofVoid(ValueLayout.ADDRESS));
         
-        g_signal_connect_data = findHandle(finalLookup, "g_signal_connect_data", FunctionDescriptor.of(ValueLayout.JAVA_LONG, 
+        // gulong return; widened to a Java long so callers can use invokeExact on every platform
+        g_signal_connect_data = asLongReturn(findHandle(finalLookup, "g_signal_connect_data", FunctionDescriptor.of(C_LONG,
             ValueLayout.ADDRESS, // instance
             ValueLayout.ADDRESS, // detailed_signal
             ValueLayout.ADDRESS, // c_handler
             ValueLayout.ADDRESS, // data
             ValueLayout.ADDRESS, // destroy_data
             ValueLayout.JAVA_INT // connect_flags
-        ));
+        )));
 
         nice_agent_attach_recv = findHandle(finalLookup, "nice_agent_attach_recv", FunctionDescriptor.ofVoid(
             ValueLayout.ADDRESS, // agent
@@ -134,30 +219,250 @@ public class NiceBindings {
             FunctionDescriptor.of(ValueLayout.JAVA_INT, ValueLayout.ADDRESS));
 
         g_slist_free = findHandle(finalLookup, "g_slist_free", FunctionDescriptor.ofVoid(ValueLayout.ADDRESS));
+        nice_agent_set_relay_info = findHandle(finalLookup, "nice_agent_set_relay_info", FunctionDescriptor.of(ValueLayout.JAVA_INT,
+            ValueLayout.ADDRESS,  // agent
+            ValueLayout.JAVA_INT, // stream_id
+            ValueLayout.JAVA_INT, // component_id
+            ValueLayout.ADDRESS,  // server_ip
+            ValueLayout.JAVA_INT, // server_port
+            ValueLayout.ADDRESS,  // username
+            ValueLayout.ADDRESS,  // password
+            ValueLayout.JAVA_INT  // NiceRelayType
+        ));
+        nice_candidate_free = findHandle(finalLookup, "nice_candidate_free", FunctionDescriptor.ofVoid(ValueLayout.ADDRESS));
+        nice_address_init = findHandle(finalLookup, "nice_address_init", FunctionDescriptor.ofVoid(ValueLayout.ADDRESS));
+        nice_address_set_from_string = findHandle(finalLookup, "nice_address_set_from_string",
+            FunctionDescriptor.of(ValueLayout.JAVA_INT, ValueLayout.ADDRESS, ValueLayout.ADDRESS));
+        nice_agent_add_local_address = findHandle(finalLookup, "nice_agent_add_local_address",
+            FunctionDescriptor.of(ValueLayout.JAVA_INT, ValueLayout.ADDRESS, ValueLayout.ADDRESS));
+        nice_agent_set_port_range = findHandle(finalLookup, "nice_agent_set_port_range", FunctionDescriptor.ofVoid(
+            ValueLayout.ADDRESS,  // agent
+            ValueLayout.JAVA_INT, // stream_id
+            ValueLayout.JAVA_INT, // component_id
+            ValueLayout.JAVA_INT, // min_port
+            ValueLayout.JAVA_INT  // max_port
+        ));
+        nice_agent_remove_stream = findHandle(finalLookup, "nice_agent_remove_stream",
+            FunctionDescriptor.ofVoid(ValueLayout.ADDRESS, ValueLayout.JAVA_INT));
+        nice_agent_set_local_credentials = findHandle(finalLookup, "nice_agent_set_local_credentials",
+            FunctionDescriptor.of(ValueLayout.JAVA_INT, ValueLayout.ADDRESS, ValueLayout.JAVA_INT, ValueLayout.ADDRESS, ValueLayout.ADDRESS));
+        // gboolean nice_agent_get_local_credentials(NiceAgent*, guint stream_id, gchar** ufrag, gchar** pwd), both g_free'd by the caller
+        nice_agent_get_local_credentials = findHandle(finalLookup, "nice_agent_get_local_credentials",
+            FunctionDescriptor.of(ValueLayout.JAVA_INT, ValueLayout.ADDRESS, ValueLayout.JAVA_INT, ValueLayout.ADDRESS, ValueLayout.ADDRESS));
+        // gboolean nice_agent_restart_stream(NiceAgent*, guint stream_id)
+        nice_agent_restart_stream = findHandle(finalLookup, "nice_agent_restart_stream",
+            FunctionDescriptor.of(ValueLayout.JAVA_INT, ValueLayout.ADDRESS, ValueLayout.JAVA_INT));
+        // void nice_agent_close_async(NiceAgent*, GAsyncReadyCallback, gpointer)
+        nice_agent_close_async = findHandle(finalLookup, "nice_agent_close_async",
+            FunctionDescriptor.ofVoid(ValueLayout.ADDRESS, ValueLayout.ADDRESS, ValueLayout.ADDRESS));
+        // void g_main_context_invoke(GMainContext*, GSourceFunc, gpointer)
+        g_main_context_invoke = findHandle(finalLookup, "g_main_context_invoke",
+            FunctionDescriptor.ofVoid(ValueLayout.ADDRESS, ValueLayout.ADDRESS, ValueLayout.ADDRESS));
+
+        // Manual iteration of a GMainContext, for driving contexts from an external reactor
+        g_main_context_ref = findHandle(finalLookup, "g_main_context_ref", FunctionDescriptor.of(ValueLayout.ADDRESS, ValueLayout.ADDRESS));
+        g_main_context_acquire = findHandle(finalLookup, "g_main_context_acquire", FunctionDescriptor.of(ValueLayout.JAVA_INT, ValueLayout.ADDRESS));
+        g_main_context_release = findHandle(finalLookup, "g_main_context_release", FunctionDescriptor.ofVoid(ValueLayout.ADDRESS));
+        // gboolean g_main_context_prepare(GMainContext*, gint* priority)
+        g_main_context_prepare = findHandle(finalLookup, "g_main_context_prepare",
+            FunctionDescriptor.of(ValueLayout.JAVA_INT, ValueLayout.ADDRESS, ValueLayout.ADDRESS));
+        g_main_context_query = findHandle(finalLookup, "g_main_context_query", FunctionDescriptor.of(ValueLayout.JAVA_INT,
+            ValueLayout.ADDRESS,  // context
+            ValueLayout.JAVA_INT, // max_priority
+            ValueLayout.ADDRESS,  // gint* timeout_
+            ValueLayout.ADDRESS,  // GPollFD* fds
+            ValueLayout.JAVA_INT  // n_fds
+        ));
+        g_main_context_check = findHandle(finalLookup, "g_main_context_check", FunctionDescriptor.of(ValueLayout.JAVA_INT,
+            ValueLayout.ADDRESS,  // context
+            ValueLayout.JAVA_INT, // max_priority
+            ValueLayout.ADDRESS,  // GPollFD* fds
+            ValueLayout.JAVA_INT  // n_fds
+        ));
+        g_main_context_dispatch = findHandle(finalLookup, "g_main_context_dispatch", FunctionDescriptor.ofVoid(ValueLayout.ADDRESS));
+        g_main_context_wakeup = findHandle(finalLookup, "g_main_context_wakeup", FunctionDescriptor.ofVoid(ValueLayout.ADDRESS));
+        // GSocket* (transfer full), NULL for relayed pairs
+        nice_agent_get_selected_socket = findHandle(finalLookup, "nice_agent_get_selected_socket",
+            FunctionDescriptor.of(ValueLayout.ADDRESS, ValueLayout.ADDRESS, ValueLayout.JAVA_INT, ValueLayout.JAVA_INT));
+        // Candidates are returned by reference (transfer none)
+        nice_agent_get_selected_pair = findHandle(finalLookup, "nice_agent_get_selected_pair", FunctionDescriptor.of(ValueLayout.JAVA_INT,
+            ValueLayout.ADDRESS,  // agent
+            ValueLayout.JAVA_INT, // stream_id
+            ValueLayout.JAVA_INT, // component_id
+            ValueLayout.ADDRESS,  // NiceCandidate** local
+            ValueLayout.ADDRESS   // NiceCandidate** remote
+        ));
+        g_socket_get_fd = findHandle(finalLookup, "g_socket_get_fd", FunctionDescriptor.of(ValueLayout.JAVA_INT, ValueLayout.ADDRESS));
+        // gchar* (g_free) nice_agent_generate_local_stream_sdp(NiceAgent*, guint stream_id, gboolean include_non_ice)
+        nice_agent_generate_local_stream_sdp = findHandle(finalLookup, "nice_agent_generate_local_stream_sdp",
+            FunctionDescriptor.of(ValueLayout.ADDRESS, ValueLayout.ADDRESS, ValueLayout.JAVA_INT, ValueLayout.JAVA_INT));
+        // GSList* of NiceCandidate (transfer full); does not apply anything to the agent
+        nice_agent_parse_remote_stream_sdp = findHandle(finalLookup, "nice_agent_parse_remote_stream_sdp", FunctionDescriptor.of(ValueLayout.ADDRESS,
+            ValueLayout.ADDRESS,  // agent
+            ValueLayout.JAVA_INT, // stream_id
+            ValueLayout.ADDRESS,  // sdp
+            ValueLayout.ADDRESS,  // gchar** ufrag
+            ValueLayout.ADDRESS   // gchar** pwd
+        ));
+        nice_agent_set_remote_credentials = findHandle(finalLookup, "nice_agent_set_remote_credentials",
+            FunctionDescriptor.of(ValueLayout.JAVA_INT, ValueLayout.ADDRESS, ValueLayout.JAVA_INT, ValueLayout.ADDRESS, ValueLayout.ADDRESS));
+        nice_agent_set_remote_candidates = findHandle(finalLookup, "nice_agent_set_remote_candidates", FunctionDescriptor.of(ValueLayout.JAVA_INT,
+            ValueLayout.ADDRESS,  // agent
+            ValueLayout.JAVA_INT, // stream_id
+            ValueLayout.JAVA_INT, // component_id
+            ValueLayout.ADDRESS   // const GSList* candidates
+        ));
+        // STUN codec and usages (libnice/stun), exported by libnice itself. StunAgent and StunMessage are
+        // caller-allocated; see STUN_AGENT_LAYOUT and STUN_MESSAGE_LAYOUT.
+        stun_agent_init = findHandle(finalLookup, "stun_agent_init", FunctionDescriptor.ofVoid(
+            ValueLayout.ADDRESS,  // StunAgent*
+            ValueLayout.ADDRESS,  // const uint16_t* known_attributes, 0-terminated
+            ValueLayout.JAVA_INT, // StunCompatibility
+            ValueLayout.JAVA_INT  // StunAgentUsageFlags
+        ));
+        stun_agent_set_software = findHandle(finalLookup, "stun_agent_set_software",
+            FunctionDescriptor.ofVoid(ValueLayout.ADDRESS, ValueLayout.ADDRESS));
+        stun_agent_validate = findHandle(finalLookup, "stun_agent_validate", FunctionDescriptor.of(ValueLayout.JAVA_INT,
+            ValueLayout.ADDRESS,   // agent
+            ValueLayout.ADDRESS,   // StunMessage* (filled in)
+            ValueLayout.ADDRESS,   // const uint8_t* buffer
+            ValueLayout.JAVA_LONG, // buffer_len
+            ValueLayout.ADDRESS,   // StunMessageIntegrityValidate (e.g. STUN_DEFAULT_VALIDATER), or NULL
+            ValueLayout.ADDRESS    // validater data (StunDefaultValidaterData[] ending with a NULL username)
+        ));
+        stun_agent_init_request = findHandle(finalLookup, "stun_agent_init_request", FunctionDescriptor.of(ValueLayout.JAVA_BOOLEAN,
+            ValueLayout.ADDRESS, ValueLayout.ADDRESS, ValueLayout.ADDRESS, ValueLayout.JAVA_LONG, ValueLayout.JAVA_INT));
+        stun_agent_init_response = findHandle(finalLookup, "stun_agent_init_response", FunctionDescriptor.of(ValueLayout.JAVA_BOOLEAN,
+            ValueLayout.ADDRESS,   // agent
+            ValueLayout.ADDRESS,   // response
+            ValueLayout.ADDRESS,   // buffer
+            ValueLayout.JAVA_LONG, // buffer_len
+            ValueLayout.ADDRESS    // const StunMessage* request
+        ));
+        stun_agent_init_error = findHandle(finalLookup, "stun_agent_init_error", FunctionDescriptor.of(ValueLayout.JAVA_BOOLEAN,
+            ValueLayout.ADDRESS, ValueLayout.ADDRESS, ValueLayout.ADDRESS, ValueLayout.JAVA_LONG, ValueLayout.ADDRESS,
+            ValueLayout.JAVA_INT   // StunError
+        ));
+        // Adds MESSAGE-INTEGRITY (with the request's key for responses) and FINGERPRINT as configured; returns the length or 0
+        stun_agent_finish_message = findHandle(finalLookup, "stun_agent_finish_message", FunctionDescriptor.of(ValueLayout.JAVA_LONG,
+            ValueLayout.ADDRESS, ValueLayout.ADDRESS, ValueLayout.ADDRESS, ValueLayout.JAVA_LONG));
+        // Builds and finishes a 420 response listing the request's unknown comprehension-required attributes; returns the length or 0
+        stun_agent_build_unknown_attributes_error = findHandle(finalLookup, "stun_agent_build_unknown_attributes_error",
+            FunctionDescriptor.of(ValueLayout.JAVA_LONG,
+            ValueLayout.ADDRESS, ValueLayout.ADDRESS, ValueLayout.ADDRESS, ValueLayout.JAVA_LONG, ValueLayout.ADDRESS));
+        stun_agent_forget_transaction = findHandle(finalLookup, "stun_agent_forget_transaction",
+            FunctionDescriptor.of(ValueLayout.JAVA_BOOLEAN, ValueLayout.ADDRESS, ValueLayout.ADDRESS));
+        stun_message_append_string = findHandle(finalLookup, "stun_message_append_string", FunctionDescriptor.of(ValueLayout.JAVA_INT,
+            ValueLayout.ADDRESS, ValueLayout.JAVA_INT, ValueLayout.ADDRESS));
+        stun_message_append_xor_addr = findHandle(finalLookup, "stun_message_append_xor_addr", FunctionDescriptor.of(ValueLayout.JAVA_INT,
+            ValueLayout.ADDRESS,  // msg
+            ValueLayout.JAVA_INT, // StunAttribute
+            ValueLayout.ADDRESS,  // const struct sockaddr_storage*
+            ValueLayout.JAVA_INT  // socklen_t
+        ));
+        stun_message_get_class = findHandle(finalLookup, "stun_message_get_class", FunctionDescriptor.of(ValueLayout.JAVA_INT, ValueLayout.ADDRESS));
+        stun_message_get_method = findHandle(finalLookup, "stun_message_get_method", FunctionDescriptor.of(ValueLayout.JAVA_INT, ValueLayout.ADDRESS));
+        stun_usage_bind_create = findHandle(finalLookup, "stun_usage_bind_create", FunctionDescriptor.of(ValueLayout.JAVA_LONG,
+            ValueLayout.ADDRESS, ValueLayout.ADDRESS, ValueLayout.ADDRESS, ValueLayout.JAVA_LONG));
+        stun_usage_bind_process = findHandle(finalLookup, "stun_usage_bind_process", FunctionDescriptor.of(ValueLayout.JAVA_INT,
+            ValueLayout.ADDRESS, // msg
+            ValueLayout.ADDRESS, // struct sockaddr* mapped address (out)
+            ValueLayout.ADDRESS, // socklen_t* (in/out)
+            ValueLayout.ADDRESS, // alternate server (out), may be NULL
+            ValueLayout.ADDRESS  // socklen_t*, may be NULL
+        ));
+        stun_usage_bind_keepalive = findHandle(finalLookup, "stun_usage_bind_keepalive", FunctionDescriptor.of(ValueLayout.JAVA_LONG,
+            ValueLayout.ADDRESS, ValueLayout.ADDRESS, ValueLayout.ADDRESS, ValueLayout.JAVA_LONG));
+        STUN_DEFAULT_VALIDATER = finalLookup == null ? null : finalLookup.find("stun_agent_default_validater").orElse(null);
+        g_timeout_source_new = findHandle(finalLookup, "g_timeout_source_new", FunctionDescriptor.of(ValueLayout.ADDRESS, ValueLayout.JAVA_INT));
+        g_source_set_callback = findHandle(finalLookup, "g_source_set_callback", FunctionDescriptor.ofVoid(
+            ValueLayout.ADDRESS, // source
+            ValueLayout.ADDRESS, // GSourceFunc
+            ValueLayout.ADDRESS, // data
+            ValueLayout.ADDRESS  // GDestroyNotify
+        ));
+        g_source_attach = findHandle(finalLookup, "g_source_attach",
+            FunctionDescriptor.of(ValueLayout.JAVA_INT, ValueLayout.ADDRESS, ValueLayout.ADDRESS));
+        g_source_destroy = findHandle(finalLookup, "g_source_destroy", FunctionDescriptor.ofVoid(ValueLayout.ADDRESS));
+        g_source_unref = findHandle(finalLookup, "g_source_unref", FunctionDescriptor.ofVoid(ValueLayout.ADDRESS));
+        // guint g_log_set_handler(const gchar* log_domain, GLogLevelFlags log_levels, GLogFunc, gpointer user_data)
+        g_log_set_handler = findHandle(finalLookup, "g_log_set_handler", FunctionDescriptor.of(ValueLayout.JAVA_INT,
+            ValueLayout.ADDRESS, ValueLayout.JAVA_INT, ValueLayout.ADDRESS, ValueLayout.ADDRESS));
+        g_log_remove_handler = findHandle(finalLookup, "g_log_remove_handler",
+            FunctionDescriptor.ofVoid(ValueLayout.ADDRESS, ValueLayout.JAVA_INT));
+        // void nice_debug_enable/disable(gboolean with_stun): libnice formats debug messages only while enabled
+        nice_debug_enable = findHandle(finalLookup, "nice_debug_enable", FunctionDescriptor.ofVoid(ValueLayout.JAVA_INT));
+        nice_debug_disable = findHandle(finalLookup, "nice_debug_disable", FunctionDescriptor.ofVoid(ValueLayout.JAVA_INT));
     }
 
 
 
 
+    /**
+     * @return A g_object_set handle for one call shape, bound once per shape; one of {@link #G_OBJECT_SET_SHAPES}.
+     */
     public static MethodHandle g_object_set_handle(FunctionDescriptor desc) {
         if (g_object_set_addr == null) return null;
-        return LINKER.downcallHandle(g_object_set_addr, desc);
+        return G_OBJECT_SET_HANDLES.computeIfAbsent(desc, d -> LINKER.downcallHandle(g_object_set_addr, d));
     }
 
     private static MemorySegment g_object_set_addr = null;
 
-    private static MethodHandle findHandle(SymbolLookup lookup, String name, FunctionDescriptor desc, Linker.Option... options) {
+    /**
+     * @return The descriptors bound so far, keyed by native symbol name.
+     */
+    public static Map<String, FunctionDescriptor> descriptors() {
+        return Collections.unmodifiableMap(DESCRIPTORS);
+    }
+
+    /**
+     * @return The linker options {@code name} is bound with.
+     */
+    public static Linker.Option[] linkerOptions(String name) {
+        return LINKER_OPTIONS.getOrDefault(name, new Linker.Option[0]).clone();
+    }
+
+    /**
+     * Creates a global upcall stub for a static method and records it for {@link #upcalls()}.
+     *
+     * @param lookup A lookup with access to the target, usually the caller's {@code MethodHandles.lookup()}.
+     */
+    public static MemorySegment upcallStub(MethodHandles.Lookup lookup, Class<?> owner, String method, MethodType type,
+                                           FunctionDescriptor descriptor) throws ReflectiveOperationException {
+        MethodHandle target = lookup.findStatic(owner, method, type);
+        UPCALLS.add(new Upcall(owner, method, type, descriptor));
+        return LINKER.upcallStub(target, descriptor, Arena.global());
+    }
+
+    /**
+     * @return The upcall stubs created so far through {@link #upcallStub}.
+     */
+    public static List<Upcall> upcalls() {
+        synchronized (UPCALLS) {
+            return List.copyOf(UPCALLS);
+        }
+    }
+
+    private static MethodHandle findHandle(SymbolLookup lookup, String name, FunctionDescriptor desc) {
+        DESCRIPTORS.putIfAbsent(name, desc);
         if (lookup == null) return null;
         if (name.equals("g_object_set")) {
             g_object_set_addr = lookup.find(name).orElse(null);
         }
+        Linker.Option[] options = LINKER_OPTIONS.getOrDefault(name, new Linker.Option[0]);
         return lookup.find(name).map(addr -> LINKER.downcallHandle(addr, desc, options)).orElse(null);
     }
 
+    private static MethodHandle asLongReturn(MethodHandle handle) {
+        if (handle == null || handle.type().returnType() == long.class) return handle;
+        return MethodHandles.explicitCastArguments(handle, handle.type().changeReturnType(long.class));
+    }
+
     public static final MethodHandle nice_agent_send;
     public static final MethodHandle nice_agent_generate_local_sdp;
     public static final MethodHandle nice_agent_parse_remote_sdp;
     public static final MethodHandle nice_agent_new;
+    public static final MethodHandle nice_agent_new_reliable;
     public static final MethodHandle nice_agent_add_stream;
     public static final MethodHandle nice_agent_gather_candidates;
 
@@ -169,6 +474,7 @@ public class NiceBindings {
     public static final MethodHandle g_main_context_unref;
     public static final MethodHandle g_main_loop_unref;
     public static final MethodHandle g_free;
+    public static final MethodHandle g_malloc;
     public static final MethodHandle g_networking_init;
     public static final MethodHandle g_object_set;
 
@@ -182,6 +488,60 @@ public class NiceBindings {
     public static final MethodHandle nice_address_to_string;
     public static final MethodHandle nice_address_get_port;
     public static final MethodHandle g_slist_free;
+    public static final MethodHandle nice_candidate_free;
+    public static final MethodHandle nice_agent_set_relay_info;
+    public static final MethodHandle nice_address_init;
+    public static final MethodHandle nice_address_set_from_string;
+    public static final MethodHandle nice_agent_add_local_address;
+    public static final MethodHandle nice_agent_set_port_range;
+    public static final MethodHandle nice_agent_remove_stream;
+    public static final MethodHandle nice_agent_set_local_credentials;
+    public static final MethodHandle nice_agent_get_local_credentials;
+    public static final MethodHandle nice_agent_restart_stream;
+    public static final MethodHandle nice_agent_close_async;
+    public static final MethodHandle g_main_context_invoke;
+    public static final MethodHandle g_main_context_ref;
+    public static final MethodHandle g_main_context_acquire;
+    public static final MethodHandle g_main_context_release;
+    public static final MethodHandle g_main_context_prepare;
+    public static final MethodHandle g_main_context_query;
+    public static final MethodHandle g_main_context_check;
+    public static final MethodHandle g_main_context_dispatch;
+    public static final MethodHandle g_main_context_wakeup;
+    public static final MethodHandle nice_agent_get_selected_socket;
+    public static final MethodHandle nice_agent_get_selected_pair;
+    public static final MethodHandle g_socket_get_fd;
+    public static final MethodHandle nice_agent_generate_local_stream_sdp;
+    public static final MethodHandle nice_agent_parse_remote_stream_sdp;
+    public static final MethodHandle nice_agent_set_remote_credentials;
+    public static final MethodHandle nice_agent_set_remote_candidates;
+    public static final MethodHandle stun_agent_init;
+    public static final MethodHandle stun_agent_set_software;
+    public static final MethodHandle stun_agent_validate;
+    public static final MethodHandle stun_agent_init_request;
+    public static final MethodHandle stun_agent_init_response;
+    public static final MethodHandle stun_agent_init_error;
+    public static final MethodHandle stun_agent_finish_message;
+    public static final MethodHandle stun_agent_build_unknown_attributes_error;
+    public static final MethodHandle stun_agent_forget_transaction;
+    public static final MethodHandle stun_message_append_string;
+    public static final MethodHandle stun_message_append_xor_addr;
+    public static final MethodHandle stun_message_get_class;
+    public static final MethodHandle stun_message_get_method;
+    public static final MethodHandle stun_usage_bind_create;
+    public static final MethodHandle stun_usage_bind_process;
+    public static final MethodHandle stun_usage_bind_keepalive;
+    /** Address of stun_agent_default_validater, for passing to stun_agent_validate; null if unavailable. */
+    public static final MemorySegment STUN_DEFAULT_VALIDATER;
+    public static final MethodHandle g_timeout_source_new;
+    public static final MethodHandle g_source_set_callback;
+    public static final MethodHandle g_source_attach;
+    public static final MethodHandle g_source_destroy;
+    public static final MethodHandle g_source_unref;
+    public static final MethodHandle g_log_set_handler;
+    public static final MethodHandle g_log_remove_handler;
+    public static final MethodHandle nice_debug_enable;
+    public static final MethodHandle nice_debug_disable;
 
     // Struct Layouts
     public static final StructLayout GSLIST_LAYOUT = MemoryLayout.structLayout(
@@ -193,14 +553,73 @@ public class NiceBindings {
     public static final VarHandle GSLIST_DATA = GSLIST_LAYOUT.varHandle(MemoryLayout.PathElement.groupElement("data"));
     public static final VarHandle GSLIST_NEXT = GSLIST_LAYOUT.varHandle(MemoryLayout.PathElement.groupElement("next"));
 
+    // GPollFD on Unix; on Windows fd is a 64-bit HANDLE, which the reactor does not support.
+    public static final StructLayout GPOLLFD_LAYOUT = MemoryLayout.structLayout(
+        ValueLayout.JAVA_INT.withName("fd"),
+        ValueLayout.JAVA_SHORT.withName("events"),
+        ValueLayout.JAVA_SHORT.withName("revents")
+    ).withName("GPollFD");
+
     // Simple NiceAddress (opaque for now, but we'll provide helper to stringify)
-    // Sized to match sockaddr_in6 (28 bytes) which is the largest candidate address type.
+    // Union of sockaddr/sockaddr_in/sockaddr_in6: sized to sockaddr_in6 (28 bytes), 4-byte aligned.
     public static final StructLayout NICE_ADDRESS_LAYOUT = MemoryLayout.structLayout(
         MemoryLayout.sequenceLayout(28, ValueLayout.JAVA_BYTE).withName("opaque")
-    ).withName("NiceAddress");
-
+    ).withByteAlignment(4).withName("NiceAddress");
+
+    /** STUN_AGENT_MAX_SAVED_IDS: requests a StunAgent can await responses for at once. */
+    public static final int STUN_AGENT_MAX_SAVED_IDS = 200;
+
+    // StunAgentSavedIds, one per outstanding request
+    private static final StructLayout STUN_SAVED_ID_LAYOUT = MemoryLayout.structLayout(
+        MemoryLayout.sequenceLayout(16, ValueLayout.JAVA_BYTE).withName("id"),
+        ValueLayout.JAVA_INT.withName("method"),
+        MemoryLayout.paddingLayout(4),
+        ValueLayout.ADDRESS.withName("key"),
+        ValueLayout.JAVA_LONG.withName("key_len"),
+        MemoryLayout.sequenceLayout(16, ValueLayout.JAVA_BYTE).withName("long_term_key"),
+        ValueLayout.JAVA_BOOLEAN.withName("long_term_valid"),
+        ValueLayout.JAVA_BOOLEAN.withName("valid"),
+        MemoryLayout.paddingLayout(6)
+    ).withName("StunAgentSavedIds");
+
+    // struct stun_agent_t; only allocated and passed to the stun_agent_* calls
+    public static final StructLayout STUN_AGENT_LAYOUT = MemoryLayout.structLayout(
+        ValueLayout.JAVA_INT.withName("compatibility"),
+        MemoryLayout.paddingLayout(4),
+        MemoryLayout.sequenceLayout(STUN_AGENT_MAX_SAVED_IDS, STUN_SAVED_ID_LAYOUT).withName("sent_ids"),
+        ValueLayout.ADDRESS.withName("known_attributes"),
+        ValueLayout.JAVA_INT.withName("usage_flags"),
+        MemoryLayout.paddingLayout(4),
+        ValueLayout.ADDRESS.withName("software_attribute"),
+        ValueLayout.JAVA_BOOLEAN.withName("ms_ice2_send_legacy_connchecks"),
+        MemoryLayout.paddingLayout(7)
+    ).withName("StunAgent");
+
+    // struct _StunMessage; filled in by stun_agent_validate / stun_agent_init_*
+    public static final StructLayout STUN_MESSAGE_LAYOUT = MemoryLayout.structLayout(
+        ValueLayout.ADDRESS.withName("agent"),
+        ValueLayout.ADDRESS.withName("buffer"),
+        ValueLayout.JAVA_LONG.withName("buffer_len"),
+        ValueLayout.ADDRESS.withName("key"),
+        ValueLayout.JAVA_LONG.withName("key_len"),
+        MemoryLayout.sequenceLayout(16, ValueLayout.JAVA_BYTE).withName("long_term_key"),
+        ValueLayout.JAVA_BOOLEAN.withName("long_term_valid"),
+        MemoryLayout.paddingLayout(7)
+    ).withName("StunMessage");
+
+    // StunDefaultValidaterData; stun_agent_default_validater takes an array ending with a NULL username
+    public static final StructLayout STUN_VALIDATER_DATA_LAYOUT = MemoryLayout.structLayout(
+        ValueLayout.ADDRESS.withName("username"),
+        ValueLayout.JAVA_LONG.withName("username_len"),
+        ValueLayout.ADDRESS.withName("password"),
+        ValueLayout.JAVA_LONG.withName("password_len")
+    ).withName("StunDefaultValidaterData");
 
+    /** NICE_CANDIDATE_MAX_FOUNDATION: 32 characters plus the terminating NUL. */
+    public static final int NICE_CANDIDATE_MAX_FOUNDATION = 33;
 
+    // Mirrors the public struct _NiceCandidate in candidate.h. The trailing TURN fields of the
+    // private NiceCandidateImpl are not part of the ABI and are deliberately not modelled.
     public static final StructLayout NICE_CANDIDATE_LAYOUT = MemoryLayout.structLayout(
         ValueLayout.JAVA_INT.withName("type"),
         ValueLayout.JAVA_INT.withName("transport"),
@@ -209,13 +628,10 @@ public class NiceBindings {
         ValueLayout.JAVA_INT.withName("priority"),
         ValueLayout.JAVA_INT.withName("stream_id"),
         ValueLayout.JAVA_INT.withName("component_id"),
-        MemoryLayout.sequenceLayout(33, ValueLayout.JAVA_BYTE).withName("foundation"),
-        MemoryLayout.paddingLayout(3), // alignment
+        MemoryLayout.sequenceLayout(NICE_CANDIDATE_MAX_FOUNDATION, ValueLayout.JAVA_BYTE).withName("foundation"),
+        MemoryLayout.paddingLayout(3), // pointer alignment
         ValueLayout.ADDRESS.withName("username"),
-        ValueLayout.ADDRESS.withName("password"),
-        NICE_ADDRESS_LAYOUT.withName("turn_addr"),
-        ValueLayout.JAVA_INT.withName("turn_transport"),
-        MemoryLayout.paddingLayout(4) // alignment/extensibility
+        ValueLayout.ADDRESS.withName("password")
     ).withName("NiceCandidate");
 
     // VarHandles for NiceCandidate
@@ -243,10 +659,67 @@ public class NiceBindings {
     public static final int NICE_COMPONENT_STATE_READY = 4;
     public static final int NICE_COMPONENT_STATE_FAILED = 5;
 
+    // Nice candidate types
+    public static final int NICE_CANDIDATE_TYPE_HOST = 0;
+    public static final int NICE_CANDIDATE_TYPE_SERVER_REFLEXIVE = 1;
+    public static final int NICE_CANDIDATE_TYPE_PEER_REFLEXIVE = 2;
+    public static final int NICE_CANDIDATE_TYPE_RELAYED = 3;
+
+    // Nice relay types
+    public static final int NICE_RELAY_TYPE_TURN_UDP = 0;
+    public static final int NICE_RELAY_TYPE_TURN_TCP = 1;
+    public static final int NICE_RELAY_TYPE_TURN_TLS = 2;
+
     // Nice transport types
     public static final int NICE_CANDIDATE_TRANSPORT_UDP = 0;
     public static final int NICE_CANDIDATE_TRANSPORT_TCP_PASSIVE = 1;
     public static final int NICE_CANDIDATE_TRANSPORT_TCP_ACTIVE = 2;
     public static final int NICE_CANDIDATE_TRANSPORT_TCP_SO = 3;
-}
 
+    // StunCompatibility
+    public static final int STUN_COMPATIBILITY_RFC3489 = 0;
+    public static final int STUN_COMPATIBILITY_RFC5389 = 1;
+
+    // StunAgentUsageFlags
+    public static final int STUN_AGENT_USAGE_SHORT_TERM_CREDENTIALS = 1;
+    public static final int STUN_AGENT_USAGE_LONG_TERM_CREDENTIALS = 1 << 1;
+    public static final int STUN_AGENT_USAGE_USE_FINGERPRINT = 1 << 2;
+    public static final int STUN_AGENT_USAGE_ADD_SOFTWARE = 1 << 3;
+    public static final int STUN_AGENT_USAGE_IGNORE_CREDENTIALS = 1 << 4;
+
+    // StunValidationStatus
+    public static final int STUN_VALIDATION_SUCCESS = 0;
+    public static final int STUN_VALIDATION_NOT_STUN = 1;
+    public static final int STUN_VALIDATION_INCOMPLETE_STUN = 2;
+    public static final int STUN_VALIDATION_BAD_REQUEST = 3;
+    public static final int STUN_VALIDATION_UNAUTHORIZED_BAD_REQUEST = 4;
+    public static final int STUN_VALIDATION_UNAUTHORIZED = 5;
+    public static final int STUN_VALIDATION_UNMATCHED_RESPONSE = 6;
+    public static final int STUN_VALIDATION_UNKNOWN_REQUEST_ATTRIBUTE = 7;
+    public static final int STUN_VALIDATION_UNKNOWN_ATTRIBUTE = 8;
+
+    // StunClass and StunMethod
+    public static final int STUN_REQUEST = 0;
+    public static final int STUN_INDICATION = 1;
+    public static final int STUN_RESPONSE = 2;
+    public static final int STUN_ERROR = 3;
+    public static final int STUN_BINDING = 0x001;
+
+    // StunAttribute
+    public static final int STUN_ATTRIBUTE_MAPPED_ADDRESS = 0x0001;
+    public static final int STUN_ATTRIBUTE_USERNAME = 0x0006;
+    public static final int STUN_ATTRIBUTE_MESSAGE_INTEGRITY = 0x0008;
+    public static final int STUN_ATTRIBUTE_ERROR_CODE = 0x0009;
+    public static final int STUN_ATTRIBUTE_UNKNOWN_ATTRIBUTES = 0x000A;
+    public static final int STUN_ATTRIBUTE_XOR_MAPPED_ADDRESS = 0x0020;
+    public static final int STUN_ATTRIBUTE_SOFTWARE = 0x8022;
+    public static final int STUN_ATTRIBUTE_FINGERPRINT = 0x8028;
+
+    // StunError
+    public static final int STUN_ERROR_BAD_REQUEST = 400;
+    public static final int STUN_ERROR_UNAUTHORIZED = 401;
+    public static final int STUN_ERROR_UNKNOWN_ATTRIBUTE = 420;
+
+    public static final int STUN_MESSAGE_RETURN_SUCCESS = 0;
+    public static final int STUN_USAGE_BIND_RETURN_SUCCESS = 0;
+}
@@ -1,5 +1,6 @@
 package io.github.kinsleykajiva.ice;
 
+import java.lang.System.Logger.Level;
 import java.lang.foreign.Arena;
 import java.lang.foreign.MemorySegment;
 
@@ -7,6 +8,8 @@ import java.lang.foreign.MemorySegment;
  * Represents an ICE candidate.
  */
 public class NiceCandidate {
+    private static final System.Logger LOG = System.getLogger(NiceCandidate.class.getName());
+
     private final MemorySegment handle;
 
     public NiceCandidate(MemorySegment handle) {
@@ -15,9 +18,9 @@ public class NiceCandidate {
 
     public String getFoundation() {
         if (handle == null || handle.equals(MemorySegment.NULL)) return "";
-        // Foundation is a fixed-size char array (33 bytes)
-        MemorySegment foundationSlice = handle.asSlice(NiceBindings.NICE_CANDIDATE_LAYOUT.byteOffset(java.lang.foreign.MemoryLayout.PathElement.groupElement("foundation")), 33);
-        return foundationSlice.reinterpret(33).getString(0);
+        // Foundation is a fixed-size char array (NICE_CANDIDATE_MAX_FOUNDATION bytes)
+        MemorySegment foundationSlice = handle.asSlice(NiceBindings.NICE_CANDIDATE_LAYOUT.byteOffset(java.lang.foreign.MemoryLayout.PathElement.groupElement("foundation")), NiceBindings.NICE_CANDIDATE_MAX_FOUNDATION);
+        return foundationSlice.getString(0);
     }
 
     public int getType() {
@@ -41,7 +44,7 @@ public class NiceCandidate {
                 return buf.reinterpret(256).getString(0);
             }
         } catch (Throwable t) {
-            t.printStackTrace();
+            LOG.log(Level.ERROR, "getAddress failed", t);
         }
         return "";
     }
@@ -54,7 +57,7 @@ public class NiceCandidate {
                 return (int) NiceBindings.nice_address_get_port.invokeExact(addrPtr);
             }
         } catch (Throwable t) {
-            t.printStackTrace();
+            LOG.log(Level.ERROR, "getPort failed", t);
         }
         return 0;
     }
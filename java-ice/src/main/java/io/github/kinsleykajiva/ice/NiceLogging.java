@@ -0,0 +1,256 @@
+package io.github.kinsleykajiva.ice;
+
+import java.lang.System.Logger.Level;
+import java.lang.foreign.Arena;
+import java.lang.foreign.FunctionDescriptor;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Routes libnice's GLib log output for the {@value #NICE_DOMAIN} and {@value #STUN_DOMAIN} domains to
+ * the {@link System.Logger}s of the same names.
+ * <p>
+ * Level gating happens natively: each domain's handler is registered only for the GLib levels its logger
+ * has enabled at install time, and libnice's debug output is switched on with {@code nice_debug_enable}
+ * only when a logger has DEBUG enabled, so disabled debug messages are not even formatted. Call
+ * {@link #install()} again after changing logger levels. Messages that reach Java are rate limited per
+ * domain: consecutive duplicates are collapsed into one "repeated N times" line and at most
+ * {@code maxMessagesPerSecond} are logged per second, with a count of the dropped ones.
+ * <p>
+ * The first {@link NiceAgent} installs the bridge with {@link #DEFAULT_MAX_PER_SECOND} unless
+ * {@code -Djavaice.nativeLogging=false} is set. Warnings for levels a logger has disabled still go to
+ * GLib's default handler on stderr, which is also what happens before the bridge is installed.
+ */
+public final class NiceLogging {
+    private static final System.Logger LOG = System.getLogger(NiceLogging.class.getName());
+
+    public static final String NICE_DOMAIN = "libnice";
+    public static final String STUN_DOMAIN = "libnice-stun";
+    public static final int DEFAULT_MAX_PER_SECOND = 100;
+
+    // GLogLevelFlags
+    private static final int G_LOG_FLAG_RECURSION = 1;
+    private static final int G_LOG_FLAG_FATAL = 1 << 1;
+    private static final int G_LOG_LEVEL_ERROR = 1 << 2;
+    private static final int G_LOG_LEVEL_CRITICAL = 1 << 3;
+    private static final int G_LOG_LEVEL_WARNING = 1 << 4;
+    private static final int G_LOG_LEVEL_MESSAGE = 1 << 5;
+    private static final int G_LOG_LEVEL_INFO = 1 << 6;
+    private static final int G_LOG_LEVEL_DEBUG = 1 << 7;
+    private static final int[] G_LOG_LEVELS = {
+        G_LOG_LEVEL_ERROR, G_LOG_LEVEL_CRITICAL, G_LOG_LEVEL_WARNING, G_LOG_LEVEL_MESSAGE, G_LOG_LEVEL_INFO, G_LOG_LEVEL_DEBUG
+    };
+
+    /** Longest message read from native memory; GLib messages are single lines. */
+    private static final int MAX_MESSAGE_BYTES = 64 * 1024;
+
+    private static final Domain[] DOMAINS = { new Domain(NICE_DOMAIN), new Domain(STUN_DOMAIN) };
+    private static final AtomicLong SUPPRESSED = new AtomicLong();
+    private static volatile boolean defaultChecked;
+    private static int maxPerSecond = DEFAULT_MAX_PER_SECOND;
+
+    private static final class Domain {
+        final String name;
+        final System.Logger logger;
+        final MemorySegment cName;
+        int handlerId;
+
+        // Guarded by this
+        long windowStart;
+        int inWindow;
+        long droppedInWindow;
+        String last;
+        Level lastLevel;
+        int repeats;
+
+        Domain(String name) {
+            this.name = name;
+            this.logger = System.getLogger(name);
+            this.cName = Arena.global().allocateFrom(name);
+        }
+    }
+
+    private NiceLogging() {}
+
+    /**
+     * {@link #install(int)} with {@link #DEFAULT_MAX_PER_SECOND}.
+     */
+    public static boolean install() {
+        return install(DEFAULT_MAX_PER_SECOND);
+    }
+
+    /**
+     * Registers (or re-registers, picking up changed logger levels) the handlers for both domains.
+     *
+     * @param maxMessagesPerSecond Messages logged per domain per second before the rest are dropped.
+     * @return false if libnice or GLib's log functions are unavailable.
+     */
+    public static synchronized boolean install(int maxMessagesPerSecond) {
+        if (maxMessagesPerSecond < 1) {
+            throw new IllegalArgumentException("maxMessagesPerSecond must be at least 1");
+        }
+        defaultChecked = true;
+        if (NiceBindings.g_log_set_handler == null || NiceBindings.g_log_remove_handler == null) return false;
+        maxPerSecond = maxMessagesPerSecond;
+        try {
+            removeHandlers();
+            for (int i = 0; i < DOMAINS.length; i++) {
+                Domain domain = DOMAINS[i];
+                int mask = enabledMask(domain.logger);
+                if (mask != 0) {
+                    domain.handlerId = (int) NiceBindings.g_log_set_handler.invokeExact(domain.cName,
+                        mask | G_LOG_FLAG_FATAL | G_LOG_FLAG_RECURSION, Handler.STUB, MemorySegment.ofAddress(i));
+                }
+            }
+            setNativeDebug(DOMAINS[0].logger.isLoggable(Level.DEBUG), DOMAINS[1].logger.isLoggable(Level.DEBUG));
+            return true;
+        } catch (Throwable t) {
+            LOG.log(Level.ERROR, "install failed", t);
+            return false;
+        }
+    }
+
+    /**
+     * Removes the handlers and switches libnice's debug output off.
+     */
+    public static synchronized void uninstall() {
+        defaultChecked = true;
+        try {
+            removeHandlers();
+            setNativeDebug(false, false);
+        } catch (Throwable t) {
+            LOG.log(Level.ERROR, "uninstall failed", t);
+        }
+    }
+
+    /**
+     * @return Messages dropped by the rate limit or collapsed as duplicates since startup.
+     */
+    public static long getSuppressedCount() {
+        return SUPPRESSED.get();
+    }
+
+    /**
+     * Installs the bridge on first use unless {@code javaice.nativeLogging} is {@code false}.
+     */
+    static void installDefault() {
+        if (defaultChecked) return;
+        synchronized (NiceLogging.class) {
+            if (defaultChecked) return;
+            if (!"false".equalsIgnoreCase(System.getProperty("javaice.nativeLogging"))) {
+                install();
+            }
+            defaultChecked = true;
+        }
+    }
+
+    private static void removeHandlers() throws Throwable {
+        for (Domain domain : DOMAINS) {
+            if (domain.handlerId != 0) {
+                NiceBindings.g_log_remove_handler.invokeExact(domain.cName, domain.handlerId);
+                domain.handlerId = 0;
+            }
+        }
+    }
+
+    /**
+     * Sets STUN debug first, since nice_debug_enable/disable(TRUE) switch both, then libnice's own.
+     */
+    private static void setNativeDebug(boolean nice, boolean stun) throws Throwable {
+        if (NiceBindings.nice_debug_enable == null || NiceBindings.nice_debug_disable == null) return;
+        if (stun) {
+            NiceBindings.nice_debug_enable.invokeExact(1);
+        } else {
+            NiceBindings.nice_debug_disable.invokeExact(1);
+        }
+        if (nice) {
+            NiceBindings.nice_debug_enable.invokeExact(0);
+        } else {
+            NiceBindings.nice_debug_disable.invokeExact(0);
+        }
+    }
+
+    private static int enabledMask(System.Logger logger) {
+        int mask = 0;
+        for (int level : G_LOG_LEVELS) {
+            if (logger.isLoggable(toLevel(level))) mask |= level;
+        }
+        return mask;
+    }
+
+    private static Level toLevel(int gLogLevel) {
+        if ((gLogLevel & (G_LOG_LEVEL_ERROR | G_LOG_LEVEL_CRITICAL)) != 0) return Level.ERROR;
+        if ((gLogLevel & G_LOG_LEVEL_WARNING) != 0) return Level.WARNING;
+        if ((gLogLevel & (G_LOG_LEVEL_MESSAGE | G_LOG_LEVEL_INFO)) != 0) return Level.INFO;
+        return Level.DEBUG;
+    }
+
+    // GLogFunc: void (const gchar* log_domain, GLogLevelFlags log_level, const gchar* message, gpointer user_data).
+    // Runs on whichever thread logged, often a GLib loop thread.
+    private static void onLog(MemorySegment logDomain, int logLevel, MemorySegment message, MemorySegment userData) {
+        try {
+            Domain domain = DOMAINS[(int) userData.address()];
+            Level level = toLevel(logLevel);
+            if (!domain.logger.isLoggable(level)) return;
+            String text = message.reinterpret(MAX_MESSAGE_BYTES).getString(0);
+            log(domain, level, text, System.nanoTime());
+        } catch (Throwable t) {
+            // An exception escaping an upcall terminates the JVM
+        }
+    }
+
+    private static void log(Domain domain, Level level, String text, long now) {
+        String repeated = null;
+        Level repeatedLevel = null;
+        String dropped = null;
+        synchronized (domain) {
+            if (text.equals(domain.last) && level == domain.lastLevel) {
+                domain.repeats++;
+                SUPPRESSED.incrementAndGet();
+                return;
+            }
+            if (domain.repeats > 0) {
+                repeated = "Previous message repeated " + domain.repeats + " times";
+                repeatedLevel = domain.lastLevel;
+                domain.repeats = 0;
+            }
+            domain.last = text;
+            domain.lastLevel = level;
+            if (now - domain.windowStart >= 1_000_000_000L) {
+                if (domain.droppedInWindow > 0) {
+                    dropped = domain.droppedInWindow + " " + domain.name + " messages dropped by the rate limit";
+                }
+                domain.windowStart = now;
+                domain.inWindow = 0;
+                domain.droppedInWindow = 0;
+            }
+            if (domain.inWindow >= maxPerSecond) {
+                domain.droppedInWindow++;
+                SUPPRESSED.incrementAndGet();
+                text = null;
+            } else {
+                domain.inWindow++;
+            }
+        }
+        if (repeated != null) domain.logger.log(repeatedLevel, repeated);
+        if (dropped != null) domain.logger.log(Level.WARNING, dropped);
+        if (text != null) domain.logger.log(level, text);
+    }
+
+    private static final class Handler {
+        static final MemorySegment STUB;
+
+        static {
+            try {
+                STUB = NiceBindings.upcallStub(MethodHandles.lookup(), NiceLogging.class, "onLog",
+                    MethodType.methodType(void.class, MemorySegment.class, int.class, MemorySegment.class, MemorySegment.class),
+                    FunctionDescriptor.ofVoid(ValueLayout.ADDRESS, ValueLayout.JAVA_INT, ValueLayout.ADDRESS, ValueLayout.ADDRESS));
+            } catch (ReflectiveOperationException e) {
+                throw new ExceptionInInitializerError(e);
+            }
+        }
+    }
+}
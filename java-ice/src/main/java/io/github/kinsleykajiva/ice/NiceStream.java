@@ -1,21 +1,211 @@
 package io.github.kinsleykajiva.ice;
 
+import java.lang.System.Logger.Level;
+import java.lang.foreign.FunctionDescriptor;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.atomic.AtomicLong;
+
 /**
  * Represents a libnice stream.
+ * <p>
+ * Media streams created with {@link #addMediaStream} negotiate rtcp-mux (RFC 5761): a muxed stream has a
+ * single component carrying RTP and RTCP, which halves its sockets, candidates and connectivity checks
+ * compared with separate RTP and RTCP components.
  */
 public class NiceStream {
+    private static final System.Logger LOG = System.getLogger(NiceStream.class.getName());
+
+    public static final int RTP_COMPONENT = 1;
+    /** The RTCP component of a stream without rtcp-mux. */
+    public static final int RTCP_COMPONENT = 2;
+    static final String RTCP_MUX_ATTRIBUTE = "a=rtcp-mux";
+
+    /** Streams with a {@link MediaReceiver}, keyed by the id passed as the receive callback's user data. */
+    private static final LongIndex<NiceStream> RECEIVERS = new LongIndex<>();
+    private static final AtomicLong NEXT_RECEIVER_ID = new AtomicLong();
+
     private final NiceAgent agent;
     private final int streamId;
+    private final boolean rtcpMux;
+    private volatile MediaReceiver mediaReceiver;
+    private long receiverId;
+
+    /**
+     * Receives the packets of a media stream, split into RTP, RTCP and everything else. Called on the
+     * context's loop thread; {@code buf} is only valid during the call.
+     */
+    public interface MediaReceiver {
+        void onRtp(MemorySegment buf, int len);
+
+        void onRtcp(MemorySegment buf, int len);
+
+        /**
+         * STUN, DTLS and anything else that is not RTP version 2 (RFC 7983).
+         */
+        default void onOther(int componentId, MemorySegment buf, int len) {}
+    }
 
     public NiceStream(NiceAgent agent, int streamId) {
+        this(agent, streamId, false);
+    }
+
+    private NiceStream(NiceAgent agent, int streamId, boolean rtcpMux) {
         this.agent = agent;
         this.streamId = streamId;
+        this.rtcpMux = rtcpMux;
+    }
+
+    /**
+     * Adds a media stream for an offer. With {@code rtcpMux} the stream has one component and its SDP
+     * carries {@code a=rtcp-mux}, so the answerer must support rtcp-mux (as WebRTC endpoints do);
+     * without it, separate RTP and RTCP components are created.
+     *
+     * @return The stream, or null if the stream could not be added.
+     */
+    public static NiceStream addMediaStream(NiceAgent agent, boolean rtcpMux) {
+        int streamId = agent.addStream(rtcpMux ? 1 : 2);
+        return streamId > 0 ? new NiceStream(agent, streamId, rtcpMux) : null;
+    }
+
+    /**
+     * Adds a media stream answering {@code remoteSdp}, the offer's section for this stream: muxed with
+     * one component if the offer has {@code a=rtcp-mux}, otherwise with RTP and RTCP components.
+     *
+     * @return The stream, or null if the stream could not be added.
+     */
+    public static NiceStream addMediaStream(NiceAgent agent, String remoteSdp) {
+        return addMediaStream(agent, hasRtcpMux(remoteSdp));
+    }
+
+    /**
+     * @param sdp A single media section, such as the output of {@link #generateLocalSdp}.
+     * @return true if it contains {@code a=rtcp-mux}.
+     */
+    public static boolean hasRtcpMux(String sdp) {
+        for (int start = 0; start < sdp.length(); ) {
+            int end = sdp.indexOf('\n', start);
+            if (end < 0) end = sdp.length();
+            int lineEnd = end > start && sdp.charAt(end - 1) == '\r' ? end - 1 : end;
+            if (lineEnd - start == RTCP_MUX_ATTRIBUTE.length() && sdp.startsWith(RTCP_MUX_ATTRIBUTE, start)) {
+                return true;
+            }
+            start = end + 1;
+        }
+        return false;
+    }
+
+    /**
+     * Tells RTCP from RTP on a muxed component by the second byte, which is the RTCP packet type
+     * (192-223) or the RTP marker bit and payload type (RFC 5761, section 4).
+     *
+     * @return true for RTCP, false for RTP or anything too short to be either.
+     */
+    public static boolean isRtcp(MemorySegment buf, int len) {
+        if (len < 2) return false;
+        int packetType = buf.get(ValueLayout.JAVA_BYTE, 1) & 0xFF;
+        return packetType >= 192 && packetType <= 223;
+    }
+
+    public static boolean isRtcp(byte[] buf, int offset, int len) {
+        if (len < 2) return false;
+        int packetType = buf[offset + 1] & 0xFF;
+        return packetType >= 192 && packetType <= 223;
+    }
+
+    /**
+     * @return true if the first byte is in the RTP/RTCP range 128-191 (RFC 7983), i.e. not STUN or DTLS.
+     */
+    public static boolean isRtpOrRtcp(MemorySegment buf, int len) {
+        return len > 0 && (buf.get(ValueLayout.JAVA_BYTE, 0) & 0xC0) == 0x80;
     }
 
     public int getStreamId() {
         return streamId;
     }
 
+    public NiceAgent getAgent() {
+        return agent;
+    }
+
+    /**
+     * @return true if RTCP shares the RTP component.
+     */
+    public boolean isRtcpMux() {
+        return rtcpMux;
+    }
+
+    /**
+     * @return The component carrying RTCP: {@link #RTP_COMPONENT} when muxed, else {@link #RTCP_COMPONENT}.
+     */
+    public int getRtcpComponentId() {
+        return rtcpMux ? RTP_COMPONENT : RTCP_COMPONENT;
+    }
+
+    /**
+     * @return The number of components, or 0 if the stream was not added through this agent or was removed.
+     */
+    public int getComponentCount() {
+        return agent.componentCount(streamId);
+    }
+
+    /**
+     * Attaches {@code receiver} to every component of the stream on {@code context}, replacing any other
+     * receiver. Received packets are also passed to the agent's {@link PacketCapture}, if set, and
+     * counted as activity for {@link KeepaliveGovernor}.
+     *
+     * @param context The GLib main context to receive on.
+     */
+    public synchronized void attachMediaReceiver(MemorySegment context, MediaReceiver receiver) {
+        detachMediaReceiver(context);
+        if (receiver == null) return;
+        mediaReceiver = receiver;
+        receiverId = NEXT_RECEIVER_ID.incrementAndGet();
+        RECEIVERS.put(receiverId, this);
+        MemorySegment data = MemorySegment.ofAddress(receiverId);
+        for (int componentId = 1; componentId <= Math.max(1, getComponentCount()); componentId++) {
+            agent.attachReceiver(streamId, componentId, context, Receive.STUB, data);
+        }
+    }
+
+    /**
+     * Detaches the receiver attached with {@link #attachMediaReceiver}, if any.
+     */
+    public synchronized void detachMediaReceiver(MemorySegment context) {
+        if (mediaReceiver == null) return;
+        for (int componentId = 1; componentId <= Math.max(1, getComponentCount()); componentId++) {
+            agent.attachReceiver(streamId, componentId, context, MemorySegment.NULL, MemorySegment.NULL);
+        }
+        RECEIVERS.remove(receiverId, this);
+        mediaReceiver = null;
+    }
+
+    /** NiceAgentRecvFunc: void (*)(NiceAgent*, guint stream_id, guint component_id, guint len, gchar* buf, gpointer data). */
+    private static void onMediaReceive(MemorySegment agentPtr, int streamId, int componentId, int len, MemorySegment buf,
+                                       MemorySegment data) {
+        NiceStream stream = RECEIVERS.get(data.address());
+        if (stream == null) return;
+        MediaReceiver receiver = stream.mediaReceiver;
+        if (receiver == null) return;
+        try {
+            stream.agent.captureReceived(streamId, componentId, buf, len);
+            stream.agent.markActivity();
+            MemorySegment packet = buf.reinterpret(len);
+            if (!isRtpOrRtcp(packet, len)) {
+                receiver.onOther(componentId, packet, len);
+            } else if (componentId == RTCP_COMPONENT || (stream.rtcpMux && isRtcp(packet, len))) {
+                receiver.onRtcp(packet, len);
+            } else {
+                receiver.onRtp(packet, len);
+            }
+        } catch (Throwable t) {
+            LOG.log(Level.ERROR, "onMediaReceive failed", t);
+        }
+    }
+
     /**
      * Gets the current state of a component in the stream.
      * 
@@ -28,11 +218,31 @@ public class NiceStream {
                 return (int) NiceBindings.nice_agent_get_component_state.invokeExact(agent.getHandle(), streamId, componentId);
             }
         } catch (Throwable t) {
-            t.printStackTrace();
+            LOG.log(Level.ERROR, "getComponentState failed", t);
         }
         return 0;
     }
 
+    /**
+     * Restarts ICE on this stream; see {@link NiceAgent#restartStream}.
+     *
+     * @return true if the stream was restarted.
+     */
+    public boolean restart() {
+        return agent.restartStream(streamId);
+    }
+
+    /**
+     * Restricts the local ports of a component's host candidates. Must be called before gathering.
+     *
+     * @param componentId The component ID.
+     * @param minPort The lowest port, inclusive.
+     * @param maxPort The highest port, inclusive.
+     */
+    public void setPortRange(int componentId, int minPort, int maxPort) {
+        agent.setPortRange(streamId, componentId, minPort, maxPort);
+    }
+
     /**
      * Sends data over a component.
      * 
@@ -43,5 +253,69 @@ public class NiceStream {
     public int send(int componentId, byte[] data) {
         return agent.send(streamId, componentId, data);
     }
-}
 
+    /**
+     * Sends all of the data over a component, waiting for writability as needed.
+     *
+     * @param componentId The component ID.
+     * @param data The data to send.
+     * @return A stage completing with the number of bytes sent.
+     */
+    public CompletionStage<Integer> sendFully(int componentId, byte[] data) {
+        return agent.sendFully(streamId, componentId, data);
+    }
+
+    /**
+     * Returns whether the component has no sends waiting for writability.
+     *
+     * @param componentId The component ID.
+     * @return true if the component is writable.
+     */
+    public boolean isWritable(int componentId) {
+        return agent.isWritable(streamId, componentId);
+    }
+
+    /**
+     * Opens a {@link FastPathSender} on a connected component's selected socket.
+     *
+     * @return The sender, or null if no direct socket is available.
+     */
+    public FastPathSender openFastPath(int componentId) {
+        return FastPathSender.open(agent, streamId, componentId);
+    }
+
+    /**
+     * Generates this stream's local SDP, cached until its candidates or credentials change.
+     * Muxed media streams add {@code a=rtcp-mux}.
+     *
+     * @param includeNonIce Whether to include the m=, c= and a=rtcp: lines.
+     * @return The stream's SDP, or "" on error.
+     */
+    public String generateLocalSdp(boolean includeNonIce) {
+        String sdp = agent.generateLocalStreamSdp(streamId, includeNonIce);
+        return rtcpMux && !sdp.isEmpty() ? sdp + RTCP_MUX_ATTRIBUTE + "\n" : sdp;
+    }
+
+    /**
+     * Applies the remote side's SDP for this stream only.
+     *
+     * @return The number of candidates added, or a negative value on error.
+     */
+    public int parseRemoteSdp(String sdp) {
+        return agent.parseRemoteStreamSdp(streamId, sdp);
+    }
+
+    private static final class Receive {
+        static final MemorySegment STUB;
+
+        static {
+            try {
+                STUB = NiceBindings.upcallStub(MethodHandles.lookup(), NiceStream.class, "onMediaReceive",
+                    MethodType.methodType(void.class, MemorySegment.class, int.class, int.class, int.class, MemorySegment.class, MemorySegment.class),
+                    FunctionDescriptor.ofVoid(ValueLayout.ADDRESS, ValueLayout.JAVA_INT, ValueLayout.JAVA_INT, ValueLayout.JAVA_INT, ValueLayout.ADDRESS, ValueLayout.ADDRESS));
+            } catch (ReflectiveOperationException e) {
+                throw new ExceptionInInitializerError(e);
+            }
+        }
+    }
+}
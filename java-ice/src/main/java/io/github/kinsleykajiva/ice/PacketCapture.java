@@ -0,0 +1,203 @@
+package io.github.kinsleykajiva.ice;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.lang.invoke.VarHandle;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+
+/**
+ * Records packet metadata and the first bytes of each packet into a ring of fixed-size slots in a
+ * memory-mapped file, for inspecting a misbehaving session after the fact with
+ * {@link PacketCaptureReader} instead of tcpdump.
+ * <p>
+ * Appends are lock-free: a writer claims the next sequence number with one atomic add, clears the
+ * slot's commit stamp, copies the record in and publishes the stamp with a release store. Once the
+ * ring is full the oldest slots are overwritten. The mapping is shared with the page cache, so the
+ * records survive the process crashing; only the copy itself is on the hot path.
+ * <pre>{@code
+ * PacketCapture capture = PacketCapture.create(Path.of("session-42.cap"), 65536, 96);
+ * agent.setCapture(capture);   // records sends
+ * // in the receive callback:
+ * agent.captureReceived(streamId, componentId, buf, len);
+ * ...
+ * agent.setCapture(null);
+ * capture.close();
+ * }</pre>
+ */
+public final class PacketCapture implements AutoCloseable {
+    static final byte[] MAGIC = "JICECAP1".getBytes(StandardCharsets.US_ASCII);
+    static final int BYTE_ORDER_MARK = 0x01020304;
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 64;
+    static final int SLOT_HEADER_SIZE = 32;
+    public static final int DEFAULT_SNAP_LENGTH = 96;
+    public static final int MAX_SNAP_LENGTH = 65535;
+
+    // File header
+    static final long MAGIC_OFFSET = 0;
+    static final long BYTE_ORDER_OFFSET = 8;
+    static final long VERSION_OFFSET = 12;
+    static final long SLOT_SIZE_OFFSET = 16;
+    static final long SLOT_COUNT_OFFSET = 20;
+    static final long SNAP_LENGTH_OFFSET = 24;
+    static final long CURSOR_OFFSET = 32;
+    static final long CREATED_OFFSET = 40;
+
+    // Slot header; the stamp is the sequence number plus one, 0 while empty or being written
+    static final long STAMP_OFFSET = 0;
+    static final long TIME_OFFSET = 8;
+    static final long STREAM_OFFSET = 16;
+    static final long COMPONENT_OFFSET = 20;
+    static final long LENGTH_OFFSET = 24;
+    static final long CAPTURED_OFFSET = 28;
+    static final long DIRECTION_OFFSET = 30;
+
+    static final byte INBOUND = 1;
+    static final byte OUTBOUND = 2;
+
+    private static final VarHandle LONG = ValueLayout.JAVA_LONG.varHandle();
+
+    private final Path file;
+    private final Arena arena;
+    private final MemorySegment ring;
+    private final int slotCount;
+    private final int slotSize;
+    private final int snapLength;
+    private final long epochNanosAtStart;
+    private final long nanoTimeAtStart;
+    private volatile boolean closed;
+
+    private PacketCapture(Path file, Arena arena, MemorySegment ring, int slotCount, int snapLength) {
+        this.file = file;
+        this.arena = arena;
+        this.ring = ring;
+        this.slotCount = slotCount;
+        this.snapLength = snapLength;
+        this.slotSize = slotSize(snapLength);
+        Instant now = Instant.now();
+        this.nanoTimeAtStart = System.nanoTime();
+        this.epochNanosAtStart = now.getEpochSecond() * 1_000_000_000L + now.getNano();
+    }
+
+    /**
+     * Creates (or truncates) a ring file of {@code 64 + slots * (32 + snapLength rounded up to 8)} bytes
+     * and maps it. All pages are touched here so appends never fault in new file pages.
+     *
+     * @param slots Records kept before the oldest is overwritten.
+     * @param snapLength Bytes of each packet stored; longer packets are truncated but keep their length.
+     */
+    public static PacketCapture create(Path file, int slots, int snapLength) throws IOException {
+        if (slots < 1) {
+            throw new IllegalArgumentException("slots must be at least 1");
+        }
+        if (snapLength < 0 || snapLength > MAX_SNAP_LENGTH) {
+            throw new IllegalArgumentException("snapLength must be between 0 and " + MAX_SNAP_LENGTH);
+        }
+        long size = HEADER_SIZE + (long) slots * slotSize(snapLength);
+        Arena arena = Arena.ofShared();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            MemorySegment ring = channel.map(FileChannel.MapMode.READ_WRITE, 0, size, arena);
+            ring.fill((byte) 0);
+            PacketCapture capture = new PacketCapture(file, arena, ring, slots, snapLength);
+            MemorySegment.copy(MAGIC, 0, ring, ValueLayout.JAVA_BYTE, MAGIC_OFFSET, MAGIC.length);
+            ring.set(ValueLayout.JAVA_INT, BYTE_ORDER_OFFSET, BYTE_ORDER_MARK);
+            ring.set(ValueLayout.JAVA_INT, VERSION_OFFSET, VERSION);
+            ring.set(ValueLayout.JAVA_INT, SLOT_SIZE_OFFSET, capture.slotSize);
+            ring.set(ValueLayout.JAVA_INT, SLOT_COUNT_OFFSET, slots);
+            ring.set(ValueLayout.JAVA_INT, SNAP_LENGTH_OFFSET, snapLength);
+            ring.set(ValueLayout.JAVA_LONG, CREATED_OFFSET, capture.epochNanosAtStart);
+            return capture;
+        } catch (IOException | RuntimeException e) {
+            arena.close();
+            throw e;
+        }
+    }
+
+    static int slotSize(int snapLength) {
+        return SLOT_HEADER_SIZE + ((snapLength + 7) & ~7);
+    }
+
+    /**
+     * Records a packet handed to libnice or the socket.
+     */
+    public void recordSent(int streamId, int componentId, MemorySegment data, int length) {
+        record(OUTBOUND, streamId, componentId, data, 0, length);
+    }
+
+    public void recordSent(int streamId, int componentId, byte[] data, int offset, int length) {
+        record(OUTBOUND, streamId, componentId, MemorySegment.ofArray(data), offset, length);
+    }
+
+    /**
+     * Records a packet delivered to a receive callback. {@code data} may be a zero-length pointer
+     * as passed to upcalls; only the first {@code snapLength} bytes are read.
+     */
+    public void recordReceived(int streamId, int componentId, MemorySegment data, int length) {
+        record(INBOUND, streamId, componentId, data, 0, length);
+    }
+
+    private void record(byte direction, int streamId, int componentId, MemorySegment data, long offset, int length) {
+        if (closed || length < 0) return;
+        int captured = Math.min(length, snapLength);
+        try {
+            append(direction, streamId, componentId, data, offset, length, captured);
+        } catch (IllegalStateException e) {
+            // Closed concurrently; receive callbacks must not throw back into native code
+        }
+    }
+
+    private void append(byte direction, int streamId, int componentId, MemorySegment data, long offset, int length, int captured) {
+        long sequence = (long) LONG.getAndAdd(ring, CURSOR_OFFSET, 1L);
+        long slot = HEADER_SIZE + (sequence % slotCount) * slotSize;
+        LONG.setOpaque(ring, slot + STAMP_OFFSET, 0L);
+        VarHandle.storeStoreFence();
+        ring.set(ValueLayout.JAVA_LONG, slot + TIME_OFFSET, epochNanosAtStart + (System.nanoTime() - nanoTimeAtStart));
+        ring.set(ValueLayout.JAVA_INT, slot + STREAM_OFFSET, streamId);
+        ring.set(ValueLayout.JAVA_INT, slot + COMPONENT_OFFSET, componentId);
+        ring.set(ValueLayout.JAVA_INT, slot + LENGTH_OFFSET, length);
+        ring.set(ValueLayout.JAVA_SHORT, slot + CAPTURED_OFFSET, (short) captured);
+        ring.set(ValueLayout.JAVA_BYTE, slot + DIRECTION_OFFSET, direction);
+        if (captured > 0) {
+            MemorySegment source = data.byteSize() < offset + captured ? data.reinterpret(offset + captured) : data;
+            MemorySegment.copy(source, offset, ring, slot + SLOT_HEADER_SIZE, captured);
+        }
+        LONG.setRelease(ring, slot + STAMP_OFFSET, sequence + 1);
+    }
+
+    /**
+     * @return Records appended so far, including overwritten ones.
+     */
+    public long getRecordCount() {
+        return (long) LONG.getVolatile(ring, CURSOR_OFFSET);
+    }
+
+    public int getSlotCount() {
+        return slotCount;
+    }
+
+    public int getSnapLength() {
+        return snapLength;
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    /**
+     * Stops recording, flushes the mapping to the file and unmaps it. Appends racing with close are dropped.
+     */
+    @Override
+    public synchronized void close() {
+        if (closed) return;
+        closed = true;
+        ring.force();
+        arena.close();
+    }
+}
@@ -0,0 +1,182 @@
+package io.github.kinsleykajiva.ice;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Reads a {@link PacketCapture} ring file offline, or while it is still being written, and exports it
+ * to pcapng for Wireshark.
+ * <p>
+ * Only payload prefixes are captured, so each packet is wrapped in a synthetic IPv4/UDP header: the
+ * local side is 10.0.0.1 and the peer 10.0.0.2, both on port {@code 10000 + 100 * stream + component},
+ * so Wireshark's STUN, DTLS and RTP heuristics apply and each component is its own conversation. The
+ * original length is kept; the direction is in the packet flags.
+ * <p>
+ * Usage: {@code PacketCaptureReader <ring file> <out.pcapng>}
+ */
+public final class PacketCaptureReader {
+
+    /**
+     * One captured packet.
+     *
+     * @param sequence Order in which the packet was recorded.
+     * @param epochNanos Wall-clock capture time.
+     * @param outbound True for sends, false for receives.
+     * @param length Original packet length.
+     * @param data The first {@code min(length, snapLength)} bytes.
+     */
+    public record Packet(long sequence, long epochNanos, boolean outbound, int streamId, int componentId,
+                         int length, byte[] data) {}
+
+    private PacketCaptureReader() {}
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: PacketCaptureReader <ring file> <out.pcapng>");
+            System.exit(2);
+        }
+        List<Packet> packets = read(Path.of(args[0]));
+        exportPcapng(packets, Path.of(args[1]));
+        System.out.println("Exported " + packets.size() + " packets to " + args[1]);
+    }
+
+    /**
+     * @return The committed records still in the ring, oldest first. Slots being written, or
+     * overwritten while they were copied, are skipped.
+     * @throws IOException If the file cannot be read or is not a capture ring.
+     */
+    public static List<Packet> read(Path file) throws IOException {
+        try (Arena arena = Arena.ofConfined(); FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            // Mapped rather than read into an array, so the stamps below observe the writer's stores
+            MemorySegment ring = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size(), arena);
+            if (ring.byteSize() < PacketCapture.HEADER_SIZE
+                    || !Arrays.equals(ring.asSlice(0, PacketCapture.MAGIC.length).toArray(ValueLayout.JAVA_BYTE), PacketCapture.MAGIC)) {
+                throw new IOException(file + " is not a packet capture ring");
+            }
+            ByteOrder order = ring.get(ValueLayout.JAVA_INT.withOrder(ByteOrder.LITTLE_ENDIAN), PacketCapture.BYTE_ORDER_OFFSET)
+                == PacketCapture.BYTE_ORDER_MARK ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN;
+            ValueLayout.OfInt intLayout = ValueLayout.JAVA_INT.withOrder(order);
+            ValueLayout.OfLong longLayout = ValueLayout.JAVA_LONG.withOrder(order);
+            VarHandle stampHandle = longLayout.varHandle();
+            int version = ring.get(intLayout, PacketCapture.VERSION_OFFSET);
+            if (version != PacketCapture.VERSION) {
+                throw new IOException("Unsupported capture ring version " + version);
+            }
+            int slotSize = ring.get(intLayout, PacketCapture.SLOT_SIZE_OFFSET);
+            int slotCount = ring.get(intLayout, PacketCapture.SLOT_COUNT_OFFSET);
+            int snapLength = ring.get(intLayout, PacketCapture.SNAP_LENGTH_OFFSET);
+            if (slotSize != PacketCapture.slotSize(snapLength)
+                    || (long) PacketCapture.HEADER_SIZE + (long) slotSize * slotCount > ring.byteSize()) {
+                throw new IOException(file + " is truncated or corrupt");
+            }
+
+            List<Packet> packets = new ArrayList<>();
+            for (int i = 0; i < slotCount; i++) {
+                long base = PacketCapture.HEADER_SIZE + (long) i * slotSize;
+                // Seqlock read, paired with the writer's clear / storeStoreFence / release of the stamp
+                long stamp = (long) stampHandle.getAcquire(ring, base + PacketCapture.STAMP_OFFSET);
+                if (stamp == 0) continue;
+                int captured = Short.toUnsignedInt(ring.get(ValueLayout.JAVA_SHORT.withOrder(order), base + PacketCapture.CAPTURED_OFFSET));
+                if (captured > snapLength) continue;
+                byte[] data = ring.asSlice(base + PacketCapture.SLOT_HEADER_SIZE, captured).toArray(ValueLayout.JAVA_BYTE);
+                Packet packet = new Packet(stamp - 1,
+                    ring.get(longLayout, base + PacketCapture.TIME_OFFSET),
+                    ring.get(ValueLayout.JAVA_BYTE, base + PacketCapture.DIRECTION_OFFSET) == PacketCapture.OUTBOUND,
+                    ring.get(intLayout, base + PacketCapture.STREAM_OFFSET),
+                    ring.get(intLayout, base + PacketCapture.COMPONENT_OFFSET),
+                    ring.get(intLayout, base + PacketCapture.LENGTH_OFFSET),
+                    data);
+                // Keeps the copies above from being reordered after the second stamp read
+                VarHandle.acquireFence();
+                if ((long) stampHandle.getAcquire(ring, base + PacketCapture.STAMP_OFFSET) != stamp) continue;
+                packets.add(packet);
+            }
+            packets.sort(Comparator.comparingLong(Packet::sequence));
+            return packets;
+        }
+    }
+
+    /**
+     * Writes one pcapng section with a single raw-IP interface at nanosecond resolution.
+     */
+    public static void exportPcapng(List<Packet> packets, Path out) throws IOException {
+        int snapLength = 0;
+        for (Packet packet : packets) {
+            snapLength = Math.max(snapLength, packet.data().length);
+        }
+        try (OutputStream stream = new BufferedOutputStream(Files.newOutputStream(out))) {
+            // Section Header Block
+            ByteBuffer shb = block(28);
+            shb.putInt(0x0A0D0D0A).putInt(28).putInt(0x1A2B3C4D).putShort((short) 1).putShort((short) 0)
+                .putLong(-1).putInt(28);
+            stream.write(shb.array());
+
+            // Interface Description Block: LINKTYPE_RAW, if_tsresol = 10^-9
+            ByteBuffer idb = block(32);
+            idb.putInt(1).putInt(32).putShort((short) 101).putShort((short) 0).putInt(snapLength + 28)
+                .putShort((short) 9).putShort((short) 1).put((byte) 9).put(new byte[3])
+                .putInt(0).putInt(32);
+            stream.write(idb.array());
+
+            for (Packet packet : packets) {
+                stream.write(enhancedPacket(packet));
+            }
+        }
+    }
+
+    private static byte[] enhancedPacket(Packet packet) {
+        int captured = 28 + packet.data().length;
+        int padded = (captured + 3) & ~3;
+        int total = 28 + padded + 12 + 4;
+        ByteBuffer epb = block(total);
+        epb.putInt(6).putInt(total).putInt(0)
+            .putInt((int) (packet.epochNanos() >>> 32)).putInt((int) packet.epochNanos())
+            .putInt(captured).putInt(28 + packet.length());
+
+        int port = 10000 + 100 * packet.streamId() + packet.componentId();
+        byte[] local = {10, 0, 0, 1};
+        byte[] remote = {10, 0, 0, 2};
+        ByteBuffer ip = ByteBuffer.allocate(28).order(ByteOrder.BIG_ENDIAN);
+        ip.put((byte) 0x45).put((byte) 0).putShort((short) Math.min(28 + packet.length(), 0xFFFF))
+            .putShort((short) 0).putShort((short) 0x4000).put((byte) 64).put((byte) 17).putShort((short) 0)
+            .put(packet.outbound() ? local : remote).put(packet.outbound() ? remote : local);
+        ip.putShort(10, ipChecksum(ip.array()));
+        ip.putShort((short) port).putShort((short) port).putShort((short) Math.min(8 + packet.length(), 0xFFFF)).putShort((short) 0);
+        epb.put(ip.array()).put(packet.data()).put(new byte[padded - captured]);
+
+        // epb_flags: inbound = 1, outbound = 2
+        epb.putShort((short) 2).putShort((short) 4).putInt(packet.outbound() ? 2 : 1);
+        epb.putInt(0).putInt(total);
+        return epb.array();
+    }
+
+    private static short ipChecksum(byte[] header) {
+        int sum = 0;
+        for (int i = 0; i < 20; i += 2) {
+            sum += ((header[i] & 0xFF) << 8) | (header[i + 1] & 0xFF);
+        }
+        while ((sum >>> 16) != 0) {
+            sum = (sum & 0xFFFF) + (sum >>> 16);
+        }
+        return (short) ~sum;
+    }
+
+    private static ByteBuffer block(int length) {
+        return ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+    }
+}
@@ -0,0 +1,301 @@
+package io.github.kinsleykajiva.ice;
+
+import java.lang.System.Logger.Level;
+import java.lang.foreign.FunctionDescriptor;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Moves received datagrams off the GLib loop thread onto a pool of workers, so CPU-heavy processing
+ * (decryption, depacketization) of one session does not delay every other component on the context.
+ * <p>
+ * Each attached component is a partition with a bounded queue of preallocated buffers: the receive
+ * callback copies the datagram into the next free buffer and returns. At most one worker drains a
+ * partition at a time, so a component's packets are handled in arrival order, while different
+ * partitions run in parallel. Partitions are scheduled as tasks on a work-stealing
+ * {@link ForkJoinPool} and yield after a batch, so idle workers take over the partitions queued behind
+ * a busy one. A full queue drops the new datagram, as a socket buffer would, and counts it.
+ * <pre>{@code
+ * ReceiveDispatcher dispatcher = new ReceiveDispatcher(8, 256, 1500);
+ * dispatcher.attach(agent, streamId, 1, context.getContext(),
+ *     (s, c, data, len) -> srtp.unprotect(data, len));
+ * ...
+ * dispatcher.close();
+ * }</pre>
+ */
+public final class ReceiveDispatcher implements AutoCloseable {
+    private static final System.Logger LOG = System.getLogger(ReceiveDispatcher.class.getName());
+    /** Datagrams a worker handles from one partition before letting others run. */
+    private static final int BATCH = 32;
+
+    /** Partitions by the id passed as the receive callback's user data. */
+    private static final LongIndex<Partition> PARTITIONS = new LongIndex<>();
+    private static final AtomicLong NEXT_ID = new AtomicLong();
+
+    private final ForkJoinPool pool;
+    private final int queueCapacity;
+    private final int maxDatagramSize;
+    private final Map<PartitionKey, Partition> attached = new ConcurrentHashMap<>();
+    private final LongAdder dispatched = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder oversized = new LongAdder();
+
+    /**
+     * Handles one datagram on a worker thread. {@code data} is reused once the call returns.
+     */
+    @FunctionalInterface
+    public interface Handler {
+        void onPacket(int streamId, int componentId, byte[] data, int length);
+    }
+
+    /**
+     * @param partitions Components attached.
+     * @param dispatched Datagrams handed to handlers.
+     * @param dropped Datagrams dropped because their partition's queue was full.
+     * @param oversized Datagrams longer than {@code maxDatagramSize}, dropped.
+     * @param queued Datagrams waiting across all partitions.
+     */
+    public record Stats(int partitions, long dispatched, long dropped, long oversized, long queued) {}
+
+    private record PartitionKey(NiceAgent agent, int streamId, int componentId) {}
+
+    /**
+     * @param workers Worker threads.
+     * @param queueCapacity Datagrams queued per partition before new ones are dropped.
+     * @param maxDatagramSize Largest datagram kept; each partition preallocates {@code queueCapacity} buffers of this size.
+     */
+    public ReceiveDispatcher(int workers, int queueCapacity, int maxDatagramSize) {
+        if (workers < 1) {
+            throw new IllegalArgumentException("workers must be at least 1");
+        }
+        if (queueCapacity < 1) {
+            throw new IllegalArgumentException("queueCapacity must be at least 1");
+        }
+        if (maxDatagramSize < 1) {
+            throw new IllegalArgumentException("maxDatagramSize must be at least 1");
+        }
+        this.queueCapacity = queueCapacity;
+        this.maxDatagramSize = maxDatagramSize;
+        this.pool = new ForkJoinPool(workers, pool -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            thread.setName("ReceiveDispatcher-" + thread.getPoolIndex());
+            thread.setDaemon(true);
+            return thread;
+        }, null, true);
+    }
+
+    /**
+     * Receives a component through this dispatcher, replacing any receiver attached to it. Received
+     * datagrams are also passed to the agent's {@link PacketCapture}, if set, and counted as activity
+     * for {@link KeepaliveGovernor} before being queued.
+     *
+     * @param context The GLib main context the component receives on.
+     */
+    public void attach(NiceAgent agent, int streamId, int componentId, MemorySegment context, Handler handler) {
+        if (pool.isShutdown()) {
+            throw new IllegalStateException("ReceiveDispatcher is closed");
+        }
+        if (!agent.addReceiveDispatcher(this)) {
+            throw new IllegalStateException("NiceAgent is closed");
+        }
+        Partition partition = new Partition(NEXT_ID.incrementAndGet(), agent, streamId, componentId, context, handler);
+        Partition previous = attached.put(new PartitionKey(agent, streamId, componentId), partition);
+        if (previous != null) {
+            PARTITIONS.remove(previous.id, previous);
+        }
+        PARTITIONS.put(partition.id, partition);
+        agent.attachReceiver(streamId, componentId, context, Receive.STUB, MemorySegment.ofAddress(partition.id));
+        if (agent.isClosed()) {
+            // Closed after registering; its close() may have run before the partition was added
+            agentClosed(agent);
+        }
+    }
+
+    /**
+     * Stops receiving a component. Datagrams already queued are still handled. Partitions of an agent
+     * are detached automatically when it closes.
+     */
+    public void detach(NiceAgent agent, int streamId, int componentId) {
+        Partition partition = attached.remove(new PartitionKey(agent, streamId, componentId));
+        if (partition != null) {
+            agent.attachReceiver(streamId, componentId, partition.context, MemorySegment.NULL, MemorySegment.NULL);
+            PARTITIONS.remove(partition.id, partition);
+        }
+    }
+
+    /**
+     * Called by {@link NiceAgent#close()}: drops the agent's partitions without touching the released agent.
+     */
+    void agentClosed(NiceAgent agent) {
+        attached.entrySet().removeIf(entry -> {
+            if (entry.getKey().agent() != agent) return false;
+            PARTITIONS.remove(entry.getValue().id, entry.getValue());
+            return true;
+        });
+    }
+
+    public Stats getStats() {
+        long queued = 0;
+        for (Partition partition : attached.values()) {
+            queued += partition.tail.get() - partition.head.get();
+        }
+        return new Stats(attached.size(), dispatched.sum(), dropped.sum(), oversized.sum(), queued);
+    }
+
+    /**
+     * Detaches every component and waits up to {@code timeout} for queued datagrams to be handled.
+     *
+     * @return true if the workers finished in time.
+     */
+    public boolean close(Duration timeout) throws InterruptedException {
+        detachAll();
+        pool.shutdown();
+        return pool.awaitTermination(timeout.toNanos(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Detaches every component and stops the workers without waiting for queued datagrams.
+     */
+    @Override
+    public void close() {
+        detachAll();
+        pool.shutdownNow();
+    }
+
+    private void detachAll() {
+        for (PartitionKey key : attached.keySet()) {
+            detach(key.agent(), key.streamId(), key.componentId());
+            key.agent().removeReceiveDispatcher(this);
+        }
+    }
+
+    /**
+     * One component's queue: a single producer (the loop thread) and at most one draining worker.
+     */
+    private final class Partition implements Runnable {
+        final long id;
+        final NiceAgent agent;
+        final int streamId;
+        final int componentId;
+        final MemorySegment context;
+        final Handler handler;
+        final byte[][] buffers;
+        final int[] lengths;
+        /** Next slot to drain, written by the draining worker. */
+        final AtomicLong head = new AtomicLong();
+        /** Next slot to fill, written by the loop thread. */
+        final AtomicLong tail = new AtomicLong();
+        final AtomicBoolean scheduled = new AtomicBoolean();
+
+        Partition(long id, NiceAgent agent, int streamId, int componentId, MemorySegment context, Handler handler) {
+            this.id = id;
+            this.agent = agent;
+            this.streamId = streamId;
+            this.componentId = componentId;
+            this.context = context;
+            this.handler = handler;
+            this.buffers = new byte[queueCapacity][maxDatagramSize];
+            this.lengths = new int[queueCapacity];
+        }
+
+        void offer(MemorySegment buf, int len) {
+            if (len > maxDatagramSize) {
+                oversized.increment();
+                return;
+            }
+            long t = tail.get();
+            if (t - head.getAcquire() >= queueCapacity) {
+                dropped.increment();
+                return;
+            }
+            int slot = (int) (t % queueCapacity);
+            MemorySegment.copy(buf.reinterpret(len), ValueLayout.JAVA_BYTE, 0, buffers[slot], 0, len);
+            lengths[slot] = len;
+            // Volatile store then volatile load, paired with the worker's clear-then-recheck in run(),
+            // so at least one side sees the other's write and the datagram cannot be stranded.
+            tail.set(t + 1);
+            if (!scheduled.get() && scheduled.compareAndSet(false, true) && !reschedule()) {
+                // Closed; the queued datagrams are discarded
+                scheduled.set(false);
+            }
+        }
+
+        /**
+         * @return false if the pool is shut down.
+         */
+        private boolean reschedule() {
+            try {
+                pool.execute(this);
+                return true;
+            } catch (RejectedExecutionException e) {
+                return false;
+            }
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                long h = head.get();
+                for (int n = 0; n < BATCH && h != tail.getAcquire(); n++, h++) {
+                    int slot = (int) (h % queueCapacity);
+                    try {
+                        handler.onPacket(streamId, componentId, buffers[slot], lengths[slot]);
+                    } catch (Throwable t) {
+                        LOG.log(Level.ERROR, "Handler failed", t);
+                    }
+                    head.setRelease(h + 1);
+                    dispatched.increment();
+                }
+                if (h != tail.getAcquire()) {
+                    // More queued: requeue behind other partitions instead of monopolizing this worker,
+                    // or finish here if the dispatcher is closing
+                    if (reschedule()) return;
+                    continue;
+                }
+                scheduled.set(false);
+                // A datagram queued between the last check and clearing the flag would otherwise wait for the next one
+                if (h == tail.get() || !scheduled.compareAndSet(false, true)) return;
+            }
+        }
+    }
+
+    /** NiceAgentRecvFunc: void (*)(NiceAgent*, guint stream_id, guint component_id, guint len, gchar* buf, gpointer data). */
+    private static void onReceive(MemorySegment agentPtr, int streamId, int componentId, int len, MemorySegment buf,
+                                  MemorySegment data) {
+        Partition partition = PARTITIONS.get(data.address());
+        if (partition == null) return;
+        try {
+            partition.agent.captureReceived(streamId, componentId, buf, len);
+            partition.agent.markActivity();
+            partition.offer(buf, len);
+        } catch (Throwable t) {
+            LOG.log(Level.ERROR, "onReceive failed", t);
+        }
+    }
+
+    private static final class Receive {
+        static final MemorySegment STUB;
+
+        static {
+            try {
+                STUB = NiceBindings.upcallStub(MethodHandles.lookup(), ReceiveDispatcher.class, "onReceive",
+                    MethodType.methodType(void.class, MemorySegment.class, int.class, int.class, int.class, MemorySegment.class, MemorySegment.class),
+                    FunctionDescriptor.ofVoid(ValueLayout.ADDRESS, ValueLayout.JAVA_INT, ValueLayout.JAVA_INT, ValueLayout.JAVA_INT, ValueLayout.ADDRESS, ValueLayout.ADDRESS));
+            } catch (ReflectiveOperationException e) {
+                throw new ExceptionInInitializerError(e);
+            }
+        }
+    }
+}
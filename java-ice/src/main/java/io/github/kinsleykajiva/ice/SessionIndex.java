@@ -0,0 +1,442 @@
+package io.github.kinsleykajiva.ice;
+
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Maps incoming events and datagrams back to sessions: by local ufrag (e.g. the first half of a STUN
+ * USERNAME), by the remote address of a component's selected pair, or by agent and stream.
+ * <p>
+ * Registered agents keep the index in sync themselves: streams added or removed through them, local
+ * credentials set with {@link NiceAgent#setLocalCredentials} or generated by libnice, selected pair
+ * changes ("new-selected-pair-full") and {@link NiceAgent#close()} update it. Lookups go through
+ * primitive-keyed tables ({@link LongIndex}) and do not allocate; ufrags and IPv6 addresses are keyed
+ * (like agent and stream) by a 64-bit hash and compared in full on lookup, so a hash collision can only cost a slower lookup,
+ * never a wrong session.
+ * <pre>{@code
+ * SessionIndex<Call> index = new SessionIndex<>();
+ * index.register(agent, call);               // every stream of the agent
+ * ...
+ * SessionIndex.Entry<Call> entry = index.byLocalUfrag(username, 0, colon);
+ * }</pre>
+ *
+ * @param <S> The application's session type.
+ */
+public class SessionIndex<S> {
+    private static final ValueLayout.OfShort NET_SHORT = ValueLayout.JAVA_SHORT_UNALIGNED.withOrder(ByteOrder.BIG_ENDIAN);
+    private static final ValueLayout.OfInt NET_INT = ValueLayout.JAVA_INT_UNALIGNED.withOrder(ByteOrder.BIG_ENDIAN);
+
+    private final Map<NiceAgent, Registration<S>> agents = new ConcurrentHashMap<>();
+    private final LongIndex<Entry<S>> byStream = new LongIndex<>();
+    private final LongIndex<Entry<S>> byUfrag = new LongIndex<>();
+    private final LongIndex<Route<S>> byRemote = new LongIndex<>();
+    /** Entries whose stream key, ufrag or IPv6 hash collided with another entry's; almost always empty. */
+    private final Map<StreamKey, Entry<S>> streamOverflow = new ConcurrentHashMap<>();
+    private final Map<String, Entry<S>> ufragOverflow = new ConcurrentHashMap<>();
+    private final Map<InetSocketAddress, Route<S>> remoteOverflow = new ConcurrentHashMap<>();
+    /** Bits kept of hashed (ufrag, stream and IPv6) keys; all of them outside tests. */
+    private final long keyMask;
+
+    public SessionIndex() {
+        this(-1L);
+    }
+
+    /**
+     * @param keyMask Bits kept of hashed keys; tests pass 0 so that every ufrag, stream and IPv6 key collides.
+     */
+    SessionIndex(long keyMask) {
+        this.keyMask = keyMask;
+    }
+
+    /**
+     * One indexed stream.
+     */
+    public static final class Entry<S> {
+        private final NiceAgent agent;
+        private final long agentAddress;
+        private final int streamId;
+        private final S session;
+        /** Replaced as a whole, so lookups racing with a credential change see one consistent key. */
+        private volatile Ufrag ufrag;
+        private final Map<Integer, Route<S>> routes = new ConcurrentHashMap<>();
+
+        Entry(NiceAgent agent, int streamId, S session) {
+            this.agent = agent;
+            this.agentAddress = agent.getHandle().address();
+            this.streamId = streamId;
+            this.session = session;
+        }
+
+        public NiceAgent agent() {
+            return agent;
+        }
+
+        public int streamId() {
+            return streamId;
+        }
+
+        public S session() {
+            return session;
+        }
+
+        /**
+         * @return The stream's local ufrag as last indexed, or null.
+         */
+        public String localUfrag() {
+            Ufrag current = ufrag;
+            return current == null ? null : current.text();
+        }
+
+        @Override
+        public String toString() {
+            return "SessionIndex.Entry[stream " + streamId + ", ufrag " + localUfrag() + ", " + session + "]";
+        }
+    }
+
+    /** An indexed local ufrag and its UTF-8 bytes, which are never modified. */
+    private record Ufrag(String text, byte[] bytes) {}
+
+    /** A component's selected remote address. */
+    private record Route<S>(Entry<S> entry, int componentId, byte[] address, int port) {}
+
+    private record StreamKey(long agentAddress, int streamId) {}
+
+    private static final class Registration<S> {
+        volatile S session;
+        final Map<Integer, S> streams = new ConcurrentHashMap<>();
+
+        S sessionFor(int streamId) {
+            S stream = streams.get(streamId);
+            return stream != null ? stream : session;
+        }
+    }
+
+    /**
+     * Indexes every current and future stream of {@code agent} under {@code session}.
+     *
+     * @throws IllegalStateException If the agent is registered with another index.
+     */
+    public void register(NiceAgent agent, S session) {
+        register(agent, 0, session);
+    }
+
+    /**
+     * Indexes one stream of {@code agent} under {@code session}, e.g. for agents carrying one
+     * session per stream. Other streams keep the agent-wide session, if any.
+     *
+     * @throws IllegalStateException If the agent is registered with another index.
+     */
+    public void register(NiceAgent agent, int streamId, S session) {
+        if (session == null) {
+            throw new IllegalArgumentException("session must not be null");
+        }
+        agent.attachSessionIndex(this);
+        Registration<S> registration = agents.computeIfAbsent(agent, a -> new Registration<>());
+        if (streamId == 0) {
+            registration.session = session;
+        } else {
+            registration.streams.put(streamId, session);
+        }
+        for (int existing : agent.streamIds()) {
+            if (streamId == 0 || existing == streamId) {
+                streamAdded(agent, existing);
+            }
+        }
+    }
+
+    /**
+     * Removes all of an agent's streams from the index.
+     */
+    public void unregister(NiceAgent agent) {
+        if (agents.remove(agent) == null) return;
+        for (int streamId : agent.streamIds()) {
+            streamRemoved(agent, streamId);
+        }
+        agent.detachSessionIndex(this);
+    }
+
+    /**
+     * @return The entry for a stream, or null.
+     */
+    public Entry<S> byStream(NiceAgent agent, int streamId) {
+        return byStream(agent.getHandle(), streamId);
+    }
+
+    /**
+     * Looks up the agent pointer passed to native callbacks.
+     *
+     * @return The entry for a stream, or null.
+     */
+    public Entry<S> byStream(MemorySegment agentHandle, int streamId) {
+        long address = agentHandle.address();
+        Entry<S> entry = byStream.get(streamKey(address, streamId));
+        if (entry != null && entry.agentAddress == address && entry.streamId == streamId) {
+            return entry;
+        }
+        return streamOverflow.isEmpty() ? null : streamOverflow.get(new StreamKey(address, streamId));
+    }
+
+    public Entry<S> byLocalUfrag(String ufrag) {
+        byte[] bytes = ufrag.getBytes(StandardCharsets.UTF_8);
+        return byLocalUfrag(bytes, 0, bytes.length);
+    }
+
+    /**
+     * @return The entry whose local ufrag equals {@code length} bytes of {@code buf} at {@code offset}, or null.
+     */
+    public Entry<S> byLocalUfrag(byte[] buf, int offset, int length) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < length; i++) {
+            hash = (hash ^ (buf[offset + i] & 0xFF)) * 0x100000001b3L;
+        }
+        Entry<S> entry = byUfrag.get(hash & keyMask);
+        Ufrag ufrag = entry == null ? null : entry.ufrag;
+        if (ufrag != null && Arrays.equals(ufrag.bytes(), 0, ufrag.bytes().length, buf, offset, offset + length)) {
+            return entry;
+        }
+        return ufragOverflow.isEmpty() ? null : ufragOverflow.get(new String(buf, offset, length, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Same as {@link #byLocalUfrag(byte[], int, int)} for native memory, e.g. a buffer passed to a receive callback.
+     */
+    public Entry<S> byLocalUfrag(MemorySegment buf, long offset, int length) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < length; i++) {
+            hash = (hash ^ (buf.get(ValueLayout.JAVA_BYTE, offset + i) & 0xFF)) * 0x100000001b3L;
+        }
+        Entry<S> entry = byUfrag.get(hash & keyMask);
+        Ufrag ufrag = entry == null ? null : entry.ufrag;
+        if (ufrag != null && ufrag.bytes().length == length
+                && MemorySegment.mismatch(MemorySegment.ofArray(ufrag.bytes()), 0, length, buf, offset, offset + length) < 0) {
+            return entry;
+        }
+        if (ufragOverflow.isEmpty()) return null;
+        byte[] bytes = new byte[length];
+        MemorySegment.copy(buf, ValueLayout.JAVA_BYTE, offset, bytes, 0, length);
+        return ufragOverflow.get(new String(bytes, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @param address IPv4 address in host order, e.g. {@code 0x7F000001} for 127.0.0.1.
+     * @return The entry whose selected pair has this remote address, or null.
+     */
+    public Entry<S> bySelectedRemoteIpv4(int address, int port) {
+        Route<S> route = byRemote.get(ipv4Key(address, port));
+        return route != null && route.address.length == 4 ? route.entry : null;
+    }
+
+    public Entry<S> bySelectedRemote(InetSocketAddress remote) {
+        byte[] address = remote.getAddress().getAddress();
+        if (remote.getAddress() instanceof Inet4Address) {
+            return bySelectedRemoteIpv4(MemorySegment.ofArray(address).get(NET_INT, 0), remote.getPort());
+        }
+        Route<S> route = byRemote.get(ipv6Key(MemorySegment.ofArray(address), 0, remote.getPort()));
+        if (route != null && route.port == remote.getPort() && Arrays.equals(route.address, address)) {
+            return route.entry;
+        }
+        route = remoteOverflow.isEmpty() ? null : remoteOverflow.get(remote);
+        return route == null ? null : route.entry;
+    }
+
+    /**
+     * Looks up a {@code struct sockaddr_in} or {@code sockaddr_in6}, e.g. a recvmmsg source address or a NiceAddress.
+     *
+     * @return The entry whose selected pair has this remote address, or null.
+     */
+    public Entry<S> bySelectedRemote(MemorySegment sockaddr) {
+        int family = sockaddr.get(ValueLayout.JAVA_SHORT_UNALIGNED, 0);
+        int port = Short.toUnsignedInt(sockaddr.get(NET_SHORT, 2));
+        if (family == Libc.AF_INET) {
+            return bySelectedRemoteIpv4(sockaddr.get(NET_INT, 4), port);
+        }
+        if (family != Libc.AF_INET6) return null;
+        Route<S> route = byRemote.get(ipv6Key(sockaddr, 8, port));
+        if (route != null && route.port == port && route.address.length == 16
+                && MemorySegment.mismatch(MemorySegment.ofArray(route.address), 0, 16, sockaddr, 8, 24) < 0) {
+            return route.entry;
+        }
+        if (remoteOverflow.isEmpty()) return null;
+        return bySelectedRemote(toSocketAddress(sockaddr));
+    }
+
+    /**
+     * @return Indexed streams.
+     */
+    public int size() {
+        return byStream.size() + streamOverflow.size();
+    }
+
+    // Called by NiceAgent
+
+    void streamAdded(NiceAgent agent, int streamId) {
+        Registration<S> registration = agents.get(agent);
+        if (registration == null) return;
+        S session = registration.sessionFor(streamId);
+        if (session == null) return;
+        Entry<S> entry = new Entry<>(agent, streamId, session);
+        Entry<S> previous = byStream(agent, streamId);
+        if (previous != null) {
+            removeEntry(previous);
+        }
+        long key = streamKey(entry.agentAddress, streamId);
+        Entry<S> displaced = byStream.put(key, entry);
+        if (displaced != null) {
+            // Another stream hashed to the same key; it keeps the table slot
+            byStream.put(key, displaced);
+            streamOverflow.put(new StreamKey(entry.agentAddress, streamId), entry);
+        }
+        credentialsChanged(agent, streamId, agent.getLocalUfrag(streamId));
+        agent.forEachSelectedRemote(streamId, (sockaddr, componentId) -> selectedPairChanged(agent, streamId, componentId, sockaddr));
+    }
+
+    void streamRemoved(NiceAgent agent, int streamId) {
+        Entry<S> entry = byStream(agent, streamId);
+        if (entry != null) {
+            removeEntry(entry);
+        }
+    }
+
+    void agentClosed(NiceAgent agent) {
+        if (agents.remove(agent) == null) return;
+        for (int streamId : agent.streamIds()) {
+            streamRemoved(agent, streamId);
+        }
+    }
+
+    void credentialsChanged(NiceAgent agent, int streamId, String ufrag) {
+        Entry<S> entry = byStream(agent, streamId);
+        if (entry == null) return;
+        synchronized (entry) {
+            unindexUfrag(entry);
+            if (ufrag == null) return;
+            byte[] bytes = ufrag.getBytes(StandardCharsets.UTF_8);
+            entry.ufrag = new Ufrag(ufrag, bytes);
+            long hash = ufragHash(bytes);
+            Entry<S> previous = byUfrag.put(hash, entry);
+            if (previous != null && previous != entry) {
+                if (ufrag.equals(previous.localUfrag())) {
+                    // A stream reusing a live ufrag takes it over, as libnice would see it
+                    return;
+                }
+                byUfrag.put(hash, previous);
+                ufragOverflow.put(ufrag, entry);
+            }
+        }
+    }
+
+    /**
+     * @param sockaddr The remote candidate's NiceAddress ({@code struct sockaddr} union).
+     */
+    void selectedPairChanged(NiceAgent agent, int streamId, int componentId, MemorySegment sockaddr) {
+        Entry<S> entry = byStream(agent, streamId);
+        if (entry == null) return;
+        int family = sockaddr.get(ValueLayout.JAVA_SHORT_UNALIGNED, 0);
+        int port = Short.toUnsignedInt(sockaddr.get(NET_SHORT, 2));
+        byte[] address;
+        long key;
+        if (family == Libc.AF_INET) {
+            address = new byte[4];
+            MemorySegment.copy(sockaddr, ValueLayout.JAVA_BYTE, 4, address, 0, 4);
+            key = ipv4Key(sockaddr.get(NET_INT, 4), port);
+        } else if (family == Libc.AF_INET6) {
+            address = new byte[16];
+            MemorySegment.copy(sockaddr, ValueLayout.JAVA_BYTE, 8, address, 0, 16);
+            key = ipv6Key(sockaddr, 8, port);
+        } else {
+            return;
+        }
+        Route<S> route = new Route<>(entry, componentId, address, port);
+        synchronized (entry) {
+            Route<S> old = entry.routes.put(componentId, route);
+            if (old != null) {
+                unindexRoute(old);
+            }
+            Route<S> previous = byRemote.put(key, route);
+            if (previous != null && previous.entry != entry && !(previous.port == port && Arrays.equals(previous.address, address))) {
+                byRemote.put(key, previous);
+                remoteOverflow.put(toSocketAddress(route), route);
+            }
+        }
+    }
+
+    private void removeEntry(Entry<S> entry) {
+        if (!byStream.remove(streamKey(entry.agentAddress, entry.streamId), entry)) {
+            streamOverflow.remove(new StreamKey(entry.agentAddress, entry.streamId), entry);
+        }
+        synchronized (entry) {
+            unindexUfrag(entry);
+            for (Route<S> route : entry.routes.values()) {
+                unindexRoute(route);
+            }
+            entry.routes.clear();
+        }
+    }
+
+    private void unindexUfrag(Entry<S> entry) {
+        Ufrag ufrag = entry.ufrag;
+        if (ufrag == null) return;
+        byUfrag.remove(ufragHash(ufrag.bytes()), entry);
+        ufragOverflow.remove(ufrag.text(), entry);
+        entry.ufrag = null;
+    }
+
+    private void unindexRoute(Route<S> route) {
+        long key = route.address.length == 4
+            ? ipv4Key(MemorySegment.ofArray(route.address).get(NET_INT, 0), route.port)
+            : ipv6Key(MemorySegment.ofArray(route.address), 0, route.port);
+        if (!byRemote.remove(key, route)) {
+            remoteOverflow.remove(toSocketAddress(route), route);
+        }
+    }
+
+    private long streamKey(long agentAddress, int streamId) {
+        return (agentAddress * 0x9E3779B97F4A7C15L + streamId) & keyMask;
+    }
+
+    private long ufragHash(byte[] bytes) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : bytes) {
+            hash = (hash ^ (b & 0xFF)) * 0x100000001b3L;
+        }
+        return hash & keyMask;
+    }
+
+    private static long ipv4Key(int address, int port) {
+        // IPv4 keys are exact; the top bit keeps them apart from IPv6 hashes
+        return Long.MIN_VALUE | ((address & 0xFFFFFFFFL) << 16) | port;
+    }
+
+    private long ipv6Key(MemorySegment address, long offset, int port) {
+        long hash = address.get(ValueLayout.JAVA_LONG_UNALIGNED, offset) * 0x9E3779B97F4A7C15L
+            ^ address.get(ValueLayout.JAVA_LONG_UNALIGNED, offset + 8);
+        return (hash * 0x9E3779B97F4A7C15L + port) & Long.MAX_VALUE & keyMask;
+    }
+
+    private static InetSocketAddress toSocketAddress(Route<?> route) {
+        try {
+            return new InetSocketAddress(InetAddress.getByAddress(route.address), route.port);
+        } catch (UnknownHostException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static InetSocketAddress toSocketAddress(MemorySegment sockaddr) {
+        byte[] address = new byte[16];
+        MemorySegment.copy(sockaddr, ValueLayout.JAVA_BYTE, 8, address, 0, 16);
+        try {
+            return new InetSocketAddress(InetAddress.getByAddress(address), Short.toUnsignedInt(sockaddr.get(NET_SHORT, 2)));
+        } catch (UnknownHostException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package io.github.kinsleykajiva.ice;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Spreads sessions, each one stream, across a fixed number of agents, each on its own {@link GLibContext}.
+ * <p>
+ * libnice serializes every call on an agent behind the agent mutex, so thousands of streams on one
+ * agent contend on sends; one agent per session multiplies timers and main loops instead. Sessions
+ * are assigned to shards by consistent hashing of their key, so a key always lands on the same shard.
+ * <p>
+ * All streams on a shard share that shard agent's controlling mode and STUN/TURN configuration.
+ */
+public class ShardedSessionManager implements AutoCloseable {
+    private static final int VIRTUAL_NODES_PER_SHARD = 64;
+
+    private final List<Shard> shards = new ArrayList<>();
+    private final NavigableMap<Long, Shard> ring = new TreeMap<>();
+    private final Map<String, Session> sessions = new ConcurrentHashMap<>();
+
+    /**
+     * Per-shard load snapshot.
+     *
+     * @param shard The shard index.
+     * @param streams Streams currently on the shard's agent.
+     * @param sends Calls to {@link #send} routed to the shard.
+     * @param meanSendMicros Mean duration of the native send call, which includes waiting for the agent lock.
+     * @param maxSendMicros Longest native send call observed.
+     */
+    public record ShardLoad(int shard, int streams, long sends, double meanSendMicros, double maxSendMicros) {}
+
+    private record Session(Shard shard, NiceStream stream) {}
+
+    private static final class Shard {
+        final int index;
+        final GLibContext context;
+        final NiceAgent agent;
+        final AtomicInteger streams = new AtomicInteger();
+        final LongAdder sends = new LongAdder();
+        final LongAdder sendNanos = new LongAdder();
+        final AtomicLong maxSendNanos = new AtomicLong();
+
+        Shard(int index, GLibContext context, NiceAgent agent) {
+            this.index = index;
+            this.context = context;
+            this.agent = agent;
+        }
+    }
+
+    /**
+     * Creates the shards, each with a started context and an RFC 5245 agent.
+     *
+     * @param shardCount Number of agents (and main loops) to spread sessions over.
+     * @param configure Called once per shard agent, e.g. to set controlling mode or STUN server.
+     */
+    public ShardedSessionManager(int shardCount, Consumer<NiceAgent> configure) {
+        this(shardCount, NiceBindings.NICE_COMPATIBILITY_RFC5245, configure);
+    }
+
+    public ShardedSessionManager(int shardCount, int compatibility, Consumer<NiceAgent> configure) {
+        if (shardCount < 1) {
+            throw new IllegalArgumentException("shardCount must be at least 1");
+        }
+        for (int i = 0; i < shardCount; i++) {
+            GLibContext context = new GLibContext();
+            context.start();
+            NiceAgent agent = new NiceAgent(context.getContext(), compatibility);
+            configure.accept(agent);
+            Shard shard = new Shard(i, context, agent);
+            shards.add(shard);
+            for (int v = 0; v < VIRTUAL_NODES_PER_SHARD; v++) {
+                ring.put(hash("shard-" + i + "#" + v), shard);
+            }
+        }
+    }
+
+    /**
+     * Adds a stream for a session on the shard its key hashes to.
+     *
+     * @param sessionKey A stable session identifier, e.g. a call ID.
+     * @param nComponents Number of components in the stream.
+     * @return The session's stream, or null if the key is already in use or the stream could not be added.
+     */
+    public NiceStream addSession(String sessionKey, int nComponents) {
+        Shard shard = shardFor(sessionKey);
+        int streamId = shard.agent.addStream(nComponents);
+        if (streamId == 0) return null;
+        Session session = new Session(shard, new NiceStream(shard.agent, streamId));
+        if (sessions.putIfAbsent(sessionKey, session) != null) {
+            shard.agent.removeStream(streamId);
+            return null;
+        }
+        shard.streams.incrementAndGet();
+        return session.stream;
+    }
+
+    /**
+     * @return The session's stream, or null if there is no such session.
+     */
+    public NiceStream getSession(String sessionKey) {
+        Session session = sessions.get(sessionKey);
+        return session == null ? null : session.stream;
+    }
+
+    /**
+     * Removes the session's stream from its shard agent via nice_agent_remove_stream.
+     *
+     * @return true if the session existed.
+     */
+    public boolean removeSession(String sessionKey) {
+        Session session = sessions.remove(sessionKey);
+        if (session == null) return false;
+        session.shard.agent.removeStream(session.stream.getStreamId());
+        session.shard.streams.decrementAndGet();
+        return true;
+    }
+
+    /**
+     * Sends on a session's component, recording the native call time against its shard.
+     *
+     * @return Number of bytes sent, or negative on error or unknown session.
+     */
+    public int send(String sessionKey, int componentId, byte[] data) {
+        Session session = sessions.get(sessionKey);
+        if (session == null) return -1;
+        Shard shard = session.shard;
+        long start = System.nanoTime();
+        int sent = shard.agent.send(session.stream.getStreamId(), componentId, data);
+        long elapsed = System.nanoTime() - start;
+        shard.sends.increment();
+        shard.sendNanos.add(elapsed);
+        shard.maxSendNanos.accumulateAndGet(elapsed, Math::max);
+        return sent;
+    }
+
+    /**
+     * @return The shard index a session key maps to, whether or not the session exists.
+     */
+    public int shardOf(String sessionKey) {
+        return shardFor(sessionKey).index;
+    }
+
+    public int getShardCount() {
+        return shards.size();
+    }
+
+    public int getSessionCount() {
+        return sessions.size();
+    }
+
+    /**
+     * @return The agent of a shard, e.g. to register listeners. Listener callbacks carry stream IDs
+     * of every session on the shard.
+     */
+    public NiceAgent getShardAgent(int shard) {
+        return shards.get(shard).agent;
+    }
+
+    public GLibContext getShardContext(int shard) {
+        return shards.get(shard).context;
+    }
+
+    public List<ShardLoad> getShardLoads() {
+        List<ShardLoad> loads = new ArrayList<>(shards.size());
+        for (Shard shard : shards) {
+            long count = shard.sends.sum();
+            loads.add(new ShardLoad(shard.index, shard.streams.get(), count,
+                count == 0 ? 0 : shard.sendNanos.sum() / 1e3 / count, shard.maxSendNanos.get() / 1e3));
+        }
+        return loads;
+    }
+
+    private Shard shardFor(String sessionKey) {
+        Map.Entry<Long, Shard> entry = ring.ceilingEntry(hash(sessionKey));
+        return (entry != null ? entry : ring.firstEntry()).getValue();
+    }
+
+    /**
+     * 64-bit FNV-1a with a murmur3 finalizer, so similar keys spread evenly around the ring.
+     */
+    private static long hash(String key) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            h ^= b;
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * Closes every shard agent, then its context.
+     */
+    @Override
+    public void close() {
+        sessions.clear();
+        for (Shard shard : shards) {
+            shard.agent.close();
+            shard.context.close();
+        }
+    }
+}
@@ -0,0 +1,319 @@
+package io.github.kinsleykajiva.ice;
+
+import java.lang.System.Logger.Level;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+
+/**
+ * STUN Binding client for health checks and load generation, built on libnice's STUN codec. Sends
+ * Binding requests in batches with {@code sendmmsg} from pooled buffers, matches responses by
+ * transaction ID through the StunAgent, and records round-trip times in a {@link LatencyHistogram}.
+ * <p>
+ * Requests carry FINGERPRINT, and with credentials USERNAME and MESSAGE-INTEGRITY; responses must
+ * carry the same. A prober holds one StunAgent and is used by one thread at a time. Linux only.
+ *
+ * <pre>{@code
+ * try (StunProber prober = StunProber.open(new InetSocketAddress("stun.example.org", 3478))) {
+ *     InetSocketAddress mapped = prober.probe(Duration.ofSeconds(1));
+ * }
+ * }</pre>
+ */
+public class StunProber implements AutoCloseable {
+    private static final System.Logger LOG = System.getLogger(StunProber.class.getName());
+
+    /**
+     * Most requests in flight per batch; the StunAgent remembers at most
+     * {@link NiceBindings#STUN_AGENT_MAX_SAVED_IDS} outstanding transactions.
+     */
+    public static final int MAX_BATCH_SIZE = 128;
+    /** libnice's StunTransactionId: the magic cookie plus the 96-bit transaction ID. */
+    private static final int TRANSACTION_ID_OFFSET = 4;
+    private static final int TRANSACTION_ID_LENGTH = 16;
+    /** The last 8 (random) bytes of the transaction ID, used to match responses to requests. */
+    private static final int TRANSACTION_KEY_OFFSET = 12;
+
+    private final InetSocketAddress server;
+    private final int fd;
+    private final String username;
+    private final Arena arena = Arena.ofShared();
+    private final MemorySegment agent;
+    private final MemorySegment key;
+    private final MemorySegment usernameString;
+    private final MemorySegment requestMessage;
+    private final MemorySegment responseMessage;
+    private final MemorySegment txHeaders;
+    private final MemorySegment rxHeaders;
+    private final MemorySegment txIovecs;
+    private final MemorySegment txBuffers;
+    private final MemorySegment rxBuffers;
+    private final MemorySegment mapped;
+    private final MemorySegment mappedLength;
+    private final MemorySegment pollFd;
+    private final MemorySegment callState;
+    private final long[] pendingIds = new long[MAX_BATCH_SIZE];
+    private final long[] sentNanos = new long[MAX_BATCH_SIZE];
+    private final LatencyHistogram roundTrips = new LatencyHistogram();
+    private long sent;
+    private long answered;
+    private long timedOut;
+    private boolean closed;
+
+    private StunProber(InetSocketAddress server, int fd, String username, String password) throws Throwable {
+        this.server = server;
+        this.fd = fd;
+        this.username = username;
+        int credentials = username != null ? NiceBindings.STUN_AGENT_USAGE_SHORT_TERM_CREDENTIALS
+            : NiceBindings.STUN_AGENT_USAGE_IGNORE_CREDENTIALS;
+        agent = StunSupport.newAgent(arena, NiceBindings.STUN_AGENT_USAGE_USE_FINGERPRINT | credentials);
+        key = password != null ? arena.allocateFrom(ValueLayout.JAVA_BYTE, password.getBytes(StandardCharsets.UTF_8)) : MemorySegment.NULL;
+        usernameString = username != null ? arena.allocateFrom(username) : MemorySegment.NULL;
+        requestMessage = arena.allocate(NiceBindings.STUN_MESSAGE_LAYOUT);
+        responseMessage = arena.allocate(NiceBindings.STUN_MESSAGE_LAYOUT);
+
+        long headerSize = Libc.MMSGHDR_LAYOUT.byteSize();
+        long iovSize = Libc.IOVEC_LAYOUT.byteSize();
+        txHeaders = arena.allocate(headerSize * MAX_BATCH_SIZE, 8);
+        rxHeaders = arena.allocate(headerSize * MAX_BATCH_SIZE, 8);
+        txIovecs = arena.allocate(iovSize * MAX_BATCH_SIZE, 8);
+        MemorySegment rxIovecs = arena.allocate(iovSize * MAX_BATCH_SIZE, 8);
+        txBuffers = arena.allocate((long) StunSupport.MAX_MESSAGE_SIZE * MAX_BATCH_SIZE, 64);
+        rxBuffers = arena.allocate((long) StunSupport.MAX_MESSAGE_SIZE * MAX_BATCH_SIZE, 64);
+        for (int i = 0; i < MAX_BATCH_SIZE; i++) {
+            MemorySegment txIov = txIovecs.asSlice(i * iovSize, iovSize);
+            txIov.set(ValueLayout.ADDRESS, 0, txBuffers.asSlice((long) i * StunSupport.MAX_MESSAGE_SIZE, StunSupport.MAX_MESSAGE_SIZE));
+            txHeaders.set(ValueLayout.ADDRESS, i * headerSize + Libc.MSG_IOV_OFFSET, txIov);
+            txHeaders.set(ValueLayout.JAVA_LONG, i * headerSize + Libc.MSG_IOVLEN_OFFSET, 1L);
+            MemorySegment rxIov = rxIovecs.asSlice(i * iovSize, iovSize);
+            rxIov.set(ValueLayout.ADDRESS, 0, rxBuffers.asSlice((long) i * StunSupport.MAX_MESSAGE_SIZE, StunSupport.MAX_MESSAGE_SIZE));
+            rxIov.set(ValueLayout.JAVA_LONG, ValueLayout.ADDRESS.byteSize(), StunSupport.MAX_MESSAGE_SIZE);
+            rxHeaders.set(ValueLayout.ADDRESS, i * headerSize + Libc.MSG_IOV_OFFSET, rxIov);
+            rxHeaders.set(ValueLayout.JAVA_LONG, i * headerSize + Libc.MSG_IOVLEN_OFFSET, 1L);
+        }
+        mapped = arena.allocate(Libc.SOCKADDR_STORAGE_SIZE, 8);
+        mappedLength = arena.allocate(ValueLayout.JAVA_INT);
+        pollFd = arena.allocate(NiceBindings.GPOLLFD_LAYOUT);
+        pollFd.set(ValueLayout.JAVA_INT, 0, fd);
+        pollFd.set(ValueLayout.JAVA_SHORT, 4, (short) Libc.POLLIN);
+        callState = arena.allocate(Libc.CAPTURE_STATE_LAYOUT);
+    }
+
+    /**
+     * Opens an unauthenticated prober.
+     *
+     * @return The prober, or null if the STUN bindings are unavailable, the platform is not Linux or the socket failed.
+     */
+    public static StunProber open(InetSocketAddress server) {
+        return open(server, null, null);
+    }
+
+    /**
+     * @param username Short-term credential username, or null for none.
+     * @param password Short-term credential password.
+     * @return The prober, or null if the STUN bindings are unavailable, the platform is not Linux or the socket failed.
+     */
+    public static StunProber open(InetSocketAddress server, String username, String password) {
+        if ((username == null) != (password == null)) {
+            throw new IllegalArgumentException("username and password must be given together");
+        }
+        if (!StunSupport.isAvailable() || Libc.connect == null || Libc.poll == null || server.isUnresolved()) return null;
+        InetAddress any;
+        try {
+            any = InetAddress.getByAddress(new byte[server.getAddress().getAddress().length]);
+        } catch (UnknownHostException e) {
+            return null;
+        }
+        int fd = StunSupport.openSocket(new InetSocketAddress(any, 0), false, 0);
+        if (fd < 0) return null;
+        try (Arena local = Arena.ofConfined()) {
+            // Connected, so the kernel filters out datagrams from anyone else and sends need no address.
+            MemorySegment sockaddr = local.allocate(Libc.SOCKADDR_STORAGE_SIZE, 8);
+            int length = StunSupport.writeSockaddr(sockaddr, server);
+            MemorySegment state = local.allocate(Libc.CAPTURE_STATE_LAYOUT);
+            if ((int) Libc.connect.invokeExact(state, fd, sockaddr, length) != 0) {
+                LOG.log(Level.WARNING, "connect {0} failed (errno {1})", server, state.get(ValueLayout.JAVA_INT, Libc.ERRNO_OFFSET));
+                StunSupport.closeSocket(fd);
+                return null;
+            }
+            return new StunProber(server, fd, username, password);
+        } catch (Throwable t) {
+            LOG.log(Level.ERROR, "open failed", t);
+            StunSupport.closeSocket(fd);
+            return null;
+        }
+    }
+
+    /**
+     * Sends one Binding request and waits for its response.
+     *
+     * @return The mapped (XOR-MAPPED-ADDRESS) address the server saw, or null on timeout or error.
+     */
+    public synchronized InetSocketAddress probe(Duration timeout) {
+        mappedLength.set(ValueLayout.JAVA_INT, 0, 0);
+        if (probeBatch(1, timeout) != 1 || mappedLength.get(ValueLayout.JAVA_INT, 0) == 0) return null;
+        return StunSupport.readSockaddr(mapped);
+    }
+
+    /**
+     * Sends {@code count} Binding requests in one {@code sendmmsg} call and collects the responses.
+     *
+     * @param count 1 to {@link #MAX_BATCH_SIZE}.
+     * @param timeout How long to wait for the whole batch.
+     * @return The number of valid responses, or -1 if the requests could not be built or sent.
+     */
+    public synchronized int probeBatch(int count, Duration timeout) {
+        if (count < 1 || count > MAX_BATCH_SIZE) {
+            throw new IllegalArgumentException("count must be 1-" + MAX_BATCH_SIZE);
+        }
+        if (closed) return -1;
+        try {
+            for (int i = 0; i < count; i++) {
+                MemorySegment buffer = txBuffers.asSlice((long) i * StunSupport.MAX_MESSAGE_SIZE, StunSupport.MAX_MESSAGE_SIZE);
+                long size = buildRequest(buffer);
+                if (size <= 0) {
+                    forget(0, i);
+                    return -1;
+                }
+                txIovecs.set(ValueLayout.JAVA_LONG, i * Libc.IOVEC_LAYOUT.byteSize() + ValueLayout.ADDRESS.byteSize(), size);
+                pendingIds[i] = buffer.get(ValueLayout.JAVA_LONG_UNALIGNED, TRANSACTION_KEY_OFFSET);
+            }
+
+            int pushed = 0;
+            while (pushed < count) {
+                long now = System.nanoTime();
+                int result = (int) Libc.sendmmsg.invokeExact(callState, fd,
+                    txHeaders.asSlice(pushed * Libc.MMSGHDR_LAYOUT.byteSize()), count - pushed, 0);
+                if (result < 0) {
+                    if (callState.get(ValueLayout.JAVA_INT, Libc.ERRNO_OFFSET) == Libc.EINTR) continue;
+                    forget(pushed, count);
+                    count = pushed;
+                    break;
+                }
+                for (int i = pushed; i < pushed + result; i++) {
+                    sentNanos[i] = now;
+                }
+                pushed += result;
+            }
+            if (count == 0) return -1;
+            sent += count;
+            return collect(count, System.nanoTime() + timeout.toNanos());
+        } catch (Throwable t) {
+            LOG.log(Level.ERROR, "probeBatch failed", t);
+            return -1;
+        }
+    }
+
+    private long buildRequest(MemorySegment buffer) throws Throwable {
+        if (username == null) {
+            return (long) NiceBindings.stun_usage_bind_create.invokeExact(agent, requestMessage, buffer, buffer.byteSize());
+        }
+        if (!(boolean) NiceBindings.stun_agent_init_request.invokeExact(agent, requestMessage, buffer, buffer.byteSize(), NiceBindings.STUN_BINDING)
+                || (int) NiceBindings.stun_message_append_string.invokeExact(requestMessage, NiceBindings.STUN_ATTRIBUTE_USERNAME,
+                    usernameString) != NiceBindings.STUN_MESSAGE_RETURN_SUCCESS) {
+            return 0;
+        }
+        return (long) NiceBindings.stun_agent_finish_message.invokeExact(agent, requestMessage, key, key.byteSize());
+    }
+
+    /**
+     * Receives until every request of the batch is answered or the deadline passes, then makes the
+     * agent forget whatever is still outstanding.
+     */
+    private int collect(int count, long deadline) throws Throwable {
+        int outstanding = count;
+        int valid = 0;
+        long headerSize = Libc.MMSGHDR_LAYOUT.byteSize();
+        while (outstanding > 0) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) break;
+            int ready = (int) Libc.poll.invokeExact(pollFd, 1L, (int) Math.max(1, remaining / 1_000_000));
+            if (ready <= 0) continue;
+            int received = (int) Libc.recvmmsg.invokeExact(callState, fd, rxHeaders, outstanding, Libc.MSG_DONTWAIT, MemorySegment.NULL);
+            long now = System.nanoTime();
+            for (int i = 0; i < received; i++) {
+                int length = rxHeaders.get(ValueLayout.JAVA_INT, i * headerSize + Libc.MSG_LEN_OFFSET);
+                MemorySegment in = rxBuffers.asSlice((long) i * StunSupport.MAX_MESSAGE_SIZE, length);
+                int status = (int) NiceBindings.stun_agent_validate.invokeExact(agent, responseMessage, in, (long) length,
+                    MemorySegment.NULL, MemorySegment.NULL);
+                if (status != NiceBindings.STUN_VALIDATION_SUCCESS) continue; // unmatched, late or malformed
+                int slot = slotOf(in.get(ValueLayout.JAVA_LONG_UNALIGNED, TRANSACTION_KEY_OFFSET), count);
+                if (slot < 0) continue;
+                pendingIds[slot] = 0;
+                outstanding--;
+                if ((int) NiceBindings.stun_message_get_class.invokeExact(responseMessage) != NiceBindings.STUN_RESPONSE) continue;
+                if (count == 1) {
+                    mappedLength.set(ValueLayout.JAVA_INT, 0, Libc.SOCKADDR_STORAGE_SIZE);
+                    if ((int) NiceBindings.stun_usage_bind_process.invokeExact(responseMessage, mapped, mappedLength,
+                            MemorySegment.NULL, MemorySegment.NULL) != NiceBindings.STUN_USAGE_BIND_RETURN_SUCCESS) {
+                        mappedLength.set(ValueLayout.JAVA_INT, 0, 0);
+                        continue;
+                    }
+                }
+                roundTrips.record(now - sentNanos[slot]);
+                valid++;
+            }
+        }
+        answered += valid;
+        timedOut += outstanding;
+        if (outstanding > 0) forget(0, count);
+        return valid;
+    }
+
+    private int slotOf(long id, int count) {
+        for (int i = 0; i < count; i++) {
+            if (pendingIds[i] == id && id != 0) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Releases the agent's saved transaction of every unanswered request in {@code [from, to)}.
+     */
+    private void forget(int from, int to) throws Throwable {
+        for (int i = from; i < to; i++) {
+            if (pendingIds[i] == 0) continue;
+            MemorySegment id = txBuffers.asSlice((long) i * StunSupport.MAX_MESSAGE_SIZE + TRANSACTION_ID_OFFSET, TRANSACTION_ID_LENGTH);
+            boolean ignored = (boolean) NiceBindings.stun_agent_forget_transaction.invokeExact(agent, id);
+            pendingIds[i] = 0;
+        }
+    }
+
+    /**
+     * @return Round-trip times of valid responses.
+     */
+    public LatencyHistogram getRoundTripTimes() {
+        return roundTrips;
+    }
+
+    public InetSocketAddress getServer() {
+        return server;
+    }
+
+    public synchronized long getSentCount() {
+        return sent;
+    }
+
+    public synchronized long getAnsweredCount() {
+        return answered;
+    }
+
+    /**
+     * @return Requests that got no matching response before their batch's timeout.
+     */
+    public synchronized long getTimedOutCount() {
+        return timedOut;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (closed) return;
+        closed = true;
+        StunSupport.closeSocket(fd);
+        arena.close();
+    }
+}
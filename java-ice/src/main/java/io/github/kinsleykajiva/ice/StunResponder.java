@@ -0,0 +1,325 @@
+package io.github.kinsleykajiva.ice;
+
+import java.lang.System.Logger.Level;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * STUN Binding server built on libnice's own STUN codec. Each worker thread owns a socket on the
+ * shared port (SO_REUSEPORT), a StunAgent and pooled buffers, takes requests in batches with
+ * {@code recvmmsg} and answers them with one {@code sendmmsg}; nothing is allocated per request.
+ * <p>
+ * Requests are validated by {@code stun_agent_validate}. With credentials, requests must carry a
+ * matching USERNAME and MESSAGE-INTEGRITY (short-term), and responses are signed with the same key.
+ * Responses always carry FINGERPRINT. Requests that fail validation, or use another method, get a
+ * 400 or 401 error response, and requests with unknown comprehension-required attributes get a 420
+ * listing them; datagrams that are not STUN requests are dropped. Linux only.
+ *
+ * <pre>{@code
+ * try (StunResponder stun = StunResponder.start(new InetSocketAddress("0.0.0.0", 3478), 4)) {
+ *     ...
+ * }
+ * }</pre>
+ */
+public class StunResponder implements AutoCloseable {
+    private static final System.Logger LOG = System.getLogger(StunResponder.class.getName());
+
+    public static final int DEFAULT_BATCH_SIZE = 64;
+    /** How often blocked workers wake up to notice {@link #close()}. */
+    private static final int RECEIVE_TIMEOUT_MS = 100;
+
+    private final InetSocketAddress localAddress;
+    private final String username;
+    private final String password;
+    private final int batchSize;
+    private final List<Worker> workers = new ArrayList<>();
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder responses = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private volatile boolean running = true;
+
+    private StunResponder(InetSocketAddress localAddress, String username, String password, int batchSize) {
+        this.localAddress = localAddress;
+        this.username = username;
+        this.password = password;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Starts an unauthenticated responder, like a public STUN server.
+     *
+     * @param bindAddress Address to listen on; port 0 picks an ephemeral port shared by all workers.
+     * @param threads Number of worker threads, each with its own socket.
+     * @return The responder, or null if the STUN bindings are unavailable, the platform is not Linux or binding failed.
+     */
+    public static StunResponder start(InetSocketAddress bindAddress, int threads) {
+        return start(bindAddress, threads, null, null, DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * @param username Short-term credential username requests must carry, or null for none.
+     * @param password Short-term credential password (the MESSAGE-INTEGRITY key).
+     * @param batchSize Most datagrams taken per {@code recvmmsg} call.
+     * @return The responder, or null if the STUN bindings are unavailable, the platform is not Linux or binding failed.
+     */
+    public static StunResponder start(InetSocketAddress bindAddress, int threads, String username, String password, int batchSize) {
+        if (threads < 1 || batchSize < 1) {
+            throw new IllegalArgumentException("threads and batchSize must be at least 1");
+        }
+        if ((username == null) != (password == null)) {
+            throw new IllegalArgumentException("username and password must be given together");
+        }
+        if (!StunSupport.isAvailable()) return null;
+
+        List<Integer> sockets = new ArrayList<>();
+        int first = StunSupport.openSocket(bindAddress, true, RECEIVE_TIMEOUT_MS);
+        if (first < 0) return null;
+        sockets.add(first);
+        InetSocketAddress local = StunSupport.localAddress(first);
+        for (int i = 1; i < threads && local != null; i++) {
+            int fd = StunSupport.openSocket(local, true, RECEIVE_TIMEOUT_MS);
+            if (fd < 0) {
+                sockets.forEach(StunSupport::closeSocket);
+                return null;
+            }
+            sockets.add(fd);
+        }
+        if (local == null) {
+            sockets.forEach(StunSupport::closeSocket);
+            return null;
+        }
+
+        StunResponder responder = new StunResponder(local, username, password, batchSize);
+        for (int i = 0; i < sockets.size(); i++) {
+            Worker worker = responder.new Worker(sockets.get(i));
+            worker.thread = Thread.ofPlatform().daemon().name("StunResponder-" + local.getPort() + "-" + i).start(worker);
+            responder.workers.add(worker);
+        }
+        return responder;
+    }
+
+    public InetSocketAddress getLocalAddress() {
+        return localAddress;
+    }
+
+    public String getHost() {
+        return localAddress.getAddress().getHostAddress();
+    }
+
+    public int getPort() {
+        return localAddress.getPort();
+    }
+
+    /**
+     * @return Binding requests received, valid or not.
+     */
+    public long getRequestCount() {
+        return requests.sum();
+    }
+
+    /**
+     * @return Binding success responses sent.
+     */
+    public long getResponseCount() {
+        return responses.sum();
+    }
+
+    /**
+     * @return Error responses sent (400 Bad Request, 401 Unauthorized, 420 Unknown Attribute).
+     */
+    public long getErrorCount() {
+        return errors.sum();
+    }
+
+    /**
+     * @return Datagrams ignored: not STUN, not a request, or a response that could not be sent.
+     */
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    /**
+     * @return {@code recvmmsg} calls that returned datagrams, for comparing against {@link #getRequestCount()}.
+     */
+    public long getBatchCount() {
+        return batches.sum();
+    }
+
+    /**
+     * Stops the workers and closes their sockets. Returns once every worker has exited.
+     */
+    @Override
+    public void close() {
+        running = false;
+        for (Worker worker : workers) {
+            try {
+                worker.thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * One socket, agent and buffer pool, confined to its thread.
+     */
+    private final class Worker implements Runnable {
+        private final int fd;
+        private Thread thread;
+
+        Worker(int fd) {
+            this.fd = fd;
+        }
+
+        @Override
+        public void run() {
+            try (Arena arena = Arena.ofConfined()) {
+                serve(arena);
+            } catch (Throwable t) {
+                LOG.log(Level.ERROR, "run failed", t);
+            } finally {
+                StunSupport.closeSocket(fd);
+            }
+        }
+
+        private void serve(Arena arena) throws Throwable {
+            long headerSize = Libc.MMSGHDR_LAYOUT.byteSize();
+            long iovSize = Libc.IOVEC_LAYOUT.byteSize();
+            MemorySegment rxHeaders = arena.allocate(headerSize * batchSize, 8);
+            MemorySegment txHeaders = arena.allocate(headerSize * batchSize, 8);
+            MemorySegment rxIovecs = arena.allocate(iovSize * batchSize, 8);
+            MemorySegment txIovecs = arena.allocate(iovSize * batchSize, 8);
+            MemorySegment rxBuffers = arena.allocate((long) StunSupport.MAX_MESSAGE_SIZE * batchSize, 64);
+            MemorySegment txBuffers = arena.allocate((long) StunSupport.MAX_MESSAGE_SIZE * batchSize, 64);
+            MemorySegment names = arena.allocate((long) Libc.SOCKADDR_STORAGE_SIZE * batchSize, 8);
+            MemorySegment request = arena.allocate(NiceBindings.STUN_MESSAGE_LAYOUT);
+            MemorySegment response = arena.allocate(NiceBindings.STUN_MESSAGE_LAYOUT);
+            MemorySegment state = arena.allocate(Libc.CAPTURE_STATE_LAYOUT);
+
+            // Validation is lenient about FINGERPRINT so that any RFC 5389 client is answered;
+            // responses are built by a second agent that always adds it.
+            MemorySegment validator;
+            MemorySegment validaterData = MemorySegment.NULL;
+            MemorySegment validater = MemorySegment.NULL;
+            if (username != null) {
+                validator = StunSupport.newAgent(arena, NiceBindings.STUN_AGENT_USAGE_SHORT_TERM_CREDENTIALS);
+                validaterData = StunSupport.validaterData(arena, username, password);
+                validater = NiceBindings.STUN_DEFAULT_VALIDATER;
+            } else {
+                validator = StunSupport.newAgent(arena, NiceBindings.STUN_AGENT_USAGE_IGNORE_CREDENTIALS);
+            }
+            MemorySegment builder = StunSupport.newAgent(arena, NiceBindings.STUN_AGENT_USAGE_USE_FINGERPRINT
+                | (username != null ? NiceBindings.STUN_AGENT_USAGE_SHORT_TERM_CREDENTIALS : NiceBindings.STUN_AGENT_USAGE_IGNORE_CREDENTIALS));
+
+            for (int i = 0; i < batchSize; i++) {
+                MemorySegment name = names.asSlice((long) i * Libc.SOCKADDR_STORAGE_SIZE, Libc.SOCKADDR_STORAGE_SIZE);
+                MemorySegment rxIov = rxIovecs.asSlice(i * iovSize, iovSize);
+                rxIov.set(ValueLayout.ADDRESS, 0, rxBuffers.asSlice((long) i * StunSupport.MAX_MESSAGE_SIZE, StunSupport.MAX_MESSAGE_SIZE));
+                rxIov.set(ValueLayout.JAVA_LONG, ValueLayout.ADDRESS.byteSize(), StunSupport.MAX_MESSAGE_SIZE);
+                MemorySegment rx = rxHeaders.asSlice(i * headerSize, headerSize);
+                rx.set(ValueLayout.ADDRESS, Libc.MSG_NAME_OFFSET, name);
+                rx.set(ValueLayout.ADDRESS, Libc.MSG_IOV_OFFSET, rxIov);
+                rx.set(ValueLayout.JAVA_LONG, Libc.MSG_IOVLEN_OFFSET, 1L);
+                MemorySegment txIov = txIovecs.asSlice(i * iovSize, iovSize);
+                txIov.set(ValueLayout.ADDRESS, 0, txBuffers.asSlice((long) i * StunSupport.MAX_MESSAGE_SIZE, StunSupport.MAX_MESSAGE_SIZE));
+                MemorySegment tx = txHeaders.asSlice(i * headerSize, headerSize);
+                tx.set(ValueLayout.ADDRESS, Libc.MSG_IOV_OFFSET, txIov);
+                tx.set(ValueLayout.JAVA_LONG, Libc.MSG_IOVLEN_OFFSET, 1L);
+            }
+
+            while (running) {
+                for (int i = 0; i < batchSize; i++) {
+                    rxHeaders.set(ValueLayout.JAVA_INT, i * headerSize + Libc.MSG_NAMELEN_OFFSET, Libc.SOCKADDR_STORAGE_SIZE);
+                }
+                int received = (int) Libc.recvmmsg.invokeExact(state, fd, rxHeaders, batchSize, Libc.MSG_WAITFORONE, MemorySegment.NULL);
+                if (received <= 0) continue; // SO_RCVTIMEO expiry or EINTR: re-check running
+                batches.increment();
+
+                int replies = 0;
+                for (int i = 0; i < received; i++) {
+                    long rxOffset = i * headerSize;
+                    int length = rxHeaders.get(ValueLayout.JAVA_INT, rxOffset + Libc.MSG_LEN_OFFSET);
+                    MemorySegment in = rxBuffers.asSlice((long) i * StunSupport.MAX_MESSAGE_SIZE, length);
+                    MemorySegment out = txBuffers.asSlice((long) replies * StunSupport.MAX_MESSAGE_SIZE, StunSupport.MAX_MESSAGE_SIZE);
+                    long size = answer(validator, builder, validater, validaterData, request, response, in, out,
+                        names.asSlice((long) i * Libc.SOCKADDR_STORAGE_SIZE, Libc.SOCKADDR_STORAGE_SIZE),
+                        rxHeaders.get(ValueLayout.JAVA_INT, rxOffset + Libc.MSG_NAMELEN_OFFSET));
+                    if (size <= 0) continue;
+                    long txOffset = replies * headerSize;
+                    txHeaders.set(ValueLayout.ADDRESS, txOffset + Libc.MSG_NAME_OFFSET, rxHeaders.get(ValueLayout.ADDRESS, rxOffset + Libc.MSG_NAME_OFFSET));
+                    txHeaders.set(ValueLayout.JAVA_INT, txOffset + Libc.MSG_NAMELEN_OFFSET, rxHeaders.get(ValueLayout.JAVA_INT, rxOffset + Libc.MSG_NAMELEN_OFFSET));
+                    txIovecs.set(ValueLayout.JAVA_LONG, replies * iovSize + ValueLayout.ADDRESS.byteSize(), size);
+                    replies++;
+                }
+                send(state, txHeaders, replies);
+            }
+        }
+
+        /**
+         * Validates one datagram and writes the reply into {@code out}.
+         *
+         * @return The reply length, or 0 if nothing is to be sent.
+         */
+        private long answer(MemorySegment validator, MemorySegment builder, MemorySegment validater, MemorySegment validaterData,
+                            MemorySegment request, MemorySegment response, MemorySegment in, MemorySegment out,
+                            MemorySegment from, int fromLength) throws Throwable {
+            int status = (int) NiceBindings.stun_agent_validate.invokeExact(validator, request, in, in.byteSize(), validater, validaterData);
+            if (status == NiceBindings.STUN_VALIDATION_NOT_STUN || status == NiceBindings.STUN_VALIDATION_INCOMPLETE_STUN
+                    || (int) NiceBindings.stun_message_get_class.invokeExact(request) != NiceBindings.STUN_REQUEST) {
+                dropped.increment();
+                return 0;
+            }
+            requests.increment();
+            if (status == NiceBindings.STUN_VALIDATION_SUCCESS
+                    && (int) NiceBindings.stun_message_get_method.invokeExact(request) == NiceBindings.STUN_BINDING) {
+                if (!(boolean) NiceBindings.stun_agent_init_response.invokeExact(builder, response, out, out.byteSize(), request)
+                        || (int) NiceBindings.stun_message_append_xor_addr.invokeExact(response,
+                            NiceBindings.STUN_ATTRIBUTE_XOR_MAPPED_ADDRESS, from, fromLength) != NiceBindings.STUN_MESSAGE_RETURN_SUCCESS) {
+                    dropped.increment();
+                    return 0;
+                }
+                long size = (long) NiceBindings.stun_agent_finish_message.invokeExact(builder, response, MemorySegment.NULL, 0L);
+                if (size > 0) responses.increment();
+                return size;
+            }
+            if (status == NiceBindings.STUN_VALIDATION_UNKNOWN_REQUEST_ATTRIBUTE) {
+                long size = (long) NiceBindings.stun_agent_build_unknown_attributes_error.invokeExact(builder, response, out,
+                    out.byteSize(), request);
+                if (size > 0) errors.increment(); else dropped.increment();
+                return size;
+            }
+            int code = status == NiceBindings.STUN_VALIDATION_UNAUTHORIZED ? NiceBindings.STUN_ERROR_UNAUTHORIZED : NiceBindings.STUN_ERROR_BAD_REQUEST;
+            if (!(boolean) NiceBindings.stun_agent_init_error.invokeExact(builder, response, out, out.byteSize(), request, code)) {
+                dropped.increment();
+                return 0;
+            }
+            long size = (long) NiceBindings.stun_agent_finish_message.invokeExact(builder, response, MemorySegment.NULL, 0L);
+            if (size > 0) errors.increment();
+            return size;
+        }
+
+        private void send(MemorySegment state, MemorySegment headers, int count) throws Throwable {
+            int sent = 0;
+            while (sent < count) {
+                int result = (int) Libc.sendmmsg.invokeExact(state, fd,
+                    headers.asSlice(sent * Libc.MMSGHDR_LAYOUT.byteSize()), count - sent, 0);
+                if (result < 0) {
+                    if (state.get(ValueLayout.JAVA_INT, Libc.ERRNO_OFFSET) == Libc.EINTR) continue;
+                    // e.g. ECONNREFUSED for an earlier reply; skip the datagram at the head of the batch.
+                    dropped.increment();
+                    sent++;
+                    continue;
+                }
+                sent += result;
+            }
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package io.github.kinsleykajiva.ice;
+
+import java.lang.System.Logger.Level;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Shared plumbing for {@link StunResponder} and {@link StunProber}: libnice StunAgent setup and
+ * native UDP sockets addressed with {@code struct sockaddr}.
+ */
+final class StunSupport {
+    private static final System.Logger LOG = System.getLogger(StunSupport.class.getName());
+
+    /** Largest STUN datagram handled; binding requests and responses are far smaller. */
+    static final int MAX_MESSAGE_SIZE = 1280;
+
+    private static final ValueLayout.OfShort NET_SHORT = ValueLayout.JAVA_SHORT_UNALIGNED.withOrder(ByteOrder.BIG_ENDIAN);
+
+    /** Comprehension-required attributes the agents accept, 0-terminated as stun_agent_init expects. */
+    private static final MemorySegment KNOWN_ATTRIBUTES = Arena.global().allocateFrom(ValueLayout.JAVA_SHORT,
+        (short) NiceBindings.STUN_ATTRIBUTE_MAPPED_ADDRESS,
+        (short) NiceBindings.STUN_ATTRIBUTE_USERNAME,
+        (short) NiceBindings.STUN_ATTRIBUTE_MESSAGE_INTEGRITY,
+        (short) NiceBindings.STUN_ATTRIBUTE_ERROR_CODE,
+        (short) NiceBindings.STUN_ATTRIBUTE_UNKNOWN_ATTRIBUTES,
+        (short) NiceBindings.STUN_ATTRIBUTE_XOR_MAPPED_ADDRESS,
+        (short) NiceBindings.STUN_ATTRIBUTE_SOFTWARE,
+        (short) NiceBindings.STUN_ATTRIBUTE_FINGERPRINT,
+        (short) 0);
+
+    private StunSupport() {}
+
+    /**
+     * @return true if the libnice stun codec and the Linux socket calls are both available.
+     */
+    static boolean isAvailable() {
+        return NiceBindings.stun_agent_init != null && NiceBindings.stun_agent_validate != null
+            && NiceBindings.stun_agent_finish_message != null && NiceBindings.stun_message_append_xor_addr != null
+            && Libc.socket != null && Libc.recvmmsg != null && Libc.sendmmsg != null;
+    }
+
+    /**
+     * Allocates and initialises an RFC 5389 StunAgent. An agent is not thread-safe; use one per thread.
+     *
+     * @param usageFlags STUN_AGENT_USAGE_* flags.
+     */
+    static MemorySegment newAgent(Arena arena, int usageFlags) throws Throwable {
+        MemorySegment agent = arena.allocate(NiceBindings.STUN_AGENT_LAYOUT);
+        NiceBindings.stun_agent_init.invokeExact(agent, KNOWN_ATTRIBUTES, NiceBindings.STUN_COMPATIBILITY_RFC5389, usageFlags);
+        return agent;
+    }
+
+    /**
+     * @return A one-entry StunDefaultValidaterData array (plus terminator) for short-term credentials.
+     */
+    static MemorySegment validaterData(Arena arena, String username, String password) {
+        byte[] user = username.getBytes(StandardCharsets.UTF_8);
+        byte[] pass = password.getBytes(StandardCharsets.UTF_8);
+        MemorySegment data = arena.allocate(NiceBindings.STUN_VALIDATER_DATA_LAYOUT, 2);
+        data.set(ValueLayout.ADDRESS, 0, arena.allocateFrom(ValueLayout.JAVA_BYTE, user));
+        data.set(ValueLayout.JAVA_LONG, 8, user.length);
+        data.set(ValueLayout.ADDRESS, 16, arena.allocateFrom(ValueLayout.JAVA_BYTE, pass));
+        data.set(ValueLayout.JAVA_LONG, 24, pass.length);
+        return data;
+    }
+
+    /**
+     * Writes {@code address} as a {@code struct sockaddr_in} or {@code sockaddr_in6}.
+     *
+     * @return The sockaddr length.
+     */
+    static int writeSockaddr(MemorySegment target, InetSocketAddress address) {
+        target.fill((byte) 0);
+        byte[] ip = address.getAddress().getAddress();
+        target.set(NET_SHORT, 2, (short) address.getPort());
+        if (ip.length == 4) {
+            target.set(ValueLayout.JAVA_SHORT, 0, (short) Libc.AF_INET);
+            MemorySegment.copy(ip, 0, target, ValueLayout.JAVA_BYTE, 4, 4);
+            return 16;
+        }
+        target.set(ValueLayout.JAVA_SHORT, 0, (short) Libc.AF_INET6);
+        MemorySegment.copy(ip, 0, target, ValueLayout.JAVA_BYTE, 8, 16);
+        if (address.getAddress() instanceof Inet6Address v6) {
+            target.set(ValueLayout.JAVA_INT, 24, v6.getScopeId());
+        }
+        return 28;
+    }
+
+    /**
+     * @return The address in a {@code struct sockaddr}, or null for other families.
+     */
+    static InetSocketAddress readSockaddr(MemorySegment sockaddr) {
+        int family = sockaddr.get(ValueLayout.JAVA_SHORT, 0);
+        int port = Short.toUnsignedInt(sockaddr.get(NET_SHORT, 2));
+        try {
+            if (family == Libc.AF_INET) {
+                return new InetSocketAddress(InetAddress.getByAddress(sockaddr.asSlice(4, 4).toArray(ValueLayout.JAVA_BYTE)), port);
+            }
+            if (family == Libc.AF_INET6) {
+                return new InetSocketAddress(InetAddress.getByAddress(sockaddr.asSlice(8, 16).toArray(ValueLayout.JAVA_BYTE)), port);
+            }
+        } catch (UnknownHostException e) {
+            // Not reachable with 4 or 16 bytes.
+        }
+        return null;
+    }
+
+    /**
+     * Opens a UDP socket bound to {@code address}.
+     *
+     * @param reusePort Sets SO_REUSEPORT so several sockets can share the port, with the kernel
+     *                  spreading datagrams over them by source address.
+     * @param receiveTimeoutMillis SO_RCVTIMEO, so blocking receives wake up to notice shutdown; 0 for none.
+     * @return The descriptor, or -1 after logging the failure.
+     */
+    static int openSocket(InetSocketAddress address, boolean reusePort, int receiveTimeoutMillis) {
+        try (Arena arena = Arena.ofConfined()) {
+            MemorySegment state = arena.allocate(Libc.CAPTURE_STATE_LAYOUT);
+            MemorySegment sockaddr = arena.allocate(Libc.SOCKADDR_STORAGE_SIZE, 8);
+            int length = writeSockaddr(sockaddr, address);
+            int family = sockaddr.get(ValueLayout.JAVA_SHORT, 0);
+            int fd = (int) Libc.socket.invokeExact(state, family, Libc.SOCK_DGRAM | Libc.SOCK_CLOEXEC, 0);
+            if (fd < 0) return fail("socket", state, -1);
+
+            MemorySegment one = arena.allocateFrom(ValueLayout.JAVA_INT, 1);
+            MemorySegment bufferSize = arena.allocateFrom(ValueLayout.JAVA_INT, 4 << 20);
+            if (reusePort && (int) Libc.setsockopt.invokeExact(state, fd, Libc.SOL_SOCKET, Libc.SO_REUSEPORT, one, 4) != 0) {
+                return fail("SO_REUSEPORT", state, fd);
+            }
+            // Larger buffers absorb bursts; the kernel caps them at net.core.[rw]mem_max, which is not an error.
+            int ignored = (int) Libc.setsockopt.invokeExact(state, fd, Libc.SOL_SOCKET, Libc.SO_RCVBUF, bufferSize, 4);
+            ignored = (int) Libc.setsockopt.invokeExact(state, fd, Libc.SOL_SOCKET, Libc.SO_SNDBUF, bufferSize, 4);
+            if (receiveTimeoutMillis > 0) {
+                MemorySegment timeout = arena.allocate(Libc.TIMEVAL_LAYOUT);
+                timeout.set(ValueLayout.JAVA_LONG, 0, receiveTimeoutMillis / 1000);
+                timeout.set(ValueLayout.JAVA_LONG, 8, (receiveTimeoutMillis % 1000) * 1000L);
+                if ((int) Libc.setsockopt.invokeExact(state, fd, Libc.SOL_SOCKET, Libc.SO_RCVTIMEO, timeout,
+                        (int) Libc.TIMEVAL_LAYOUT.byteSize()) != 0) {
+                    return fail("SO_RCVTIMEO", state, fd);
+                }
+            }
+            if ((int) Libc.bind.invokeExact(state, fd, sockaddr, length) != 0) {
+                return fail("bind " + address, state, fd);
+            }
+            return fd;
+        } catch (Throwable t) {
+            LOG.log(Level.ERROR, "openSocket failed", t);
+            return -1;
+        }
+    }
+
+    /**
+     * @return The address a socket is bound to, or null on error.
+     */
+    static InetSocketAddress localAddress(int fd) {
+        try (Arena arena = Arena.ofConfined()) {
+            MemorySegment sockaddr = arena.allocate(Libc.SOCKADDR_STORAGE_SIZE, 8);
+            MemorySegment length = arena.allocateFrom(ValueLayout.JAVA_INT, Libc.SOCKADDR_STORAGE_SIZE);
+            if ((int) Libc.getsockname.invokeExact(fd, sockaddr, length) != 0) return null;
+            return readSockaddr(sockaddr);
+        } catch (Throwable t) {
+            LOG.log(Level.ERROR, "localAddress failed", t);
+            return null;
+        }
+    }
+
+    static void closeSocket(int fd) {
+        try {
+            int ignored = (int) Libc.close.invokeExact(fd);
+        } catch (Throwable t) {
+            LOG.log(Level.ERROR, "closeSocket failed", t);
+        }
+    }
+
+    private static int fail(String what, MemorySegment state, int fd) {
+        LOG.log(Level.WARNING, "STUN socket: {0} failed (errno {1})", what, state.get(ValueLayout.JAVA_INT, Libc.ERRNO_OFFSET));
+        if (fd >= 0) closeSocket(fd);
+        return -1;
+    }
+}
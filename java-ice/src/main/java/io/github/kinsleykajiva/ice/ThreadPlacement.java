@@ -0,0 +1,245 @@
+package io.github.kinsleykajiva.ice;
+
+import java.io.IOException;
+import java.lang.System.Logger.Level;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.TreeMap;
+
+/**
+ * CPU affinity and scheduling for a loop thread on Linux: which CPUs it may run on, and optionally
+ * {@code SCHED_FIFO} or a nice level. Applied by the thread itself when its loop starts, see
+ * {@link GLibContext#setThreadPlacement} and {@link GLibReactor#setThreadPlacement}.
+ * <p>
+ * {@link #spread} pins several loops to separate CPUs, round-robin across NUMA nodes, optionally
+ * keeping clear of CPUs reserved for other work. On other platforms, or without the needed
+ * privileges, {@link #apply()} reports failure and the thread keeps running unplaced.
+ *
+ * <pre>{@code
+ * BitSet loopCpus = new BitSet();
+ * loopCpus.set(0, 4); // leave the remaining CPUs to media workers
+ * List<ThreadPlacement> placements = ThreadPlacement.spread(contexts.size(), loopCpus);
+ * for (int i = 0; i < contexts.size(); i++) {
+ *     contexts.get(i).setThreadPlacement(placements.get(i).withNice(-5));
+ *     contexts.get(i).start();
+ * }
+ * }</pre>
+ */
+public final class ThreadPlacement {
+    private static final System.Logger LOG = System.getLogger(ThreadPlacement.class.getName());
+
+    private static final Path NODE_ROOT = Path.of("/sys/devices/system/node");
+    private static final Path ONLINE_CPUS = Path.of("/sys/devices/system/cpu/online");
+    /** sizeof(cpu_set_t) in glibc: 1024 CPUs. */
+    private static final int CPU_SET_BYTES = 128;
+    private static final int NO_NICE = Integer.MIN_VALUE;
+
+    private final BitSet cpus;
+    private final int fifoPriority;
+    private final int niceLevel;
+
+    private ThreadPlacement(BitSet cpus, int fifoPriority, int niceLevel) {
+        this.cpus = cpus;
+        this.fifoPriority = fifoPriority;
+        this.niceLevel = niceLevel;
+    }
+
+    /**
+     * @return A placement that changes nothing; add settings with the {@code with} methods.
+     */
+    public static ThreadPlacement none() {
+        return new ThreadPlacement(new BitSet(), 0, NO_NICE);
+    }
+
+    public static ThreadPlacement onCpus(int... cpus) {
+        BitSet set = new BitSet();
+        for (int cpu : cpus) {
+            if (cpu < 0 || cpu >= CPU_SET_BYTES * 8) {
+                throw new IllegalArgumentException("Invalid CPU " + cpu);
+            }
+            set.set(cpu);
+        }
+        return new ThreadPlacement(set, 0, NO_NICE);
+    }
+
+    /**
+     * @return A placement allowing every CPU of a NUMA node.
+     */
+    public static ThreadPlacement onNode(int node) {
+        List<BitSet> nodes = numaNodes();
+        if (node < 0 || node >= nodes.size()) {
+            throw new IllegalArgumentException("No NUMA node " + node);
+        }
+        return new ThreadPlacement((BitSet) nodes.get(node).clone(), 0, NO_NICE);
+    }
+
+    /**
+     * Pins {@code loops} threads to one CPU each, alternating NUMA nodes so that loops spread over
+     * memory controllers before sharing a node, and spreading over CPUs before sharing one.
+     */
+    public static List<ThreadPlacement> spread(int loops) {
+        return spread(loops, null);
+    }
+
+    /**
+     * @param allowedCpus CPUs loops may be placed on, or null for all online CPUs.
+     */
+    public static List<ThreadPlacement> spread(int loops, BitSet allowedCpus) {
+        List<int[]> nodeCpus = new ArrayList<>();
+        for (BitSet node : numaNodes()) {
+            BitSet usable = (BitSet) node.clone();
+            if (allowedCpus != null) usable.and(allowedCpus);
+            if (!usable.isEmpty()) nodeCpus.add(usable.stream().toArray());
+        }
+        if (nodeCpus.isEmpty()) {
+            throw new IllegalArgumentException("No allowed CPUs");
+        }
+        List<ThreadPlacement> placements = new ArrayList<>(loops);
+        for (int i = 0; i < loops; i++) {
+            int[] cpus = nodeCpus.get(i % nodeCpus.size());
+            placements.add(onCpus(cpus[(i / nodeCpus.size()) % cpus.length]));
+        }
+        return placements;
+    }
+
+    /**
+     * @return The CPUs of each NUMA node, indexed by node; a single node with all online CPUs when
+     * the topology is not exposed.
+     */
+    public static List<BitSet> numaNodes() {
+        TreeMap<Integer, BitSet> nodes = new TreeMap<>();
+        if (Files.isDirectory(NODE_ROOT)) {
+            try (DirectoryStream<Path> dirs = Files.newDirectoryStream(NODE_ROOT, "node[0-9]*")) {
+                for (Path dir : dirs) {
+                    int node = Integer.parseInt(dir.getFileName().toString().substring(4));
+                    BitSet cpus = parseCpuList(Files.readString(dir.resolve("cpulist")));
+                    if (!cpus.isEmpty()) nodes.put(node, cpus);
+                }
+            } catch (IOException | RuntimeException e) {
+                nodes.clear();
+            }
+        }
+        if (!nodes.isEmpty()) {
+            return new ArrayList<>(nodes.values());
+        }
+        BitSet all = new BitSet();
+        try {
+            all = parseCpuList(Files.readString(ONLINE_CPUS));
+        } catch (IOException | RuntimeException e) {
+            all.set(0, Runtime.getRuntime().availableProcessors());
+        }
+        return List.of(all);
+    }
+
+    /**
+     * Parses a kernel CPU list such as {@code 0-3,8-11}.
+     */
+    static BitSet parseCpuList(String list) {
+        BitSet cpus = new BitSet();
+        for (String part : list.trim().split(",")) {
+            if (part.isEmpty()) continue;
+            int dash = part.indexOf('-');
+            if (dash < 0) {
+                cpus.set(Integer.parseInt(part));
+            } else {
+                cpus.set(Integer.parseInt(part.substring(0, dash)), Integer.parseInt(part.substring(dash + 1)) + 1);
+            }
+        }
+        return cpus;
+    }
+
+    /**
+     * Runs the thread under {@code SCHED_FIFO}. Needs CAP_SYS_NICE or an RLIMIT_RTPRIO allowance.
+     * A busy FIFO thread starves normal threads on its CPU, so combine it with a dedicated CPU.
+     * Replaces any nice level, which does not apply to real-time threads.
+     *
+     * @param priority 1 (lowest) to 99.
+     */
+    public ThreadPlacement withFifo(int priority) {
+        if (priority < 1 || priority > 99) {
+            throw new IllegalArgumentException("SCHED_FIFO priority must be 1-99");
+        }
+        return new ThreadPlacement(cpus, priority, NO_NICE);
+    }
+
+    /**
+     * Sets the thread's nice level under the normal scheduler, replacing any {@code SCHED_FIFO} setting.
+     * Levels below 0 need CAP_SYS_NICE.
+     *
+     * @param nice -20 (highest priority) to 19.
+     */
+    public ThreadPlacement withNice(int nice) {
+        if (nice < -20 || nice > 19) {
+            throw new IllegalArgumentException("Nice level must be -20 to 19");
+        }
+        return new ThreadPlacement(cpus, 0, nice);
+    }
+
+    /**
+     * @return The CPUs the thread is restricted to; empty when affinity is left unchanged.
+     */
+    public BitSet getCpus() {
+        return (BitSet) cpus.clone();
+    }
+
+    /**
+     * Applies this placement to the calling thread.
+     *
+     * @return true if every requested setting took effect; failures are logged.
+     */
+    public boolean apply() {
+        if (cpus.isEmpty() && fifoPriority == 0 && niceLevel == NO_NICE) return true;
+        if (Libc.sched_setaffinity == null) {
+            LOG.log(Level.WARNING, "Thread placement is only supported on Linux");
+            return false;
+        }
+        boolean ok = true;
+        try (Arena arena = Arena.ofConfined()) {
+            MemorySegment state = arena.allocate(Libc.CAPTURE_STATE_LAYOUT);
+            if (!cpus.isEmpty()) {
+                MemorySegment mask = arena.allocate(CPU_SET_BYTES);
+                byte[] bits = cpus.toByteArray();
+                MemorySegment.copy(bits, 0, mask, ValueLayout.JAVA_BYTE, 0, Math.min(bits.length, CPU_SET_BYTES));
+                int result = (int) Libc.sched_setaffinity.invokeExact(state, 0, (long) CPU_SET_BYTES, mask);
+                ok &= check("sched_setaffinity " + cpus, result, state);
+            }
+            if (fifoPriority > 0) {
+                MemorySegment param = arena.allocate(ValueLayout.JAVA_INT);
+                param.set(ValueLayout.JAVA_INT, 0, fifoPriority);
+                int result = (int) Libc.sched_setscheduler.invokeExact(state, 0, Libc.SCHED_FIFO, param);
+                ok &= check("SCHED_FIFO " + fifoPriority, result, state);
+            } else if (niceLevel != NO_NICE) {
+                // Linux nice levels are per thread; the thread ID targets this thread only.
+                int tid = Libc.gettid != null ? (int) Libc.gettid.invokeExact() : 0;
+                int result = (int) Libc.setpriority.invokeExact(state, Libc.PRIO_PROCESS, tid, niceLevel);
+                ok &= check("nice " + niceLevel, result, state);
+            }
+        } catch (Throwable t) {
+            LOG.log(Level.ERROR, "apply failed", t);
+            return false;
+        }
+        return ok;
+    }
+
+    private static boolean check(String what, int result, MemorySegment state) {
+        if (result == 0) return true;
+        LOG.log(Level.WARNING, "{0} failed on {1} (errno {2})", what, Thread.currentThread().getName(),
+            state.get(ValueLayout.JAVA_INT, Libc.ERRNO_OFFSET));
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("ThreadPlacement[cpus=").append(cpus.isEmpty() ? "any" : cpus);
+        if (fifoPriority > 0) sb.append(", SCHED_FIFO ").append(fifoPriority);
+        if (niceLevel != NO_NICE) sb.append(", nice ").append(niceLevel);
+        return sb.append(']').toString();
+    }
+}
@@ -0,0 +1,127 @@
+package io.github.kinsleykajiva.ice;
+
+import org.junit.jupiter.api.Test;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class InterfaceFilterTest {
+
+    private static InetAddress ip(String address) throws UnknownHostException {
+        return InetAddress.getByName(address);
+    }
+
+    @Test
+    void interfaceGlobs() throws Exception {
+        InterfaceFilter filter = InterfaceFilter.allowAll().allowInterface("eth?").allowInterface("en*");
+        InetAddress address = ip("192.0.2.10");
+        assertTrue(filter.accepts("eth0", address));
+        assertTrue(filter.accepts("enp3s0", address));
+        assertTrue(filter.accepts("en", address));
+        assertFalse(filter.accepts("eth10", address));
+        assertFalse(filter.accepts("wlan0", address));
+        assertFalse(filter.accepts("xeth0", address));
+    }
+
+    @Test
+    void globMetacharactersAreLiteral() throws Exception {
+        InterfaceFilter filter = InterfaceFilter.allowAll().allowInterface("br.0+");
+        assertTrue(filter.accepts("br.0+", ip("192.0.2.10")));
+        assertFalse(filter.accepts("brx00", ip("192.0.2.10")));
+    }
+
+    @Test
+    void excludingVirtualDeniesKnownDevices() throws Exception {
+        InterfaceFilter filter = InterfaceFilter.excludingVirtual();
+        InetAddress address = ip("172.17.0.1");
+        for (String name : List.of("docker0", "br-1a2b", "veth12ab", "tun0", "wg0", "utun3")) {
+            assertFalse(filter.accepts(name, address), name);
+        }
+        assertTrue(filter.accepts("eth0", address));
+    }
+
+    @Test
+    void ipv4Prefixes() throws Exception {
+        InterfaceFilter filter = InterfaceFilter.allowAll().allowCidr("10.0.0.0/8").allowCidr("192.168.1.0/26");
+        assertTrue(filter.accepts("eth0", ip("10.255.1.2")));
+        assertFalse(filter.accepts("eth0", ip("11.0.0.1")));
+        assertTrue(filter.accepts("eth0", ip("192.168.1.63")));
+        assertFalse(filter.accepts("eth0", ip("192.168.1.64")));
+        assertFalse(filter.accepts("eth0", ip("2001:db8::1")));
+    }
+
+    @Test
+    void ipv4HostAndZeroPrefixes() throws Exception {
+        InterfaceFilter host = InterfaceFilter.allowAll().allowCidr("192.0.2.7/32");
+        assertTrue(host.accepts("eth0", ip("192.0.2.7")));
+        assertFalse(host.accepts("eth0", ip("192.0.2.6")));
+
+        InterfaceFilter bare = InterfaceFilter.allowAll().allowCidr("192.0.2.7");
+        assertTrue(bare.accepts("eth0", ip("192.0.2.7")));
+        assertFalse(bare.accepts("eth0", ip("192.0.2.8")));
+
+        InterfaceFilter any = InterfaceFilter.allowAll().allowCidr("0.0.0.0/0");
+        assertTrue(any.accepts("eth0", ip("203.0.113.9")));
+        assertFalse(any.accepts("eth0", ip("2001:db8::1")));
+    }
+
+    @Test
+    void ipv6Prefixes() throws Exception {
+        InterfaceFilter filter = InterfaceFilter.allowAll().allowCidr("2001:db8::/32").allowCidr("fd00:1:2:3::/61");
+        assertTrue(filter.accepts("eth0", ip("2001:db8:ffff::1")));
+        assertFalse(filter.accepts("eth0", ip("2001:db9::1")));
+        assertTrue(filter.accepts("eth0", ip("fd00:1:2:7::1")));
+        assertFalse(filter.accepts("eth0", ip("fd00:1:2:8::1")));
+        assertFalse(filter.accepts("eth0", ip("10.0.0.1")));
+    }
+
+    @Test
+    void ipv6HostAndZeroPrefixes() throws Exception {
+        InterfaceFilter host = InterfaceFilter.allowAll().allowCidr("2001:db8::7/128");
+        assertTrue(host.accepts("eth0", ip("2001:db8::7")));
+        assertFalse(host.accepts("eth0", ip("2001:db8::6")));
+
+        InterfaceFilter any = InterfaceFilter.allowAll().allowCidr("::/0");
+        assertTrue(any.accepts("eth0", ip("2001:db8::1")));
+        assertFalse(any.accepts("eth0", ip("192.0.2.1")));
+    }
+
+    @Test
+    void denyWinsOverAllow() throws Exception {
+        InterfaceFilter filter = InterfaceFilter.allowAll().allowCidr("10.0.0.0/8").denyCidr("10.1.0.0/16").denyInterface("tun*");
+        assertTrue(filter.accepts("eth0", ip("10.2.0.1")));
+        assertFalse(filter.accepts("eth0", ip("10.1.0.1")));
+        assertFalse(filter.accepts("tun0", ip("10.2.0.1")));
+    }
+
+    @Test
+    void loopbackAndLinkLocalAreOptIn() throws Exception {
+        InterfaceFilter filter = InterfaceFilter.allowAll();
+        assertFalse(filter.accepts("lo", ip("127.0.0.1")));
+        assertFalse(filter.accepts("eth0", ip("fe80::1")));
+        assertFalse(filter.accepts("eth0", ip("169.254.1.1")));
+        assertTrue(filter.includeLoopback(true).accepts("lo", ip("127.0.0.1")));
+        assertTrue(filter.includeLinkLocal(true).accepts("eth0", ip("fe80::1")));
+    }
+
+    @Test
+    void rejectsInvalidNetworks() {
+        InterfaceFilter filter = InterfaceFilter.allowAll();
+        assertThrows(IllegalArgumentException.class, () -> filter.allowCidr("10.0.0.0/33"));
+        assertThrows(IllegalArgumentException.class, () -> filter.allowCidr("2001:db8::/129"));
+        assertThrows(IllegalArgumentException.class, () -> filter.allowCidr("10.0.0.0/-1"));
+        assertThrows(IllegalArgumentException.class, () -> filter.denyCidr("example.com/24"));
+    }
+
+    @Test
+    void emptySelectionIsRejected() {
+        try (NiceAgent agent = new NiceAgent(null, NiceBindings.NICE_COMPATIBILITY_RFC5245)) {
+            assertThrows(IllegalArgumentException.class, () -> agent.addLocalAddresses(List.of()));
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package io.github.kinsleykajiva.ice;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LongIndexTest {
+    /** Slots in a segment before it first grows; tests below stay under its 3/4 load factor. */
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final Set<Long> used = new HashSet<>();
+
+    /**
+     * @return A key not handed out before whose hash falls in {@code segment} with home slot {@code home}
+     *         in a segment table that has not grown yet.
+     */
+    private long keyAt(int segment, int home) {
+        for (long key = 1; ; key++) {
+            long hash = LongIndex.mix(key);
+            if ((int) (hash >>> 58) == segment && ((int) hash & (INITIAL_CAPACITY - 1)) == home && used.add(key)) {
+                return key;
+            }
+        }
+    }
+
+    @Test
+    void putGetAndReplace() {
+        LongIndex<String> index = new LongIndex<>();
+        assertNull(index.put(1, "a"));
+        assertEquals("a", index.put(1, "b"));
+        assertEquals("b", index.get(1));
+        assertNull(index.get(2));
+        assertEquals(1, index.size());
+        assertThrows(IllegalArgumentException.class, () -> index.put(3, null));
+    }
+
+    @Test
+    void removeOnlyMatchingValue() {
+        LongIndex<String> index = new LongIndex<>();
+        String value = new String("a");
+        index.put(7, value);
+        assertFalse(index.remove(7, new String("a")));
+        assertSame(value, index.get(7));
+        assertTrue(index.remove(7, value));
+        assertNull(index.get(7));
+        assertFalse(index.remove(7));
+        assertEquals(0, index.size());
+    }
+
+    @Test
+    void probeRunWrapsAroundTableEnd() {
+        LongIndex<String> index = new LongIndex<>();
+        long a = keyAt(5, 15);
+        long b = keyAt(5, 15); // wraps to slot 0
+        long c = keyAt(5, 0);  // pushed to slot 1
+        index.put(a, "a");
+        index.put(b, "b");
+        index.put(c, "c");
+        assertEquals("a", index.get(a));
+        assertEquals("b", index.get(b));
+        assertEquals("c", index.get(c));
+
+        assertTrue(index.remove(a));
+        assertNull(index.get(a));
+        assertEquals("b", index.get(b));
+        assertEquals("c", index.get(c));
+
+        assertTrue(index.remove(c));
+        assertEquals("b", index.get(b));
+        assertNull(index.get(c));
+        assertEquals(1, index.size());
+    }
+
+    @Test
+    void deleteShiftsEntriesWhoseHomeLiesBeforeTheGap() {
+        LongIndex<String> index = new LongIndex<>();
+        // Occupies slots 14, 15, 0, 1, 2 and 3; the last one sits in its home slot and must not move.
+        long[] keys = { keyAt(9, 14), keyAt(9, 14), keyAt(9, 15), keyAt(9, 0), keyAt(9, 1), keyAt(9, 3) };
+        for (long key : keys) {
+            index.put(key, Long.toString(key));
+        }
+        for (int removed = 0; removed < keys.length; removed++) {
+            assertTrue(index.remove(keys[removed]));
+            for (int i = 0; i < keys.length; i++) {
+                if (i <= removed) {
+                    assertNull(index.get(keys[i]), "removed key " + i);
+                } else {
+                    assertEquals(Long.toString(keys[i]), index.get(keys[i]), "key " + i + " after removing " + removed);
+                }
+            }
+            assertEquals(keys.length - removed - 1, index.size());
+        }
+    }
+
+    @Test
+    void deleteFromMiddleOfRun() {
+        LongIndex<String> index = new LongIndex<>();
+        long[] keys = { keyAt(3, 14), keyAt(3, 14), keyAt(3, 14), keyAt(3, 15), keyAt(3, 0) };
+        for (long key : keys) {
+            index.put(key, Long.toString(key));
+        }
+        assertTrue(index.remove(keys[2]));
+        for (int i = 0; i < keys.length; i++) {
+            if (i == 2) continue;
+            assertEquals(Long.toString(keys[i]), index.get(keys[i]));
+        }
+        // Reinserting fills the run again without duplicating any key
+        index.put(keys[2], "again");
+        assertEquals("again", index.get(keys[2]));
+        assertEquals(keys.length, index.size());
+    }
+
+    @Test
+    void growsAndKeepsEntries() {
+        LongIndex<Long> index = new LongIndex<>();
+        int n = 20_000;
+        for (long key = 0; key < n; key++) {
+            index.put(key * 31, key);
+        }
+        assertEquals(n, index.size());
+        for (long key = 0; key < n; key++) {
+            assertEquals(Long.valueOf(key), index.get(key * 31));
+        }
+        for (long key = 0; key < n; key += 2) {
+            assertTrue(index.remove(key * 31));
+        }
+        assertEquals(n / 2, index.size());
+        for (long key = 0; key < n; key++) {
+            if (key % 2 == 0) {
+                assertNull(index.get(key * 31));
+            } else {
+                assertEquals(Long.valueOf(key), index.get(key * 31));
+            }
+        }
+    }
+
+    @Test
+    void readersNeverMissStableKeysWhileRunsShift() throws InterruptedException {
+        LongIndex<String> index = new LongIndex<>();
+        List<Long> stable = new ArrayList<>();
+        List<Long> churn = new ArrayList<>();
+        for (int home = 0; home < INITIAL_CAPACITY; home += 2) {
+            stable.add(keyAt(0, home));
+        }
+        for (int i = 0; i < 64; i++) {
+            churn.add(keyAt(0, (i * 7) % INITIAL_CAPACITY));
+        }
+        stable.forEach(key -> index.put(key, "stable"));
+
+        AtomicBoolean running = new AtomicBoolean(true);
+        AtomicLong misses = new AtomicLong();
+        List<Thread> readers = new ArrayList<>();
+        for (int r = 0; r < 3; r++) {
+            readers.add(Thread.ofPlatform().start(() -> {
+                while (running.get()) {
+                    for (long key : stable) {
+                        if (index.get(key) == null) misses.incrementAndGet();
+                    }
+                }
+            }));
+        }
+        long deadline = System.nanoTime() + 300_000_000L;
+        while (System.nanoTime() < deadline) {
+            for (long key : churn) {
+                index.put(key, "churn");
+            }
+            for (long key : churn) {
+                index.remove(key);
+            }
+        }
+        running.set(false);
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        assertEquals(0, misses.get());
+        assertEquals(stable.size(), index.size());
+    }
+}
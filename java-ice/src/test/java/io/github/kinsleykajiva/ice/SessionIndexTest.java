@@ -0,0 +1,169 @@
+package io.github.kinsleykajiva.ice;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Drives the index through its package-private agent callbacks, so no stream or candidate has to
+ * exist in libnice. The colliding index keeps no hash bits, which sends every entry after the first
+ * to the overflow maps.
+ */
+class SessionIndexTest {
+    private final NiceAgent agent = new NiceAgent(null, NiceBindings.NICE_COMPATIBILITY_RFC5245);
+
+    @AfterEach
+    void closeAgent() {
+        agent.close();
+    }
+
+    private static void add(SessionIndex<String> index, NiceAgent agent, int streamId, String ufrag) {
+        index.register(agent, streamId, "s" + streamId);
+        index.streamAdded(agent, streamId);
+        index.credentialsChanged(agent, streamId, ufrag);
+    }
+
+    private static String session(SessionIndex.Entry<String> entry) {
+        return entry == null ? null : entry.session();
+    }
+
+    private static String byUfrag(SessionIndex<String> index, String ufrag) {
+        byte[] bytes = ("x" + ufrag + ":remote").getBytes(StandardCharsets.UTF_8);
+        String fromString = session(index.byLocalUfrag(ufrag));
+        assertEquals(fromString, session(index.byLocalUfrag(bytes, 1, ufrag.length())), ufrag + " from byte[]");
+        try (Arena arena = Arena.ofConfined()) {
+            MemorySegment buf = arena.allocateFrom(ValueLayout.JAVA_BYTE, bytes);
+            assertEquals(fromString, session(index.byLocalUfrag(buf, 1, ufrag.length())), ufrag + " from native memory");
+        }
+        return fromString;
+    }
+
+    @Test
+    void looksUpByStreamAndUfrag() {
+        SessionIndex<String> index = new SessionIndex<>();
+        add(index, agent, 1, "alpha");
+        add(index, agent, 2, "beta");
+        assertEquals(2, index.size());
+        assertEquals("s1", session(index.byStream(agent, 1)));
+        assertEquals("s2", byUfrag(index, "beta"));
+        assertNull(byUfrag(index, "alph"));
+
+        index.credentialsChanged(agent, 1, "gamma");
+        assertNull(byUfrag(index, "alpha"));
+        assertEquals("s1", byUfrag(index, "gamma"));
+        assertEquals("gamma", index.byStream(agent, 1).localUfrag());
+
+        index.streamRemoved(agent, 2);
+        assertNull(index.byStream(agent, 2));
+        assertNull(byUfrag(index, "beta"));
+        assertEquals(1, index.size());
+    }
+
+    @Test
+    void collidingStreamsAndUfragsUseOverflowAndBack() {
+        SessionIndex<String> index = new SessionIndex<>(0);
+        add(index, agent, 1, "alpha");
+        add(index, agent, 2, "beta");
+        add(index, agent, 3, "gamma");
+        assertEquals(3, index.size());
+        for (int streamId = 1; streamId <= 3; streamId++) {
+            assertEquals("s" + streamId, session(index.byStream(agent, streamId)));
+        }
+        assertEquals("s1", byUfrag(index, "alpha"));
+        assertEquals("s2", byUfrag(index, "beta"));
+        assertEquals("s3", byUfrag(index, "gamma"));
+        assertNull(byUfrag(index, "delta"));
+
+        // Removing the entry that holds the table slots leaves the overflowed ones reachable
+        index.streamRemoved(agent, 1);
+        assertNull(index.byStream(agent, 1));
+        assertNull(byUfrag(index, "alpha"));
+        assertEquals("s2", session(index.byStream(agent, 2)));
+        assertEquals("s3", byUfrag(index, "gamma"));
+        assertEquals(2, index.size());
+
+        // A new entry takes the free table slots again
+        add(index, agent, 1, "alpha");
+        assertEquals("s1", byUfrag(index, "alpha"));
+        assertEquals(3, index.size());
+
+        // Overflowed entries change credentials and leave like any other
+        index.credentialsChanged(agent, 3, "delta");
+        assertNull(byUfrag(index, "gamma"));
+        assertEquals("s3", byUfrag(index, "delta"));
+        index.streamRemoved(agent, 2);
+        assertNull(index.byStream(agent, 2));
+        assertNull(byUfrag(index, "beta"));
+        assertEquals("s1", byUfrag(index, "alpha"));
+        assertEquals("s3", byUfrag(index, "delta"));
+        assertEquals(2, index.size());
+
+        index.streamRemoved(agent, 1);
+        index.streamRemoved(agent, 3);
+        assertEquals(0, index.size());
+        assertNull(byUfrag(index, "delta"));
+    }
+
+    @Test
+    void collidingIpv6RoutesUseOverflowAndBack() throws Exception {
+        SessionIndex<String> index = new SessionIndex<>(0);
+        add(index, agent, 1, "alpha");
+        add(index, agent, 2, "beta");
+        InetSocketAddress first = new InetSocketAddress(InetAddress.getByName("2001:db8::1"), 5000);
+        InetSocketAddress second = new InetSocketAddress(InetAddress.getByName("2001:db8::2"), 5000);
+        try (Arena arena = Arena.ofConfined()) {
+            MemorySegment firstAddr = sockaddrIn6(arena, first);
+            MemorySegment secondAddr = sockaddrIn6(arena, second);
+            index.selectedPairChanged(agent, 1, 1, firstAddr);
+            index.selectedPairChanged(agent, 2, 1, secondAddr);
+
+            assertEquals("s1", session(index.bySelectedRemote(first)));
+            assertEquals("s2", session(index.bySelectedRemote(second)));
+            assertEquals("s1", session(index.bySelectedRemote(firstAddr)));
+            assertEquals("s2", session(index.bySelectedRemote(secondAddr)));
+
+            index.streamRemoved(agent, 1);
+            assertNull(index.bySelectedRemote(first));
+            assertEquals("s2", session(index.bySelectedRemote(secondAddr)));
+
+            // Re-selecting a pair replaces the component's previous route
+            index.selectedPairChanged(agent, 2, 1, firstAddr);
+            assertEquals("s2", session(index.bySelectedRemote(first)));
+            assertNull(index.bySelectedRemote(second));
+        }
+    }
+
+    @Test
+    void looksUpIpv4Routes() throws Exception {
+        SessionIndex<String> index = new SessionIndex<>();
+        add(index, agent, 1, "alpha");
+        try (Arena arena = Arena.ofConfined()) {
+            MemorySegment sockaddr = arena.allocate(16);
+            sockaddr.set(ValueLayout.JAVA_SHORT_UNALIGNED, 0, (short) Libc.AF_INET);
+            sockaddr.set(ValueLayout.JAVA_SHORT_UNALIGNED.withOrder(ByteOrder.BIG_ENDIAN), 2, (short) 3478);
+            sockaddr.set(ValueLayout.JAVA_INT_UNALIGNED.withOrder(ByteOrder.BIG_ENDIAN), 4, 0x7F000001);
+            index.selectedPairChanged(agent, 1, 1, sockaddr);
+        }
+        assertEquals("s1", session(index.bySelectedRemoteIpv4(0x7F000001, 3478)));
+        assertEquals("s1", session(index.bySelectedRemote(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 3478))));
+        assertNull(index.bySelectedRemoteIpv4(0x7F000001, 3479));
+    }
+
+    private static MemorySegment sockaddrIn6(Arena arena, InetSocketAddress address) {
+        MemorySegment sockaddr = arena.allocate(28);
+        sockaddr.set(ValueLayout.JAVA_SHORT_UNALIGNED, 0, (short) Libc.AF_INET6);
+        sockaddr.set(ValueLayout.JAVA_SHORT_UNALIGNED.withOrder(ByteOrder.BIG_ENDIAN), 2, (short) address.getPort());
+        MemorySegment.copy(address.getAddress().getAddress(), 0, sockaddr, ValueLayout.JAVA_BYTE, 8, 16);
+        return sockaddr;
+    }
+}